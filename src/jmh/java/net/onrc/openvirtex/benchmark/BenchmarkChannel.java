@@ -0,0 +1,109 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.AbstractChannel;
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelConfig;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * Connected channel without a socket behind it. Writes complete at once and
+ * only the number of written bytes is kept, so benchmarks can drive the
+ * switch and controller sides of the hypervisor in-process.
+ */
+public class BenchmarkChannel extends AbstractChannel {
+
+    private static final SocketAddress ADDRESS = new InetSocketAddress(
+            "127.0.0.1", 0);
+
+    private final ChannelConfig config = new DefaultChannelConfig();
+    private final Sink sink;
+
+    /**
+     * Discards downstream events, counting the bytes of written buffers.
+     */
+    private static final class Sink extends AbstractChannelSink {
+        private final AtomicLong written = new AtomicLong();
+
+        @Override
+        public void eventSunk(final ChannelPipeline pipeline,
+                final ChannelEvent e) {
+            if (e instanceof MessageEvent) {
+                final Object msg = ((MessageEvent) e).getMessage();
+                if (msg instanceof ChannelBuffer) {
+                    this.written.addAndGet(
+                            ((ChannelBuffer) msg).readableBytes());
+                }
+            }
+            e.getFuture().setSuccess();
+        }
+    }
+
+    public BenchmarkChannel() {
+        this(new Sink());
+    }
+
+    private BenchmarkChannel(final Sink sink) {
+        super(null, null, Channels.pipeline(), sink);
+        this.sink = sink;
+    }
+
+    /**
+     * @return the number of bytes written to this channel
+     */
+    public long getWrittenBytes() {
+        return this.sink.written.get();
+    }
+
+    @Override
+    public ChannelConfig getConfig() {
+        return this.config;
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return ADDRESS;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return ADDRESS;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+/**
+ * Measures the virtual flow table alone, with a table pre-filled to the
+ * given size: replacing an installed entry, and adding then strictly
+ * deleting an entry that is not installed.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlowTableBenchmark {
+
+    @Param({"OF_10", "OF_13"})
+    public String version;
+
+    @Param({"1000", "10000"})
+    public int tableSize;
+
+    private VirtualNetworkFixture fixture;
+    private OVXFlowTable table;
+    private OVXFlowMod[] installed;
+    private OVXFlowMod[] added;
+    private OVXFlowMod[] deleted;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // one switch holding 256 hosts gives up to 65280 distinct flows
+        this.fixture = VirtualNetworkFixture.build(
+                OFVersion.valueOf(this.version), 1, 1, 256);
+        final OVXSwitch vsw = this.fixture.getVirtualSwitch(1, 0);
+        this.table = (OVXFlowTable) vsw.getFlowTable();
+
+        this.installed = new OVXFlowMod[this.tableSize];
+        this.added = new OVXFlowMod[this.tableSize];
+        this.deleted = new OVXFlowMod[this.tableSize];
+        int i = 0;
+        for (int src = 1; src <= 256 && i < 2 * this.tableSize; src++) {
+            for (int dst = 1; dst <= 256 && i < 2 * this.tableSize; dst++) {
+                if (src == dst) {
+                    continue;
+                }
+                final OFFlowMod ofm = this.fixture.flowMod(1, 0, src, dst);
+                if (i < this.tableSize) {
+                    this.installed[i] = new OVXFlowMod(ofm);
+                    this.table.handleFlowMods(this.installed[i]);
+                } else {
+                    final int j = i - this.tableSize;
+                    this.added[j] = new OVXFlowMod(ofm);
+                    this.deleted[j] = new OVXFlowMod(this.fixture.getFactory()
+                            .buildFlowDeleteStrict()
+                            .setMatch(ofm.getMatch())
+                            .setPriority(ofm.getPriority())
+                            .build());
+                }
+                i++;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    private int nextIndex() {
+        final int i = this.next;
+        this.next = i + 1 == this.tableSize ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public boolean replace() {
+        return this.table.handleFlowMods(this.installed[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean addThenDeleteStrict() {
+        final int i = this.nextIndex();
+        final boolean added = this.table.handleFlowMods(this.added[i]);
+        return this.table.handleFlowMods(this.deleted[i]) & added;
+    }
+}
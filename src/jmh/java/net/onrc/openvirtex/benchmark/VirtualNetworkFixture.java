@@ -0,0 +1,390 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.core.io.PacketInScheduler;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.messages.statistics.OVXDescStatsReply;
+import net.onrc.openvirtex.packet.Data;
+import net.onrc.openvirtex.packet.Ethernet;
+import net.onrc.openvirtex.packet.IPv4;
+import net.onrc.openvirtex.packet.UDP;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.instruction.OFInstruction;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Synthetic physical and virtual topology built in-process, without any
+ * socket. Physical switches form a chain; every switch has one port per
+ * host plus two ports towards its neighbours. Every tenant gets a virtual
+ * switch per physical switch and a host on each host port, so physical
+ * host ports are shared by all tenants and told apart by MAC address.
+ * <p>
+ * Switch and controller channels are {@link BenchmarkChannel}s, so what
+ * the hypervisor writes is serialized and then discarded.
+ */
+public final class VirtualNetworkFixture {
+
+    private static final String CONTROLLER = "tcp:127.0.0.1:6633";
+    private static final byte[] PAYLOAD = new byte[64];
+
+    private final OFVersion version;
+    private final OFFactory factory;
+    private final int tenants;
+    private final int switches;
+    private final int hosts;
+
+    private final List<PhysicalSwitch> physicalSwitches;
+    // virtual switches, indexed by [tenant - 1][switch]
+    private final OVXSwitch[][] virtualSwitches;
+    private final BenchmarkChannel switchChannel;
+    private final BenchmarkChannel controllerChannel;
+
+    private VirtualNetworkFixture(final OFVersion version, final int tenants,
+            final int switches, final int hosts) {
+        this.version = version;
+        this.factory = OFFactories.getFactory(version);
+        this.tenants = tenants;
+        this.switches = switches;
+        this.hosts = hosts;
+        this.physicalSwitches = new ArrayList<PhysicalSwitch>(switches);
+        this.virtualSwitches = new OVXSwitch[tenants][switches];
+        this.switchChannel = new BenchmarkChannel();
+        this.controllerChannel = new BenchmarkChannel();
+    }
+
+    /**
+     * Builds the topology. Any topology built before in this JVM is
+     * dropped.
+     *
+     * @param version the OpenFlow version of all switches
+     * @param tenants the number of virtual networks
+     * @param switches the number of physical switches
+     * @param hosts the number of hosts per switch and tenant
+     * @return the fixture
+     * @throws Exception if the topology could not be built
+     */
+    public static VirtualNetworkFixture build(final OFVersion version,
+            final int tenants, final int switches, final int hosts)
+            throws Exception {
+        new OpenVirteXController(new CmdLineSettings());
+        // measure the virtualization path, not PACKET_IN admission control
+        PacketInScheduler.getInstance().configure(0,
+                PacketInScheduler.DEFAULT_BURST,
+                PacketInScheduler.DEFAULT_QUEUE_SIZE, false);
+        PhysicalNetwork.reset();
+        OVXMap.reset();
+        OVXNetwork.reset();
+
+        final VirtualNetworkFixture fixture = new VirtualNetworkFixture(
+                version, tenants, switches, hosts);
+        fixture.buildPhysical();
+        fixture.buildVirtual();
+        return fixture;
+    }
+
+    private void buildPhysical() throws Exception {
+        for (int s = 0; s < this.switches; s++) {
+            final long dpid = s + 1;
+            final List<OFPortDesc> ports = new ArrayList<OFPortDesc>();
+            for (short p = 1; p <= this.hosts + 2; p++) {
+                ports.add(this.factory.buildPortDesc()
+                        .setPortNo(OFPort.of(p))
+                        .setHwAddr(MacAddress.of(dpid << 16 | p))
+                        .setName("s" + dpid + "-eth" + p)
+                        .build());
+            }
+            final OFFeaturesReply.Builder features = this.factory
+                    .buildFeaturesReply()
+                    .setDatapathId(DatapathId.of(dpid))
+                    .setNBuffers(256)
+                    .setNTables((short) 1);
+            if (this.version == OFVersion.OF_10) {
+                features.setPorts(ports);
+            }
+
+            final PhysicalSwitch sw = new PhysicalSwitch(dpid, this.version);
+            sw.setFeaturesReply(features.build());
+            sw.setDescriptionStats(new OVXDescStatsReply(this.factory
+                    .buildDescStatsReply().setHwDesc("benchmark").build()));
+            sw.setPortDescEntries(ports);
+            sw.setConnected(true);
+            sw.setChannel(this.switchChannel);
+            sw.boot();
+            this.physicalSwitches.add(sw);
+        }
+
+        final PhysicalNetwork network = PhysicalNetwork.getInstance();
+        for (int s = 0; s + 1 < this.switches; s++) {
+            final PhysicalPort right = this.physicalSwitches.get(s).getPort(
+                    (short) (this.hosts + 2));
+            final PhysicalPort left = this.physicalSwitches.get(s + 1)
+                    .getPort((short) (this.hosts + 1));
+            right.setEdge(false);
+            left.setEdge(false);
+            network.createLink(right, left);
+            network.createLink(left, right);
+        }
+    }
+
+    private void buildVirtual() throws Exception {
+        final ArrayList<String> controllers = new ArrayList<String>(
+                Collections.singletonList(CONTROLLER));
+        for (int t = 1; t <= this.tenants; t++) {
+            final OVXNetwork net = new OVXNetwork(controllers,
+                    new OVXIPAddress("10.0.0.0", -1), (short) 16);
+            net.register();
+            for (int s = 0; s < this.switches; s++) {
+                final long dpid = this.physicalSwitches.get(s).getSwitchId();
+                final OVXSwitch vsw = net.createSwitch(
+                        Collections.singletonList(dpid));
+                // connect the switch to the in-process controller instead of
+                // booting it, which would dial the controller URL
+                vsw.generateFeaturesReply();
+                vsw.setChannel(this.controllerChannel);
+                vsw.setConnected(true);
+                vsw.setActive(true);
+                for (short h = 1; h <= this.hosts; h++) {
+                    final OVXPort port = net.createPort(dpid, h);
+                    net.connectHost(vsw.getSwitchId(), port.getPortNumber(),
+                            MacAddress.of(hostMac(t, s, h)));
+                }
+                this.virtualSwitches[t - 1][s] = vsw;
+            }
+        }
+    }
+
+    /**
+     * Gets the MAC address of a host.
+     *
+     * @param tenant the tenant ID, from 1
+     * @param sw the switch index, from 0
+     * @param host the host port, from 1
+     * @return the MAC address
+     */
+    public static long hostMac(final int tenant, final int sw, final int host) {
+        return (long) tenant << 32 | (long) sw << 16 | host;
+    }
+
+    /**
+     * Gets the IP address of a host.
+     *
+     * @param tenant the tenant ID, from 1
+     * @param sw the switch index, from 0
+     * @param host the host port, from 1
+     * @return the IP address
+     */
+    public static int hostIp(final int tenant, final int sw, final int host) {
+        return 10 << 24 | (sw & 0xff) << 8 | (host & 0xff);
+    }
+
+    /**
+     * Builds the frame of a UDP datagram between two hosts of the same
+     * tenant and switch.
+     *
+     * @param tenant the tenant ID
+     * @param sw the switch index
+     * @param src the source host
+     * @param dst the destination host
+     * @return the Ethernet frame
+     */
+    public static byte[] udpFrame(final int tenant, final int sw, final int src,
+            final int dst) {
+        final UDP udp = new UDP();
+        udp.setSourcePort((short) 40000);
+        udp.setDestinationPort((short) 5001);
+        udp.setPayload(new Data(PAYLOAD));
+        final IPv4 ip = new IPv4();
+        ip.setTtl((byte) 64);
+        ip.setProtocol(IPv4.PROTOCOL_UDP);
+        ip.setSourceAddress(hostIp(tenant, sw, src));
+        ip.setDestinationAddress(hostIp(tenant, sw, dst));
+        ip.setPayload(udp);
+        final Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(MacAddress.of(hostMac(tenant, sw, src))
+                .getBytes());
+        eth.setDestinationMACAddress(MacAddress.of(
+                hostMac(tenant, sw, dst)).getBytes());
+        eth.setEtherType(Ethernet.TYPE_IPV4);
+        eth.setPayload(ip);
+        return eth.serialize();
+    }
+
+    /**
+     * Builds a table-miss PACKET_IN as the physical switch sends it.
+     *
+     * @param tenant the tenant ID
+     * @param sw the switch index
+     * @param src the source host, also the ingress port
+     * @param dst the destination host
+     * @return the PACKET_IN
+     */
+    public OFPacketIn packetIn(final int tenant, final int sw, final int src,
+            final int dst) {
+        final OFPacketIn.Builder builder = this.factory.buildPacketIn()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setReason(OFPacketInReason.NO_MATCH)
+                .setData(udpFrame(tenant, sw, src, dst));
+        if (this.version == OFVersion.OF_10) {
+            builder.setInPort(OFPort.of(src));
+        } else {
+            builder.setMatch(this.factory.buildMatch()
+                    .setExact(MatchField.IN_PORT, OFPort.of(src)).build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the FLOW_MOD a reactive forwarding controller sends to a
+     * virtual switch for traffic between two hosts.
+     *
+     * @param tenant the tenant ID
+     * @param sw the switch index
+     * @param src the source host, also the ingress port
+     * @param dst the destination host, also the egress port
+     * @return the FLOW_MOD
+     */
+    public OFFlowMod flowMod(final int tenant, final int sw, final int src,
+            final int dst) {
+        final Match match = this.factory.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(src))
+                .setExact(MatchField.ETH_SRC,
+                        MacAddress.of(hostMac(tenant, sw, src)))
+                .setExact(MatchField.ETH_DST,
+                        MacAddress.of(hostMac(tenant, sw, dst)))
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                .setExact(MatchField.IPV4_SRC,
+                        IPv4Address.of(hostIp(tenant, sw, src)))
+                .setExact(MatchField.IPV4_DST,
+                        IPv4Address.of(hostIp(tenant, sw, dst)))
+                .build();
+        final OFFlowMod.Builder builder = this.factory.buildFlowAdd()
+                .setMatch(match)
+                .setCookie(U64.of(0x1234))
+                .setIdleTimeout(10)
+                .setPriority(10)
+                .setBufferId(OFBufferId.NO_BUFFER);
+        final List<OFAction> actions = Collections.<OFAction>singletonList(
+                this.factory.actions().output(OFPort.of(dst), 0xffff));
+        if (this.version == OFVersion.OF_10) {
+            builder.setActions(actions);
+        } else {
+            builder.setInstructions(Collections.<OFInstruction>singletonList(
+                    this.factory.instructions().applyActions(actions)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the PACKET_OUT a controller sends to a virtual switch to
+     * forward a frame between two hosts.
+     *
+     * @param tenant the tenant ID
+     * @param sw the switch index
+     * @param src the source host, also the ingress port
+     * @param dst the destination host, also the egress port
+     * @return the PACKET_OUT
+     */
+    public OFPacketOut packetOut(final int tenant, final int sw,
+            final int src, final int dst) {
+        return this.factory.buildPacketOut()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setInPort(OFPort.of(src))
+                .setActions(Collections.<OFAction>singletonList(this.factory
+                        .actions().output(OFPort.of(dst), 0xffff)))
+                .setData(udpFrame(tenant, sw, src, dst))
+                .build();
+    }
+
+    /**
+     * Stops the timer started by the switches, so that the benchmark JVM
+     * can exit.
+     */
+    public void close() {
+        PhysicalNetwork.getTimer().stop();
+    }
+
+    public OFVersion getVersion() {
+        return this.version;
+    }
+
+    public OFFactory getFactory() {
+        return this.factory;
+    }
+
+    public int getTenants() {
+        return this.tenants;
+    }
+
+    public int getSwitches() {
+        return this.switches;
+    }
+
+    public int getHosts() {
+        return this.hosts;
+    }
+
+    public PhysicalSwitch getPhysicalSwitch(final int sw) {
+        return this.physicalSwitches.get(sw);
+    }
+
+    public OVXSwitch getVirtualSwitch(final int tenant, final int sw) {
+        return this.virtualSwitches[tenant - 1][sw];
+    }
+
+    public BenchmarkChannel getSwitchChannel() {
+        return this.switchChannel;
+    }
+
+    public BenchmarkChannel getControllerChannel() {
+        return this.controllerChannel;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.messages.OVXPacketIn;
+import net.onrc.openvirtex.messages.OVXPacketOut;
+import net.onrc.openvirtex.messages.actions.OVXActionOutput;
+import net.onrc.openvirtex.protocol.OVXMatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Measures the per-message cost of the virtualization paths, from the
+ * switch or controller handler's hand-off to the write of the translated
+ * message: PACKET_IN virtualization, FLOW_MOD and PACKET_OUT
+ * devirtualization, and the output action virtualization done for every
+ * FLOW_MOD.
+ * <p>
+ * Messages cycle over every pair of hosts of every tenant and switch, so
+ * virtual flow tables are filled to their steady-state size during warmup.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualizationBenchmark {
+
+    @Param({"OF_10", "OF_13"})
+    public String version;
+
+    @Param({"4"})
+    public int tenants;
+
+    @Param({"4"})
+    public int switches;
+
+    @Param({"8"})
+    public int hosts;
+
+    private VirtualNetworkFixture fixture;
+
+    private PhysicalSwitch[] pktInSwitches;
+    private OFPacketIn[] pktIns;
+    private OVXSwitch[] virtualSwitches;
+    private OFFlowMod[] flowMods;
+    private OFPacketOut[] pktOuts;
+    private OVXMatch[] outputMatches;
+    private OFAction[] outputActions;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = VirtualNetworkFixture.build(
+                OFVersion.valueOf(this.version), this.tenants, this.switches,
+                this.hosts);
+
+        final List<int[]> flows = new ArrayList<int[]>();
+        for (int t = 1; t <= this.tenants; t++) {
+            for (int s = 0; s < this.switches; s++) {
+                for (int src = 1; src <= this.hosts; src++) {
+                    for (int dst = 1; dst <= this.hosts; dst++) {
+                        if (src != dst) {
+                            flows.add(new int[] {t, s, src, dst});
+                        }
+                    }
+                }
+            }
+        }
+
+        final int n = flows.size();
+        this.pktInSwitches = new PhysicalSwitch[n];
+        this.pktIns = new OFPacketIn[n];
+        this.virtualSwitches = new OVXSwitch[n];
+        this.flowMods = new OFFlowMod[n];
+        this.pktOuts = new OFPacketOut[n];
+        for (int i = 0; i < n; i++) {
+            final int[] f = flows.get(i);
+            this.pktInSwitches[i] = this.fixture.getPhysicalSwitch(f[1]);
+            this.pktIns[i] = this.fixture.packetIn(f[0], f[1], f[2], f[3]);
+            this.virtualSwitches[i] = this.fixture.getVirtualSwitch(f[0],
+                    f[1]);
+            this.flowMods[i] = this.fixture.flowMod(f[0], f[1], f[2], f[3]);
+            this.pktOuts[i] = this.fixture.packetOut(f[0], f[1], f[2], f[3]);
+        }
+
+        // install every flow once, so the output action can be virtualized
+        // against the stored FlowMod
+        this.outputMatches = new OVXMatch[n];
+        this.outputActions = new OFAction[n];
+        for (int i = 0; i < n; i++) {
+            final OVXSwitch vsw = this.virtualSwitches[i];
+            final OVXFlowMod fm = new OVXFlowMod(this.flowMods[i]);
+            vsw.handleIO(fm, this.fixture.getControllerChannel());
+            final Match match = this.flowMods[i].getMatch();
+            this.outputMatches[i] = new OVXMatch(match).setCookie(
+                    fm.getFlowMod().getCookie().getValue());
+            this.outputActions[i] = this.fixture.getFactory().actions()
+                    .output(OFPort.of(flows.get(i)[3]), 0xffff);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    private int nextIndex() {
+        final int i = this.next;
+        this.next = i + 1 == this.pktIns.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public void packetIn() {
+        final int i = this.nextIndex();
+        this.pktInSwitches[i].handleIO(new OVXPacketIn(this.pktIns[i]),
+                this.fixture.getSwitchChannel());
+    }
+
+    @Benchmark
+    public void flowMod() {
+        final int i = this.nextIndex();
+        this.virtualSwitches[i].handleIO(new OVXFlowMod(this.flowMods[i]),
+                this.fixture.getControllerChannel());
+    }
+
+    @Benchmark
+    public void packetOut() {
+        final int i = this.nextIndex();
+        this.virtualSwitches[i].handleIO(new OVXPacketOut(this.pktOuts[i]),
+                this.fixture.getControllerChannel());
+    }
+
+    @Benchmark
+    public List<OFAction> actionOutput() throws Exception {
+        final int i = this.nextIndex();
+        final List<OFAction> approved = new ArrayList<OFAction>();
+        new OVXActionOutput(this.outputActions[i]).virtualize(
+                this.virtualSwitches[i], approved, this.outputMatches[i]);
+        return approved;
+    }
+}
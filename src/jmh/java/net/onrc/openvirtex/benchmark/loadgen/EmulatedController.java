@@ -0,0 +1,265 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark.loadgen;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.onrc.openvirtex.core.io.OVXMessageDecoder;
+import net.onrc.openvirtex.core.io.OVXMessageEncoder;
+import net.onrc.openvirtex.messages.OVXMessage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.projectfloodlight.openflow.protocol.OFEchoRequest;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFStatsReply;
+import org.projectfloodlight.openflow.protocol.OFStatsType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.instruction.OFInstruction;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Emulated reactive controller. Accepts the connections of the virtual
+ * switches and answers every PACKET_IN with a FLOW_MOD and a PACKET_OUT
+ * towards the destination host. Hosts are attached to the virtual port
+ * numbered after the last 16 bits of their MAC address, so no learning is
+ * needed.
+ */
+public class EmulatedController {
+
+    private static Logger log = LogManager.getLogger(EmulatedController.class
+            .getName());
+
+    private final int port;
+    private final LoadStats stats;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final ChannelGroup channels = new DefaultChannelGroup();
+    private ServerBootstrap bootstrap = null;
+
+    public EmulatedController(final int port, final LoadStats stats) {
+        this.port = port;
+        this.stats = stats;
+    }
+
+    /**
+     * Starts listening on the loopback interface.
+     */
+    public void start() {
+        this.bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool()));
+        this.bootstrap.setOption("reuseAddr", true);
+        this.bootstrap.setOption("child.tcpNoDelay", true);
+        this.bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new OVXMessageDecoder(),
+                        new OVXMessageEncoder(), new Session());
+            }
+        });
+        this.channels.add(this.bootstrap.bind(new InetSocketAddress(
+                "127.0.0.1", this.port)));
+    }
+
+    /**
+     * Closes all connections and stops listening.
+     */
+    public void stop() {
+        this.channels.close().awaitUninterruptibly();
+        if (this.bootstrap != null) {
+            this.bootstrap.releaseExternalResources();
+        }
+    }
+
+    /**
+     * @return the URL the virtual networks connect to
+     */
+    public String getUrl() {
+        return "tcp:127.0.0.1:" + this.port;
+    }
+
+    /**
+     * @return the number of virtual switches that completed the handshake
+     */
+    public int getSessions() {
+        return this.sessions.get();
+    }
+
+    /**
+     * Connection of one virtual switch.
+     */
+    private class Session extends SimpleChannelHandler {
+
+        private OFFactory factory = null;
+        private boolean active = false;
+
+        @Override
+        public void channelConnected(final ChannelHandlerContext ctx,
+                final ChannelStateEvent e) throws Exception {
+            EmulatedController.this.channels.add(e.getChannel());
+        }
+
+        @Override
+        public void channelDisconnected(final ChannelHandlerContext ctx,
+                final ChannelStateEvent e) throws Exception {
+            if (this.active) {
+                EmulatedController.this.sessions.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(final ChannelHandlerContext ctx,
+                final ExceptionEvent e) throws Exception {
+            log.error("Controller session: {}", e.getCause());
+            ctx.getChannel().close();
+        }
+
+        @Override
+        public void messageReceived(final ChannelHandlerContext ctx,
+                final MessageEvent e) throws Exception {
+            @SuppressWarnings("unchecked")
+            final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
+            final List<OFMessage> replies = new ArrayList<OFMessage>();
+            for (final OVXMessage m : msglist) {
+                this.handle(m.getOFMessage(), replies);
+            }
+            if (!replies.isEmpty()) {
+                e.getChannel().write(replies);
+            }
+        }
+
+        private void handle(final OFMessage msg,
+                final List<OFMessage> replies) {
+            switch (msg.getType()) {
+                case HELLO:
+                    this.factory = OFFactories.getFactory(msg.getVersion());
+                    replies.add(this.factory.buildHello().build());
+                    replies.add(this.factory.buildFeaturesRequest().build());
+                    break;
+                case FEATURES_REPLY:
+                    if (msg.getVersion() == OFVersion.OF_10) {
+                        this.activate(replies);
+                    } else {
+                        replies.add(this.factory.buildPortDescStatsRequest()
+                                .build());
+                    }
+                    break;
+                case STATS_REPLY:
+                    if (((OFStatsReply) msg).getStatsType()
+                            == OFStatsType.PORT_DESC) {
+                        this.activate(replies);
+                    }
+                    break;
+                case ECHO_REQUEST:
+                    replies.add(this.factory.buildEchoReply()
+                            .setXid(msg.getXid())
+                            .setData(((OFEchoRequest) msg).getData())
+                            .build());
+                    break;
+                case PACKET_IN:
+                    this.handlePacketIn((OFPacketIn) msg, replies);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void activate(final List<OFMessage> replies) {
+            if (!this.active) {
+                // ask for whole packets, or PACKET_INs carry no data; the
+                // virtual switch only accepts this once the handshake is done
+                replies.add(this.factory.buildSetConfig()
+                        .setMissSendLen(0xffff)
+                        .build());
+                this.active = true;
+                EmulatedController.this.sessions.incrementAndGet();
+            }
+        }
+
+        private void handlePacketIn(final OFPacketIn pi,
+                final List<OFMessage> replies) {
+            final byte[] data = pi.getData();
+            EmulatedController.this.stats.packetInReceived(data);
+            if (data.length < 14) {
+                return;
+            }
+            final OFPort inPort = pi.getVersion() == OFVersion.OF_10 ? pi
+                    .getInPort() : pi.getMatch().get(MatchField.IN_PORT);
+            final MacAddress dst = MacAddress.of(Arrays.copyOf(
+                    data, 6));
+            final MacAddress src = MacAddress.of(Arrays
+                    .copyOfRange(data, 6, 12));
+            final OFPort outPort = OFPort.of((int) (dst.getLong() & 0xffff));
+            final List<OFAction> actions = Collections
+                    .<OFAction>singletonList(this.factory.actions().output(
+                            outPort, 0xffff));
+
+            final OFFlowMod.Builder fm = this.factory.buildFlowAdd()
+                    .setMatch(this.factory.buildMatch()
+                            .setExact(MatchField.IN_PORT, inPort)
+                            .setExact(MatchField.ETH_SRC, src)
+                            .setExact(MatchField.ETH_DST, dst)
+                            .build())
+                    .setIdleTimeout(10)
+                    .setPriority(10)
+                    .setBufferId(OFBufferId.NO_BUFFER);
+            if (pi.getVersion() == OFVersion.OF_10) {
+                fm.setActions(actions);
+            } else {
+                fm.setInstructions(Collections.<OFInstruction>singletonList(
+                        this.factory.instructions().applyActions(actions)));
+            }
+            replies.add(fm.build());
+            replies.add(this.factory.buildPacketOut()
+                    .setBufferId(OFBufferId.NO_BUFFER)
+                    .setInPort(inPort)
+                    .setActions(actions)
+                    .setData(data)
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark.loadgen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.messages.OVXMessage;
+import net.onrc.openvirtex.packet.OVXLLDP;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.projectfloodlight.openflow.protocol.OFEchoRequest;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFStatsRequest;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Emulated OpenFlow switch. Completes the handshake with the hypervisor,
+ * answers statistics and barrier requests, loops LLDP probes back to the
+ * neighbouring switch, and injects PACKET_INs on behalf of its hosts.
+ * <p>
+ * Ports 1 to {@code hosts} face hosts; port {@code hosts + 1} faces the
+ * previous switch of the chain and port {@code hosts + 2} the next one.
+ */
+public class EmulatedSwitch extends SimpleChannelHandler {
+
+    private static Logger log = LogManager.getLogger(EmulatedSwitch.class
+            .getName());
+
+    private final long dpid;
+    private final OFVersion version;
+    private final OFFactory factory;
+    private final int hosts;
+    private final LoadStats stats;
+    private final List<OFPortDesc> ports;
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private EmulatedSwitch previous = null;
+    private EmulatedSwitch next = null;
+    private volatile Channel channel = null;
+
+    public EmulatedSwitch(final long dpid, final OFVersion version,
+            final int hosts, final LoadStats stats) {
+        this.dpid = dpid;
+        this.version = version;
+        this.factory = OFFactories.getFactory(version);
+        this.hosts = hosts;
+        this.stats = stats;
+        this.ports = new ArrayList<OFPortDesc>(hosts + 2);
+        for (short p = 1; p <= hosts + 2; p++) {
+            this.ports.add(this.factory.buildPortDesc()
+                    .setPortNo(OFPort.of(p))
+                    .setHwAddr(MacAddress.of(dpid << 16 | p))
+                    .setName("s" + dpid + "-eth" + p)
+                    .build());
+        }
+    }
+
+    /**
+     * Links this switch to its neighbours in the chain.
+     *
+     * @param previous the switch behind port {@code hosts + 1}, or null
+     * @param next the switch behind port {@code hosts + 2}, or null
+     */
+    public void setNeighbours(final EmulatedSwitch previous,
+            final EmulatedSwitch next) {
+        this.previous = previous;
+        this.next = next;
+    }
+
+    public long getDpid() {
+        return this.dpid;
+    }
+
+    /**
+     * Waits until the hypervisor has completed the handshake.
+     *
+     * @param timeout the timeout in seconds
+     * @return true if the handshake completed in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitReady(final int timeout) throws InterruptedException {
+        return this.ready.await(timeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Builds a table-miss PACKET_IN.
+     *
+     * @param inPort the ingress port
+     * @param frame the frame
+     * @return the PACKET_IN
+     */
+    public OFPacketIn packetIn(final int inPort, final byte[] frame) {
+        final OFPacketIn.Builder builder = this.factory.buildPacketIn()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setTotalLen(frame.length)
+                .setReason(OFPacketInReason.NO_MATCH)
+                .setData(frame);
+        if (this.version == OFVersion.OF_10) {
+            builder.setInPort(OFPort.of(inPort));
+        } else {
+            builder.setMatch(this.factory.buildMatch()
+                    .setExact(MatchField.IN_PORT, OFPort.of(inPort))
+                    .build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Sends the given messages to the hypervisor in one write.
+     *
+     * @param msgs the messages
+     */
+    public void send(final List<OFMessage> msgs) {
+        final Channel ch = this.channel;
+        if (ch != null && ch.isConnected()) {
+            ch.write(msgs);
+        }
+    }
+
+    @Override
+    public void channelConnected(final ChannelHandlerContext ctx,
+            final ChannelStateEvent e) throws Exception {
+        this.channel = e.getChannel();
+        this.send(Collections.<OFMessage>singletonList(this.factory
+                .buildHello().build()));
+    }
+
+    @Override
+    public void channelDisconnected(final ChannelHandlerContext ctx,
+            final ChannelStateEvent e) throws Exception {
+        log.warn("Switch {} disconnected from the hypervisor", this.dpid);
+        this.channel = null;
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx,
+            final ExceptionEvent e) throws Exception {
+        log.error("Switch {}: {}", this.dpid, e.getCause());
+        ctx.getChannel().close();
+    }
+
+    @Override
+    public void messageReceived(final ChannelHandlerContext ctx,
+            final MessageEvent e) throws Exception {
+        @SuppressWarnings("unchecked")
+        final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
+        final List<OFMessage> replies = new ArrayList<OFMessage>();
+        for (final OVXMessage m : msglist) {
+            this.handle(m.getOFMessage(), replies);
+        }
+        if (!replies.isEmpty()) {
+            this.send(replies);
+        }
+    }
+
+    private void handle(final OFMessage msg, final List<OFMessage> replies) {
+        switch (msg.getType()) {
+            case ECHO_REQUEST:
+                replies.add(this.factory.buildEchoReply()
+                        .setXid(msg.getXid())
+                        .setData(((OFEchoRequest) msg).getData())
+                        .build());
+                break;
+            case FEATURES_REQUEST:
+                replies.add(this.featuresReply(msg.getXid()));
+                break;
+            case GET_CONFIG_REQUEST:
+                replies.add(this.factory.buildGetConfigReply()
+                        .setXid(msg.getXid())
+                        .setMissSendLen(0xffff)
+                        .build());
+                break;
+            case BARRIER_REQUEST:
+                replies.add(this.factory.buildBarrierReply()
+                        .setXid(msg.getXid()).build());
+                break;
+            case STATS_REQUEST:
+                this.handleStatsRequest((OFStatsRequest<?>) msg, replies);
+                break;
+            case FLOW_MOD:
+                this.stats.flowModReceived();
+                break;
+            case PACKET_OUT:
+                this.handlePacketOut((OFPacketOut) msg);
+                break;
+            default:
+                // HELLO, SET_CONFIG and anything else need no answer
+                break;
+        }
+    }
+
+    private OFFeaturesReply featuresReply(final long xid) {
+        final OFFeaturesReply.Builder builder = this.factory
+                .buildFeaturesReply()
+                .setXid(xid)
+                .setDatapathId(DatapathId.of(this.dpid))
+                .setNBuffers(256)
+                .setNTables((short) 1);
+        if (this.version == OFVersion.OF_10) {
+            builder.setPorts(this.ports);
+        }
+        return builder.build();
+    }
+
+    private void handleStatsRequest(final OFStatsRequest<?> req,
+            final List<OFMessage> replies) {
+        switch (req.getStatsType()) {
+            case PORT_DESC:
+                replies.add(this.factory.buildPortDescStatsReply()
+                        .setXid(req.getXid())
+                        .setEntries(this.ports)
+                        .build());
+                break;
+            case DESC:
+                replies.add(this.factory.buildDescStatsReply()
+                        .setXid(req.getXid())
+                        .setMfrDesc("OpenVirteX")
+                        .setHwDesc("emulated switch")
+                        .setSwDesc("load generator")
+                        .setDpDesc("s" + this.dpid)
+                        .build());
+                // the description is the last step of the handshake
+                this.ready.countDown();
+                break;
+            case FLOW:
+                replies.add(this.factory.buildFlowStatsReply()
+                        .setXid(req.getXid()).build());
+                break;
+            case PORT:
+                replies.add(this.factory.buildPortStatsReply()
+                        .setXid(req.getXid()).build());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void handlePacketOut(final OFPacketOut po) {
+        final byte[] data = po.getData();
+        if (!OVXLLDP.isLLDP(data)) {
+            this.stats.packetOutReceived(data);
+            return;
+        }
+        for (final OFAction action : po.getActions()) {
+            if (!(action instanceof OFActionOutput)) {
+                continue;
+            }
+            final int port = ((OFActionOutput) action).getPort()
+                    .getPortNumber();
+            if (port == this.hosts + 1 && this.previous != null) {
+                this.previous.receive(this.hosts + 2, data);
+            } else if (port == this.hosts + 2 && this.next != null) {
+                this.next.receive(this.hosts + 1, data);
+            }
+        }
+    }
+
+    /*
+     * Hands a frame that came in over a link to the hypervisor.
+     */
+    private void receive(final int inPort, final byte[] frame) {
+        this.send(Collections.<OFMessage>singletonList(this.packetIn(inPort,
+                frame)));
+    }
+}
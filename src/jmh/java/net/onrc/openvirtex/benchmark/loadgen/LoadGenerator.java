@@ -0,0 +1,446 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark.loadgen;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.benchmark.VirtualNetworkFixture;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.core.io.OVXMessageDecoder;
+import net.onrc.openvirtex.core.io.OVXMessageEncoder;
+import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.util.LatencyHistogram;
+import net.onrc.openvirtex.util.OVXMetrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Load generator for the hypervisor. Starts OpenVirteX in-process, connects
+ * a chain of emulated switches to its OpenFlow port, creates virtual
+ * networks that point to an emulated controller, and injects PACKET_INs at a
+ * fixed rate. Every PACKET_IN is answered by the controller with a FLOW_MOD
+ * and a PACKET_OUT; the report gives message rates, drops and the latency
+ * percentiles from injection to the controller and back to the switch.
+ * Everything runs on the loopback interface.
+ * <p>
+ * Every tenant gets one virtual switch per physical switch, with a host on
+ * each host port; traffic cycles over all pairs of hosts of a virtual
+ * switch.
+ */
+public final class LoadGenerator {
+
+    private static Logger log = LogManager.getLogger(LoadGenerator.class
+            .getName());
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+    private static final int DRAIN_SECONDS = 2;
+
+    private final LoadSettings settings;
+    private final LoadStats stats;
+    private final EmulatedController controller;
+    private final List<EmulatedSwitch> switches;
+    private final List<Flow> flows;
+    private final ChannelGroup channels;
+    private OpenVirteXController ovx = null;
+    private ClientBootstrap bootstrap = null;
+    private ScheduledExecutorService pacer = null;
+
+    // pacing state, only touched by the pacer thread
+    private long trafficStart;
+    private long scheduled;
+    private int nextFlow;
+
+    /**
+     * Traffic between two hosts of a virtual switch.
+     */
+    private static final class Flow {
+        private final EmulatedSwitch sw;
+        private final int inPort;
+        private final byte[] frame;
+
+        private Flow(final EmulatedSwitch sw, final int inPort,
+                final byte[] frame) {
+            this.sw = sw;
+            this.inPort = inPort;
+            this.frame = frame;
+        }
+    }
+
+    private LoadGenerator(final LoadSettings settings) {
+        this.settings = settings;
+        this.stats = new LoadStats();
+        this.controller = new EmulatedController(
+                settings.getControllerPort(), this.stats);
+        this.switches = new ArrayList<EmulatedSwitch>(settings.getSwitches());
+        this.flows = new ArrayList<Flow>();
+        this.channels = new DefaultChannelGroup("loadgen-switches");
+    }
+
+    /**
+     * Runs the load test described by the command line and prints the
+     * report.
+     *
+     * @param args the command line
+     */
+    public static void main(final String[] args) {
+        final LoadSettings settings = new LoadSettings();
+        final CmdLineParser parser = new CmdLineParser(settings);
+        try {
+            parser.parseArgument(args);
+        } catch (final CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        final LoadGenerator generator = new LoadGenerator(settings);
+        int status = 0;
+        try {
+            generator.run();
+        } catch (final Exception e) {
+            log.error("Load test failed: {}", e.getMessage(), e);
+            status = 1;
+        } finally {
+            generator.shutdown();
+        }
+        // the hypervisor leaves non-daemon threads behind
+        System.exit(status);
+    }
+
+    private void run() throws Exception {
+        this.controller.start();
+        this.startHypervisor();
+        this.connectSwitches();
+        this.awaitLinks();
+        this.createNetworks();
+        this.awaitSessions();
+
+        log.info("Offering {} PACKET_IN/s over {} flows",
+                this.settings.getRate(), this.flows.size());
+        this.startTraffic();
+        TimeUnit.SECONDS.sleep(this.settings.getWarmup());
+        OVXMetrics.getInstance().reset();
+        this.stats.start();
+        TimeUnit.SECONDS.sleep(this.settings.getDuration());
+        this.pacer.shutdownNow();
+        this.pacer.awaitTermination(1, TimeUnit.SECONDS);
+        this.stats.stop();
+        // let in-flight messages come back before counting drops
+        TimeUnit.SECONDS.sleep(DRAIN_SECONDS);
+
+        this.report();
+    }
+
+    private void startHypervisor() throws CmdLineException {
+        final CmdLineSettings ovxSettings = new CmdLineSettings();
+        new CmdLineParser(ovxSettings).parseArgument(this.settings
+                .getOVXArgs());
+        this.ovx = new OpenVirteXController(ovxSettings);
+        this.ovx.run();
+    }
+
+    private void connectSwitches() throws Exception {
+        this.bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool()));
+        this.bootstrap.setOption("tcpNoDelay", true);
+        final int n = this.settings.getSwitches();
+        for (int s = 0; s < n; s++) {
+            this.switches.add(new EmulatedSwitch(s + 1,
+                    this.settings.getVersion(), this.settings.getHosts(),
+                    this.stats));
+        }
+        final InetSocketAddress ovxAddress = new InetSocketAddress(
+                "127.0.0.1", this.settings.getOFPort());
+        for (int s = 0; s < n; s++) {
+            final EmulatedSwitch sw = this.switches.get(s);
+            sw.setNeighbours(s > 0 ? this.switches.get(s - 1) : null,
+                    s + 1 < n ? this.switches.get(s + 1) : null);
+            this.bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+                @Override
+                public ChannelPipeline getPipeline() throws Exception {
+                    return Channels.pipeline(new OVXMessageDecoder(),
+                            new OVXMessageEncoder(), sw);
+                }
+            });
+            this.channels.add(this.bootstrap.connect(ovxAddress)
+                    .awaitUninterruptibly().getChannel());
+        }
+        for (final EmulatedSwitch sw : this.switches) {
+            if (!sw.awaitReady(this.settings.getTimeout())) {
+                throw new IllegalStateException("Switch " + sw.getDpid()
+                        + " did not complete the handshake");
+            }
+        }
+        log.info("{} switches connected", n);
+    }
+
+    private void awaitLinks() throws InterruptedException {
+        // every link is discovered in both directions
+        final int expected = 2 * (this.settings.getSwitches() - 1);
+        final long deadline = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(this.settings.getTimeout());
+        while (PhysicalNetwork.getInstance().getLinks().size() < expected) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Discovered "
+                        + PhysicalNetwork.getInstance().getLinks().size()
+                        + " of " + expected + " links");
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        log.info("{} links discovered", expected);
+    }
+
+    private void createNetworks() throws Exception {
+        final ArrayList<String> ctrls = new ArrayList<String>(
+                Collections.singletonList(this.controller.getUrl()));
+        for (int t = 1; t <= this.settings.getTenants(); t++) {
+            final OVXNetwork net = new OVXNetwork(ctrls, new OVXIPAddress(
+                    "10.0.0.0", -1), (short) 16);
+            net.register();
+            final int tenant = net.getTenantId();
+            for (int s = 0; s < this.switches.size(); s++) {
+                final EmulatedSwitch sw = this.switches.get(s);
+                final OVXSwitch vsw = net.createSwitch(
+                        Collections.singletonList(sw.getDpid()));
+                for (short h = 1; h <= this.settings.getHosts(); h++) {
+                    // the controller relies on virtual port == host number
+                    net.createPort(sw.getDpid(), h, h);
+                    net.connectHost(vsw.getSwitchId(), h, MacAddress
+                            .of(VirtualNetworkFixture.hostMac(tenant, s, h)));
+                }
+                for (int src = 1; src <= this.settings.getHosts(); src++) {
+                    for (int dst = 1; dst <= this.settings.getHosts(); dst++) {
+                        if (src != dst) {
+                            this.flows.add(new Flow(sw, src,
+                                    VirtualNetworkFixture.udpFrame(tenant, s,
+                                            src, dst)));
+                        }
+                    }
+                }
+            }
+            if (!net.boot()) {
+                throw new IllegalStateException("Virtual network " + tenant
+                        + " did not boot");
+            }
+        }
+        if (this.flows.isEmpty()) {
+            throw new IllegalStateException("Need at least two hosts");
+        }
+    }
+
+    private void awaitSessions() throws InterruptedException {
+        final int expected = this.settings.getTenants()
+                * this.settings.getSwitches();
+        final long deadline = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(this.settings.getTimeout());
+        while (this.controller.getSessions() < expected) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException(this.controller.getSessions()
+                        + " of " + expected
+                        + " virtual switches connected to the controller");
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        log.info("{} virtual switches connected to the controller", expected);
+    }
+
+    private void startTraffic() {
+        this.trafficStart = System.nanoTime();
+        this.scheduled = 0;
+        this.nextFlow = 0;
+        this.pacer = Executors.newSingleThreadScheduledExecutor();
+        this.pacer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                LoadGenerator.this.tick();
+            }
+        }, 0, 1, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Sends the PACKET_INs due since the last tick, one write per switch.
+     * A late tick sends at most 20 ms worth of traffic, so a stalled
+     * hypervisor sees a lower offered rate rather than a burst.
+     */
+    private void tick() {
+        final long now = System.nanoTime();
+        final long due = (long) ((now - this.trafficStart) / 1e9
+                * this.settings.getRate());
+        final long burst = Math.max(1, this.settings.getRate() / 50);
+        final int count = (int) Math.min(due - this.scheduled, burst);
+        this.scheduled = Math.max(this.scheduled + count, due - burst);
+        if (count <= 0) {
+            return;
+        }
+
+        final Map<EmulatedSwitch, List<OFMessage>> batches =
+                new LinkedHashMap<EmulatedSwitch, List<OFMessage>>();
+        for (int i = 0; i < count; i++) {
+            final Flow flow = this.flows.get(this.nextFlow);
+            this.nextFlow = (this.nextFlow + 1) % this.flows.size();
+            List<OFMessage> batch = batches.get(flow.sw);
+            if (batch == null) {
+                batch = new ArrayList<OFMessage>();
+                batches.put(flow.sw, batch);
+            }
+            final byte[] frame = flow.frame.clone();
+            LoadStats.stamp(frame, now);
+            batch.add(flow.sw.packetIn(flow.inPort, frame));
+        }
+        for (final Map.Entry<EmulatedSwitch, List<OFMessage>> e : batches
+                .entrySet()) {
+            e.getKey().send(e.getValue());
+        }
+        this.stats.packetInSent(count, now);
+    }
+
+    private void report() throws IOException {
+        final double elapsed = this.stats.getElapsed();
+        final long sent = this.stats.getPacketInsSent();
+        final long returned = this.stats.getPacketOutsReceived();
+        final long drops = Math.max(0, sent - returned);
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%nOpenVirteX load test: %s, %d switches, "
+                + "%d hosts, %d tenants, %d PACKET_IN/s offered, %.1f s%n",
+                this.settings.getVersion(), this.settings.getSwitches(),
+                this.settings.getHosts(), this.settings.getTenants(),
+                this.settings.getRate(), elapsed));
+        sb.append(String.format("%-26s %10s %10s%n", "", "count", "msgs/s"));
+        this.appendCount(sb, "PACKET_IN sent", sent, elapsed);
+        this.appendCount(sb, "PACKET_IN at controller",
+                this.stats.getPacketInsReceived(), elapsed);
+        this.appendCount(sb, "FLOW_MOD at switches",
+                this.stats.getFlowModsReceived(), elapsed);
+        this.appendCount(sb, "PACKET_OUT at switches", returned, elapsed);
+        sb.append(String.format("%-26s %10d %9.2f%%%n", "drops", drops,
+                sent == 0 ? 0.0 : 100.0 * drops / sent));
+        sb.append(String.format("%n%-26s %10s %10s %10s %10s %10s%n",
+                "latency (us)", "p50", "p99", "p99.9", "max", "mean"));
+        this.appendLatency(sb, "switch -> controller",
+                this.stats.getNorthbound());
+        this.appendLatency(sb, "switch -> switch",
+                this.stats.getRoundTrip());
+        System.out.println(sb);
+
+        if (this.settings.getReport() != null) {
+            final Map<String, Object> json = new LinkedHashMap<String, Object>();
+            json.put("version", this.settings.getVersion().toString());
+            json.put("switches", this.settings.getSwitches());
+            json.put("hosts", this.settings.getHosts());
+            json.put("tenants", this.settings.getTenants());
+            json.put("offeredRate", this.settings.getRate());
+            json.put("seconds", elapsed);
+            json.put("packetInSent", sent);
+            json.put("packetInAtController",
+                    this.stats.getPacketInsReceived());
+            json.put("flowModAtSwitches", this.stats.getFlowModsReceived());
+            json.put("packetOutAtSwitches", returned);
+            json.put("drops", drops);
+            json.put("throughput", returned / elapsed);
+            json.put("northboundLatencyUs",
+                    this.latencies(this.stats.getNorthbound()));
+            json.put("roundTripLatencyUs",
+                    this.latencies(this.stats.getRoundTrip()));
+            json.put("hypervisor", OVXMetrics.getInstance().toMap());
+            final Writer out = new FileWriter(this.settings.getReport());
+            try {
+                new GsonBuilder().setPrettyPrinting().create().toJson(json,
+                        out);
+            } finally {
+                out.close();
+            }
+            log.info("Report written to {}", this.settings.getReport());
+        }
+    }
+
+    private void appendCount(final StringBuilder sb, final String name,
+            final long count, final double elapsed) {
+        sb.append(String.format("%-26s %10d %10.0f%n", name, count,
+                count / elapsed));
+    }
+
+    private void appendLatency(final StringBuilder sb, final String name,
+            final LatencyHistogram h) {
+        sb.append(String.format("%-26s", name));
+        for (final double p : PERCENTILES) {
+            sb.append(String.format(" %10.1f",
+                    h.getPercentile(p, TimeUnit.MICROSECONDS)));
+        }
+        sb.append(String.format(" %10.1f %10.1f%n", h.getMax() / 1e3,
+                h.getMean() / 1e3));
+    }
+
+    private Map<String, Object> latencies(final LatencyHistogram h) {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("count", h.getCount());
+        map.put("p50", h.getPercentile(0.5, TimeUnit.MICROSECONDS));
+        map.put("p99", h.getPercentile(0.99, TimeUnit.MICROSECONDS));
+        map.put("p999", h.getPercentile(0.999, TimeUnit.MICROSECONDS));
+        map.put("max", h.getMax() / 1e3);
+        map.put("mean", h.getMean() / 1e3);
+        return map;
+    }
+
+    private void shutdown() {
+        if (this.pacer != null) {
+            this.pacer.shutdownNow();
+        }
+        // open channels keep the client workers from terminating
+        this.channels.close().awaitUninterruptibly();
+        if (this.ovx != null) {
+            this.ovx.terminate();
+        }
+        this.controller.stop();
+        if (this.bootstrap != null) {
+            this.bootstrap.releaseExternalResources();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark.loadgen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+/**
+ * Command line settings of the load generator. Arguments that are not
+ * load generator options are passed on to the in-process hypervisor, e.g.
+ * {@code -- --flush-size 0}.
+ */
+public class LoadSettings {
+
+    @Option(name = "-v", aliases = "--of-version", metaVar = "OF_10|OF_13", usage = "OpenFlow version of the emulated switches")
+    private String version = "OF_13";
+
+    @Option(name = "-s", aliases = "--switches", metaVar = "INT", usage = "Number of emulated switches, connected in a chain")
+    private int switches = 4;
+
+    @Option(name = "--hosts", metaVar = "INT", usage = "Number of hosts per switch and tenant")
+    private int hosts = 8;
+
+    @Option(name = "-t", aliases = "--tenants", metaVar = "INT", usage = "Number of virtual networks")
+    private int tenants = 2;
+
+    @Option(name = "-r", aliases = "--rate", metaVar = "INT", usage = "PACKET_IN per second, over all switches")
+    private int rate = 1000;
+
+    @Option(name = "-d", aliases = "--duration", metaVar = "INT", usage = "Measurement time in seconds")
+    private int duration = 30;
+
+    @Option(name = "-w", aliases = "--warmup", metaVar = "INT", usage = "Warmup time in seconds, not measured")
+    private int warmup = 5;
+
+    @Option(name = "-p", aliases = "--of-port", metaVar = "INT", usage = "OpenFlow port the hypervisor listens on")
+    private int ofPort = 16633;
+
+    @Option(name = "-c", aliases = "--ctl-port", metaVar = "INT", usage = "Port the emulated controller listens on")
+    private int controllerPort = 16653;
+
+    @Option(name = "--timeout", metaVar = "INT", usage = "Seconds to wait for connections and link discovery")
+    private int timeout = 30;
+
+    @Option(name = "-o", aliases = "--report", metaVar = "FILE", usage = "Also write the report as JSON to this file")
+    private String report = null;
+
+    @Argument(metaVar = "OVX_OPTION", usage = "Hypervisor options")
+    private List<String> ovxArgs = new ArrayList<String>();
+
+    public OFVersion getVersion() {
+        return OFVersion.valueOf(this.version);
+    }
+
+    public int getSwitches() {
+        return this.switches;
+    }
+
+    public int getHosts() {
+        return this.hosts;
+    }
+
+    public int getTenants() {
+        return this.tenants;
+    }
+
+    public int getRate() {
+        return this.rate;
+    }
+
+    public int getDuration() {
+        return this.duration;
+    }
+
+    public int getWarmup() {
+        return this.warmup;
+    }
+
+    public int getOFPort() {
+        return this.ofPort;
+    }
+
+    public int getControllerPort() {
+        return this.controllerPort;
+    }
+
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    public String getReport() {
+        return this.report;
+    }
+
+    /**
+     * Gets the hypervisor command line, with the OpenFlow port set.
+     *
+     * @return the arguments
+     */
+    public String[] getOVXArgs() {
+        final List<String> args = new ArrayList<String>();
+        args.add("--of-port");
+        args.add(String.valueOf(this.ofPort));
+        // offered load reaches the controllers unless limits are passed on
+        args.add("--pktin-rate");
+        args.add("0");
+        args.addAll(this.ovxArgs);
+        return args.toArray(new String[args.size()]);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.benchmark.loadgen;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.util.LatencyHistogram;
+
+/**
+ * Counters and latency histograms shared by the emulated switches and
+ * controller. Frames injected by the switches carry a stamp in their last
+ * bytes, so that the controller and the switches can tell how long ago a
+ * frame entered the hypervisor.
+ */
+public class LoadStats {
+
+    /**
+     * Number of trailing bytes of a frame used by the stamp.
+     */
+    public static final int STAMP_LENGTH = 12;
+    private static final int MAGIC = 0x4f565821;
+
+    private final AtomicLong packetInsSent = new AtomicLong();
+    private final AtomicLong packetInsReceived = new AtomicLong();
+    private final AtomicLong flowModsReceived = new AtomicLong();
+    private final AtomicLong packetOutsReceived = new AtomicLong();
+    private final AtomicLong unstamped = new AtomicLong();
+    private final LatencyHistogram northbound = new LatencyHistogram();
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+    // nothing stamped is counted until the measurement starts
+    private volatile long startNanos = Long.MAX_VALUE;
+    private volatile long stopNanos = 0;
+
+    /**
+     * Writes the stamp at the end of the given frame.
+     *
+     * @param frame the frame, at least {@link #STAMP_LENGTH} bytes long
+     * @param nanos the current {@link System#nanoTime()}
+     */
+    public static void stamp(final byte[] frame, final long nanos) {
+        ByteBuffer.wrap(frame, frame.length - STAMP_LENGTH, STAMP_LENGTH)
+                .putInt(MAGIC).putLong(nanos);
+    }
+
+    /**
+     * Reads the stamp at the end of the given frame.
+     *
+     * @param frame the frame
+     * @return the stamped {@link System#nanoTime()}, or -1 if the frame is
+     *         not stamped
+     */
+    public static long readStamp(final byte[] frame) {
+        if (frame == null || frame.length < STAMP_LENGTH) {
+            return -1;
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(frame,
+                frame.length - STAMP_LENGTH, STAMP_LENGTH);
+        return buf.getInt() == MAGIC ? buf.getLong() : -1;
+    }
+
+    /**
+     * Counts injected PACKET_INs. Like the frames they are matched against,
+     * PACKET_INs stamped before the measurement started are not counted,
+     * even if the count lands after {@link #start()}.
+     *
+     * @param count the number of PACKET_INs
+     * @param nanos the stamp of their frames
+     */
+    public void packetInSent(final int count, final long nanos) {
+        if (nanos >= this.startNanos) {
+            this.packetInsSent.addAndGet(count);
+        }
+    }
+
+    public void packetInReceived(final byte[] frame) {
+        if (this.record(this.northbound, frame)) {
+            this.packetInsReceived.incrementAndGet();
+        }
+    }
+
+    public void flowModReceived() {
+        this.flowModsReceived.incrementAndGet();
+    }
+
+    public void packetOutReceived(final byte[] frame) {
+        if (this.record(this.roundTrip, frame)) {
+            this.packetOutsReceived.incrementAndGet();
+        }
+    }
+
+    /*
+     * Times the frame, and tells whether it was sent since the measurement
+     * started; frames sent during warmup are neither timed nor counted.
+     */
+    private boolean record(final LatencyHistogram histogram,
+            final byte[] frame) {
+        final long stamp = readStamp(frame);
+        if (stamp < 0) {
+            this.unstamped.incrementAndGet();
+            return false;
+        }
+        if (stamp < this.startNanos) {
+            return false;
+        }
+        histogram.recordSince(stamp);
+        return true;
+    }
+
+    /**
+     * Starts measuring. Frames stamped from now on are counted and timed,
+     * earlier ones never are, so the counters of stamped frames hold nothing
+     * from the warmup and are not cleared: a PACKET_IN stamped after the
+     * start cannot have its count wiped by a concurrent clear. Only the
+     * counters of unstamped messages are cleared.
+     */
+    public void start() {
+        this.flowModsReceived.set(0);
+        this.unstamped.set(0);
+        this.stopNanos = 0;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stops measuring: message rates are computed up to now.
+     */
+    public void stop() {
+        this.stopNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the measured time in seconds
+     */
+    public double getElapsed() {
+        final long end = this.stopNanos == 0 ? System.nanoTime()
+                : this.stopNanos;
+        return (end - this.startNanos) / 1e9;
+    }
+
+    public long getPacketInsSent() {
+        return this.packetInsSent.get();
+    }
+
+    public long getPacketInsReceived() {
+        return this.packetInsReceived.get();
+    }
+
+    public long getFlowModsReceived() {
+        return this.flowModsReceived.get();
+    }
+
+    public long getPacketOutsReceived() {
+        return this.packetOutsReceived.get();
+    }
+
+    public long getUnstamped() {
+        return this.unstamped.get();
+    }
+
+    /**
+     * @return the latency from PACKET_IN injection to its arrival at the
+     *         controller
+     */
+    public LatencyHistogram getNorthbound() {
+        return this.northbound;
+    }
+
+    /**
+     * @return the latency from PACKET_IN injection to the arrival of the
+     *         matching PACKET_OUT at the switch
+     */
+    public LatencyHistogram getRoundTrip() {
+        return this.roundTrip;
+    }
+}
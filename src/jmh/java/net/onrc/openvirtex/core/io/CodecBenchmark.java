@@ -0,0 +1,124 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.benchmark.BenchmarkChannel;
+import net.onrc.openvirtex.benchmark.VirtualNetworkFixture;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+/**
+ * Measures framing and parsing of inbound messages by
+ * {@link OVXMessageDecoder}, one at a time and in batches as they arrive
+ * from a busy connection, and serialization by {@link OVXMessageEncoder}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    private static final int BATCH = 16;
+
+    @Param({"OF_10", "OF_13"})
+    public String version;
+
+    @Param({"PACKET_IN", "FLOW_MOD", "PACKET_OUT"})
+    public String type;
+
+    private VirtualNetworkFixture fixture;
+    private final OVXMessageDecoder decoder = new OVXMessageDecoder();
+    private final OVXMessageEncoder encoder = new OVXMessageEncoder();
+    private BenchmarkChannel channel;
+    private List<OFMessage> single;
+    private ChannelBuffer singleBuffer;
+    private ChannelBuffer batchBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = VirtualNetworkFixture.build(
+                OFVersion.valueOf(this.version), 1, 1, 2);
+        this.channel = this.fixture.getSwitchChannel();
+
+        final OFMessage msg;
+        if ("PACKET_IN".equals(this.type)) {
+            msg = this.fixture.packetIn(1, 0, 1, 2);
+        } else if ("FLOW_MOD".equals(this.type)) {
+            msg = this.fixture.flowMod(1, 0, 1, 2);
+        } else {
+            msg = this.fixture.packetOut(1, 0, 1, 2);
+        }
+        this.single = Collections.singletonList(msg);
+        this.singleBuffer = ChannelBuffers.dynamicBuffer();
+        msg.writeTo(this.singleBuffer);
+
+        final List<OFMessage> batch = new ArrayList<OFMessage>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(msg);
+        }
+        this.batchBuffer = (ChannelBuffer) this.encoder.encode(null,
+                this.channel, batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        this.singleBuffer.readerIndex(0);
+        return this.decoder.decode(null, this.channel, this.singleBuffer);
+    }
+
+    @Benchmark
+    public Object decodeBatch() throws Exception {
+        this.batchBuffer.readerIndex(0);
+        return this.decoder.decode(null, this.channel, this.batchBuffer);
+    }
+
+    @Benchmark
+    public Object encode() throws Exception {
+        return this.encoder.encode(null, this.channel, this.single);
+    }
+}
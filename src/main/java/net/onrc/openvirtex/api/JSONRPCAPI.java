@@ -28,6 +28,7 @@ import javax.servlet.http.HttpServletResponse;
 import net.onrc.openvirtex.api.service.AdminService;
 import net.onrc.openvirtex.api.service.MonitoringService;
 import net.onrc.openvirtex.api.service.TenantService;
+import net.onrc.openvirtex.util.OVXMetrics;
 
 import org.eclipse.jetty.server.Authentication;
 import org.eclipse.jetty.server.Request;
@@ -37,7 +38,8 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 /**
  * This class manages JSON RPC API services. It creates the monitoring, tenant
  * and admin services. It implements the main handler for incoming requests and
- * redirects them to the appropriate service.
+ * redirects them to the appropriate service. It also serves the message
+ * processing metrics as plain text, for scraping by monitoring systems.
  *
  */
 public class JSONRPCAPI extends AbstractHandler {
@@ -78,6 +80,11 @@ public class JSONRPCAPI extends AbstractHandler {
         } else if (target.equals("/admin")) {
             this.adminService.handle(request, response);
 
+        } else if (target.equals("/metrics")) {
+            response.setContentType("text/plain; version=0.0.4");
+            response.setStatus(HttpServletResponse.SC_OK);
+            OVXMetrics.getInstance().writeText(response.getWriter());
+
         } else {
             response.sendError(Response.SC_NOT_FOUND, target
                     + " is not a service offered by OVX");
@@ -42,7 +42,7 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
 /**
  * Run a JSON RPC web server that supports both http and https. Creates three
  * roles (user, admin, and ui) each with an exposed resource (/tenant, /admin,
- * and /status).
+ * and /status). The ui role can also scrape the metrics at /metrics.
  *
  */
 public class JettyServer implements Runnable {
@@ -154,10 +154,14 @@ public class JettyServer implements Runnable {
         uimapping.setConstraint(uiConstraint);
         uimapping.setPathSpec("/status");
 
+        final ConstraintMapping metricsmapping = new ConstraintMapping();
+        metricsmapping.setConstraint(uiConstraint);
+        metricsmapping.setPathSpec("/metrics");
+
         final ConstraintSecurityHandler sh = new ConstraintSecurityHandler();
         sh.setRealmName(JettyServer.REALM);
         sh.setConstraintMappings(new ConstraintMapping[] {usermapping,
-                adminmapping, uimapping});
+                adminmapping, uimapping, metricsmapping});
         sh.setAuthenticator(new BasicAuthenticator());
         sh.setHandler(this.service);
         final LoginService loginSrv = new OVXLoginService();
@@ -21,6 +21,7 @@ package net.onrc.openvirtex.api.service.handlers;
 
 import java.util.HashMap;
 
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetMetrics;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalFlowtable;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalHosts;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalTopology;
@@ -78,6 +79,7 @@ public class MonitoringHandler extends AbstractHandler implements
             this.put("getVirtualFlowtable", new GetVirtualFlowtable());
             this.put("getPhysicalFlowtable", new GetPhysicalFlowtable());
             this.put("getVirtualAddressMapping", new GetVirtualAddressMapping());
+            this.put("getMetrics", new GetMetrics());
         }
     };
 
@@ -148,6 +148,10 @@ public class TenantHandler extends AbstractHandler implements RequestHandler {
      * Keyword for the boot state.
      */
     public static final String IS_BOOTED = "isBooted";
+    /**
+     * Keyword for the maximum staleness of cached statistics.
+     */
+    public static final String STATS_STALENESS = "statsStaleness";
 
     @SuppressWarnings({ "serial", "rawtypes" })
     private HashMap<String, ApiHandler> handlers = new HashMap<String, ApiHandler>() {
@@ -57,6 +57,8 @@ public class CreateOVXNetwork extends ApiHandler<Map<String, Object>> {
                     TenantHandler.NETADD, params, true, null);
             final Number netMask = HandlerUtils.<Number>fetchField(
                     TenantHandler.NETMASK, params, true, null);
+            final Number staleness = HandlerUtils.<Number>fetchField(
+                    TenantHandler.STATS_STALENESS, params, false, null);
 
             for (String ctrl : ctrlUrls) {
                 String[] ctrlParts = ctrl.split(":");
@@ -67,6 +69,9 @@ public class CreateOVXNetwork extends ApiHandler<Map<String, Object>> {
             final IPAddress addr = new OVXIPAddress(netAddress, -1);
             final OVXNetwork virtualNetwork = new OVXNetwork(ctrlUrls, addr,
                     netMask.shortValue());
+            if (staleness != null) {
+                virtualNetwork.setStatsStaleness(staleness.intValue());
+            }
             virtualNetwork.register();
             this.log.info("Created virtual network {}",
                     virtualNetwork.getTenantId());
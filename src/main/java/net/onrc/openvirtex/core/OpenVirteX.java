@@ -49,7 +49,9 @@ public final class OpenVirteX {
         final CmdLineParser parser = new CmdLineParser(settings);
         try {
             parser.parseArgument(args);
+            settings.validate(parser);
         } catch (final CmdLineException e) {
+            System.err.println(e.getMessage());
             parser.printUsage(System.out);
             System.exit(1);
         }
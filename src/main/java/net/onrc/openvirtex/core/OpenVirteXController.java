@@ -22,21 +22,25 @@ package net.onrc.openvirtex.core;
 import java.net.InetSocketAddress;
 import java.util.Set;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import net.onrc.openvirtex.api.server.JettyServer;
 import net.onrc.openvirtex.core.cmd.CmdLineSettings;
 import net.onrc.openvirtex.core.io.ClientChannelPipeline;
+import net.onrc.openvirtex.core.io.EventShards;
+import net.onrc.openvirtex.core.io.OVXOutboundQueue;
+import net.onrc.openvirtex.core.io.PacketInScheduler;
 import net.onrc.openvirtex.core.io.SwitchChannelPipeline;
 import net.onrc.openvirtex.db.DBManager;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.VirtualStatistics;
+import net.onrc.openvirtex.elements.link.OVXLinkCodec;
 import net.onrc.openvirtex.elements.link.OVXLinkField;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.util.BitSetIndex;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
+import net.onrc.openvirtex.util.OVXMetrics;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -49,7 +53,6 @@ import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
-import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 //import org.openflow.vendor.nicira.OFNiciraVendorExtensions;
 
 public class OpenVirteXController implements Runnable {
@@ -72,8 +75,7 @@ public class OpenVirteXController implements Runnable {
     private final NioClientSocketChannelFactory clientSockets = new NioClientSocketChannelFactory(
             Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
 
-    private ThreadPoolExecutor clientThreads = null;
-    private ThreadPoolExecutor serverThreads = null;
+    private EventShards shards = null;
 
     private final ChannelGroup sg = new DefaultChannelGroup();
     private final ChannelGroup cg = new DefaultChannelGroup();
@@ -86,10 +88,6 @@ public class OpenVirteXController implements Runnable {
 
     private Integer statsRefresh;
 
-    private Integer nClientThreads;
-
-    private Integer nServerThreads;
-
     private final Boolean useBDDP;
 
     public OpenVirteXController(CmdLineSettings settings) {
@@ -100,16 +98,23 @@ public class OpenVirteXController implements Runnable {
         this.dbClear = settings.getDBClear();
         this.maxVirtual = settings.getNumberOfVirtualNets();
         this.statsRefresh = settings.getStatsRefresh();
-        this.nClientThreads = settings.getClientThreads();
-        this.nServerThreads = settings.getServerThreads();
         this.useBDDP = settings.getUseBDDP();
+        OVXOutboundQueue.setFlushThresholds(settings.getFlushSize(),
+                settings.getFlushDelay());
+        VirtualStatistics.setDefaultMaxStaleness(settings.getStatsStaleness());
+        DBManager.getInstance().setBackend(settings.getDBBackend(),
+                settings.getDBPath());
+        DBManager.getInstance().setJournalThresholds(settings.getDBFlushSize(),
+                settings.getDBFlushDelay(), settings.getDBQueue());
+        PacketInScheduler.getInstance().configure(settings.getPacketInRate(),
+                settings.getPacketInBurst(), settings.getPacketInQueue(),
+                settings.getPacketInSuppress());
+        OVXMetrics.getInstance().setEnabled(!settings.getNoMetrics());
         // by default, use Mac addresses to store vLinks informations
-        this.ovxLinkField = OVXLinkField.MAC_ADDRESS;
-        this.clientThreads = new OrderedMemoryAwareThreadPoolExecutor(
-                nClientThreads, 1048576, 1048576, 5, TimeUnit.SECONDS);
-        this.serverThreads = new OrderedMemoryAwareThreadPoolExecutor(
-                nServerThreads, 1048576, 1048576, 5, TimeUnit.SECONDS);
-        this.pfact = new SwitchChannelPipeline(this, this.serverThreads);
+        this.ovxLinkField = settings.getLinkField();
+        OVXLinkCodec.configure(this.maxVirtual, this.ovxLinkField);
+        this.shards = new EventShards(settings.getShards());
+        this.pfact = new SwitchChannelPipeline(this, this.shards);
         OpenVirteXController.instance = this;
         OpenVirteXController.tenantIdCounter = new BitSetIndex(
                 IndexType.TENANT_ID);
@@ -154,7 +159,7 @@ public class OpenVirteXController implements Runnable {
             clientBootStrap.setOption("remoteAddress", remoteAddr);
 
             this.cfact = new ClientChannelPipeline(this, this.cg,
-                    this.clientThreads, clientBootStrap, sw);
+                    this.shards, clientBootStrap, sw);
             clientBootStrap.setPipelineFactory(this.cfact);
 
             final ChannelFuture cf = clientBootStrap.connect();
@@ -251,6 +256,7 @@ public class OpenVirteXController implements Runnable {
         if (this.cfact != null) {
             this.cfact.releaseExternalResources();
         }
+        this.shards.shutdown();
 
         this.log.info("Shutting down database connection");
         DBManager.getInstance().close();
@@ -19,8 +19,20 @@
  */
 package net.onrc.openvirtex.core.cmd;
 
+import net.onrc.openvirtex.core.io.OVXOutboundQueue;
+import net.onrc.openvirtex.core.io.PacketInScheduler;
+import net.onrc.openvirtex.db.DBBackend;
+import net.onrc.openvirtex.db.DBManager;
+import net.onrc.openvirtex.db.EmbeddedConnection;
+import net.onrc.openvirtex.elements.datapath.statistics.VirtualStatistics;
+import net.onrc.openvirtex.elements.link.OVXLinkCodec;
+import net.onrc.openvirtex.elements.link.OVXLinkField;
 import net.onrc.openvirtex.util.OVXUtil;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 import com.mongodb.ServerAddress;
@@ -30,6 +42,9 @@ import com.mongodb.ServerAddress;
  * getters.
  */
 public class CmdLineSettings {
+    private static Logger log = LogManager.getLogger(CmdLineSettings.class
+            .getName());
+
     /**
      * Default OVX host.
      */
@@ -54,22 +69,77 @@ public class CmdLineSettings {
      * Default value if database is cleared at start.
      */
     public static final Boolean DEFAULT_DB_CLEAR = false;
+    /**
+     * Default database backend.
+     */
+    public static final DBBackend DEFAULT_DB_BACKEND = DBBackend.MONGO;
+    /**
+     * Default directory of the embedded database files.
+     */
+    public static final String DEFAULT_DB_PATH = EmbeddedConnection.DEFAULT_PATH;
+    /**
+     * Default number of queued database updates that triggers a write.
+     */
+    public static final Integer DEFAULT_DB_FLUSH_SIZE = DBManager.DEFAULT_FLUSH_SIZE;
+    /**
+     * Default delay (in milliseconds) before queued database updates are
+     * written.
+     */
+    public static final Integer DEFAULT_DB_FLUSH_DELAY = DBManager.DEFAULT_FLUSH_DELAY;
+    /**
+     * Default maximum number of queued database updates.
+     */
+    public static final Integer DEFAULT_DB_QUEUE = DBManager.DEFAULT_QUEUE_SIZE;
     /**
      * Default value (in seconds) the switch statistics are queried.
      */
     public static final Integer DEFAULT_STATS_REFRESH = 30;
     /**
-     * Default number of threads to handle switch connection events.
+     * Default maximum age (in milliseconds) of the cached statistics
+     * replies served to tenant controllers.
      */
-    public static final Integer DEFAULT_SERVER_THREADS = 32;
+    public static final Integer DEFAULT_STATS_STALENESS = VirtualStatistics.DEFAULT_MAX_STALENESS;
     /**
-     * Default number of threads to handle controller connection events.
+     * Default number of event loop shards handling switch and controller
+     * connection events; 0 uses one per available processor.
      */
-    public static final Integer DEFAULT_CLIENT_THREADS = 32;
+    public static final Integer DEFAULT_SHARDS = 0;
     /**
      * Default value if BDDP is used for discovery.
      */
     public static final Boolean DEFAULT_USE_BDDP = false;
+    /**
+     * Default number of buffered bytes that triggers an outbound flush.
+     */
+    public static final Integer DEFAULT_FLUSH_SIZE = OVXOutboundQueue.DEFAULT_FLUSH_SIZE;
+    /**
+     * Default delay (in milliseconds) before an outbound flush.
+     */
+    public static final Integer DEFAULT_FLUSH_DELAY = OVXOutboundQueue.DEFAULT_FLUSH_DELAY;
+    /**
+     * Default number of PACKET_INs per second sent to each virtual network.
+     */
+    public static final Integer DEFAULT_PACKET_IN_RATE = PacketInScheduler.DEFAULT_RATE;
+    /**
+     * Default number of PACKET_INs a virtual network may receive in a burst.
+     */
+    public static final Integer DEFAULT_PACKET_IN_BURST = PacketInScheduler.DEFAULT_BURST;
+    /**
+     * Default number of PACKET_INs held back per virtual network.
+     */
+    public static final Integer DEFAULT_PACKET_IN_QUEUE = PacketInScheduler.DEFAULT_QUEUE_SIZE;
+    /**
+     * Default value if drop rules are installed for dropped PACKET_INs.
+     */
+    public static final Boolean DEFAULT_PACKET_IN_SUPPRESS = false;
+    /**
+     * Default field carrying the virtual link information.
+     */
+    public static final OVXLinkField DEFAULT_LINK_FIELD = OVXLinkField.MAC_ADDRESS;
+    /**
+     * Default value if message processing metrics are disabled.
+     */
+    public static final Boolean DEFAULT_NO_METRICS = false;
 
     @Option(name = "-p", aliases = "--of-port", metaVar = "INT", usage = "OpenVirteX OpenFlow listen port")
     private Integer ofPort = CmdLineSettings.DEFAULT_OF_PORT;
@@ -89,18 +159,69 @@ public class CmdLineSettings {
     @Option(name = "--db-clear", usage = "Clear database")
     private Boolean dbClear = CmdLineSettings.DEFAULT_DB_CLEAR;
 
+    @Option(name = "--db-backend", metaVar = "[MONGO|EMBEDDED]", usage = "Database backend; EMBEDDED keeps the virtual networks in local files and needs no database server")
+    private DBBackend dbBackend = CmdLineSettings.DEFAULT_DB_BACKEND;
+
+    @Option(name = "--db-path", metaVar = "String", usage = "Directory of the embedded database files")
+    private String dbPath = CmdLineSettings.DEFAULT_DB_PATH;
+
+    @Option(name = "--db-flush-size", metaVar = "INT", usage = "Number of queued database updates that triggers a write")
+    private Integer dbFlushSize = CmdLineSettings.DEFAULT_DB_FLUSH_SIZE;
+
+    @Option(name = "--db-flush-delay", metaVar = "INT", usage = "Delay (in ms) before queued database updates are written")
+    private Integer dbFlushDelay = CmdLineSettings.DEFAULT_DB_FLUSH_DELAY;
+
+    @Option(name = "--db-queue", metaVar = "INT", usage = "Database updates queued before callers wait for the database")
+    private Integer dbQueue = CmdLineSettings.DEFAULT_DB_QUEUE;
+
     @Option(name = "--stats-refresh", usage = "Sets what interval to poll statistics with")
     private Integer statsRefresh = CmdLineSettings.DEFAULT_STATS_REFRESH;
 
-    @Option(name = "--ct", aliases = "--client-threads", metaVar = "INT", usage = "Number of threads handles controller connections")
-    private Integer clientThreads = CmdLineSettings.DEFAULT_CLIENT_THREADS;
+    @Option(name = "--stats-staleness", metaVar = "INT", usage = "Maximum age (in ms) of the cached statistics replies served to tenant controllers")
+    private Integer statsStaleness = CmdLineSettings.DEFAULT_STATS_STALENESS;
+
+    @Option(name = "--shards", metaVar = "INT", usage = "Number of event loop threads handling switch and controller connections; 0 uses one per processor")
+    private Integer shards = CmdLineSettings.DEFAULT_SHARDS;
 
-    @Option(name = "--st", aliases = "--server-threads", metaVar = "INT", usage = "Number of threads handles switch connections")
-    private Integer serverThreads = CmdLineSettings.DEFAULT_CLIENT_THREADS;
+    @Option(name = "--ct", aliases = "--client-threads", metaVar = "INT", usage = "Deprecated and ignored; use --shards")
+    private void setClientThreads(final Integer threads) {
+        CmdLineSettings.log.warn("--ct/--client-threads is deprecated and "
+                + "ignored; connection events run on --shards event loops");
+    }
+
+    @Option(name = "--st", aliases = "--server-threads", metaVar = "INT", usage = "Deprecated and ignored; use --shards")
+    private void setServerThreads(final Integer threads) {
+        CmdLineSettings.log.warn("--st/--server-threads is deprecated and "
+                + "ignored; connection events run on --shards event loops");
+    }
 
     @Option(name = "--ub", aliases = "--use-bddp", usage = "Use BDDP for network discovery; only use if you know what you are doing.")
     private Boolean useBDDP = CmdLineSettings.DEFAULT_USE_BDDP;
 
+    @Option(name = "--flush-size", metaVar = "INT", usage = "Number of queued bytes that triggers a write to a switch or controller")
+    private Integer flushSize = CmdLineSettings.DEFAULT_FLUSH_SIZE;
+
+    @Option(name = "--flush-delay", metaVar = "INT", usage = "Delay (in ms) before messages queued outside of an inbound batch are written; 0 writes them immediately")
+    private Integer flushDelay = CmdLineSettings.DEFAULT_FLUSH_DELAY;
+
+    @Option(name = "--pktin-rate", metaVar = "INT", usage = "PACKET_INs per second sent to each virtual network, 0 disables the limit")
+    private Integer packetInRate = CmdLineSettings.DEFAULT_PACKET_IN_RATE;
+
+    @Option(name = "--pktin-burst", metaVar = "INT", usage = "PACKET_INs a virtual network may receive in a burst")
+    private Integer packetInBurst = CmdLineSettings.DEFAULT_PACKET_IN_BURST;
+
+    @Option(name = "--pktin-queue", metaVar = "INT", usage = "PACKET_INs held back per virtual network once over its rate")
+    private Integer packetInQueue = CmdLineSettings.DEFAULT_PACKET_IN_QUEUE;
+
+    @Option(name = "--pktin-suppress", usage = "Install a temporary drop rule for the flow of dropped PACKET_INs")
+    private Boolean packetInSuppress = CmdLineSettings.DEFAULT_PACKET_IN_SUPPRESS;
+
+    @Option(name = "--link-field", metaVar = "[MAC_ADDRESS|VLAN|MPLS]", usage = "Packet field carrying the virtual link information; VLAN and MPLS push a tag instead of rewriting MAC addresses, MPLS requires OpenFlow 1.3 switches")
+    private OVXLinkField linkField = CmdLineSettings.DEFAULT_LINK_FIELD;
+
+    @Option(name = "--no-metrics", usage = "Do not record message processing metrics")
+    private Boolean noMetrics = CmdLineSettings.DEFAULT_NO_METRICS;
+
     /**
      * Gets the host OVX is running on.
      *
@@ -157,6 +278,52 @@ public class CmdLineSettings {
         return this.dbClear;
     }
 
+    /**
+     * Gets the database backend.
+     *
+     * @return the database backend
+     */
+    public DBBackend getDBBackend() {
+        return this.dbBackend;
+    }
+
+    /**
+     * Gets the directory of the embedded database files.
+     *
+     * @return the embedded database directory
+     */
+    public String getDBPath() {
+        return this.dbPath;
+    }
+
+    /**
+     * Gets the number of queued database updates that triggers a write.
+     *
+     * @return the database flush size
+     */
+    public Integer getDBFlushSize() {
+        return this.dbFlushSize;
+    }
+
+    /**
+     * Gets the delay (in milliseconds) before queued database updates are
+     * written.
+     *
+     * @return the database flush delay
+     */
+    public Integer getDBFlushDelay() {
+        return this.dbFlushDelay;
+    }
+
+    /**
+     * Gets the maximum number of queued database updates.
+     *
+     * @return the database queue size
+     */
+    public Integer getDBQueue() {
+        return this.dbQueue;
+    }
+
     /**
      * Gets the value (in seconds) the switch statistics are queried.
      *
@@ -167,21 +334,23 @@ public class CmdLineSettings {
     }
 
     /**
-     * Gets the number of threads used to handle controller connection events.
+     * Gets the default maximum age (in milliseconds) of the cached
+     * statistics replies served to tenant controllers.
      *
-     * @return the number of client threads used
+     * @return the statistics staleness
      */
-    public Integer getClientThreads() {
-        return this.clientThreads;
+    public Integer getStatsStaleness() {
+        return this.statsStaleness;
     }
 
     /**
-     * Gets the number of threads used to handle switch connection events.
+     * Gets the number of event loop shards handling switch and controller
+     * connection events.
      *
-     * @return the number of server threads used
+     * @return the number of shards, 0 for one per available processor
      */
-    public Integer getServerThreads() {
-        return this.serverThreads;
+    public Integer getShards() {
+        return this.shards;
     }
 
     /**
@@ -193,4 +362,102 @@ public class CmdLineSettings {
         return this.useBDDP;
     }
 
+    /**
+     * Gets the number of queued bytes that triggers an outbound flush.
+     *
+     * @return the flush size
+     */
+    public Integer getFlushSize() {
+        return this.flushSize;
+    }
+
+    /**
+     * Gets the delay (in milliseconds) before messages queued outside of an
+     * inbound batch are flushed.
+     *
+     * @return the flush delay
+     */
+    public Integer getFlushDelay() {
+        return this.flushDelay;
+    }
+
+    /**
+     * Gets the number of PACKET_INs per second sent to each virtual network.
+     *
+     * @return the PACKET_IN rate
+     */
+    public Integer getPacketInRate() {
+        return this.packetInRate;
+    }
+
+    /**
+     * Gets the number of PACKET_INs a virtual network may receive in a
+     * burst.
+     *
+     * @return the PACKET_IN burst
+     */
+    public Integer getPacketInBurst() {
+        return this.packetInBurst;
+    }
+
+    /**
+     * Gets the number of PACKET_INs held back per virtual network.
+     *
+     * @return the PACKET_IN queue size
+     */
+    public Integer getPacketInQueue() {
+        return this.packetInQueue;
+    }
+
+    /**
+     * Checks if drop rules are installed for dropped PACKET_INs.
+     *
+     * @return true if dropped PACKET_INs are suppressed
+     */
+    public Boolean getPacketInSuppress() {
+        return this.packetInSuppress;
+    }
+
+    /**
+     * Gets the packet field carrying the virtual link information.
+     *
+     * @return the link field
+     */
+    public OVXLinkField getLinkField() {
+        return this.linkField;
+    }
+
+    /**
+     * Checks if message processing metrics are disabled.
+     *
+     * @return true if metrics are disabled, false otherwise
+     */
+    public Boolean getNoMetrics() {
+        return this.noMetrics;
+    }
+
+    /**
+     * Checks the settings that are only valid together. The virtual link
+     * field must leave room for link ids once it carries the tenant id;
+     * MPLS is further limited to OpenFlow 1.3 switches, which is checked
+     * when a switch connects.
+     *
+     * @param parser the parser that read the settings
+     * @throws CmdLineException if the settings cannot be used together
+     */
+    public void validate(final CmdLineParser parser) throws CmdLineException {
+        final int vNets = this.getNumberOfVirtualNets();
+        try {
+            OVXLinkCodec.check(vNets, this.linkField);
+        } catch (IllegalArgumentException e) {
+            throw new CmdLineException(parser, e.getMessage());
+        }
+        final int bits = OVXLinkCodec.linkBits(vNets, this.linkField);
+        if (bits < 8) {
+            CmdLineSettings.log.warn("{} leaves {} bits to the link id, so a "
+                    + "virtual network has less than {} virtual links; lower "
+                    + "-n for more", this.linkField, bits, 1 << bits);
+        }
+    }
+
 }
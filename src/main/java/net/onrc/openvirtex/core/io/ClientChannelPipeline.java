@@ -19,8 +19,6 @@
  */
 package net.onrc.openvirtex.core.io;
 
-import java.util.concurrent.ThreadPoolExecutor;
-
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
@@ -29,7 +27,6 @@ import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.group.ChannelGroup;
-import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
 
@@ -41,11 +38,11 @@ public class ClientChannelPipeline extends OpenflowChannelPipeline {
 
     public ClientChannelPipeline(
             final OpenVirteXController openVirteXController,
-            final ChannelGroup cg, final ThreadPoolExecutor pipelineExecutor,
+            final ChannelGroup cg, final EventShards shards,
             final ClientBootstrap bootstrap, final OVXSwitch sw) {
         super();
         this.ctrl = openVirteXController;
-        this.pipelineExecutor = pipelineExecutor;
+        this.shards = shards;
         this.timer = PhysicalNetwork.getTimer();
         this.idleHandler = new IdleStateHandler(this.timer, 20, 25, 0);
         this.readTimeoutHandler = new ReadTimeoutHandler(this.timer, 30);
@@ -69,8 +66,9 @@ public class ClientChannelPipeline extends OpenflowChannelPipeline {
         pipeline.addLast("handshaketimeout", new HandshakeTimeoutHandler(
                 handler, this.timer, 15));
 
-        pipeline.addLast("pipelineExecutor", new ExecutionHandler(
-                this.pipelineExecutor));
+        // all controller connections of a virtual switch share its shard
+        pipeline.addLast("pipelineExecutor", this.shards.newHandler(
+                this.shards.forSwitch(this.sw)));
         pipeline.addLast("handler", handler);
         return pipeline;
     }
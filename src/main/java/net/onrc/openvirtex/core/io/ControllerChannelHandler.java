@@ -34,6 +34,8 @@ import net.onrc.openvirtex.exceptions.SwitchStateException;
 import net.onrc.openvirtex.messages.OVXMessage;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
 import net.onrc.openvirtex.packet.OVXLLDP;
+import net.onrc.openvirtex.util.OVXMetrics;
+import net.onrc.openvirtex.util.OVXMetrics.Stage;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -134,7 +136,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
                 //h.log.info(" After Xid = " + reply.getXid());
 
 
-                h.channel.write(Collections.singletonList(reply));
+                OVXOutboundQueue.write(h.channel, reply);
                 h.log.info("Connected dpid {} to controller {}",
                         h.sw.getSwitchName(), h.channel.getRemoteAddress());
                 h.sw.setConnected(true);
@@ -164,7 +166,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
                 reply = reply.createBuilder().setXid(m.getOFMessage().getXid()).build();
                 h.sw.setPortDescReply(reply);
 
-                h.channel.write(Collections.singletonList(reply));
+                OVXOutboundQueue.write(h.channel, reply);
                 h.log.info("Send Port Descriptions to dpid {}", h.channel.getRemoteAddress());
 
                 h.setState(ACTIVE);
@@ -239,7 +241,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
                                 .build();
 
 
-                        h.channel.write(Collections.singletonList(ofBarrierReply));
+                        OVXOutboundQueue.write(h.channel, ofBarrierReply);
                         break;
                     case SET_CONFIG:
                     case ERROR:
@@ -346,14 +348,14 @@ public class ControllerChannelHandler extends OFChannelHandler {
                         m);
                 OVXMessage e = OVXMessageUtil.makeErrorMsg(
                         OFBadRequestCode.BAD_EXPERIMENTER, m);
-                h.channel.write(Collections.singletonList(e.getOFMessage()));
+                OVXOutboundQueue.write(h.channel, e.getOFMessage());
             } else {
                 h.log.warn(
                         "Received unhandled message, sending bad type error: {}",
                         m);
                 OVXMessage e = OVXMessageUtil.makeErrorMsg(
                         OFBadRequestCode.BAD_TYPE, m);
-                h.channel.write(Collections.singletonList(e.getOFMessage()));
+                OVXOutboundQueue.write(h.channel, e.getOFMessage());
             }
         }
 
@@ -484,14 +486,14 @@ public class ControllerChannelHandler extends OFChannelHandler {
                     .setData(((OFEchoRequest)m.getOFMessage()).getData())
                     .build();
 
-            h.channel.write(Collections.singletonList(reply));
+            OVXOutboundQueue.write(h.channel, reply);
         }
 
         void processOFFeaturesRequest(final ControllerChannelHandler h,
                                       final OVXMessage m) {
             OFFeaturesReply fr = h.sw.getFeaturesReply();
             fr = fr.createBuilder().setXid(m.getOFMessage().getXid()).build();
-            h.channel.write(Collections.singletonList(fr));
+            OVXOutboundQueue.write(h.channel, fr);
         }
 
         void processOFEchoReply(final ControllerChannelHandler h,
@@ -618,42 +620,51 @@ public class ControllerChannelHandler extends OFChannelHandler {
             @SuppressWarnings("unchecked")
             final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
 
-            for (final OVXMessage ofm : msglist) {
-
-                try {
-                    switch (ofm.getOFMessage().getType()) {
-                        case PACKET_OUT:
-                        /*
-                         * Is this packet a packet out? If yes is it an lldp?
-                         * then send it to the OVXNetwork.
-                         */
-                            final byte[] data = ((OFPacketOut) ofm.getOFMessage()).getData();
-                            if (data.length >= 14) {
-
-                                final int tenantId = ((OVXSwitch) this.sw)
-                                        .getTenantId();
-
-                                if (OVXLLDP.isLLDP(data)) {
-//                                    this.log.info("tenantId = " + tenantId);
-
-                                    OVXMap.getInstance()
-                                            .getVirtualNetwork(tenantId)
-                                            .handleLLDP(ofm, this.sw);
-                                    break;
+            final OVXMetrics metrics = OVXMetrics.getInstance();
+            final long dequeued = metrics.start();
+            OVXOutboundQueue.beginBatch();
+            try {
+                for (final OVXMessage ofm : msglist) {
+                    metrics.record(Stage.QUEUE, ofm.getOFMessage().getType(),
+                            ofm.getTimestamp(), dequeued);
+
+                    try {
+                        switch (ofm.getOFMessage().getType()) {
+                            case PACKET_OUT:
+                            /*
+                             * Is this packet a packet out? If yes is it an lldp?
+                             * then send it to the OVXNetwork.
+                             */
+                                final byte[] data = ((OFPacketOut) ofm.getOFMessage()).getData();
+                                if (data.length >= 14) {
+
+                                    final int tenantId = ((OVXSwitch) this.sw)
+                                            .getTenantId();
+
+                                    if (OVXLLDP.isLLDP(data)) {
+    //                                    this.log.info("tenantId = " + tenantId);
+
+                                        OVXMap.getInstance()
+                                                .getVirtualNetwork(tenantId)
+                                                .handleLLDP(ofm, this.sw);
+                                        break;
+                                    }
                                 }
-                            }
-                        default:
-                            // Process all non-packet-ins
-                            this.state.processOFMessage(this, ofm);
-                            break;
+                            default:
+                                // Process all non-packet-ins
+                                this.state.processOFMessage(this, ofm);
+                                break;
+                        }
+
+                    } catch (final Exception ex) {
+                        // We are the last handler in the stream, so run the
+                        // exception through the channel again by passing in
+                        // ctx.getChannel().
+                        Channels.fireExceptionCaught(ctx.getChannel(), ex);
                     }
-
-                } catch (final Exception ex) {
-                    // We are the last handler in the stream, so run the
-                    // exception through the channel again by passing in
-                    // ctx.getChannel().
-                    Channels.fireExceptionCaught(ctx.getChannel(), ex);
                 }
+            } finally {
+                OVXOutboundQueue.endBatch();
             }
 
         } else {
@@ -668,7 +679,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
 
         OFEchoRequest m = this.ofFactory.buildEchoRequest().build();
 
-        e.getChannel().write(Collections.singletonList(m));
+        OVXOutboundQueue.write(e.getChannel(), m);
     }
 
     /*
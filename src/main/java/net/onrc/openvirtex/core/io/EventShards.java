@@ -0,0 +1,347 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.util.OVXMetrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+
+/**
+ * Fixed set of event loops, or shards, running the channel handlers of the
+ * switch and controller connections in place of a shared thread pool.
+ * <p>
+ * Every shard is a single thread draining a lock-free mailbox, and the only
+ * thread touching the state of the channels pinned to it. Each switch
+ * connection is pinned to a shard when it is accepted, and all controller
+ * connections of a virtual switch are pinned to the same shard. The
+ * handler returned by {@link #newHandler(Executor)} hands the events of a
+ * channel to its shard, and so do writes issued from any other thread:
+ * shards pass messages to each other rather than writing to the channels
+ * of their peers, see {@link OVXOutboundQueue}.
+ * <p>
+ * When more than {@link #HIGH_WATERMARK} events of a channel are queued,
+ * the channel stops being read until its shard has caught up with the
+ * {@link #LOW_WATERMARK}, so a busy shard pushes back on the connections
+ * feeding it instead of buffering without bound. Reads are suspended from
+ * the I/O thread of the channel as it queues the events; Netty 3.2 cannot
+ * run a task on that thread, so the shard resumes them, under a monitor of
+ * the channel that is only taken when a watermark is crossed.
+ */
+public final class EventShards {
+
+    private static Logger log = LogManager.getLogger(EventShards.class
+            .getName());
+
+    /**
+     * Number of queued events of a channel past which it stops being read.
+     */
+    public static final int HIGH_WATERMARK = 16384;
+    /**
+     * Number of queued events of a channel under which it is read again.
+     */
+    public static final int LOW_WATERMARK = 8192;
+
+    private static final OVXMetrics METRICS = OVXMetrics.getInstance();
+
+    private final Shard[] shards;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Starts the given number of shards.
+     *
+     * @param count the number of shards, or 0 for one per available
+     *            processor, and at least two
+     */
+    public EventShards(int count) {
+        if (count <= 0) {
+            count = Math.max(2, Runtime.getRuntime().availableProcessors());
+        }
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            this.shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int size() {
+        return this.shards.length;
+    }
+
+    /**
+     * Gets the shard for a newly accepted switch connection. Connections are
+     * spread over the shards in turn.
+     *
+     * @return the shard
+     */
+    public Executor next() {
+        final int i = this.next.getAndIncrement() & Integer.MAX_VALUE;
+        return this.shards[i % this.shards.length];
+    }
+
+    /**
+     * Gets the shard the controller connections of a virtual switch are
+     * pinned to.
+     *
+     * @param sw the virtual switch
+     * @return the shard
+     */
+    public Executor forSwitch(final OVXSwitch sw) {
+        final long id = sw.getSwitchId();
+        final int hash = 31 * sw.getTenantId() + (int) (id ^ (id >>> 32));
+        return this.shards[(hash & Integer.MAX_VALUE) % this.shards.length];
+    }
+
+    /**
+     * Creates the handler pinning the channel of a pipeline to the given
+     * shard, in place of an ExecutionHandler. Every pipeline needs its own
+     * handler.
+     *
+     * @param shard the shard, from {@link #next()} or
+     *            {@link #forSwitch(OVXSwitch)}
+     * @return the handler
+     */
+    public ChannelHandler newHandler(final Executor shard) {
+        return new ShardHandler((Shard) shard);
+    }
+
+    /**
+     * Gets the shard the given channel is pinned to.
+     *
+     * @param channel the channel
+     * @return the shard, or null if the channel is not pinned to a shard
+     */
+    public static Executor shardOf(final Channel channel) {
+        final ShardHandler handler = channel.getPipeline().get(
+                ShardHandler.class);
+        return handler == null ? null : handler.shard;
+    }
+
+    /**
+     * Checks if the current thread is the thread of the given shard.
+     *
+     * @param shard the shard, or null
+     * @return true if the current thread runs the shard
+     */
+    public static boolean inShard(final Executor shard) {
+        return shard instanceof Shard
+                && ((Shard) shard).thread == Thread.currentThread();
+    }
+
+    /**
+     * Stops every shard. Events still queued are discarded.
+     */
+    public void shutdown() {
+        for (Shard shard : this.shards) {
+            shard.shutdown();
+        }
+    }
+
+    /**
+     * Event queued for a shard, with the time it was queued.
+     */
+    private static final class Task {
+        private final Runnable runnable;
+        private final long queued;
+
+        private Task(Runnable runnable, long queued) {
+            this.runnable = runnable;
+            this.queued = queued;
+        }
+    }
+
+    /**
+     * Single event loop thread with its mailbox.
+     */
+    private static final class Shard implements Executor, Runnable {
+        private final int id;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<Task> mailbox =
+                new ConcurrentLinkedQueue<Task>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private volatile boolean parked = false;
+        private volatile boolean running = true;
+
+        private Shard(int id) {
+            this.id = id;
+            this.thread = new Thread(this, "EventShard-" + id);
+            this.thread.setDaemon(true);
+            METRICS.addShard(id, this.depth);
+            this.thread.start();
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (!this.running) {
+                throw new RejectedExecutionException("Shard " + this.id
+                        + " is shut down");
+            }
+            this.mailbox.offer(new Task(command, METRICS.start()));
+            this.depth.incrementAndGet();
+            if (this.parked) {
+                LockSupport.unpark(this.thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (this.running) {
+                final Task task = this.mailbox.poll();
+                if (task == null) {
+                    this.parked = true;
+                    if (this.mailbox.isEmpty() && this.running) {
+                        LockSupport.park(this);
+                    }
+                    this.parked = false;
+                    continue;
+                }
+                this.depth.decrementAndGet();
+                METRICS.recordShardWait(this.id, task.queued);
+                try {
+                    task.runnable.run();
+                } catch (Throwable t) {
+                    log.error("Uncaught exception in shard {}", this.id, t);
+                }
+            }
+            this.mailbox.clear();
+            METRICS.removeShard(this.id);
+        }
+
+        private void shutdown() {
+            this.running = false;
+            LockSupport.unpark(this.thread);
+        }
+    }
+
+    /**
+     * Hands the upstream events of one channel to its shard, and the writes
+     * to the channel issued from other threads, and suspends reading the
+     * channel while too many of its events are queued.
+     */
+    private static final class ShardHandler implements ChannelUpstreamHandler,
+            ChannelDownstreamHandler {
+        private final Shard shard;
+        // events of the channel handed to the shard and not run yet
+        private final AtomicInteger backlog = new AtomicInteger();
+        // only changed under the monitor of the handler
+        private volatile boolean suspended = false;
+
+        private ShardHandler(Shard shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void handleUpstream(final ChannelHandlerContext ctx,
+                final ChannelEvent e) {
+            // messages are fired by the I/O thread reading the channel
+            if (this.backlog.incrementAndGet() > HIGH_WATERMARK
+                    && e instanceof MessageEvent && !this.suspended) {
+                this.suspend(ctx.getChannel());
+            }
+            try {
+                this.shard.execute(new ChannelEventRunnable(ctx, e) {
+                    @Override
+                    public void run() {
+                        try {
+                            super.run();
+                        } finally {
+                            ShardHandler.this.done(ctx.getChannel());
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                this.backlog.decrementAndGet();
+                throw ex;
+            }
+        }
+
+        @Override
+        public void handleDownstream(final ChannelHandlerContext ctx,
+                final ChannelEvent e) {
+            if (!(e instanceof MessageEvent)
+                    || this.shard.thread == Thread.currentThread()) {
+                ctx.sendDownstream(e);
+                return;
+            }
+            try {
+                this.shard.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ctx.sendDownstream(e);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                e.getFuture().setFailure(ex);
+            }
+        }
+
+        /**
+         * Called by the shard once an event of the channel has run.
+         */
+        private void done(final Channel channel) {
+            if (this.backlog.decrementAndGet() <= LOW_WATERMARK
+                    && this.suspended) {
+                synchronized (this) {
+                    if (this.suspended
+                            && this.backlog.get() <= LOW_WATERMARK) {
+                        this.suspended = false;
+                        if (channel.isOpen()) {
+                            channel.setReadable(true);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void suspend(final Channel channel) {
+            synchronized (this) {
+                if (this.suspended || !channel.isOpen()) {
+                    return;
+                }
+                this.suspended = true;
+                // the shard may have caught up before it saw the flag
+                if (this.backlog.get() <= LOW_WATERMARK) {
+                    this.suspended = false;
+                    return;
+                }
+                channel.setReadable(false);
+            }
+            log.debug("Shard {} is {} events behind on {}, suspending reads",
+                    this.shard.id, this.backlog.get(), channel);
+        }
+    }
+}
@@ -20,28 +20,54 @@
 package net.onrc.openvirtex.core.io;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-//import net.onrc.openvirtex.messages.OVXMessageFactory;
-
 import net.onrc.openvirtex.messages.OVXMessage;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
+import net.onrc.openvirtex.util.OVXMetrics;
+import net.onrc.openvirtex.util.OVXMetrics.Stage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.projectfloodlight.openflow.exceptions.OFParseError;
 import org.projectfloodlight.openflow.protocol.*;
 
 /**
  * Decode an openflow message from a netty Channel.
+ * <p>
+ * Frames are delimited using the length field of the OpenFlow header, so a
+ * message is parsed exactly once, and only after all of its bytes have
+ * arrived. Malformed frames are skipped and reported to the channel as
+ * {@link OFParseError}s; the frames read before a malformed one are
+ * still handed to the pipeline first, and the ones after it are kept.
+ * <p>
+ * PACKET_IN payloads are copied out of the channel buffer once, by the loxi
+ * reader, and are deliberately not sliced. A frame split over several reads
+ * is decoded from the cumulation buffer of the {@link FrameDecoder}, which
+ * is compacted by {@code discardReadBytes()} and written to on the next
+ * read, while the message may still wait for the pipeline executor; a slice
+ * of it would then see other bytes. Only frames decoded straight from a
+ * read buffer could be sliced safely, and every consumer of the payload,
+ * from {@link net.onrc.openvirtex.packet.PacketContext} to the encoder of
+ * the virtualized PACKET_IN, takes a {@code byte[]}.
  *
  * @author alshabib
  */
 public class OVXMessageDecoder extends FrameDecoder {
 
     public static int MINIMUM_LENGTH = 8;
+    // offset of the length field in the OpenFlow header
+    private static final int LENGTH_OFFSET = 2;
+    // the generic reader is stateless, so it is shared by all channels
+    private static final OFMessageReader<OFMessage> READER = OFFactories
+            .getGenericReader();
+    private static final OVXMetrics METRICS = OVXMetrics.getInstance();
+
     Logger log = LogManager.getLogger(OVXMessageDecoder.class.getName());
 
     @Override
@@ -52,33 +78,104 @@ public class OVXMessageDecoder extends FrameDecoder {
             return null;
         }
 
-        //final List<OFMessage> message = this.factory.parseMessage(buffer);
-
-        OFMessageReader<OFMessage> reader = OFFactories.getGenericReader();
-
-        final List<OVXMessage> msglist = new ArrayList<OVXMessage>();
-        OFMessage msg = null;
+        final int frames = this.countFrames(buffer);
+        if (frames == 0) {
+            return null;
+        }
+        if (frames == 1) {
+            try {
+                return Collections.singletonList(this.readFrame(buffer));
+            } catch (OFParseError e) {
+                Channels.fireExceptionCaught(ctx, e);
+                return null;
+            }
+        }
 
-        while (buffer.readableBytes() >= MINIMUM_LENGTH) {
-            buffer.markReaderIndex();
-            msg = reader.readFrom(buffer);
+        // the list is handed over to the pipeline executor, so it cannot be
+        // reused across reads; size it exactly instead.
+        final List<OVXMessage> msglist = new ArrayList<OVXMessage>(frames);
+        for (int i = 0; i < frames; i++) {
+            final int start = buffer.readerIndex();
+            try {
+                msglist.add(this.readFrame(buffer));
+            } catch (OFParseError e) {
+                if (msglist.isEmpty()) {
+                    // report the bad frame and go on with the ones behind
+                    // it; FrameDecoder would drop them if this threw
+                    Channels.fireExceptionCaught(ctx, e);
+                    continue;
+                }
+                // hand over the frames parsed so far; the bad frame is
+                // parsed again, and reported, by the next call
+                buffer.readerIndex(start);
+                return msglist;
+            }
+        }
+        return msglist.isEmpty() ? null : msglist;
+    }
 
-            if (msg == null) {
-                buffer.resetReaderIndex();
+    /**
+     * Counts the complete frames available in the buffer, without moving
+     * its reader index. Counting stops at a header with an invalid length,
+     * since the frames behind it cannot be delimited.
+     *
+     * @param buffer the cumulated channel buffer
+     * @return the number of complete frames
+     * @throws OFParseError if the first frame header carries an invalid
+     *             length
+     */
+    private int countFrames(final ChannelBuffer buffer) throws OFParseError {
+        int frames = 0;
+        int index = buffer.readerIndex();
+        final int end = buffer.writerIndex();
+        while (end - index >= MINIMUM_LENGTH) {
+            final int length = buffer.getUnsignedShort(index + LENGTH_OFFSET);
+            if (length < MINIMUM_LENGTH) {
+                if (frames > 0) {
+                    break;
+                }
+                throw new OFParseError("Invalid OpenFlow message length "
+                        + length);
+            }
+            if (end - index < length) {
                 break;
-            } else {
-                //this.log.info(msg.toString());
-                OVXMessage ovxmsg = OVXMessageUtil.toOVXMessage(msg);
-                msglist.add(ovxmsg);
             }
+            index += length;
+            frames++;
         }
+        return frames;
+    }
 
-        /////////////////////////////////////////////////////////////////////////////////test
-        if (msglist.size() == 0) {
-            return null;
+    /**
+     * Parses the complete frame at the reader index of the buffer. The
+     * reader index is moved to the next frame even if parsing fails, so a
+     * malformed frame is skipped.
+     *
+     * @param buffer the cumulated channel buffer
+     * @return the virtualizable message
+     * @throws OFParseError if the frame could not be parsed
+     */
+    private OVXMessage readFrame(final ChannelBuffer buffer) throws OFParseError {
+        final long decodeStart = METRICS.start();
+        final int start = buffer.readerIndex();
+        final int length = buffer.getUnsignedShort(start + LENGTH_OFFSET);
+        final OFMessage msg;
+        try {
+            msg = READER.readFrom(buffer);
+        } finally {
+            // always resume at the next frame, whatever the reader consumed
+            buffer.readerIndex(start + length);
         }
-
-        //return null;
-        return msglist;
+        if (msg == null) {
+            throw new OFParseError("Could not parse OpenFlow message of type "
+                    + buffer.getUnsignedByte(start + 1) + " and length "
+                    + length);
+        }
+        final OVXMessage ovxMsg = OVXMessageUtil.toOVXMessage(msg);
+        // the end of decoding is when the message starts waiting for the
+        // pipeline executor
+        ovxMsg.setTimestamp(METRICS.record(Stage.DECODE, msg.getType(),
+                decodeStart));
+        return ovxMsg;
     }
 }
@@ -21,6 +21,9 @@ package net.onrc.openvirtex.core.io;
 
 import java.util.List;
 
+import net.onrc.openvirtex.util.OVXMetrics;
+import net.onrc.openvirtex.util.OVXMetrics.Stage;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -61,12 +64,15 @@ public class OVXMessageEncoder extends OneToOneEncoder {
 
         }*/
         ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        final OVXMetrics metrics = OVXMetrics.getInstance();
 
         for (OFMessage ofm : msglist) {
             if (ofm != null) {
                 //this.log.info(ofm.toString());
 
+                final long start = metrics.start();
                 ofm.writeTo(buf);
+                metrics.record(Stage.ENCODE, ofm.getType(), start);
             }
         }
 
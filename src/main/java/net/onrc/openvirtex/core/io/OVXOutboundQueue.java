@@ -0,0 +1,409 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.util.OVXMetrics;
+import net.onrc.openvirtex.util.OVXMetrics.Stage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelLocal;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFType;
+
+/**
+ * Per-channel outbound queue that coalesces OpenFlow messages into a single
+ * buffer, so that the messages produced while handling one inbound batch
+ * reach the channel as one write.
+ * <p>
+ * Messages are serialized as they are queued. The queue is flushed when the
+ * inbound batch that filled it ends, when the buffered bytes reach the flush
+ * size, when a barrier is queued, or when the flush delay expires for
+ * messages queued outside of an inbound batch. A flush delay of zero writes
+ * such messages immediately.
+ * <p>
+ * A message sent to several channels can be serialized once with
+ * {@link #encode(OFMessage)} and queued to each of them; the shared buffer
+ * is never modified.
+ * <p>
+ * A queue is only touched by the shard its channel is pinned to, see
+ * {@link EventShards}, so it takes no lock. Other threads serialize their
+ * messages themselves and pass them to that shard; those queued during an
+ * inbound batch are passed together when the batch ends. Channels not
+ * pinned to a shard, such as the ones of tests, are written from the
+ * calling thread.
+ */
+public final class OVXOutboundQueue implements TimerTask {
+
+    private static Logger log = LogManager.getLogger(OVXOutboundQueue.class
+            .getName());
+
+    /**
+     * Default number of buffered bytes that triggers a flush.
+     */
+    public static final int DEFAULT_FLUSH_SIZE = 16384;
+    /**
+     * Default delay (in milliseconds) before messages queued outside of an
+     * inbound batch are flushed.
+     */
+    public static final int DEFAULT_FLUSH_DELAY = 0;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final OVXMetrics METRICS = OVXMetrics.getInstance();
+
+    private static volatile int flushSize = DEFAULT_FLUSH_SIZE;
+    private static volatile int flushDelay = DEFAULT_FLUSH_DELAY;
+
+    private static final ChannelLocal<OVXOutboundQueue> QUEUES =
+            new ChannelLocal<OVXOutboundQueue>(true) {
+                @Override
+                protected OVXOutboundQueue initialValue(Channel channel) {
+                    return new OVXOutboundQueue(channel);
+                }
+            };
+
+    private static final ThreadLocal<Batch> BATCH = new ThreadLocal<Batch>() {
+        @Override
+        protected Batch initialValue() {
+            return new Batch();
+        }
+    };
+
+    /**
+     * Queues touched by the inbound batch running on the current thread,
+     * and the messages it serialized for queues of other shards.
+     */
+    private static final class Batch {
+        private int depth = 0;
+        private final List<OVXOutboundQueue> queues =
+                new ArrayList<OVXOutboundQueue>();
+        private final Map<OVXOutboundQueue, ChannelBuffer> foreign =
+                new LinkedHashMap<OVXOutboundQueue, ChannelBuffer>();
+    }
+
+    private final Channel channel;
+    // shard owning the queue, or null if the channel is not pinned to one
+    private final Executor shard;
+    private ChannelBuffer buffer = null;
+    private int lastFlushSize = INITIAL_BUFFER_SIZE;
+    private Timeout timeout = null;
+
+    private OVXOutboundQueue(Channel channel) {
+        this.channel = channel;
+        this.shard = EventShards.shardOf(channel);
+    }
+
+    /**
+     * Sets the thresholds at which queued messages are written out.
+     *
+     * @param size number of buffered bytes that triggers a flush
+     * @param delay delay in milliseconds before messages queued outside of
+     *            an inbound batch are flushed
+     */
+    public static void setFlushThresholds(int size, int delay) {
+        OVXOutboundQueue.flushSize = Math.max(0, size);
+        OVXOutboundQueue.flushDelay = Math.max(0, delay);
+    }
+
+    /**
+     * Queues the message for the given channel.
+     *
+     * @param channel the channel
+     * @param msg the OpenFlow message
+     */
+    public static void write(final Channel channel, final OFMessage msg) {
+        if (channel == null || msg == null) {
+            return;
+        }
+        final OVXOutboundQueue queue = OVXOutboundQueue.QUEUES.get(channel);
+        if (queue.isOwner()) {
+            queue.enqueue(msg);
+        } else {
+            queue.pass(encode(msg), msg.getType());
+        }
+    }
+
+    /**
+     * Queues an already serialized message for the given channel. The
+     * readable bytes of the buffer are queued without changing its indexes,
+     * so the same buffer can be queued for several channels.
+     *
+     * @param channel the channel
+     * @param encoded the serialized message
+     * @param type the type of the message
+     */
+    public static void write(final Channel channel,
+            final ChannelBuffer encoded, final OFType type) {
+        if (channel == null || encoded == null) {
+            return;
+        }
+        final OVXOutboundQueue queue = OVXOutboundQueue.QUEUES.get(channel);
+        if (queue.isOwner()) {
+            queue.enqueue(encoded, type);
+        } else {
+            queue.pass(encoded, type);
+        }
+    }
+
+    /**
+     * Serializes the message into a new buffer.
+     *
+     * @param msg the OpenFlow message
+     * @return the buffer holding the message
+     */
+    public static ChannelBuffer encode(final OFMessage msg) {
+        final ChannelBuffer buf = ChannelBuffers.dynamicBuffer(
+                INITIAL_BUFFER_SIZE);
+        final long start = METRICS.start();
+        msg.writeTo(buf);
+        METRICS.record(Stage.ENCODE, msg.getType(), start);
+        return buf;
+    }
+
+    /**
+     * Flushes any message queued for the given channel.
+     *
+     * @param channel the channel
+     */
+    public static void flush(final Channel channel) {
+        if (channel != null) {
+            OVXOutboundQueue.QUEUES.get(channel).flushFromAnyThread();
+        }
+    }
+
+    /**
+     * Marks the start of an inbound batch on the current thread. Messages
+     * queued until the matching {@link #endBatch()} are held back and
+     * written out together. Batches may nest.
+     */
+    public static void beginBatch() {
+        OVXOutboundQueue.BATCH.get().depth++;
+    }
+
+    /**
+     * Marks the end of an inbound batch on the current thread, flushing
+     * every queue it touched once the outermost batch ends.
+     */
+    public static void endBatch() {
+        final Batch batch = OVXOutboundQueue.BATCH.get();
+        if (--batch.depth > 0) {
+            return;
+        }
+        batch.depth = 0;
+        for (OVXOutboundQueue queue : batch.queues) {
+            queue.flush();
+        }
+        batch.queues.clear();
+        for (Map.Entry<OVXOutboundQueue, ChannelBuffer> entry : batch.foreign
+                .entrySet()) {
+            entry.getKey().post(entry.getValue(), true);
+        }
+        batch.foreign.clear();
+    }
+
+    /**
+     * Checks if the current thread may touch the queue.
+     */
+    private boolean isOwner() {
+        return this.shard == null || EventShards.inShard(this.shard);
+    }
+
+    /**
+     * Passes a message serialized by another thread to the owning shard,
+     * at the end of the inbound batch of that thread if there is one.
+     */
+    private void pass(final ChannelBuffer encoded, final OFType type) {
+        final Batch batch = OVXOutboundQueue.BATCH.get();
+        if (batch.depth == 0) {
+            this.post(encoded, isFull(encoded.readableBytes(), type));
+            return;
+        }
+        ChannelBuffer pending = batch.foreign.get(this);
+        if (pending == null) {
+            pending = ChannelBuffers.dynamicBuffer(INITIAL_BUFFER_SIZE);
+            batch.foreign.put(this, pending);
+        }
+        pending.writeBytes(encoded, encoded.readerIndex(),
+                encoded.readableBytes());
+        if (isFull(pending.readableBytes(), type)) {
+            batch.foreign.remove(this);
+            this.post(pending, true);
+        }
+    }
+
+    /**
+     * Queues serialized messages on the owning shard.
+     *
+     * @param encoded the messages, not modified
+     * @param flushNow true to write them out at once
+     */
+    private void post(final ChannelBuffer encoded, final boolean flushNow) {
+        this.execute(new Runnable() {
+            @Override
+            public void run() {
+                OVXOutboundQueue.this.append(encoded);
+                if (flushNow) {
+                    OVXOutboundQueue.this.flush();
+                } else {
+                    OVXOutboundQueue.this.queued(false);
+                }
+            }
+        });
+    }
+
+    private void flushFromAnyThread() {
+        if (this.isOwner()) {
+            this.flush();
+            return;
+        }
+        this.execute(new Runnable() {
+            @Override
+            public void run() {
+                OVXOutboundQueue.this.flush();
+            }
+        });
+    }
+
+    private void execute(final Runnable task) {
+        try {
+            this.shard.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("Dropping messages queued for {}: {}", this.channel,
+                    e.getMessage());
+        }
+    }
+
+    private void enqueue(final OFMessage msg) {
+        if (this.buffer == null) {
+            this.buffer = ChannelBuffers.dynamicBuffer(this.lastFlushSize);
+        }
+        final long start = METRICS.start();
+        msg.writeTo(this.buffer);
+        METRICS.record(Stage.ENCODE, msg.getType(), start);
+        this.queued(isFull(this.buffer.readableBytes(), msg.getType()));
+    }
+
+    private void enqueue(final ChannelBuffer encoded, final OFType type) {
+        if (this.buffer == null && this.channel.isOpen()
+                && OVXOutboundQueue.BATCH.get().depth == 0
+                && (OVXOutboundQueue.flushDelay == 0
+                || isFull(encoded.readableBytes(), type))) {
+            // nothing is held back, write a view of the shared bytes
+            this.channel.write(encoded.duplicate());
+            return;
+        }
+        this.append(encoded);
+        this.queued(isFull(this.buffer.readableBytes(), type));
+    }
+
+    private void append(final ChannelBuffer encoded) {
+        if (this.buffer == null) {
+            this.buffer = ChannelBuffers.dynamicBuffer(this.lastFlushSize);
+        }
+        this.buffer.writeBytes(encoded, encoded.readerIndex(),
+                encoded.readableBytes());
+    }
+
+    private static boolean isFull(final int bytes, final OFType type) {
+        return bytes >= OVXOutboundQueue.flushSize
+                || type == OFType.BARRIER_REQUEST
+                || type == OFType.BARRIER_REPLY;
+    }
+
+    private void queued(final boolean flushNow) {
+        if (flushNow) {
+            this.flush();
+            return;
+        }
+
+        final Batch batch = OVXOutboundQueue.BATCH.get();
+        if (batch.depth > 0) {
+            if (!batch.queues.contains(this)) {
+                batch.queues.add(this);
+            }
+        } else if (OVXOutboundQueue.flushDelay == 0) {
+            this.flush();
+        } else {
+            this.scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (this.timeout == null && this.buffer != null) {
+            this.timeout = PhysicalNetwork.getTimer().newTimeout(this,
+                    OVXOutboundQueue.flushDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        if (this.timeout != null) {
+            this.timeout.cancel();
+            this.timeout = null;
+        }
+        if (this.buffer == null || !this.buffer.readable()) {
+            return;
+        }
+        final ChannelBuffer buf = this.buffer;
+        this.buffer = null;
+        this.lastFlushSize = Math.max(INITIAL_BUFFER_SIZE, buf.readableBytes());
+        if (this.channel.isOpen()) {
+            this.channel.write(buf);
+        } else {
+            log.debug("Dropping {} queued bytes for closed channel {}",
+                    buf.readableBytes(), this.channel);
+        }
+    }
+
+    @Override
+    public void run(final Timeout t) throws Exception {
+        if (!this.isOwner()) {
+            // the timer thread hands the flush to the owning shard
+            this.execute(new Runnable() {
+                @Override
+                public void run() {
+                    OVXOutboundQueue.this.flushIfCurrent(t);
+                }
+            });
+            return;
+        }
+        this.flushIfCurrent(t);
+    }
+
+    private void flushIfCurrent(final Timeout t) {
+        if (this.timeout == t) {
+            this.timeout = null;
+            this.flush();
+        }
+    }
+}
@@ -19,8 +19,6 @@
  */
 package net.onrc.openvirtex.core.io;
 
-import java.util.concurrent.ThreadPoolExecutor;
-
 import net.onrc.openvirtex.core.OpenVirteXController;
 
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -32,7 +30,7 @@ import org.jboss.netty.util.Timer;
 public abstract class OpenflowChannelPipeline implements
         ChannelPipelineFactory, ExternalResourceReleasable {
     protected OpenVirteXController ctrl;
-    protected ThreadPoolExecutor pipelineExecutor;
+    protected EventShards shards;
     protected Timer timer;
     protected IdleStateHandler idleHandler;
     protected ReadTimeoutHandler readTimeoutHandler;
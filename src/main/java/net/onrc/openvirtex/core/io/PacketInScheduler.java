@@ -0,0 +1,429 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.OVXPacketIn;
+import net.onrc.openvirtex.packet.FlowKey;
+import net.onrc.openvirtex.util.OVXMetrics;
+import net.onrc.openvirtex.util.OVXMetrics.Admission;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Admission control and fair scheduling of the PACKET_INs sent to tenant
+ * controllers, so a PACKET_IN storm in one virtual network cannot starve the
+ * others.
+ * <p>
+ * Limiting is on by default, at a rate well above what a controller needs
+ * to set up flows but low enough to bound a storm; a rate of 0 turns it off,
+ * in which case every PACKET_IN is sent right away.
+ * <p>
+ * Every virtual network has a token bucket refilled at the configured rate.
+ * A PACKET_IN is sent right away while the bucket holds a token and nothing
+ * of the network is held back. Otherwise it is held back in the queue of the
+ * network, unless a PACKET_IN of the same flow is already held back, in
+ * which case the new one is merged into it and dropped. PACKET_INs arriving
+ * while the queue is full are dropped; optionally, a temporary drop rule is
+ * installed for their flow so the physical switch stops sending them. The
+ * switch buffers of dropped PACKET_INs are released.
+ * <p>
+ * Held back PACKET_INs are sent by a dispatcher thread as the buckets
+ * refill. The dispatcher serves the queues in deficit round robin, weighted
+ * by packet size, so every backlogged network gets the same share of the
+ * dispatcher regardless of its backlog.
+ */
+public final class PacketInScheduler {
+
+    private static Logger log = LogManager.getLogger(PacketInScheduler.class
+            .getName());
+
+    /**
+     * Default number of PACKET_INs per second sent to each virtual network.
+     */
+    public static final int DEFAULT_RATE = 1000;
+    /**
+     * Default number of PACKET_INs a virtual network may receive in a burst.
+     */
+    public static final int DEFAULT_BURST = 1000;
+    /**
+     * Default number of PACKET_INs held back per virtual network.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /**
+     * Decision on a PACKET_IN handed to the scheduler.
+     */
+    public enum Verdict {
+        /** Send the PACKET_IN now. */
+        SEND,
+        /** The scheduler holds the PACKET_IN back and sends it later. */
+        HOLD,
+        /**
+         * Drop the PACKET_IN, which is over the limit or merged into one
+         * held back for the same flow.
+         */
+        DROP,
+        /** Drop the PACKET_IN and install a temporary drop rule for it. */
+        SUPPRESS
+    }
+
+    // bytes granted to a backlogged network per round
+    private static final int QUANTUM = 1500;
+    // PACKET_INs sent per dispatcher run
+    private static final int MAX_DISPATCH = 256;
+    // drop rules a network may trigger per second
+    private static final int SUPPRESS_RATE = 50;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final OVXMetrics METRICS = OVXMetrics.getInstance();
+    private static final PacketInScheduler INSTANCE = new PacketInScheduler();
+
+    private volatile int rate = DEFAULT_RATE;
+    private volatile int burst = DEFAULT_BURST;
+    private volatile int queueSize = DEFAULT_QUEUE_SIZE;
+    private volatile boolean suppress = false;
+
+    private final ConcurrentMap<Integer, TenantQueue> tenants;
+    // networks with held back PACKET_INs, in round robin order
+    private final ConcurrentLinkedQueue<TenantQueue> active;
+    private final AtomicBoolean scheduled;
+    private final ScheduledExecutorService dispatcher;
+
+    private PacketInScheduler() {
+        this.tenants = new ConcurrentHashMap<Integer, TenantQueue>();
+        this.active = new ConcurrentLinkedQueue<TenantQueue>();
+        this.scheduled = new AtomicBoolean();
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "PacketInScheduler");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * @return the scheduler instance
+     */
+    public static PacketInScheduler getInstance() {
+        return PacketInScheduler.INSTANCE;
+    }
+
+    /**
+     * Configures the scheduler.
+     *
+     * @param rate PACKET_INs per second sent to each virtual network, 0 to
+     *            send every PACKET_IN right away
+     * @param burst PACKET_INs a virtual network may receive in a burst
+     * @param queueSize PACKET_INs held back per virtual network
+     * @param suppress true to install a temporary drop rule for the flow of
+     *            dropped PACKET_INs
+     */
+    public void configure(int rate, int burst, int queueSize,
+            boolean suppress) {
+        this.rate = Math.max(0, rate);
+        this.burst = Math.max(1, burst);
+        this.queueSize = Math.max(0, queueSize);
+        this.suppress = suppress;
+    }
+
+    /**
+     * Decides what to do with a PACKET_IN ready to be sent to the
+     * controllers of a virtual network. PACKET_INs held back are forwarded by
+     * the scheduler later on.
+     *
+     * @param vSwitch the virtual switch the PACKET_IN is sent from
+     * @param sw the physical switch the PACKET_IN came from
+     * @param pktIn the virtualized PACKET_IN
+     * @param key the flow key of the packet
+     * @return the verdict
+     */
+    public Verdict admit(final OVXSwitch vSwitch, final PhysicalSwitch sw,
+            final OVXPacketIn pktIn, final FlowKey key) {
+        final int r = this.rate;
+        if (r <= 0) {
+            return Verdict.SEND;
+        }
+        final int tenantId = vSwitch.getTenantId();
+        final TenantQueue tq = this.tenantQueue(tenantId);
+        final long now = System.nanoTime();
+        final Verdict verdict;
+        final Admission admission;
+        synchronized (tq) {
+            tq.refill(now, r, this.burst);
+            if (tq.queue.isEmpty() && tq.tokens >= 1) {
+                tq.tokens--;
+                verdict = Verdict.SEND;
+                admission = Admission.ADMITTED;
+            } else {
+                final Pending p = new Pending(vSwitch, sw, pktIn, key);
+                if (tq.pending.contains(p)) {
+                    verdict = Verdict.DROP;
+                    admission = Admission.AGGREGATED;
+                } else if (tq.queue.size() >= this.queueSize) {
+                    if (this.suppress && tq.takeSuppress()) {
+                        verdict = Verdict.SUPPRESS;
+                        admission = Admission.SUPPRESSED;
+                    } else {
+                        verdict = Verdict.DROP;
+                        admission = Admission.DROPPED;
+                    }
+                } else {
+                    tq.queue.add(p);
+                    tq.pending.add(p);
+                    if (!tq.active) {
+                        tq.active = true;
+                        this.active.add(tq);
+                    }
+                    verdict = Verdict.HOLD;
+                    admission = Admission.DELAYED;
+                }
+            }
+        }
+        METRICS.countAdmission(tenantId, admission);
+        if (admission == Admission.DELAYED) {
+            this.schedule(r);
+        }
+        return verdict;
+    }
+
+    /**
+     * Drops the state of a virtual network, discarding the PACKET_INs held
+     * back for it and releasing their switch buffers.
+     *
+     * @param tenantId the tenant ID
+     */
+    public void removeTenant(final int tenantId) {
+        final TenantQueue tq = this.tenants.remove(tenantId);
+        if (tq == null) {
+            return;
+        }
+        final List<Pending> discarded;
+        synchronized (tq) {
+            discarded = new ArrayList<Pending>(tq.queue);
+            tq.queue.clear();
+            tq.pending.clear();
+        }
+        for (Pending p : discarded) {
+            p.pktIn.releaseBuffer(p.sw);
+        }
+    }
+
+    private TenantQueue tenantQueue(final int tenantId) {
+        TenantQueue tq = this.tenants.get(tenantId);
+        if (tq == null) {
+            final TenantQueue created = new TenantQueue(this.burst);
+            tq = this.tenants.putIfAbsent(tenantId, created);
+            if (tq == null) {
+                tq = created;
+            }
+        }
+        return tq;
+    }
+
+    private void schedule(final int r) {
+        if (this.scheduled.compareAndSet(false, true)) {
+            // wait about as long as a bucket takes to earn one token
+            final long delay = Math.max(1, NANOS_PER_SECOND / r / 1000);
+            this.dispatcher.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    PacketInScheduler.this.dispatch();
+                }
+            }, delay, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private void dispatch() {
+        this.scheduled.set(false);
+        try {
+            this.send(this.nextBatch(System.nanoTime()));
+        } catch (RuntimeException e) {
+            log.error("Failed to dispatch held back PACKET_INs", e);
+        }
+        if (!this.active.isEmpty()) {
+            this.schedule(this.rate > 0 ? this.rate : Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Takes the held back PACKET_INs the dispatcher sends in one run, in
+     * deficit round robin over the backlogged networks.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return the PACKET_INs to send, in order
+     */
+    List<Pending> nextBatch(final long now) {
+        // held back PACKET_INs are all let through once limiting is off
+        final int r = this.rate > 0 ? this.rate : Integer.MAX_VALUE;
+        final List<Pending> out = new ArrayList<Pending>();
+        int budget = MAX_DISPATCH;
+        boolean progress = true;
+        while (budget > 0 && progress) {
+            progress = false;
+            // one round over the networks backlogged at its start
+            for (int n = this.active.size(); n > 0 && budget > 0; n--) {
+                final TenantQueue tq = this.active.poll();
+                if (tq == null) {
+                    break;
+                }
+                synchronized (tq) {
+                    tq.refill(now, r, this.burst);
+                    tq.deficit += QUANTUM;
+                    while (budget > 0 && !tq.queue.isEmpty()
+                            && tq.tokens >= 1
+                            && tq.queue.peek().cost <= tq.deficit) {
+                        final Pending p = tq.queue.poll();
+                        tq.pending.remove(p);
+                        tq.tokens--;
+                        tq.deficit -= p.cost;
+                        out.add(p);
+                        budget--;
+                        progress = true;
+                    }
+                    if (tq.queue.isEmpty()) {
+                        tq.deficit = 0;
+                        tq.active = false;
+                    } else {
+                        if (tq.tokens < 1) {
+                            // waiting on tokens is not a missed turn
+                            tq.deficit = Math.min(tq.deficit, QUANTUM);
+                        }
+                        this.active.add(tq);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private void send(final List<Pending> out) {
+        if (out.isEmpty()) {
+            return;
+        }
+        OVXOutboundQueue.beginBatch();
+        try {
+            for (Pending p : out) {
+                p.pktIn.forward(p.vSwitch, p.sw);
+            }
+        } finally {
+            OVXOutboundQueue.endBatch();
+        }
+    }
+
+    /**
+     * PACKET_IN held back for a virtual network. Two PACKET_INs are equal if
+     * they carry the same flow from the same physical switch.
+     */
+    static final class Pending {
+        private final OVXSwitch vSwitch;
+        private final PhysicalSwitch sw;
+        private final OVXPacketIn pktIn;
+        private final FlowKey key;
+        private final int cost;
+
+        private Pending(OVXSwitch vSwitch, PhysicalSwitch sw,
+                OVXPacketIn pktIn, FlowKey key) {
+            this.vSwitch = vSwitch;
+            this.sw = sw;
+            this.pktIn = pktIn;
+            this.key = key;
+            final byte[] data = pktIn.getPacketIn().getData();
+            this.cost = data == null ? 1 : Math.max(1, data.length);
+        }
+
+        OVXSwitch getVirtualSwitch() {
+            return this.vSwitch;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.sw.hashCode() + this.key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Pending)) {
+                return false;
+            }
+            final Pending other = (Pending) obj;
+            return this.sw == other.sw && this.key.equals(other.key);
+        }
+    }
+
+    /**
+     * Token buckets and queue of a virtual network. Guarded by its monitor.
+     */
+    private static final class TenantQueue {
+        private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+        private final Set<Pending> pending = new HashSet<Pending>();
+        private double tokens;
+        private double suppressTokens = SUPPRESS_RATE;
+        private long refilled = System.nanoTime();
+        private int deficit = 0;
+        private boolean active = false;
+
+        private TenantQueue(int burst) {
+            this.tokens = burst;
+        }
+
+        private void refill(long now, int rate, int burst) {
+            final double elapsed = (double) (now - this.refilled)
+                    / NANOS_PER_SECOND;
+            if (elapsed <= 0) {
+                return;
+            }
+            this.refilled = now;
+            this.tokens = Math.min(burst, this.tokens + elapsed * rate);
+            this.suppressTokens = Math.min(SUPPRESS_RATE, this.suppressTokens
+                    + elapsed * SUPPRESS_RATE);
+        }
+
+        private boolean takeSuppress() {
+            if (this.suppressTokens < 1) {
+                return false;
+            }
+            this.suppressTokens--;
+            return true;
+        }
+    }
+}
@@ -34,6 +34,8 @@ import java.util.concurrent.RejectedExecutionException;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.OVXLinkCodec;
+import net.onrc.openvirtex.elements.link.OVXLinkField;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.exceptions.HandshakeTimeoutException;
 import net.onrc.openvirtex.exceptions.SwitchStateException;
@@ -42,6 +44,8 @@ import net.onrc.openvirtex.messages.OVXPortStatus;
 import net.onrc.openvirtex.messages.OVXSetConfig;
 import net.onrc.openvirtex.messages.statistics.OVXDescStatsReply;
 import net.onrc.openvirtex.packet.OVXLLDP;
+import net.onrc.openvirtex.util.OVXMetrics;
+import net.onrc.openvirtex.util.OVXMetrics.Stage;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -140,6 +144,14 @@ public class SwitchChannelHandler extends OFChannelHandler {
                     h.log.debug("Received {} Hello from {} - switching to OF "
                                     + "version 1.0", m.getOFMessage().getVersion(),
                             h.channel.getRemoteAddress());
+                    if (OVXLinkCodec.getInstance().getLinkField() == OVXLinkField.MPLS) {
+                        h.log.error("Received OF1.0 Hello from switch at {}, "
+                                        + "but MPLS link fields require OF1.3 "
+                                        + "switches. Disconnecting switch ...",
+                                h.channel.getRemoteAddress());
+                        h.channel.disconnect();
+                        return;
+                    }
 
                     h.ofVersion = OFVersion.OF_10;
                     h.factory = OFFactories.getFactory(OFVersion.OF_10);
@@ -342,7 +354,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 OFFlowMod fm = h.factory.buildFlowDelete()
                         .setMatch(h.factory.buildMatch().build())
                         .build();
-                h.channel.write(Collections.singletonList(fm));
+                OVXOutboundQueue.write(h.channel, fm);
 
 
                 h.sw = new PhysicalSwitch(h.featuresReply.getDatapathId().getLong(), h.ofVersion);
@@ -427,7 +439,6 @@ public class SwitchChannelHandler extends OFChannelHandler {
                     case ECHO_REQUEST:
                         this.processOFEchoRequest(h, m);
                         break;
-                    case BARRIER_REPLY:
                     case ECHO_REPLY:
                         // do nothing but thank the switch
                         break;
@@ -439,6 +450,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                         h.featuresReply = (OFFeaturesReply)m.getOFMessage();
                         h.sw.setFeaturesReply(h.featuresReply);
                         break;
+                    case BARRIER_REPLY:
                     case ERROR:
                     case FLOW_REMOVED:
                     case GET_CONFIG_REPLY:
@@ -751,7 +763,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                     .setXid(((OFEchoRequest)m.getOFMessage()).getXid())
                     .setData(((OFEchoRequest)m.getOFMessage()).getData())
                     .build();
-            h.channel.write(Collections.singletonList(reply));
+            OVXOutboundQueue.write(h.channel, reply);
         }
 
         /**
@@ -974,7 +986,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 .setXid(handshakeTransactionIds--)
                 .build();
 
-        this.channel.write(Collections.singletonList(freq));
+        OVXOutboundQueue.write(this.channel, freq);
     }
 
     /**
@@ -1009,7 +1021,9 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 .build();
         msglist.add(gcr);
 
-        this.channel.write(msglist);
+        for (final OFMessage m : msglist) {
+            OVXOutboundQueue.write(this.channel, m);
+        }
     }
 
     protected void sendHandshakeDescriptionStatsRequest() throws IOException {
@@ -1018,7 +1032,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 .setXid(handshakeTransactionIds--)
                 .build();
 
-        this.channel.write(Collections.singletonList(dreq));
+        OVXOutboundQueue.write(this.channel, dreq);
 
     }
 
@@ -1028,7 +1042,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
         OFMessage m = this.factory.buildEchoRequest().build();
         log.debug("Sending Echo Request on idle channel: {}",
                 e.getChannel().getPipeline().getLast().toString());
-        e.getChannel().write(Collections.singletonList(m));
+        OVXOutboundQueue.write(e.getChannel(), m);
     }
 
     @Override
@@ -1047,41 +1061,50 @@ public class SwitchChannelHandler extends OFChannelHandler {
             @SuppressWarnings("unchecked")
             final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
 
-            for (final OVXMessage ofm : msglist) {
-                try {
-
-                    switch (ofm.getOFMessage().getType()) {
-                        case PACKET_IN:
-                            //this.log.info("PACKET_IN");
-
-                            OFPacketIn temp = (OFPacketIn)(ofm.getOFMessage());
-                            final byte[] data = temp.getData();
-
-                            //this.log.info(temp.getData().toString());
-
-                            if (OVXLLDP.isLLDP(data)) {
-                                if (this.sw != null) {
-                                    //this.log.info("PACKET_IN - handleLLDP");
-                                    PhysicalNetwork.getInstance().handleLLDP(ofm, this.sw);
-                                } else {
-                                    this.log.warn("Switch has not connected yet; dropping LLDP for now");
+            final OVXMetrics metrics = OVXMetrics.getInstance();
+            final long dequeued = metrics.start();
+            OVXOutboundQueue.beginBatch();
+            try {
+                for (final OVXMessage ofm : msglist) {
+                    metrics.record(Stage.QUEUE, ofm.getOFMessage().getType(),
+                            ofm.getTimestamp(), dequeued);
+                    try {
+
+                        switch (ofm.getOFMessage().getType()) {
+                            case PACKET_IN:
+                                //this.log.info("PACKET_IN");
+
+                                OFPacketIn temp = (OFPacketIn)(ofm.getOFMessage());
+                                final byte[] data = temp.getData();
+
+                                //this.log.info(temp.getData().toString());
+
+                                if (OVXLLDP.isLLDP(data)) {
+                                    if (this.sw != null) {
+                                        //this.log.info("PACKET_IN - handleLLDP");
+                                        PhysicalNetwork.getInstance().handleLLDP(ofm, this.sw);
+                                    } else {
+                                        this.log.warn("Switch has not connected yet; dropping LLDP for now");
+                                    }
+                                    break;
                                 }
+
+                            default:
+                                // Process all non-packet-ins
+                                //this.log.info("Not PACKET_IN - " + ofm.toString());
+                                this.state.processOFMessage(this, ofm);
                                 break;
-                            }
+                        }
 
-                        default:
-                            // Process all non-packet-ins
-                            //this.log.info("Not PACKET_IN - " + ofm.toString());
-                            this.state.processOFMessage(this, ofm);
-                            break;
+                    } catch (final Exception ex) {
+                        // We are the last handler in the stream, so run the
+                        // exception through the channel again by passing in
+                        // ctx.getChannel().
+                        Channels.fireExceptionCaught(ctx.getChannel(), ex);
                     }
-
-                } catch (final Exception ex) {
-                    // We are the last handler in the stream, so run the
-                    // exception through the channel again by passing in
-                    // ctx.getChannel().
-                    Channels.fireExceptionCaught(ctx.getChannel(), ex);
                 }
+            } finally {
+                OVXOutboundQueue.endBatch();
             }
         } else {
             this.log.info("Message is not List");
@@ -1147,7 +1170,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
         OFPortDescStatsRequest preq = this.factory.buildPortDescStatsRequest()
                 .setXid(handshakeTransactionIds--)
                 .build();
-        this.channel.write(Collections.singletonList(preq));
+        OVXOutboundQueue.write(this.channel, preq);
     }
 
     /*
@@ -19,8 +19,6 @@
  */
 package net.onrc.openvirtex.core.io;
 
-import java.util.concurrent.ThreadPoolExecutor;
-
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 
@@ -28,7 +26,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
 
@@ -36,18 +33,15 @@ public class SwitchChannelPipeline extends OpenflowChannelPipeline {
 
     Logger log = LogManager.getLogger(SwitchChannelPipeline.class.getName());
 
-    private ExecutionHandler eh = null;
-
     public SwitchChannelPipeline(
             final OpenVirteXController openVirteXController,
-            final ThreadPoolExecutor pipelineExecutor) {
+            final EventShards shards) {
         super();
         this.ctrl = openVirteXController;
-        this.pipelineExecutor = pipelineExecutor;
+        this.shards = shards;
         this.timer = PhysicalNetwork.getTimer();
         this.idleHandler = new IdleStateHandler(this.timer, 20, 25, 0);
         this.readTimeoutHandler = new ReadTimeoutHandler(this.timer, 30);
-        this.eh = new ExecutionHandler(this.pipelineExecutor);
 
         //this.log.info("SwitchChannelPipeline created");
     }
@@ -65,7 +59,9 @@ public class SwitchChannelPipeline extends OpenflowChannelPipeline {
         pipeline.addLast("handshaketimeout", new HandshakeTimeoutHandler(
                 handler, this.timer, 15));
 
-        pipeline.addLast("pipelineExecutor", eh);
+        // every switch connection is pinned to one shard
+        pipeline.addLast("pipelineExecutor", this.shards.newHandler(
+                this.shards.next()));
         pipeline.addLast("handler", handler);
         return pipeline;
     }
@@ -0,0 +1,40 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+/**
+ * Enum used to identify the backend storing the virtual networks. Currently
+ * supported values are MongoDB and an embedded store kept in local files.
+ * <p>
+ * MongoDB needs a reachable database server. The embedded store needs no
+ * external service: it appends every update to a memory-mapped log and
+ * periodically compacts the log into a snapshot of the documents.
+ */
+public enum DBBackend {
+
+    /**
+     * MongoDB server.
+     */
+    MONGO,
+    /**
+     * Embedded store in local files.
+     */
+    EMBEDDED
+}
@@ -19,8 +19,90 @@
  */
 package net.onrc.openvirtex.db;
 
+import java.util.List;
+import java.util.Map;
+
+import net.onrc.openvirtex.exceptions.DuplicateIndexException;
+
+/**
+ * Backend storing the documents of the {@link DBManager}. Documents are maps
+ * of strings, numbers, booleans, lists and nested maps, grouped in named
+ * collections.
+ * <p>
+ * Whatever the backend, documents are read back with the types MongoDB
+ * returns: integers up to 32 bits as {@link Integer}, 64-bit integers as
+ * {@link Long}, floating point numbers as {@link Double}, lists as
+ * {@link java.util.ArrayList} and nested documents as maps.
+ */
 public interface DBConnection {
     public void connect(String host, Integer port);
 
     public void disconnect();
+
+    /**
+     * Makes the given field a unique index of the collection.
+     *
+     * @param coll the collection
+     * @param key the indexed field
+     */
+    public void setIndex(String coll, String key);
+
+    /**
+     * Removes the collection and all its documents.
+     *
+     * @param coll the collection
+     */
+    public void clear(String coll);
+
+    /**
+     * Reads all documents of the collection.
+     *
+     * @param coll the collection
+     * @return the documents
+     */
+    public List<Map<String, Object>> find(String coll);
+
+    /**
+     * Inserts a document.
+     *
+     * @param coll the collection
+     * @param doc the document
+     * @throws DuplicateIndexException if a document with the same index
+     *             already exists
+     */
+    public void insert(String coll, Map<String, Object> doc)
+            throws DuplicateIndexException;
+
+    /**
+     * Removes the documents matching all fields of the given document.
+     *
+     * @param coll the collection
+     * @param doc the document
+     */
+    public void remove(String coll, Map<String, Object> doc);
+
+    /**
+     * Adds values to array fields of the document matching the query,
+     * skipping values already present. The document is created if it does
+     * not exist.
+     *
+     * @param coll the collection
+     * @param query the fields identifying the document
+     * @param values the values to add, by array field
+     */
+    public void addToSet(String coll, Map<String, Object> query,
+            Map<String, List<Object>> values);
+
+    /**
+     * Removes the elements matching the given value from an array field of
+     * the document matching the query. A map value matches the elements
+     * holding all its fields.
+     *
+     * @param coll the collection
+     * @param query the fields identifying the document
+     * @param key the array field
+     * @param value the value to remove
+     */
+    public void pull(String coll, Map<String, Object> query, String key,
+            Object value);
 }
@@ -0,0 +1,390 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.onrc.openvirtex.exceptions.DuplicateIndexException;
+import net.onrc.openvirtex.util.OVXMetrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Write-behind journal of the database updates issued by the
+ * {@link DBManager}. Updates are queued by the caller and applied by a
+ * single background thread, so a slow database does not stall the creation
+ * or failover of virtual networks.
+ * <p>
+ * The queue is flushed once it holds the flush size, or when the flush
+ * delay expires after the first update was queued. Updates are grouped per
+ * document, keeping their order, and consecutive additions to the same
+ * document are coalesced into a single update. A full queue blocks the
+ * caller until the background thread catches up.
+ * <p>
+ * Every update returns a future, set to true once the update is written or
+ * to false if it failed; callers are free to ignore it. Once the journal is
+ * stopped, further updates are dropped and their future set to false.
+ */
+final class DBJournal implements Runnable {
+
+    private static Logger log = LogManager.getLogger(DBJournal.class
+            .getName());
+
+    private static final long STOP_TIMEOUT = 10000;
+    private static final OVXMetrics METRICS = OVXMetrics.getInstance();
+
+    /**
+     * Kind of a queued update.
+     */
+    private enum Kind {
+        INSERT, REMOVE_DOC, ADD_TO_SET, PULL, SYNC
+    }
+
+    /**
+     * A queued update. The query identifies the document, the key and value
+     * are the array field and element added or pulled, or the whole
+     * document inserted or removed.
+     */
+    private static final class Op {
+        private final Kind kind;
+        private final String coll;
+        private final Map<String, Object> query;
+        private final String key;
+        private final Object value;
+        private final SettableFuture<Boolean> future =
+                SettableFuture.<Boolean>create();
+
+        private Op(final Kind kind, final String coll,
+                final Map<String, Object> query, final String key,
+                final Object value) {
+            this.kind = kind;
+            this.coll = coll;
+            this.query = query;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final DBConnection connection;
+    private final int flushSize;
+    private final long flushDelay;
+    private final BlockingQueue<Op> queue;
+    private final AtomicInteger backlog = new AtomicInteger();
+    private Thread thread = null;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a journal writing to the given database backend.
+     *
+     * @param connection the database backend
+     * @param flushSize number of queued updates that triggers a flush
+     * @param flushDelay delay in milliseconds before queued updates are
+     *            flushed
+     * @param capacity maximum number of queued updates
+     */
+    DBJournal(final DBConnection connection, final int flushSize,
+            final int flushDelay, final int capacity) {
+        this.connection = connection;
+        this.flushSize = Math.max(1, flushSize);
+        this.flushDelay = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(0, flushDelay));
+        this.queue = new LinkedBlockingQueue<Op>(Math.max(1, capacity));
+        DBJournal.METRICS.setDBBacklog(this.backlog);
+    }
+
+    ListenableFuture<Boolean> insert(final String coll,
+            final Map<String, Object> query, final Map<String, Object> doc) {
+        return this.enqueue(new Op(Kind.INSERT, coll, query, null, doc));
+    }
+
+    ListenableFuture<Boolean> removeDoc(final String coll,
+            final Map<String, Object> query, final Map<String, Object> doc) {
+        return this.enqueue(new Op(Kind.REMOVE_DOC, coll, query, null, doc));
+    }
+
+    ListenableFuture<Boolean> addToSet(final String coll,
+            final Map<String, Object> query, final String key,
+            final Object value) {
+        return this.enqueue(new Op(Kind.ADD_TO_SET, coll, query, key, value));
+    }
+
+    ListenableFuture<Boolean> pull(final String coll,
+            final Map<String, Object> query, final String key,
+            final Object value) {
+        return this.enqueue(new Op(Kind.PULL, coll, query, key, value));
+    }
+
+    /**
+     * Flushes the queue right away.
+     *
+     * @return future set once every update queued so far was applied
+     */
+    ListenableFuture<Boolean> sync() {
+        return this.enqueue(new Op(Kind.SYNC, null, null, null, null));
+    }
+
+    /**
+     * @return the number of updates queued or being written
+     */
+    int getBacklog() {
+        return this.backlog.get();
+    }
+
+    /**
+     * Applies the queued updates and stops the background thread, waiting
+     * at most ten seconds for the database. Updates still queued afterwards
+     * are dropped.
+     */
+    void stop() {
+        final Thread t;
+        synchronized (this) {
+            t = this.thread;
+            this.thread = null;
+            this.stopped = true;
+        }
+        if (t == null) {
+            return;
+        }
+        final Op stop = new Op(Kind.SYNC, null, null, null, null);
+        this.backlog.incrementAndGet();
+        try {
+            if (this.queue.offer(stop, STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                stop.future.get(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            } else {
+                this.backlog.decrementAndGet();
+            }
+        } catch (Exception e) {
+            log.warn("Database updates still queued on shutdown: {}",
+                    this.backlog.get());
+        }
+        t.interrupt();
+        final List<Op> dropped = new ArrayList<Op>();
+        this.queue.drainTo(dropped);
+        for (final Op op : dropped) {
+            this.drop(op);
+        }
+    }
+
+    private ListenableFuture<Boolean> enqueue(final Op op) {
+        if (!this.start()) {
+            log.debug("Database journal stopped, dropping update");
+            op.future.set(false);
+            return op.future;
+        }
+        this.backlog.incrementAndGet();
+        if (!this.queue.offer(op)) {
+            log.debug("Database journal full, waiting for the database");
+            try {
+                this.queue.put(op);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.backlog.decrementAndGet();
+                op.future.set(false);
+                return op.future;
+            }
+        }
+        // stopped while queueing, nobody is left to apply the update
+        if (this.stopped && this.queue.remove(op)) {
+            this.drop(op);
+        }
+        return op.future;
+    }
+
+    private void drop(final Op op) {
+        this.backlog.decrementAndGet();
+        op.future.set(false);
+    }
+
+    /**
+     * Starts the background thread unless it is running.
+     *
+     * @return false if the journal was stopped
+     */
+    private synchronized boolean start() {
+        if (this.stopped) {
+            return false;
+        }
+        if (this.thread == null) {
+            this.thread = new Thread(this, "DBJournal");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        final List<Op> batch = new ArrayList<Op>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(this.queue.take());
+                this.fill(batch);
+                this.flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stopped while filling the batch, nobody is left to apply it
+            for (final Op op : batch) {
+                this.drop(op);
+            }
+        }
+    }
+
+    /**
+     * Adds queued updates to the batch until it holds the flush size, the
+     * flush delay expires or a sync is queued.
+     */
+    private void fill(final List<Op> batch) throws InterruptedException {
+        final long deadline = System.nanoTime() + this.flushDelay;
+        while (batch.size() < this.flushSize
+                && batch.get(batch.size() - 1).kind != Kind.SYNC) {
+            final long wait = deadline - System.nanoTime();
+            final Op op = wait > 0 ? this.queue.poll(wait,
+                    TimeUnit.NANOSECONDS) : this.queue.poll();
+            if (op == null) {
+                return;
+            }
+            batch.add(op);
+        }
+    }
+
+    private void flush(final List<Op> batch) {
+        final long start = DBJournal.METRICS.start();
+        // group the updates per document, keeping their order
+        final Map<List<Object>, List<Op>> docs =
+                new LinkedHashMap<List<Object>, List<Op>>();
+        final List<Op> syncs = new ArrayList<Op>();
+        for (final Op op : batch) {
+            if (op.kind == Kind.SYNC) {
+                syncs.add(op);
+                continue;
+            }
+            final List<Object> doc = new ArrayList<Object>(2);
+            doc.add(op.coll);
+            doc.add(op.query);
+            List<Op> ops = docs.get(doc);
+            if (ops == null) {
+                ops = new ArrayList<Op>();
+                docs.put(doc, ops);
+            }
+            ops.add(op);
+        }
+
+        for (final List<Op> ops : docs.values()) {
+            int i = 0;
+            while (i < ops.size()) {
+                int j = i + 1;
+                if (ops.get(i).kind == Kind.ADD_TO_SET) {
+                    while (j < ops.size()
+                            && ops.get(j).kind == Kind.ADD_TO_SET) {
+                        j++;
+                    }
+                }
+                final List<Op> run = ops.subList(i, j);
+                final boolean written = this.apply(run);
+                for (final Op op : run) {
+                    op.future.set(written);
+                }
+                i = j;
+            }
+        }
+        DBJournal.METRICS.recordDBFlush(start);
+        this.backlog.addAndGet(-batch.size());
+        for (final Op op : syncs) {
+            op.future.set(true);
+        }
+    }
+
+    /**
+     * Applies a single update, or a run of additions to the same document.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean apply(final List<Op> run) {
+        final Op op = run.get(0);
+        try {
+            switch (op.kind) {
+            case INSERT:
+                this.connection.insert(op.coll, (Map<String, Object>) op.value);
+                break;
+            case REMOVE_DOC:
+                this.connection.remove(op.coll, (Map<String, Object>) op.value);
+                break;
+            case ADD_TO_SET:
+                final Map<String, List<Object>> fields =
+                        new LinkedHashMap<String, List<Object>>();
+                for (final Op add : run) {
+                    List<Object> values = fields.get(add.key);
+                    if (values == null) {
+                        values = new ArrayList<Object>();
+                        fields.put(add.key, values);
+                    }
+                    values.add(add.value);
+                }
+                this.connection.addToSet(op.coll, op.query, fields);
+                break;
+            case PULL:
+                this.connection.pull(op.coll, op.query, op.key, op.value);
+                break;
+            default:
+                break;
+            }
+            return true;
+        } catch (Exception e) {
+            this.logFailure(op.kind, e);
+            return false;
+        }
+    }
+
+    private void logFailure(final Kind kind, final Exception e) {
+        switch (kind) {
+        case INSERT:
+            // Do not log when duplicate key
+            // Virtual network was already stored and we're trying to create
+            // it again on startup
+            if (e instanceof DuplicateIndexException) {
+                log.warn("Skipped saving of virtual network with duplicate tenant id");
+            } else {
+                log.error("Failed to insert document into database: {}", e.getMessage());
+            }
+            break;
+        case REMOVE_DOC:
+            log.error("Failed to remove document from database: {}",
+                    e.getMessage());
+            break;
+        case ADD_TO_SET:
+            log.error("Failed to update database: {}", e.getMessage());
+            break;
+        default:
+            log.error("Failed to remove from db: {}", e.getMessage());
+            break;
+        }
+    }
+}
@@ -21,6 +21,7 @@ package net.onrc.openvirtex.db;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,11 +42,7 @@ import net.onrc.openvirtex.routing.SwitchRoute;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.mongodb.BasicDBObject;
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.MongoException;
+import com.google.common.util.concurrent.ListenableFuture;
 
 
 /**
@@ -55,6 +52,11 @@ import com.mongodb.MongoException;
  * and spawn virtual network managers for each that will
  * wait until all their elements are available and then boot
  * the virtual network.
+ * <p>
+ * Updates are written behind by a {@link DBJournal}; each returns
+ * a future that tells when the update reached the database.
+ * The database is MongoDB by default, or an {@link EmbeddedConnection}
+ * when no database server is available.
  */
 public final class DBManager {
     /**
@@ -69,10 +71,28 @@ public final class DBManager {
      * Database collection name for virtual networks.
      */
     public static final String DB_VNET = "VNET";
+    /**
+     * Default number of queued updates that triggers a write.
+     */
+    public static final int DEFAULT_FLUSH_SIZE = 256;
+    /**
+     * Default delay (in milliseconds) before queued updates are written.
+     */
+    public static final int DEFAULT_FLUSH_DELAY = 10;
+    /**
+     * Default maximum number of queued updates.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
 
     private static DBManager instance;
-    private DBConnection dbConnection;
-    private Map<String, DBCollection> collections;
+    private DBBackend backend = DBBackend.MONGO;
+    private String path = null;
+    // created for the configured backend on first use
+    private DBConnection dbConnection = null;
+    private DBJournal journal = null;
+    private int flushSize = DBManager.DEFAULT_FLUSH_SIZE;
+    private int flushDelay = DBManager.DEFAULT_FLUSH_DELAY;
+    private int queueSize = DBManager.DEFAULT_QUEUE_SIZE;
     private boolean clear;
     // Mapping between physical dpids and a list of vnet managers
     private Map<Long, List<OVXNetworkManager>> dpidToMngr;
@@ -83,13 +103,12 @@ public final class DBManager {
 
     private static Logger log = LogManager.getLogger(DBManager.class.getName());
 
-    /** Creates the database manager instance. Connects
-     * to the database backend, and creates mappings between
-     * network elements and virtual network managers.
+    /** Creates the database manager instance, and creates mappings
+     * between network elements and virtual network managers. The
+     * connection to the database backend is only created on first use,
+     * once the backend is configured.
      */
     private DBManager() {
-        this.dbConnection = new MongoConnection();
-        this.collections = new HashMap<String, DBCollection>();
         this.dpidToMngr = new HashMap<Long, List<OVXNetworkManager>>();
         this.linkToMngr = new HashMap<DPIDandPortPair, List<OVXNetworkManager>>();
         this.portToMngr = new HashMap<DPIDandPort, List<OVXNetworkManager>>();
@@ -109,31 +128,109 @@ public final class DBManager {
     }
 
     /**
-     * Initializes database backend by creating
-     * config, user and vnet collections.
+     * Sets the thresholds at which queued updates are written, and the
+     * number of updates that can be queued before callers block. Updates
+     * queued so far are written first.
+     *
+     * @param flushSize number of queued updates that triggers a write
+     * @param flushDelay delay in milliseconds before queued updates are
+     *            written
+     * @param capacity maximum number of queued updates
+     */
+    public void setJournalThresholds(int flushSize, int flushDelay,
+                                     int capacity) {
+        this.flushSize = flushSize;
+        this.flushDelay = flushDelay;
+        this.queueSize = capacity;
+        if (this.journal != null) {
+            this.journal.stop();
+            this.journal = new DBJournal(this.dbConnection, flushSize,
+                    flushDelay, capacity);
+        }
+    }
+
+    /**
+     * Sets the database backend. Must be called before the database
+     * is initialized.
+     *
+     * @param backend the database backend
+     * @param path the directory of the embedded database files
+     */
+    public void setBackend(DBBackend backend, String path) {
+        this.close();
+        this.journal = null;
+        this.dbConnection = null;
+        this.backend = backend;
+        this.path = path;
+    }
+
+    /**
+     * Gets the connection to the configured backend, creating it on first
+     * use.
+     *
+     * @return the database connection
+     */
+    private DBConnection connection() {
+        if (this.dbConnection == null) {
+            switch (this.backend) {
+            case EMBEDDED:
+                this.dbConnection = new EmbeddedConnection(this.path);
+                break;
+            default:
+                this.dbConnection = new MongoConnection();
+                break;
+            }
+        }
+        return this.dbConnection;
+    }
+
+    /**
+     * Gets the journal writing to the configured backend, creating it on
+     * first use.
+     *
+     * @return the journal
+     */
+    private DBJournal journal() {
+        if (this.journal == null) {
+            this.journal = new DBJournal(this.connection(), this.flushSize,
+                    this.flushDelay, this.queueSize);
+        }
+        return this.journal;
+    }
+
+    /**
+     * Writes the queued updates right away.
+     *
+     * @return future set once the updates queued so far are written
+     */
+    public ListenableFuture<Boolean> sync() {
+        return this.journal().sync();
+    }
+
+    /**
+     * Gets the number of updates waiting to be written.
+     *
+     * @return the number of queued updates
+     */
+    public int getBacklog() {
+        return this.journal().getBacklog();
+    }
+
+    /**
+     * Initializes database backend by indexing the vnet
+     * collection, and reads the stored virtual networks.
      *
      * @param host the database host
      * @param port the database port
      * @param clear flag to clear the database
      */
     public void init(String host, Integer port, boolean clear) {
-        this.dbConnection.connect(host, port);
+        this.connection().connect(host, port);
         // Suppress error stream when MongoDB raises java.net.ConnectException
         // in another component (and cannot be caught)
         PrintStream ps = System.err;
         System.setErr(null);
         try {
-            // Retrieve (create if non-existing) collections from db
-            // and store their handlers
-            DB db = ((MongoConnection) this.dbConnection).getDB();
-
-            DBCollection cfg = db.getCollection(DBManager.DB_CONFIG);
-            this.collections.put(DBManager.DB_CONFIG, cfg);
-            DBCollection user = db.getCollection(DBManager.DB_USER);
-            this.collections.put(DBManager.DB_USER, user);
-            DBCollection vnet = db.getCollection(DBManager.DB_VNET);
-            this.collections.put(DBManager.DB_VNET, vnet);
-
             this.setIndex(DBManager.DB_VNET);
 
             this.clear = clear;
@@ -162,9 +259,7 @@ public final class DBManager {
         PrintStream ps = System.err;
         System.setErr(null);
         try {
-            BasicDBObject options = new BasicDBObject("unique", true);
-            BasicDBObject index = new BasicDBObject(TenantHandler.TENANT, 1);
-            this.collections.get(coll).ensureIndex(index, options);
+            this.connection().setIndex(coll, TenantHandler.TENANT);
         } catch (Exception e) {
             log.error("Failed to set database index: {}", e.getMessage());
         } finally {
@@ -184,7 +279,7 @@ public final class DBManager {
         PrintStream ps = System.err;
         System.setErr(null);
         try {
-            this.collections.get(coll).drop();
+            this.connection().clear(coll);
             this.setIndex(DBManager.DB_VNET);
         } catch (Exception e) {
             log.error("Failed to clear database: {}", e.getMessage());
@@ -198,6 +293,12 @@ public final class DBManager {
      * Closes connection to database backend.
      */
     public void close() {
+        if (this.journal != null) {
+            this.journal.stop();
+        }
+        if (this.dbConnection == null) {
+            return;
+        }
         // Suppress error stream when MongoDB raises java.net.ConnectException
         // in another component (and cannot be caught)
         PrintStream ps = System.err;
@@ -216,94 +317,52 @@ public final class DBManager {
      * Creates document in db from persistable object obj.
      *
      * @param obj the object to create
+     * @return future set once the document is written
      */
-    public void createDoc(Persistable obj) {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.insert(new BasicDBObject(obj.getDBObject()));
-        } catch (Exception e) {
-            // Do not log when duplicate key
-            // Virtual network was already stored and we're trying to create it
-            // again on startup
-            if (e instanceof MongoException.DuplicateKey) {
-                log.warn("Skipped saving of virtual network with duplicate tenant id");
-            } else {
-                log.error("Failed to insert document into database: {}", e.getMessage());
-            }
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
-        }
+    public ListenableFuture<Boolean> createDoc(Persistable obj) {
+        Map<String, Object> query = new HashMap<String, Object>(
+                obj.getDBIndex());
+        return this.journal().insert(obj.getDBName(), query,
+                obj.getDBObject());
     }
 
     /**
      * Removes document from db.
      *
      * @param obj the object to remove
+     * @return future set once the document is removed
      */
-    public void removeDoc(Persistable obj) {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.remove(new BasicDBObject(obj.getDBObject()));
-        } catch (Exception e) {
-            log.error("Failed to remove document from database: {}",
-                    e.getMessage());
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
-        }
+    public ListenableFuture<Boolean> removeDoc(Persistable obj) {
+        Map<String, Object> query = new HashMap<String, Object>(
+                obj.getDBIndex());
+        return this.journal().removeDoc(obj.getDBName(), query,
+                obj.getDBObject());
     }
 
     /**
      * Saves persistable object obj.
      *
      * @param obj the object to persist
+     * @return future set once the object is written
      */
-    public void save(Persistable obj) {
-        BasicDBObject query = new BasicDBObject();
-        query.putAll(obj.getDBIndex());
-        BasicDBObject update = new BasicDBObject("$addToSet",
-                new BasicDBObject(obj.getDBKey(), obj.getDBObject()));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.update(query, update, true, false);
-        } catch (Exception e) {
-            log.error("Failed to update database: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
-        }
+    public ListenableFuture<Boolean> save(Persistable obj) {
+        Map<String, Object> query = new HashMap<String, Object>(
+                obj.getDBIndex());
+        return this.journal().addToSet(obj.getDBName(), query, obj.getDBKey(),
+                obj.getDBObject());
     }
 
     /**
      * Removes persistable object obj.
      *
      * @param obj the object to remove
+     * @return future set once the object is removed
      */
-    public void remove(Persistable obj) {
-        BasicDBObject query = new BasicDBObject();
-        query.putAll(obj.getDBIndex());
-        BasicDBObject update = new BasicDBObject("$pull", new BasicDBObject(
-                obj.getDBKey(), obj.getDBObject()));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.update(query, update);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
-        }
+    public ListenableFuture<Boolean> remove(Persistable obj) {
+        Map<String, Object> query = new HashMap<String, Object>(
+                obj.getDBIndex());
+        return this.journal().pull(obj.getDBName(), query, obj.getDBKey(),
+                obj.getDBObject());
     }
 
     /**
@@ -311,23 +370,15 @@ public final class DBManager {
      *
      * @param tenantId the tenant ID
      * @param switchId the dpid
+     * @return future set once the routes are removed
      */
-    public void removeSwitchPath(int tenantId, long switchId) {
-        BasicDBObject query = new BasicDBObject();
+    public ListenableFuture<Boolean> removeSwitchPath(int tenantId,
+                                                      long switchId) {
+        Map<String, Object> query = new HashMap<String, Object>();
         query.put(TenantHandler.TENANT, tenantId);
-        BasicDBObject pull = new BasicDBObject("$pull", new BasicDBObject(
-                SwitchRoute.DB_KEY, new BasicDBObject(TenantHandler.DPID,
-                switchId)));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(DB_VNET);
-            collection.update(query, pull);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
-        }
+        return this.journal().pull(DB_VNET, query, SwitchRoute.DB_KEY,
+                Collections.<String, Object>singletonMap(TenantHandler.DPID,
+                        switchId));
     }
 
     /**
@@ -335,22 +386,14 @@ public final class DBManager {
      *
      * @param tenantId the tenant ID
      * @param linkId the link ID
+     * @return future set once the path is removed
      */
-    public void removeLinkPath(int tenantId, int linkId) {
-        BasicDBObject query = new BasicDBObject();
+    public ListenableFuture<Boolean> removeLinkPath(int tenantId, int linkId) {
+        Map<String, Object> query = new HashMap<String, Object>();
         query.put(TenantHandler.TENANT, tenantId);
-        BasicDBObject pull = new BasicDBObject("$pull", new BasicDBObject(
-                OVXLink.DB_KEY, new BasicDBObject(TenantHandler.LINK, linkId)));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(DB_VNET);
-            collection.update(query, pull);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
-        }
+        return this.journal().pull(DB_VNET, query, OVXLink.DB_KEY,
+                Collections.<String, Object>singletonMap(TenantHandler.LINK,
+                        linkId));
     }
 
     /**
@@ -362,13 +405,12 @@ public final class DBManager {
         PrintStream ps = System.err;
         System.setErr(null);
         try {
-            // Get a cursor over all virtual networks
-            DBCollection coll = this.collections.get(DBManager.DB_VNET);
-            DBCursor cursor = coll.find();
-            log.info("Loading {} virtual networks from database", cursor.size());
-            while (cursor.hasNext()) {
+            // Read all virtual networks
+            List<Map<String, Object>> vnets = this.connection()
+                    .find(DBManager.DB_VNET);
+            log.info("Loading {} virtual networks from database", vnets.size());
+            for (Map<String, Object> vnet : vnets) {
                 OVXNetworkManager mngr = null;
-                Map<String, Object> vnet = cursor.next().toMap();
                 try {
                     // Create vnet manager for each virtual network
                     mngr = new OVXNetworkManager(vnet);
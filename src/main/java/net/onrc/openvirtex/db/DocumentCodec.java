@@ -0,0 +1,256 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encoding of the documents kept by the {@link EmbeddedConnection}.
+ * <p>
+ * Values are normalized the way MongoDB stores them: bytes, shorts and
+ * integers become {@link Integer}, floats and doubles become {@link Double},
+ * lists become {@link ArrayList} and documents become {@link LinkedHashMap},
+ * so a document reads back with the same types from either backend.
+ */
+final class DocumentCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING = 5;
+    private static final byte LIST = 6;
+    private static final byte MAP = 7;
+
+    private DocumentCodec() {
+    }
+
+    /**
+     * Copies a value, normalizing its types.
+     *
+     * @param value the value
+     * @return the normalized copy
+     * @throws IllegalArgumentException if the value cannot be stored
+     */
+    static Object normalize(final Object value) {
+        if (value == null || value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Boolean
+                || value instanceof String) {
+            return value;
+        } else if (value instanceof Byte || value instanceof Short) {
+            return ((Number) value).intValue();
+        } else if (value instanceof Float) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof CharSequence) {
+            return value.toString();
+        } else if (value instanceof Map) {
+            return DocumentCodec.normalizeMap((Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            final Collection<?> values = (Collection<?>) value;
+            final List<Object> list = new ArrayList<Object>(values.size());
+            for (final Object v : values) {
+                list.add(DocumentCodec.normalize(v));
+            }
+            return list;
+        }
+        throw new IllegalArgumentException("Cannot store value of type "
+                + value.getClass().getName());
+    }
+
+    /**
+     * Copies a document, normalizing the types of its values.
+     *
+     * @param doc the document
+     * @return the normalized copy
+     */
+    static Map<String, Object> normalizeMap(final Map<?, ?> doc) {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (final Map.Entry<?, ?> entry : doc.entrySet()) {
+            map.put(String.valueOf(entry.getKey()),
+                    DocumentCodec.normalize(entry.getValue()));
+        }
+        return map;
+    }
+
+    /**
+     * Checks if two normalized values are equal, comparing numbers by
+     * value whatever their type.
+     *
+     * @param a the first value
+     * @param b the second value
+     * @return true if the values are equal, false otherwise
+     */
+    static boolean equal(final Object a, final Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            if (a instanceof Double || b instanceof Double) {
+                return ((Number) a).doubleValue() == ((Number) b)
+                        .doubleValue();
+            }
+            return ((Number) a).longValue() == ((Number) b).longValue();
+        } else if (a instanceof List && b instanceof List) {
+            final List<?> la = (List<?>) a;
+            final List<?> lb = (List<?>) b;
+            if (la.size() != lb.size()) {
+                return false;
+            }
+            for (int i = 0; i < la.size(); i++) {
+                if (!DocumentCodec.equal(la.get(i), lb.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (a instanceof Map && b instanceof Map) {
+            final Map<?, ?> ma = (Map<?, ?>) a;
+            return ma.size() == ((Map<?, ?>) b).size()
+                    && DocumentCodec.matches((Map<?, ?>) b, ma);
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Checks if a document holds all fields of a query.
+     *
+     * @param doc the normalized document
+     * @param query the normalized query
+     * @return true if every field of the query is equal in the document
+     */
+    static boolean matches(final Map<?, ?> doc, final Map<?, ?> query) {
+        for (final Map.Entry<?, ?> entry : query.entrySet()) {
+            if (!DocumentCodec.equal(doc.get(entry.getKey()),
+                    entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a normalized value.
+     *
+     * @param out the output
+     * @param value the value
+     * @throws IOException if the output fails
+     */
+    static void write(final DataOutput out, final Object value)
+            throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            DocumentCodec.writeString(out, (String) value);
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (final Object v : list) {
+                DocumentCodec.write(out, v);
+            }
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                DocumentCodec.writeString(out, (String) entry.getKey());
+                DocumentCodec.write(out, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot store value of type "
+                    + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads a value.
+     *
+     * @param in the input
+     * @return the value
+     * @throws IllegalArgumentException if the input is corrupted
+     */
+    static Object read(final ByteBuffer in) {
+        final byte type = in.get();
+        switch (type) {
+        case NULL:
+            return null;
+        case INT:
+            return in.getInt();
+        case LONG:
+            return in.getLong();
+        case DOUBLE:
+            return in.getDouble();
+        case BOOLEAN:
+            return in.get() != 0;
+        case STRING:
+            return DocumentCodec.readString(in);
+        case LIST:
+            final int size = in.getInt();
+            final List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(DocumentCodec.read(in));
+            }
+            return list;
+        case MAP:
+            final int fields = in.getInt();
+            final Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < fields; i++) {
+                final String key = DocumentCodec.readString(in);
+                map.put(key, DocumentCodec.read(in));
+            }
+            return map;
+        default:
+            throw new IllegalArgumentException("Unknown value type " + type);
+        }
+    }
+
+    static void writeString(final DataOutput out, final String value)
+            throws IOException {
+        final byte[] bytes = value.getBytes(DocumentCodec.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(final ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, DocumentCodec.UTF8);
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.exceptions.DuplicateIndexException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Database backend kept in local files, for hosts without a MongoDB server.
+ * <p>
+ * Documents are held in memory. Every update is appended to an
+ * {@link EmbeddedLog}, and once the log outgrows the last snapshot the
+ * documents are written to a new snapshot and the log is emptied. On start,
+ * the snapshot is read and the log is replayed on top of it, so restoring
+ * the virtual networks costs a sequential read of two files instead of a
+ * query to a database server.
+ * <p>
+ * The host and port given to {@link #connect(String, Integer)} are ignored;
+ * the files are kept in the directory given to the constructor.
+ */
+public class EmbeddedConnection implements DBConnection {
+    /**
+     * Default directory of the database files.
+     */
+    public static final String DEFAULT_PATH = "ovxdb";
+
+    private static final String SNAPSHOT = "ovx.snapshot";
+    private static final String LOG = "ovx.log";
+    private static final int MAGIC = 0x4f565853;
+    // Log size below which the log is never compacted
+    private static final int COMPACT_SIZE = 8 << 20;
+
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte ADD_TO_SET = 3;
+    private static final byte PULL = 4;
+    private static final byte CLEAR = 5;
+    private static final byte INDEX = 6;
+
+    private static Logger log = LogManager.getLogger(EmbeddedConnection.class
+            .getName());
+
+    /**
+     * Documents of a collection, by unique index, or in insertion order if
+     * the collection has no index.
+     */
+    private static final class Documents {
+        private String index;
+        private Map<Object, Map<String, Object>> docs =
+                new LinkedHashMap<Object, Map<String, Object>>();
+        private long nextId = 0;
+
+        private Documents(final String index) {
+            this.index = index;
+        }
+
+        private Object key(final Map<String, Object> doc) {
+            if (this.index == null) {
+                return this.nextId++;
+            }
+            return Documents.indexKey(doc.get(this.index));
+        }
+
+        private static Object indexKey(final Object value) {
+            if (value instanceof Integer) {
+                return ((Integer) value).longValue();
+            }
+            return value;
+        }
+    }
+
+    private final File path;
+    private final Map<String, Documents> collections =
+            new LinkedHashMap<String, Documents>();
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(this.bytes);
+    private EmbeddedLog appendLog = null;
+    private long generation = 0;
+    private long snapshotSize = 0;
+
+    /**
+     * Creates a backend keeping its files in the given directory.
+     *
+     * @param path the directory
+     */
+    public EmbeddedConnection(String path) {
+        this.path = new File(path);
+    }
+
+    @Override
+    public synchronized void connect(String host, Integer port) {
+        EmbeddedConnection.log.info("Opening embedded database in {}",
+                this.path.getAbsolutePath());
+        try {
+            final long start = System.nanoTime();
+            if (!this.path.isDirectory() && !this.path.mkdirs()) {
+                throw new IOException("Cannot create directory " + this.path);
+            }
+            this.readSnapshot();
+            this.appendLog = new EmbeddedLog(new File(this.path,
+                    EmbeddedConnection.LOG));
+            final List<ByteBuffer> records = this.appendLog
+                    .open(this.generation);
+            for (final ByteBuffer record : records) {
+                this.replay(record);
+            }
+            EmbeddedConnection.log.info(
+                    "Restored snapshot and {} logged updates in {} ms",
+                    records.size(), TimeUnit.NANOSECONDS.toMillis(System
+                            .nanoTime() - start));
+            if (!records.isEmpty()) {
+                this.compact();
+            }
+        } catch (Exception e) {
+            EmbeddedConnection.log.error(
+                    "Error opening embedded database: {}", e.getMessage());
+            this.close();
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if (this.appendLog == null) {
+            return;
+        }
+        try {
+            if (!this.appendLog.isEmpty()) {
+                this.compact();
+            }
+        } catch (IOException e) {
+            EmbeddedConnection.log.error(
+                    "Error compacting embedded database: {}", e.getMessage());
+        } finally {
+            this.close();
+        }
+    }
+
+    @Override
+    public synchronized void setIndex(String coll, String key) {
+        this.checkOpen();
+        if (this.doSetIndex(coll, key)) {
+            this.append(EmbeddedConnection.INDEX, coll, key);
+        }
+    }
+
+    @Override
+    public synchronized void clear(String coll) {
+        this.checkOpen();
+        this.collections.remove(coll);
+        this.append(EmbeddedConnection.CLEAR, coll);
+    }
+
+    @Override
+    public synchronized List<Map<String, Object>> find(String coll) {
+        this.checkOpen();
+        final Documents documents = this.collections.get(coll);
+        if (documents == null) {
+            return Collections.emptyList();
+        }
+        final List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>(
+                documents.docs.size());
+        for (final Map<String, Object> doc : documents.docs.values()) {
+            docs.add(DocumentCodec.normalizeMap(doc));
+        }
+        return docs;
+    }
+
+    @Override
+    public synchronized void insert(String coll, Map<String, Object> doc)
+            throws DuplicateIndexException {
+        this.checkOpen();
+        final Map<String, Object> d = DocumentCodec.normalizeMap(doc);
+        this.doInsert(coll, d);
+        this.append(EmbeddedConnection.INSERT, coll, d);
+    }
+
+    @Override
+    public synchronized void remove(String coll, Map<String, Object> doc) {
+        this.checkOpen();
+        final Map<String, Object> d = DocumentCodec.normalizeMap(doc);
+        this.doRemove(coll, d);
+        this.append(EmbeddedConnection.REMOVE, coll, d);
+    }
+
+    @Override
+    public synchronized void addToSet(String coll, Map<String, Object> query,
+            Map<String, List<Object>> values) {
+        this.checkOpen();
+        final Map<String, Object> q = DocumentCodec.normalizeMap(query);
+        final Map<String, Object> v = DocumentCodec.normalizeMap(values);
+        this.doAddToSet(coll, q, v);
+        this.append(EmbeddedConnection.ADD_TO_SET, coll, q, v);
+    }
+
+    @Override
+    public synchronized void pull(String coll, Map<String, Object> query,
+            String key, Object value) {
+        this.checkOpen();
+        final Map<String, Object> q = DocumentCodec.normalizeMap(query);
+        final Object v = DocumentCodec.normalize(value);
+        this.doPull(coll, q, key, v);
+        this.append(EmbeddedConnection.PULL, coll, q, key, v);
+    }
+
+    private void checkOpen() {
+        if (this.appendLog == null) {
+            throw new IllegalStateException("Embedded database is not open");
+        }
+    }
+
+    private boolean doSetIndex(final String coll, final String key) {
+        final Documents documents = this.getDocuments(coll);
+        if (key.equals(documents.index)) {
+            return false;
+        }
+        final Map<Object, Map<String, Object>> docs =
+                new LinkedHashMap<Object, Map<String, Object>>();
+        for (final Map<String, Object> doc : documents.docs.values()) {
+            final Object k = Documents.indexKey(doc.get(key));
+            if (docs.containsKey(k)) {
+                throw new IllegalStateException("Duplicate " + key + " " + k);
+            }
+            docs.put(k, doc);
+        }
+        documents.index = key;
+        documents.docs = docs;
+        return true;
+    }
+
+    private void doInsert(final String coll, final Map<String, Object> doc)
+            throws DuplicateIndexException {
+        final Documents documents = this.getDocuments(coll);
+        final Object key = documents.key(doc);
+        if (documents.index != null && documents.docs.containsKey(key)) {
+            throw new DuplicateIndexException("Duplicate " + documents.index
+                    + " " + key);
+        }
+        documents.docs.put(key, doc);
+    }
+
+    private void doRemove(final String coll, final Map<String, Object> doc) {
+        final Documents documents = this.collections.get(coll);
+        if (documents == null) {
+            return;
+        }
+        final Iterator<Map<String, Object>> it = documents.docs.values()
+                .iterator();
+        while (it.hasNext()) {
+            if (DocumentCodec.matches(it.next(), doc)) {
+                it.remove();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void doAddToSet(final String coll, final Map<String, Object> query,
+            final Map<String, Object> values) {
+        final Documents documents = this.getDocuments(coll);
+        Map<String, Object> doc = this.findOne(documents, query);
+        if (doc == null) {
+            // upsert, the document starts with the fields of the query
+            doc = new LinkedHashMap<String, Object>(query);
+            final Object key = documents.key(doc);
+            if (documents.index != null && documents.docs.containsKey(key)) {
+                throw new IllegalStateException("Duplicate " + documents.index
+                        + " " + key);
+            }
+            documents.docs.put(key, doc);
+        }
+        for (final Map.Entry<String, Object> entry : values.entrySet()) {
+            final Object field = doc.get(entry.getKey());
+            final List<Object> list;
+            if (field == null) {
+                list = new ArrayList<Object>();
+                doc.put(entry.getKey(), list);
+            } else if (field instanceof List) {
+                list = (List<Object>) field;
+            } else {
+                throw new IllegalStateException("Field " + entry.getKey()
+                        + " is not an array");
+            }
+            for (final Object value : (List<Object>) entry.getValue()) {
+                if (!EmbeddedConnection.contains(list, value)) {
+                    list.add(value);
+                }
+            }
+        }
+    }
+
+    private void doPull(final String coll, final Map<String, Object> query,
+            final String key, final Object value) {
+        final Documents documents = this.collections.get(coll);
+        final Map<String, Object> doc = documents == null ? null : this
+                .findOne(documents, query);
+        if (doc == null || !(doc.get(key) instanceof List)) {
+            return;
+        }
+        final Iterator<?> it = ((List<?>) doc.get(key)).iterator();
+        while (it.hasNext()) {
+            final Object element = it.next();
+            if (value instanceof Map ? element instanceof Map
+                    && DocumentCodec.matches((Map<?, ?>) element,
+                            (Map<?, ?>) value) : DocumentCodec.equal(element,
+                    value)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static boolean contains(final List<Object> list,
+            final Object value) {
+        for (final Object element : list) {
+            if (DocumentCodec.equal(element, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Documents getDocuments(final String coll) {
+        Documents documents = this.collections.get(coll);
+        if (documents == null) {
+            documents = new Documents(null);
+            this.collections.put(coll, documents);
+        }
+        return documents;
+    }
+
+    /**
+     * Finds the first document matching the query, looking it up by index
+     * when the query holds the indexed field.
+     */
+    private Map<String, Object> findOne(final Documents documents,
+            final Map<String, Object> query) {
+        if (documents.index != null && query.containsKey(documents.index)) {
+            final Map<String, Object> doc = documents.docs.get(Documents
+                    .indexKey(query.get(documents.index)));
+            return doc != null && DocumentCodec.matches(doc, query) ? doc
+                    : null;
+        }
+        for (final Map<String, Object> doc : documents.docs.values()) {
+            if (DocumentCodec.matches(doc, query)) {
+                return doc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends an update to the log, and compacts the log once it outgrows
+     * the last snapshot, or half its maximum size. An update that would
+     * push the log past its maximum size is not logged; it is already
+     * applied, so compacting saves it with the other documents.
+     */
+    private void append(final byte op, final String coll,
+            final Object... values) {
+        try {
+            this.bytes.reset();
+            this.out.writeByte(op);
+            DocumentCodec.writeString(this.out, coll);
+            for (final Object value : values) {
+                DocumentCodec.write(this.out, value);
+            }
+            if (!this.appendLog.canAppend(this.bytes.size())) {
+                this.compact();
+                return;
+            }
+            this.appendLog.append(this.bytes.toByteArray());
+            if (this.appendLog.size() > Math.min(Math.max(
+                    EmbeddedConnection.COMPACT_SIZE, this.snapshotSize),
+                    EmbeddedLog.MAX_CAPACITY / 2)) {
+                this.compact();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Failed to write embedded database log", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replay(final ByteBuffer record) {
+        final byte op = record.get();
+        final String coll = DocumentCodec.readString(record);
+        try {
+            switch (op) {
+            case INSERT:
+                this.doInsert(coll,
+                        (Map<String, Object>) DocumentCodec.read(record));
+                break;
+            case REMOVE:
+                this.doRemove(coll,
+                        (Map<String, Object>) DocumentCodec.read(record));
+                break;
+            case ADD_TO_SET:
+                this.doAddToSet(coll,
+                        (Map<String, Object>) DocumentCodec.read(record),
+                        (Map<String, Object>) DocumentCodec.read(record));
+                break;
+            case PULL:
+                this.doPull(coll,
+                        (Map<String, Object>) DocumentCodec.read(record),
+                        (String) DocumentCodec.read(record),
+                        DocumentCodec.read(record));
+                break;
+            case CLEAR:
+                this.collections.remove(coll);
+                break;
+            case INDEX:
+                this.doSetIndex(coll, (String) DocumentCodec.read(record));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown log record " + op);
+            }
+        } catch (DuplicateIndexException | IllegalStateException e) {
+            // rejected when logged as well
+            EmbeddedConnection.log.debug("Skipped logged update: {}",
+                    e.getMessage());
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        this.collections.clear();
+        this.generation = 0;
+        this.snapshotSize = 0;
+        final File file = new File(this.path, EmbeddedConnection.SNAPSHOT);
+        if (!file.exists()) {
+            return;
+        }
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + file + " holds "
+                        + channel.size() + " bytes, more than can be read");
+            }
+            final ByteBuffer snapshot = ByteBuffer.allocate((int) channel
+                    .size());
+            while (snapshot.hasRemaining()) {
+                if (channel.read(snapshot) < 0) {
+                    throw new EOFException("Truncated snapshot " + file);
+                }
+            }
+            snapshot.flip();
+            if (snapshot.getInt() != EmbeddedConnection.MAGIC) {
+                throw new IOException("Invalid snapshot " + file);
+            }
+            this.generation = snapshot.getLong();
+            final int count = snapshot.getInt();
+            for (int i = 0; i < count; i++) {
+                final String coll = DocumentCodec.readString(snapshot);
+                final Documents documents = new Documents(
+                        (String) DocumentCodec.read(snapshot));
+                final int size = snapshot.getInt();
+                for (int j = 0; j < size; j++) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> doc = (Map<String, Object>) DocumentCodec
+                            .read(snapshot);
+                    documents.docs.put(documents.key(doc), doc);
+                }
+                this.collections.put(coll, documents);
+            }
+            this.snapshotSize = snapshot.limit();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes all documents to a new snapshot, replacing the previous one,
+     * and empties the log.
+     */
+    private void compact() throws IOException {
+        final long start = System.nanoTime();
+        final File tmp = new File(this.path, EmbeddedConnection.SNAPSHOT
+                + ".tmp");
+        final FileOutputStream file = new FileOutputStream(tmp);
+        try {
+            final DataOutputStream snapshot = new DataOutputStream(
+                    new BufferedOutputStream(file, 1 << 16));
+            snapshot.writeInt(EmbeddedConnection.MAGIC);
+            snapshot.writeLong(this.generation + 1);
+            snapshot.writeInt(this.collections.size());
+            for (final Map.Entry<String, Documents> entry : this.collections
+                    .entrySet()) {
+                final Documents documents = entry.getValue();
+                DocumentCodec.writeString(snapshot, entry.getKey());
+                DocumentCodec.write(snapshot, documents.index);
+                snapshot.writeInt(documents.docs.size());
+                for (final Map<String, Object> doc : documents.docs.values()) {
+                    DocumentCodec.write(snapshot, doc);
+                }
+            }
+            snapshot.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        Files.move(tmp.toPath(), new File(this.path,
+                EmbeddedConnection.SNAPSHOT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        this.generation++;
+        this.snapshotSize = new File(this.path, EmbeddedConnection.SNAPSHOT)
+                .length();
+        this.appendLog.reset(this.generation);
+        EmbeddedConnection.log.debug(
+                "Compacted embedded database into {} bytes in {} ms",
+                this.snapshotSize, TimeUnit.NANOSECONDS.toMillis(System
+                        .nanoTime() - start));
+    }
+
+    private void close() {
+        if (this.appendLog == null) {
+            return;
+        }
+        try {
+            this.appendLog.close();
+        } catch (IOException e) {
+            EmbeddedConnection.log.error(
+                    "Error closing embedded database: {}", e.getMessage());
+        }
+        this.appendLog = null;
+    }
+}
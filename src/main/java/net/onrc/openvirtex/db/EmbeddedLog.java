@@ -0,0 +1,258 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the {@link EmbeddedConnection}, written through a
+ * memory-mapped file. Records survive a crash of the process as soon as they
+ * are appended, and reach the disk when the log is forced or closed.
+ * <p>
+ * The log starts with a header holding the generation of the snapshot it
+ * follows, so a log left over by an interrupted compaction is discarded.
+ * Each record is prefixed by its length and checksum, and followed by a zero
+ * length marking the end of the log.
+ * <p>
+ * The log is mapped at most {@link #MAX_CAPACITY} bytes; the owner compacts
+ * it into a snapshot rather than let it grow past that bound. A mapping
+ * replaced by a larger one is unmapped right away instead of being left to
+ * the garbage collector.
+ */
+final class EmbeddedLog {
+
+    private static final int MAGIC = 0x4f56584c;
+    private static final int HEADER = 12;
+    private static final int RECORD_HEADER = 8;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    /**
+     * Largest size of the log, in bytes.
+     */
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer buffer;
+    private int position;
+
+    /**
+     * Opens the log file, creating it if needed.
+     *
+     * @param path the log file
+     * @throws IOException if the file cannot be opened
+     */
+    EmbeddedLog(final File path) throws IOException {
+        this.path = path;
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = this.file.getChannel();
+    }
+
+    /**
+     * Maps the log and reads the records appended after the snapshot of the
+     * given generation. A log of another generation is reset.
+     *
+     * @param generation the generation of the snapshot
+     * @return the records, in order
+     * @throws IOException if the file cannot be mapped or is larger than
+     *             {@link #MAX_CAPACITY}
+     */
+    List<ByteBuffer> open(final long generation) throws IOException {
+        final long size = this.channel.size();
+        if (size > EmbeddedLog.MAX_CAPACITY) {
+            throw new IOException("Log " + this.path + " holds " + size
+                    + " bytes, more than the limit of "
+                    + EmbeddedLog.MAX_CAPACITY);
+        }
+        this.map((int) Math.max(size, EmbeddedLog.INITIAL_CAPACITY));
+        final List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+        if (size < EmbeddedLog.HEADER
+                || this.buffer.getInt(0) != EmbeddedLog.MAGIC
+                || this.buffer.getLong(4) != generation) {
+            this.reset(generation);
+            return records;
+        }
+        int pos = EmbeddedLog.HEADER;
+        while (pos + EmbeddedLog.RECORD_HEADER <= size) {
+            final int length = this.buffer.getInt(pos);
+            if (length <= 0
+                    || pos + EmbeddedLog.RECORD_HEADER + (long) length > size) {
+                break;
+            }
+            final byte[] data = new byte[length];
+            final ByteBuffer in = this.buffer.duplicate();
+            in.position(pos + EmbeddedLog.RECORD_HEADER);
+            in.get(data);
+            this.crc.reset();
+            this.crc.update(data);
+            if ((int) this.crc.getValue() != this.buffer.getInt(pos + 4)) {
+                // torn write, the log ends here
+                break;
+            }
+            records.add(ByteBuffer.wrap(data));
+            pos += EmbeddedLog.RECORD_HEADER + length;
+        }
+        this.position = pos;
+        this.ensure(pos + 4);
+        this.buffer.putInt(pos, 0);
+        return records;
+    }
+
+    /**
+     * @param length the length of a record
+     * @return true if the record can be appended without the log growing
+     *         past {@link #MAX_CAPACITY}
+     */
+    boolean canAppend(final int length) {
+        return (long) this.position + EmbeddedLog.RECORD_HEADER + length + 4
+                <= EmbeddedLog.MAX_CAPACITY;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param data the record
+     * @throws IOException if the log cannot grow
+     */
+    void append(final byte[] data) throws IOException {
+        final int end = this.position + EmbeddedLog.RECORD_HEADER
+                + data.length;
+        this.ensure(end + 4);
+        this.crc.reset();
+        this.crc.update(data);
+        final ByteBuffer out = this.buffer.duplicate();
+        out.position(this.position + EmbeddedLog.RECORD_HEADER);
+        out.put(data);
+        this.buffer.putInt(end, 0);
+        this.buffer.putInt(this.position + 4, (int) this.crc.getValue());
+        // the length is written last, publishing the record
+        this.buffer.putInt(this.position, data.length);
+        this.position = end;
+    }
+
+    /**
+     * Empties the log, which now follows the snapshot of the given
+     * generation.
+     *
+     * @param generation the generation of the snapshot
+     */
+    void reset(final long generation) {
+        this.buffer.putInt(EmbeddedLog.HEADER, 0);
+        this.buffer.putLong(4, generation);
+        this.buffer.putInt(0, EmbeddedLog.MAGIC);
+        this.buffer.force();
+        this.position = EmbeddedLog.HEADER;
+    }
+
+    /**
+     * @return the number of bytes used by the log
+     */
+    int size() {
+        return this.position;
+    }
+
+    /**
+     * @return true if no record was appended since the last reset
+     */
+    boolean isEmpty() {
+        return this.position == EmbeddedLog.HEADER;
+    }
+
+    /**
+     * Forces the log to disk and closes it.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    void close() throws IOException {
+        try {
+            if (this.buffer != null) {
+                this.buffer.force();
+                EmbeddedLog.unmap(this.buffer);
+                this.buffer = null;
+            }
+        } finally {
+            this.file.close();
+        }
+    }
+
+    private void ensure(final int capacity) throws IOException {
+        if (capacity > EmbeddedLog.MAX_CAPACITY) {
+            throw new IOException("Log " + this.path
+                    + " cannot grow past " + EmbeddedLog.MAX_CAPACITY
+                    + " bytes");
+        }
+        if (capacity > this.buffer.capacity()) {
+            this.map((int) Math.min(EmbeddedLog.MAX_CAPACITY, Math.max(
+                    capacity, this.buffer.capacity() * 2L)));
+        }
+    }
+
+    private void map(final int capacity) throws IOException {
+        final MappedByteBuffer old = this.buffer;
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                capacity);
+        if (old != null) {
+            EmbeddedLog.unmap(old);
+        }
+    }
+
+    /**
+     * Releases a mapping, which must no longer be accessed. There is no
+     * public API for it, so the JDK cleaner is looked up by reflection; if
+     * that fails the mapping is left to the garbage collector.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Method clean = null;
+            try {
+                clean = unsafe.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // Java 7 and 8
+            }
+            if (clean != null) {
+                final Field theUnsafe = unsafe.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                clean.invoke(theUnsafe.get(null), buffer);
+                return;
+            }
+            final Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            final Object target = cleaner.invoke(buffer);
+            if (target != null) {
+                target.getClass().getMethod("clean").invoke(target);
+            }
+        } catch (Exception e) {
+            // left to the garbage collector
+        }
+    }
+}
@@ -20,12 +20,22 @@
 package net.onrc.openvirtex.db;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.onrc.openvirtex.exceptions.DuplicateIndexException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
 
 public class MongoConnection implements DBConnection {
     private static final String DB_NAME = "OVX";
@@ -57,4 +67,70 @@ public class MongoConnection implements DBConnection {
         return mongo.getDB(MongoConnection.DB_NAME);
     }
 
+    @Override
+    public void setIndex(String coll, String key) {
+        BasicDBObject options = new BasicDBObject("unique", true);
+        BasicDBObject index = new BasicDBObject(key, 1);
+        this.getCollection(coll).ensureIndex(index, options);
+    }
+
+    @Override
+    public void clear(String coll) {
+        this.getCollection(coll).drop();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<Map<String, Object>> find(String coll) {
+        List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+        DBCursor cursor = this.getCollection(coll).find();
+        try {
+            while (cursor.hasNext()) {
+                docs.add(cursor.next().toMap());
+            }
+        } finally {
+            cursor.close();
+        }
+        return docs;
+    }
+
+    @Override
+    public void insert(String coll, Map<String, Object> doc)
+            throws DuplicateIndexException {
+        try {
+            this.getCollection(coll).insert(new BasicDBObject(doc));
+        } catch (MongoException.DuplicateKey e) {
+            throw new DuplicateIndexException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void remove(String coll, Map<String, Object> doc) {
+        this.getCollection(coll).remove(new BasicDBObject(doc));
+    }
+
+    @Override
+    public void addToSet(String coll, Map<String, Object> query,
+            Map<String, List<Object>> values) {
+        BasicDBObject fields = new BasicDBObject();
+        for (Map.Entry<String, List<Object>> entry : values.entrySet()) {
+            BasicDBList each = new BasicDBList();
+            each.addAll(entry.getValue());
+            fields.put(entry.getKey(), new BasicDBObject("$each", each));
+        }
+        this.getCollection(coll).update(new BasicDBObject(query),
+                new BasicDBObject("$addToSet", fields), true, false);
+    }
+
+    @Override
+    public void pull(String coll, Map<String, Object> query, String key,
+            Object value) {
+        this.getCollection(coll).update(new BasicDBObject(query),
+                new BasicDBObject("$pull", new BasicDBObject(key, value)));
+    }
+
+    private DBCollection getCollection(String coll) {
+        return this.getDB().getCollection(coll);
+    }
+
 }
@@ -131,6 +131,11 @@ public class OVXNetworkManager {
                     this.tenantId);
             return null;
         }
+        final Number staleness = (Number) this.vnet
+                .get(TenantHandler.STATS_STALENESS);
+        if (staleness != null) {
+            virtualNetwork.setStatsStaleness(staleness.intValue());
+        }
         virtualNetwork.register();
         return virtualNetwork;
     }
@@ -234,6 +234,13 @@ public interface Mappable {
      */
     public void removeVirtualIPs(int tenantId);
 
+    /**
+     * Removes the mapping of a single virtual IP address.
+     *
+     * @param virtualIP the virtual IP address and its tenant
+     */
+    public void removeIP(OVXIPAddress virtualIP);
+
     /**
      * Removes the MAC address from the map.
      *
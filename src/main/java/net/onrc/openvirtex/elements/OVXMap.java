@@ -31,6 +31,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.onrc.openvirtex.elements.address.IPTranslationCache;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
@@ -70,6 +71,7 @@ public class OVXMap implements Mappable {
     private RadixTree<OVXIPAddress> physicalIPMap;
     private RadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>> virtualIPMap;
     private RadixTree<Integer> macMap;
+    private IPTranslationCache ipCache;
 
     /**
      * Creates a new map instance, by initializing all mapping data structures.
@@ -88,6 +90,7 @@ public class OVXMap implements Mappable {
                 new DefaultCharArrayNodeFactory());
         this.macMap = new ConcurrentRadixTree<Integer>(
                 new DefaultCharArrayNodeFactory());
+        this.ipCache = new IPTranslationCache();
     }
 
     /**
@@ -197,6 +200,7 @@ public class OVXMap implements Mappable {
                       final OVXIPAddress virtualIP) {
         this.addPhysicalIP(physicalIP, virtualIP);
         this.addVirtualIP(virtualIP, physicalIP);
+        this.ipCache.put(physicalIP, virtualIP);
     }
 
     /**
@@ -397,14 +401,10 @@ public class OVXMap implements Mappable {
     @Override
     public PhysicalIPAddress getPhysicalIP(final OVXIPAddress ip,
                                            final Integer tenantId) throws AddressMappingException {
-        final ConcurrentHashMap<Integer, PhysicalIPAddress> ips = this.virtualIPMap
-                .getValueForExactKey(ip.toString());
-        if (ips == null) {
-            throw new AddressMappingException(ip, PhysicalIPAddress.class);
-        }
-        PhysicalIPAddress pip = ips.get(tenantId);
+        final PhysicalIPAddress pip = this.ipCache.getPhysicalIp(tenantId,
+                ip.getIp());
         if (pip == null) {
-            throw new AddressMappingException(tenantId, PhysicalIPAddress.class);
+            throw new AddressMappingException(ip, PhysicalIPAddress.class);
         }
         return pip;
     }
@@ -412,8 +412,7 @@ public class OVXMap implements Mappable {
     @Override
     public OVXIPAddress getVirtualIP(final PhysicalIPAddress ip)
             throws AddressMappingException {
-        OVXIPAddress vip = this.physicalIPMap
-                .getValueForExactKey(ip.toString());
+        final OVXIPAddress vip = this.ipCache.getVirtualIp(ip.getIp());
         if (vip == null) {
             throw new AddressMappingException(ip, OVXIPAddress.class);
         }
@@ -650,6 +649,21 @@ public class OVXMap implements Mappable {
         for (String physicalIP : physicalIPs) {
             physicalIPMap.remove(physicalIP);
         }
+        this.ipCache.removeTenant(tenantId);
+    }
+
+    @Override
+    public void removeIP(final OVXIPAddress virtualIP) {
+        final ConcurrentHashMap<Integer, PhysicalIPAddress> ipMap = this.virtualIPMap
+                .getValueForExactKey(virtualIP.toString());
+        if (ipMap != null) {
+            final PhysicalIPAddress physicalIP = ipMap.remove(virtualIP
+                    .getTenantId());
+            if (physicalIP != null) {
+                this.physicalIPMap.remove(physicalIP.toString());
+            }
+        }
+        this.ipCache.remove(virtualIP);
     }
 
     /**
@@ -762,14 +776,22 @@ public class OVXMap implements Mappable {
      * @return true if the mapping exists, false otherwise
      */
     public boolean hasPhysicalIP(OVXIPAddress vip, Integer tenantId) {
-        final ConcurrentHashMap<Integer, PhysicalIPAddress> ips = this.virtualIPMap
-                .getValueForExactKey(vip.toString());
-        return (ips != null) && (ips.get(tenantId) != null);
+        return this.ipCache.getPhysicalIp(tenantId, vip.getIp()) != null;
     }
 
     @Override
     public boolean hasVirtualIP(PhysicalIPAddress ip) {
-        return this.physicalIPMap.getValueForExactKey(ip.toString()) != null;
+        return this.ipCache.getVirtualIp(ip.getIp()) != null;
+    }
+
+    /**
+     * Gets the primitive-keyed mirror of the IP address mappings, which
+     * also memoizes the IP rewrite actions.
+     *
+     * @return the IP translation cache
+     */
+    public IPTranslationCache getIPTranslationCache() {
+        return this.ipCache;
     }
 
     /**
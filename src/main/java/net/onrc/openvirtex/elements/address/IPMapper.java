@@ -19,25 +19,20 @@
  */
 package net.onrc.openvirtex.elements.address;
 
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-import net.onrc.openvirtex.messages.OVXMessageUtil;
-import net.onrc.openvirtex.messages.actions.OVXActionSetNwSrc;
-import net.onrc.openvirtex.messages.actions.OVXActionSetNwDst;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-
-import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.OVXMap;
-import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
+import net.onrc.openvirtex.elements.address.IPTranslationCache.Translation;
 import net.onrc.openvirtex.exceptions.AddressMappingException;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
-import org.projectfloodlight.openflow.protocol.OFFactories;
-import org.projectfloodlight.openflow.protocol.OFFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.OFVersion;
-import org.projectfloodlight.openflow.protocol.action.*;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.EthType;
@@ -47,6 +42,12 @@ import org.projectfloodlight.openflow.types.IPv4Address;
 /**
  * Utility class for IP mapping operations. Implements methods
  * rewrite or add actions for IP translation.
+ * <p>
+ * Translations are looked up in the {@link IPTranslationCache} of the
+ * {@link OVXMap}, which is lock-striped rather than globally locked, and
+ * rewrite actions are memoized there.
+ * Only the allocation of a physical IP for a new virtual IP is serialized,
+ * per tenant. The returned action lists are immutable.
  */
 public final class IPMapper {
     private static Logger log = LogManager.getLogger(IPMapper.class.getName());
@@ -59,191 +60,140 @@ public final class IPMapper {
     }
 
     public static Integer getPhysicalIp(Integer tenantId, Integer virtualIP) {
+        final Translation t = translate(tenantId, virtualIP);
+        return t == null ? 0 : t.getPhysicalIp().getIp();
+    }
 
-        final Mappable map = OVXMap.getInstance();
-        final OVXIPAddress vip = new OVXIPAddress(tenantId, virtualIP);
-        try {
-            PhysicalIPAddress pip;
-            if (map.hasPhysicalIP(vip, tenantId)) {
-                pip = map.getPhysicalIP(vip, tenantId);
-
-                log.debug("tenantId[" + tenantId + "] has " + vip.toString()
-                + " -> " + pip.toString());
+    /**
+     * Gets the translation of a virtual IP of a tenant, mapping the virtual
+     * IP to the next free physical IP of the tenant if it is not mapped yet.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP
+     * @return the translation, or null if no physical IP could be mapped
+     */
+    private static Translation translate(final int tenantId,
+            final int virtualIP) {
+        final OVXMap map = OVXMap.getInstance();
+        final IPTranslationCache cache = map.getIPTranslationCache();
+        Translation t = cache.getTranslation(tenantId, virtualIP);
+        if (t != null) {
+            return t;
+        }
 
-            } else {
-                pip = new PhysicalIPAddress(map.getVirtualNetwork(tenantId)
-                        .nextIP());
+        final OVXIPAddress vip = new OVXIPAddress(tenantId, virtualIP);
+        synchronized (cache.getTenant(tenantId)) {
+            t = cache.getTranslation(tenantId, virtualIP);
+            if (t != null) {
+                return t;
+            }
+            try {
+                final PhysicalIPAddress pip = new PhysicalIPAddress(map
+                        .getVirtualNetwork(tenantId).nextIP());
                 log.info("Adding IP mapping {} -> {} for tenant {}", vip, pip,
                         tenantId);
                 map.addIP(pip, vip);
+            } catch (IndexOutOfBoundException e) {
+                log.error(
+                        "No available physical IPs for virtual ip {} in tenant {}",
+                        vip, tenantId);
+            } catch (NetworkMappingException e) {
+                log.error(e);
             }
-            return pip.getIp();
-        } catch (IndexOutOfBoundException e) {
-            log.error(
-                    "No available physical IPs for virtual ip {} in tenant {}",
-                    vip, tenantId);
-        } catch (NetworkMappingException e) {
-            log.error(e);
-        } catch (AddressMappingException e) {
-            log.error("Inconsistency in Physical-Virtual mapping : {}", e);
+            t = cache.getTranslation(tenantId, virtualIP);
         }
-        return 0;
+        if (t == null) {
+            log.error("Inconsistency in Physical-Virtual mapping : {}",
+                    new AddressMappingException(vip, PhysicalIPAddress.class));
+        }
+        return t;
     }
 
-    public static synchronized Match rewriteMatch(final Integer tenantId, final Match match) {
-        Match temp = match.createBuilder().build();
-
-        if(match.get(MatchField.IPV4_SRC) != null)
-        {
-            temp = OVXMessageUtil.updateMatch(temp,
-                    temp.createBuilder()
-                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
-                            .setExact(MatchField.IPV4_SRC,
-                                    IPv4Address.of(getPhysicalIp(tenantId, match.get(MatchField.IPV4_SRC).getInt())))
-                            .build());
+    public static Match rewriteMatch(final Integer tenantId, final Match match) {
+        final IPv4Address src = match.get(MatchField.IPV4_SRC);
+        final IPv4Address dst = match.get(MatchField.IPV4_DST);
+        if (src == null && dst == null) {
+            return match;
         }
 
-        if(match.get(MatchField.IPV4_DST) != null)
-        {
-            temp = OVXMessageUtil.updateMatch(temp,
-                    temp.createBuilder()
-                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
-                            .setExact(MatchField.IPV4_DST,
-                                    IPv4Address.of(getPhysicalIp(tenantId, match.get(MatchField.IPV4_DST).getInt())))
-                    .build());
+        final Match.Builder builder = match.createBuilder()
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4);
+        if (src != null) {
+            builder.setExact(MatchField.IPV4_SRC,
+                    IPv4Address.of(getPhysicalIp(tenantId, src.getInt())));
+        }
+        if (dst != null) {
+            builder.setExact(MatchField.IPV4_DST,
+                    IPv4Address.of(getPhysicalIp(tenantId, dst.getInt())));
         }
-        return temp;
+        return builder.build();
     }
 
 
     public static List<OFAction> prependRewriteActions(final Integer tenantId,
                                                        final Match match) {
-        if(match.getVersion() == OFVersion.OF_10)
-            return prependRewriteActionsVer10(tenantId, match);
-        else
-            return prependRewriteActionsVer13(tenantId, match);
-
-
+        OFAction srcAction = null;
+        OFAction dstAction = null;
+
+        final IPv4Address src = match.get(MatchField.IPV4_SRC);
+        if (src != null && src.getInt() != 0) {
+            final Translation t = translate(tenantId, src.getInt());
+            srcAction = t == null ? null
+                    : t.getRewriteAction(match.getVersion(), true);
+        }
+        final IPv4Address dst = match.get(MatchField.IPV4_DST);
+        if (dst != null && dst.getInt() != 0) {
+            final Translation t = translate(tenantId, dst.getInt());
+            dstAction = t == null ? null
+                    : t.getRewriteAction(match.getVersion(), false);
+        }
+        return toList(srcAction, dstAction);
     }
 
     public static List<OFAction> prependRewriteActionsVer13(final Integer tenantId,
                                                             final Match match) {
-        final List<OFAction> actions = new LinkedList<OFAction>();
-
-        OFFactory factory = OFFactories.getFactory(match.getVersion());
-
-        if (match.get(MatchField.IPV4_SRC) != null) {
-            if ( match.get(MatchField.IPV4_SRC).getInt() != 0) {
-                OFActionSetField ofActionSetField  = factory.actions().buildSetField()
-                        .setField(factory.oxms().ipv4Src(IPv4Address.of(
-                                getPhysicalIp(tenantId,
-                                        match.get(MatchField.IPV4_SRC).getInt()))))
-                        .build();
-                actions.add(ofActionSetField);
-            }
-        }
-
-        if (match.get(MatchField.IPV4_DST) != null) {
-            if(match.get(MatchField.IPV4_DST).getInt() != 0) {
-                OFActionSetField ofActionSetField = factory.actions().buildSetField()
-                        .setField(factory.oxms().ipv4Dst(IPv4Address.of(
-                                getPhysicalIp(tenantId,
-                                        match.get(MatchField.IPV4_DST).getInt()))))
-                        .build();
-                actions.add(ofActionSetField);
-            }
-        }
-        return actions;
+        return prependRewriteActions(tenantId, match);
     }
 
 
     public static List<OFAction> prependRewriteActionsVer10(final Integer tenantId,
                                                        final Match match) {
-        final List<OFAction> actions = new LinkedList<OFAction>();
-
-        OFActions action = OFFactories.getFactory(match.getVersion()).actions();
-
-        if (match.get(MatchField.IPV4_SRC) != null) {
-            if ( match.get(MatchField.IPV4_SRC).getInt() != 0) {
-                OFActionSetNwSrc ofActionSetNwSrc = action.buildSetNwSrc()
-                        .setNwAddr(IPv4Address.of(getPhysicalIp(tenantId,
-                                match.get(MatchField.IPV4_SRC).getInt())))
-                        .build();
-                //final OVXActionSetNwSrc srcAct = new OVXActionSetNwSrc(ofActionSetNwSrc);
-                actions.add(ofActionSetNwSrc);
-            }
-        }
-
-        if (match.get(MatchField.IPV4_DST) != null) {
-            if(match.get(MatchField.IPV4_DST).getInt() != 0) {
-                OFActionSetNwDst ofActionSetNwDst = action.buildSetNwDst()
-                        .setNwAddr(IPv4Address.of(getPhysicalIp(tenantId,
-                                match.get(MatchField.IPV4_DST).getInt())))
-                        .build();
-                //final OVXActionSetNwDst dstAct = new OVXActionSetNwDst(ofActionSetNwDst);
-                actions.add(ofActionSetNwDst);
-            }
-        }
-        return actions;
+        return prependRewriteActions(tenantId, match);
     }
 
     public static List<OFAction> prependUnRewriteActions(final Match match) {
-        if(match.getVersion() == OFVersion.OF_10)
-            return prependUnRewriteActionsVer10(match);
-        else
-            return prependUnRewriteActionsVer13(match);
-
-    }
-    public static List<OFAction> prependUnRewriteActionsVer13(final Match match) {
-        final List<OFAction> actions = new LinkedList<OFAction>();
-
-        OFFactory factory = OFFactories.getFactory(match.getVersion());
-
-        if (match.get(MatchField.IPV4_SRC) != null) {
-            if(match.get(MatchField.IPV4_SRC).getInt() != 0) {
-                OFActionSetField ofActionSetField  = factory.actions().buildSetField()
-                        .setField(factory.oxms().ipv4Src(match.get(MatchField.IPV4_SRC)))
-                        .build();
-                actions.add(ofActionSetField);
-            }
+        final IPTranslationCache cache = OVXMap.getInstance()
+                .getIPTranslationCache();
+        final OFVersion version = match.getVersion();
+        OFAction srcAction = null;
+        OFAction dstAction = null;
+
+        final IPv4Address src = match.get(MatchField.IPV4_SRC);
+        if (src != null && src.getInt() != 0) {
+            srcAction = cache.getRestoreAction(version, true, src);
         }
-
-        if (match.get(MatchField.IPV4_DST) != null) {
-            if(match.get(MatchField.IPV4_DST).getInt() != 0) {
-                OFActionSetField ofActionSetField  = factory.actions().buildSetField()
-                        .setField(factory.oxms().ipv4Dst(match.get(MatchField.IPV4_DST)))
-                        .build();
-                actions.add(ofActionSetField);
-            }
+        final IPv4Address dst = match.get(MatchField.IPV4_DST);
+        if (dst != null && dst.getInt() != 0) {
+            dstAction = cache.getRestoreAction(version, false, dst);
         }
-        return actions;
+        return toList(srcAction, dstAction);
     }
 
-    public static List<OFAction> prependUnRewriteActionsVer10(final Match match) {
-        final List<OFAction> actions = new LinkedList<OFAction>();
-
-        OFActions action = OFFactories.getFactory(match.getVersion()).actions();
-
+    public static List<OFAction> prependUnRewriteActionsVer13(final Match match) {
+        return prependUnRewriteActions(match);
+    }
 
-        if (match.get(MatchField.IPV4_SRC) != null) {
-            if(match.get(MatchField.IPV4_SRC).getInt() != 0) {
-                OFActionSetNwSrc ofActionSetNwSrc = action.buildSetNwSrc()
-                        .setNwAddr(match.get(MatchField.IPV4_SRC))
-                        .build();
-//                final OVXActionSetNwSrc srcAct = new OVXActionSetNwSrc(ofActionSetNwSrc);
-                actions.add(ofActionSetNwSrc);
-            }
-        }
+    public static List<OFAction> prependUnRewriteActionsVer10(final Match match) {
+        return prependUnRewriteActions(match);
+    }
 
-        if (match.get(MatchField.IPV4_DST) != null) {
-            if(match.get(MatchField.IPV4_DST).getInt() != 0) {
-                OFActionSetNwDst ofActionSetNwDst = action.buildSetNwDst()
-                        .setNwAddr(match.get(MatchField.IPV4_DST))
-                        .build();
-//                final OVXActionSetNwDst dstAct = new OVXActionSetNwDst(ofActionSetNwDst);
-                actions.add(ofActionSetNwDst);
-            }
+    private static List<OFAction> toList(final OFAction src,
+            final OFAction dst) {
+        if (src == null) {
+            return dst == null ? Collections.<OFAction>emptyList()
+                    : Collections.singletonList(dst);
         }
-         return actions;
+        return dst == null ? Collections.singletonList(src)
+                : Collections.unmodifiableList(Arrays.asList(src, dst));
     }
 }
@@ -0,0 +1,266 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.address;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.onrc.openvirtex.util.ConcurrentLongMap;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.types.IPv4Address;
+
+/**
+ * Primitive-keyed mirror of the IP address mappings held by the
+ * {@link net.onrc.openvirtex.elements.OVXMap}. Virtual to physical
+ * translations are kept per tenant, and physical to virtual translations
+ * globally since physical IPs are unique across tenants. Both are
+ * lock-striped {@link ConcurrentLongMap}s: lookups allocate nothing and
+ * only hold the lock of one segment, and learning a mapping costs the same
+ * however many mappings are already known.
+ * <p>
+ * Each translation also memoizes the actions that rewrite a packet field to
+ * its physical IP, per OpenFlow version, so that flow mod devirtualization
+ * does not build the same actions over and over. The cache is updated by
+ * the map whenever a mapping is added or removed, which drops the memoized
+ * actions of the replaced translation with it.
+ */
+public final class IPTranslationCache {
+
+    private static final OFVersion[] VERSIONS = OFVersion.values();
+    // log2 of the number of slots of the direct-mapped restore action cache
+    private static final int RESTORE_SHIFT = 12;
+
+    private final ConcurrentMap<Integer, Tenant> tenants;
+    private final ConcurrentLongMap<OVXIPAddress> virtualByPhysical;
+    private final Restore[] restoreActions;
+
+    /**
+     * Translations of a single tenant. Also serves as the lock under which
+     * new mappings are allocated for the tenant.
+     */
+    static final class Tenant {
+        private final ConcurrentLongMap<Translation> byVirtual =
+                new ConcurrentLongMap<Translation>();
+    }
+
+    /**
+     * Actions that set a packet field back to a virtual IP, per OpenFlow
+     * version, source then destination.
+     */
+    private static final class Restore {
+        private final int ip;
+        private final OFAction[] actions = new OFAction[VERSIONS.length * 2];
+
+        private Restore(final int ip) {
+            this.ip = ip;
+        }
+    }
+
+    /**
+     * Translation of a virtual IP of a tenant to its physical IP.
+     */
+    static final class Translation {
+        private final PhysicalIPAddress physicalIp;
+        // rewrite actions per OpenFlow version, source then destination;
+        // loxi actions are immutable, so racy initialization is harmless
+        private final OFAction[] actions = new OFAction[VERSIONS.length * 2];
+
+        private Translation(final PhysicalIPAddress physicalIp) {
+            this.physicalIp = physicalIp;
+        }
+
+        PhysicalIPAddress getPhysicalIp() {
+            return this.physicalIp;
+        }
+
+        /**
+         * Gets the action that rewrites the source or destination IP of a
+         * packet to the physical IP.
+         *
+         * @param version the OpenFlow version of the action
+         * @param source true to rewrite the source IP, false for the
+         *            destination IP
+         * @return the action
+         */
+        OFAction getRewriteAction(final OFVersion version,
+                final boolean source) {
+            final int index = version.ordinal() * 2 + (source ? 0 : 1);
+            OFAction action = this.actions[index];
+            if (action == null) {
+                action = buildSetAction(version, source,
+                        IPv4Address.of(this.physicalIp.getIp()));
+                this.actions[index] = action;
+            }
+            return action;
+        }
+    }
+
+    /**
+     * Creates an empty cache.
+     */
+    public IPTranslationCache() {
+        this.tenants = new ConcurrentHashMap<Integer, Tenant>();
+        this.virtualByPhysical = new ConcurrentLongMap<OVXIPAddress>();
+        this.restoreActions = new Restore[1 << RESTORE_SHIFT];
+    }
+
+    /**
+     * Records a mapping, replacing any previous mapping of the virtual IP in
+     * the same tenant.
+     *
+     * @param physicalIp the physical IP
+     * @param virtualIp the virtual IP and its tenant
+     */
+    public void put(final PhysicalIPAddress physicalIp,
+            final OVXIPAddress virtualIp) {
+        final Translation old = this.getTenant(virtualIp.getTenantId())
+                .byVirtual.put(key(virtualIp.getIp()),
+                        new Translation(physicalIp));
+        this.virtualByPhysical.put(key(physicalIp.getIp()), virtualIp);
+        if (old != null && old.physicalIp.getIp() != physicalIp.getIp()) {
+            this.virtualByPhysical.remove(key(old.physicalIp.getIp()));
+        }
+    }
+
+    /**
+     * Drops the mapping of a virtual IP of a tenant.
+     *
+     * @param virtualIp the virtual IP and its tenant
+     * @return the physical IP the virtual IP was mapped to, or null
+     */
+    public PhysicalIPAddress remove(final OVXIPAddress virtualIp) {
+        final Tenant tenant = this.tenants.get(virtualIp.getTenantId());
+        if (tenant == null) {
+            return null;
+        }
+        final Translation t = tenant.byVirtual.remove(key(virtualIp.getIp()));
+        if (t == null) {
+            return null;
+        }
+        this.virtualByPhysical.remove(key(t.physicalIp.getIp()));
+        return t.physicalIp;
+    }
+
+    /**
+     * Drops all mappings of a tenant.
+     *
+     * @param tenantId the tenant ID
+     */
+    public void removeTenant(final int tenantId) {
+        final Tenant tenant = this.tenants.remove(tenantId);
+        if (tenant == null) {
+            return;
+        }
+        for (final Translation t : tenant.byVirtual.values()) {
+            this.virtualByPhysical.remove(key(t.physicalIp.getIp()));
+        }
+    }
+
+    /**
+     * Gets the physical IP a virtual IP of a tenant is mapped to.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIp the virtual IP
+     * @return the physical IP, or null if the virtual IP is not mapped
+     */
+    public PhysicalIPAddress getPhysicalIp(final int tenantId,
+            final int virtualIp) {
+        final Translation t = this.getTranslation(tenantId, virtualIp);
+        return t == null ? null : t.physicalIp;
+    }
+
+    /**
+     * Gets the virtual IP a physical IP is mapped to.
+     *
+     * @param physicalIp the physical IP
+     * @return the virtual IP and its tenant, or null if the physical IP is
+     *         not mapped
+     */
+    public OVXIPAddress getVirtualIp(final int physicalIp) {
+        return this.virtualByPhysical.get(key(physicalIp));
+    }
+
+    Translation getTranslation(final int tenantId, final int virtualIp) {
+        final Tenant tenant = this.tenants.get(tenantId);
+        return tenant == null ? null : tenant.byVirtual.get(key(virtualIp));
+    }
+
+    Tenant getTenant(final int tenantId) {
+        Tenant tenant = this.tenants.get(tenantId);
+        if (tenant == null) {
+            final Tenant added = this.tenants.putIfAbsent(tenantId,
+                    new Tenant());
+            tenant = added == null ? this.tenants.get(tenantId) : added;
+        }
+        return tenant;
+    }
+
+    /**
+     * Gets the action that sets the source or destination IP of a packet
+     * back to the given virtual IP. These only depend on the IP, so they are
+     * shared by all tenants, and kept in a direct-mapped table where a
+     * colliding IP simply replaces the previous entry.
+     *
+     * @param version the OpenFlow version of the action
+     * @param source true to set the source IP, false for the destination IP
+     * @param virtualIp the virtual IP
+     * @return the action
+     */
+    OFAction getRestoreAction(final OFVersion version, final boolean source,
+            final IPv4Address virtualIp) {
+        final int ip = virtualIp.getInt();
+        final int slot = (ip * 0x9E3779B9) >>> (32 - RESTORE_SHIFT);
+        Restore restore = this.restoreActions[slot];
+        if (restore == null || restore.ip != ip) {
+            // a concurrent miss may replace this entry with an equivalent one
+            restore = new Restore(ip);
+            this.restoreActions[slot] = restore;
+        }
+        final int index = version.ordinal() * 2 + (source ? 0 : 1);
+        OFAction action = restore.actions[index];
+        if (action == null) {
+            action = buildSetAction(version, source, virtualIp);
+            restore.actions[index] = action;
+        }
+        return action;
+    }
+
+    private static OFAction buildSetAction(final OFVersion version,
+            final boolean source, final IPv4Address ip) {
+        final OFFactory factory = OFFactories.getFactory(version);
+        if (version == OFVersion.OF_10) {
+            return source
+                    ? factory.actions().buildSetNwSrc().setNwAddr(ip).build()
+                    : factory.actions().buildSetNwDst().setNwAddr(ip).build();
+        }
+        return factory.actions().buildSetField()
+                .setField(source ? factory.oxms().ipv4Src(ip)
+                        : factory.oxms().ipv4Dst(ip))
+                .build();
+    }
+
+    private static long key(final int ip) {
+        return ip & 0xffffffffL;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free allocator of physical cookies for one tenant. A cookie carries
+ * the tenant ID in its upper 32 bits and a slot number in its lower 32
+ * bits. Slots are tracked in a bitmap that grows page by page, and a slot
+ * stays reserved from {@link #allocate()} until {@link #release(long)}, so
+ * a cookie still in use is never handed out again.
+ */
+public class CookieAllocator {
+
+    // 64 words of 64 bits, i.e. 4096 slots per page
+    private static final int PAGE_SHIFT = 6;
+    private static final int PAGE_WORDS = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_WORDS - 1;
+    private static final int MAX_PAGES = 1 << (32 - 6 - PAGE_SHIFT);
+
+    private final long tenantBits;
+    private final AtomicReference<AtomicLongArray[]> pages;
+    // no free slot exists in words below the hint
+    private final AtomicInteger hint;
+    private final AtomicInteger allocated;
+
+    /**
+     * Creates an allocator for the given tenant.
+     *
+     * @param tenantId the tenant ID
+     */
+    public CookieAllocator(final int tenantId) {
+        this.tenantBits = (long) tenantId << 32;
+        final AtomicLongArray first = new AtomicLongArray(PAGE_WORDS);
+        // slot 0 is never used, cookies start from 1
+        first.set(0, 1L);
+        this.pages = new AtomicReference<AtomicLongArray[]>(
+                new AtomicLongArray[] {first});
+        this.hint = new AtomicInteger(0);
+        this.allocated = new AtomicInteger(0);
+    }
+
+    /**
+     * Reserves a free slot and returns its cookie.
+     *
+     * @return the cookie
+     */
+    public long allocate() {
+        final int start = this.hint.get();
+        int word = start;
+        while (true) {
+            final AtomicLongArray[] dir = this.pages.get();
+            final int words = dir.length << PAGE_SHIFT;
+            for (; word < words; word++) {
+                final AtomicLongArray page = dir[word >>> PAGE_SHIFT];
+                final int i = word & PAGE_MASK;
+                long bits = page.get(i);
+                while (bits != -1L) {
+                    final long bit = Long.lowestOneBit(~bits);
+                    if (page.compareAndSet(i, bits, bits | bit)) {
+                        this.allocated.incrementAndGet();
+                        if (word != start) {
+                            // a concurrent release may have lowered the hint
+                            this.hint.compareAndSet(start, word);
+                        }
+                        final long slot = ((long) word << 6)
+                                + Long.numberOfTrailingZeros(bit);
+                        return this.tenantBits | slot;
+                    }
+                    bits = page.get(i);
+                }
+            }
+            this.grow(dir);
+        }
+    }
+
+    /**
+     * Returns the slot of the given cookie to the allocator. Cookies of
+     * other tenants and slots that are not reserved are ignored.
+     *
+     * @param cookie the cookie
+     * @return true if the slot was released
+     */
+    public boolean release(final long cookie) {
+        if ((cookie & 0xFFFFFFFF00000000L) != this.tenantBits) {
+            return false;
+        }
+        final long slot = cookie & 0xFFFFFFFFL;
+        if (slot == 0) {
+            return false;
+        }
+        final int word = (int) (slot >>> 6);
+        final AtomicLongArray[] dir = this.pages.get();
+        if ((word >>> PAGE_SHIFT) >= dir.length) {
+            return false;
+        }
+        final AtomicLongArray page = dir[word >>> PAGE_SHIFT];
+        final int i = word & PAGE_MASK;
+        final long bit = 1L << (slot & 63);
+        long bits = page.get(i);
+        while ((bits & bit) != 0) {
+            if (page.compareAndSet(i, bits, bits & ~bit)) {
+                this.allocated.decrementAndGet();
+                int h = this.hint.get();
+                while (word < h && !this.hint.compareAndSet(h, word)) {
+                    h = this.hint.get();
+                }
+                return true;
+            }
+            bits = page.get(i);
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of reserved slots.
+     *
+     * @return the number of cookies in use
+     */
+    public int getAllocated() {
+        return this.allocated.get();
+    }
+
+    /**
+     * Checks if the slot of the given cookie is reserved.
+     *
+     * @param cookie the cookie
+     * @return true if the cookie is in use, false otherwise
+     */
+    public boolean isAllocated(final long cookie) {
+        if ((cookie & 0xFFFFFFFF00000000L) != this.tenantBits) {
+            return false;
+        }
+        final long slot = cookie & 0xFFFFFFFFL;
+        final int word = (int) (slot >>> 6);
+        final AtomicLongArray[] dir = this.pages.get();
+        if ((word >>> PAGE_SHIFT) >= dir.length) {
+            return false;
+        }
+        return (dir[word >>> PAGE_SHIFT].get(word & PAGE_MASK)
+                & (1L << (slot & 63))) != 0;
+    }
+
+    private void grow(final AtomicLongArray[] dir) {
+        if (dir.length == MAX_PAGES) {
+            throw new IllegalStateException("Cookie space exhausted for tenant "
+                    + (this.tenantBits >>> 32));
+        }
+        final AtomicLongArray[] bigger = Arrays.copyOf(dir, dir.length + 1);
+        bigger[dir.length] = new AtomicLongArray(PAGE_WORDS);
+        // losing the race is fine, the winner added a page as well
+        this.pages.compareAndSet(dir, bigger);
+    }
+}
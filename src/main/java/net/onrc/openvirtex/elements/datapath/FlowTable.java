@@ -76,6 +76,16 @@ public interface FlowTable {
      */
     public long addFlowMod(final OVXFlowMod flowmod, long cookie);
 
+    /**
+     * Checks if the table holds a FlowMod matching exactly on the given
+     * source and destination MAC addresses.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     * @return true if such a FlowMod exists
+     */
+    public boolean hasFlow(long srcMac, long dstMac);
+
     /**
      * @return The contents of this flow table.
      */
@@ -20,18 +20,25 @@
 package net.onrc.openvirtex.elements.datapath;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
+import net.onrc.openvirtex.util.ConcurrentLongMap;
+import net.onrc.openvirtex.util.OVXFlowManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 
 
 import net.onrc.openvirtex.exceptions.MappingException;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import org.projectfloodlight.openflow.protocol.*;
+import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.U32;
@@ -44,25 +51,31 @@ public class OVXFlowTable implements FlowTable {
 
     private final Logger log = LogManager.getLogger(OVXFlowTable.class.getName());
 
+    /**
+     * The cookie returned for a flow mod the table does not hold. The
+     * cookie allocator never hands out slot 0, so no flow mod is stored
+     * under it.
+     */
+    public static final long NO_COOKIE = 0;
+
+    // seconds a retired cookie stays reserved past the timeout of the
+    // physical flows still carrying it, for their FLOW_REMOVED to arrive
+    static final int RETIRE_GRACE = 5;
+    // seconds a retired cookie of a flow without timeouts stays reserved
+    static final int RETIRE_PERMANENT = 60;
+
     // OVXSwitch tied to this table
     protected OVXSwitch vswitch;
     // Map of FlowMods to physical cookies for vlinks
-    protected ConcurrentHashMap<Long, OVXFlowMod> flowmodMap;
-    // Reverse map of FlowMod hashcode to cookie
-    protected ConcurrentHashMap<Integer, Long> cookieMap;
-
-    /**
-     * Temporary solution that should be replaced by something that doesn't
-     * fragment.
-     */
-    private AtomicInteger cookieCounter;
+    protected ConcurrentLongMap<OVXFlowMod> flowmodMap;
+    // Match index over flowmodMap, used instead of full table scans and
+    // as the reverse map of FlowMod to cookie
+    protected OVXFlowTableIndex index;
 
     /**
-     * Stores previously used cookies so we only generate one when this list is
-     * empty.
+     * Hands out the tenant's cookies, never one that is still in use.
      */
-    private LinkedList<Long> freeList;
-    private static final int FREELIST_SIZE = 1024;
+    private CookieAllocator cookies;
 
     /* statistics per specs */
     protected int activeEntries;
@@ -77,10 +90,9 @@ public class OVXFlowTable implements FlowTable {
      * @param vsw the virtual switch
      */
     public OVXFlowTable(OVXSwitch vsw) {
-        this.flowmodMap = new ConcurrentHashMap<Long, OVXFlowMod>();
-        this.cookieMap = new ConcurrentHashMap<Integer, Long>();
-        this.cookieCounter = new AtomicInteger(1);
-        this.freeList = new LinkedList<Long>();
+        this.flowmodMap = new ConcurrentLongMap<OVXFlowMod>();
+        this.index = new OVXFlowTableIndex();
+        this.cookies = new CookieAllocator(vsw.getTenantId());
         this.vswitch = vsw;
 
          /* initialise stats */
@@ -155,21 +167,23 @@ public class OVXFlowTable implements FlowTable {
                     psw.cleanUpTenant(this.vswitch.getTenantId(),
                             OFPort.ANY.getShortPortNumber());
                 }
-                this.flowmodMap.clear();
-                this.cookieMap.clear();
+                for (long cookie : this.flowmodMap.keys()) {
+                    this.removeFlowMod(cookie);
+                }
                 return false;
             } else {
-                // remove matching flow entries, and let FlowMod be sent down((OFFlowMod)fm.getOFMessage()).getMatch()
-                Iterator<Map.Entry<Long, OVXFlowMod>> itr = this.flowmodMap
-                        .entrySet().iterator();
+                // remove matching flow entries, and let FlowMod be sent down
+                Match match = fm.getFlowMod().getMatch();
                 OVXFlowEntry fe = new OVXFlowEntry();
-                while (itr.hasNext()) {
-                    Map.Entry<Long, OVXFlowMod> entry = itr.next();
-                    fe.setOVXFlowMod(entry.getValue());
-                    int overlap = fe.compare(fm.getFlowMod().getMatch(), strict);
+                for (long cookie : this.index.getCandidates(match, strict)) {
+                    OVXFlowMod fmod = this.flowmodMap.get(cookie);
+                    if (fmod == null) {
+                        continue;
+                    }
+                    fe.setOVXFlowMod(fmod);
+                    int overlap = fe.compare(match, strict);
                     if (overlap == OVXFlowEntry.EQUAL) {
-                        this.cookieMap.remove(entry.getValue().hashCode());
-                        itr.remove();
+                        this.removeFlowMod(cookie);
                     }
                 }
                 return true;
@@ -198,7 +212,12 @@ public class OVXFlowTable implements FlowTable {
             //System.out.println(" OFPFF_CHECK_OVERLAP");
 
             OVXFlowEntry fe = new OVXFlowEntry();
-            for (OVXFlowMod fmod : this.flowmodMap.values()) {
+            for (long cookie : this.index.getCandidates(
+                    fm.getFlowMod().getMatch(), false)) {
+                OVXFlowMod fmod = this.flowmodMap.get(cookie);
+                if (fmod == null) {
+                    continue;
+                }
 
                 fe.setOVXFlowMod(fmod);
                 int res = fe.compare(fm.getFlowMod().getMatch(), false);
@@ -236,8 +255,13 @@ public class OVXFlowTable implements FlowTable {
 
         OVXFlowEntry fe = new OVXFlowEntry();
         int res;
-        for (Map.Entry<Long, OVXFlowMod> fmod : this.flowmodMap.entrySet()) {
-            fe.setOVXFlowMod(fmod.getValue());
+        for (long cookie : this.index.getCandidates(
+                fm.getFlowMod().getMatch(), true)) {
+            OVXFlowMod fmod = this.flowmodMap.get(cookie);
+            if (fmod == null) {
+                continue;
+            }
+            fe.setOVXFlowMod(fmod);
 
             log.debug(" FlowEntry [" + U32.of(fe.getOVXFlowMod().hashCode()).toString() + "]");
 
@@ -250,7 +274,7 @@ public class OVXFlowTable implements FlowTable {
             if (res == OVXFlowEntry.EQUAL) {
                 //System.out.println("res == OVXFlowEntry2.EQUAL");
 
-                long c = fmod.getKey();
+                long c = cookie;
                 //System.out.println("replacing equivalent FlowEntry [cookie={}]");
                 //log.info("replacing equivalent FlowEntry Cookie={}", U64.of(c).toString());
                 OVXFlowMod old = this.flowmodMap.get(c);
@@ -258,7 +282,6 @@ public class OVXFlowTable implements FlowTable {
                 if(old!=null)
                     log.debug("remove old FlowMod [" + U32.of(old.hashCode()).toString() +"]");
 
-                this.cookieMap.remove(old.hashCode());
                 this.addFlowMod(fm, c);
                 // return cookie to pool and use the previous cookie
                 return true;
@@ -303,6 +326,18 @@ public class OVXFlowTable implements FlowTable {
         return this.flowmodMap.containsKey(cookie);
     }
 
+    /**
+     * Checks if a flow mod matches exactly on the given source and
+     * destination MAC addresses.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     * @return true if such a flow mod is present, false otherwise
+     */
+    public boolean hasFlow(long srcMac, long dstMac) {
+        return this.index.hasEthPair(srcMac, dstMac);
+    }
+
     /**
      * Gets a new cookie.
      *
@@ -313,41 +348,42 @@ public class OVXFlowTable implements FlowTable {
     }
 
     /**
-     * Gets a cookie based on the given flow mod.
+     * Gets the cookie of the given flow mod. No cookie is reserved for a
+     * flow mod that is not held by the table, such as a delete.
      *
      * @param flowmod the flow mod
-     * @param cflag TODO
-     * @return the cookie
+     * @param cflag true to move a strictly equal entry to a new cookie
+     * @return the cookie, or {@link #NO_COOKIE} if the table does not hold
+     *         the flow mod
      */
     public final long getCookie(OVXFlowMod flowmod, Boolean cflag) {
 
         if (cflag) {
-            long cookie = this.getCookie();
             OVXFlowEntry fe = new OVXFlowEntry();
             int res;
-            for (Map.Entry<Long, OVXFlowMod> fmod : this.flowmodMap.entrySet()) {
-                fe.setOVXFlowMod(fmod.getValue());
+            for (long c : this.index.getCandidates(
+                    flowmod.getFlowMod().getMatch(), true)) {
+                OVXFlowMod fmod = this.flowmodMap.get(c);
+                if (fmod == null) {
+                    continue;
+                }
+                fe.setOVXFlowMod(fmod);
                 res = fe.compare(flowmod.getFlowMod().getMatch(), true);
                 // replace table entry that strictly matches with given FlowMod.
                 if (res == OVXFlowEntry.EQUAL) {
-                    long c = fmod.getKey();
+                    final long cookie = this.getCookie();
                     log.info(
                             "replacing equivalent FlowEntry with new [cookie={}->{}]",
                             U64.of(c).toString(),
                             U64.of(cookie).toString());
-                    OVXFlowMod old = this.flowmodMap.get(c);
-                    this.cookieMap.remove(old.hashCode());
-                    this.flowmodMap.remove(c);
+                    // return the previous cookie to the allocator
+                    this.removeFlowMod(c);
                     this.addFlowMod(flowmod, cookie);
-                    // return cookie to pool and use the previous cookie
                     return cookie;
                 }
             }
         }
-        Long cookie = this.cookieMap.get(flowmod.hashCode());
-        if (cookie == null) {
-            cookie = this.getCookie();
-        }
+        final long cookie = this.findCookie(flowmod);
         log.debug("getCookie Cookie = " + U64.of(cookie).toString());
         log.debug("HashCode = " + U32.of(flowmod.hashCode()).toString());
         log.debug(flowmod.getFlowMod().toString());
@@ -355,6 +391,58 @@ public class OVXFlowTable implements FlowTable {
         return cookie;
     }
 
+    /**
+     * Gets the cookies of the flow mods with an output action to the given
+     * virtual port.
+     *
+     * @param outPort the virtual output port number
+     * @return the cookies
+     */
+    public long[] getForwardingCookies(short outPort) {
+        return this.index.getForwarding(outPort);
+    }
+
+    /**
+     * Gets the cookies of the flow mods that match on the given virtual
+     * input port and have an output action to the given virtual port.
+     *
+     * @param inPort the virtual input port number
+     * @param outPort the virtual output port number
+     * @return the cookies
+     */
+    public long[] getForwardingCookies(short inPort, short outPort) {
+        return this.index.getForwarding(inPort, outPort);
+    }
+
+    /**
+     * Moves the flow mod stored under the given cookie to a new cookie, so
+     * that the physical flows installed for it can be told apart from the
+     * ones installed under the old cookie. The old cookie is retired, as the
+     * physical flows of the old path may still carry it. If the flow mod has
+     * no timeouts these never expire, so its old cookie stays reserved until
+     * the caller deleted them and passed it to {@link #releaseCookie(long)}.
+     *
+     * @param cookie the current cookie
+     * @return the new cookie, or {@link #NO_COOKIE} if no flow mod is stored
+     *         under the cookie
+     */
+    public long renewCookie(final long cookie) {
+        final OVXFlowMod fmod = this.flowmodMap.remove(cookie);
+        if (fmod == null) {
+            return NO_COOKIE;
+        }
+        this.index.remove(cookie);
+        this.countMatch(fmod, false);
+        if (!isPermanent(fmod.getFlowMod())) {
+            this.retireCookie(cookie, retireDelay(fmod.getFlowMod()));
+        }
+        final long newc = this.getCookie();
+        log.debug("replacing FlowEntry with new [cookie={}->{}]",
+                U64.of(cookie).toString(), U64.of(newc).toString());
+        this.addFlowMod(fmod, newc);
+        return newc;
+    }
+
     /**
      * Adds the given flow mod and associate it to the given cookie.
      *
@@ -367,51 +455,180 @@ public class OVXFlowTable implements FlowTable {
         log.debug("HashCode = " + U32.of(flowmod.getFlowMod().hashCode()).toString());
         log.debug(flowmod.getFlowMod().toString());
 
-        this.flowmodMap.put(cookie, flowmod);
-        this.cookieMap.put(flowmod.hashCode(), cookie);
+        final OVXFlowMod old = this.flowmodMap.put(cookie, flowmod);
+        this.index.add(cookie, flowmod.getFlowMod().getMatch(),
+                flowmod.getFlowMod().getActions());
+        if (old != null) {
+            this.countMatch(old, false);
+        }
+        this.countMatch(flowmod, true);
         return cookie;
     }
 
     /**
-     * Deletes the flow mod associated with the given cookie.
+     * Looks up the cookie of a stored FlowMod identical to the given one.
+     * Candidates are found through the match index and narrowed down by
+     * priority before the whole messages are compared.
+     *
+     * @param flowmod the flow mod
+     * @return the cookie, or {@link #NO_COOKIE} if no identical FlowMod is
+     *         stored
+     */
+    private long findCookie(final OVXFlowMod flowmod) {
+        final OFFlowMod ofm = flowmod.getFlowMod();
+        for (long c : this.index.getExact(ofm.getMatch())) {
+            OVXFlowMod fmod = this.flowmodMap.get(c);
+            if (fmod != null
+                    && fmod.getFlowMod().getPriority() == ofm.getPriority()
+                    && fmod.getOFMessage().equals(ofm)) {
+                return c;
+            }
+        }
+        return NO_COOKIE;
+    }
+
+    /**
+     * Removes the flow mod stored under the given cookie, and returns the
+     * cookie to the allocator.
+     *
+     * @param cookie the cookie
+     */
+    private void removeFlowMod(final long cookie) {
+        final OVXFlowMod fmod = this.flowmodMap.remove(cookie);
+        if (fmod != null) {
+            this.index.remove(cookie);
+            this.countMatch(fmod, false);
+            this.cookies.release(cookie);
+        }
+    }
+
+    /**
+     * Gets the number of cookies currently reserved by this table.
+     *
+     * @return the number of reserved cookies
+     */
+    public int getCookieCount() {
+        return this.cookies.getAllocated();
+    }
+
+    /**
+     * Deletes the flow mod associated with the given cookie. The cookie is
+     * retired, as other physical flows installed for the flow mod may still
+     * carry it.
      *
      * @param cookie the cookie
      * @return the flow mod
      */
     public OVXFlowMod deleteFlowMod(final Long cookie) {
-        synchronized (this.freeList) {
-            if (this.freeList.size() <= OVXFlowTable.FREELIST_SIZE) {
-                // add/return cookie to freelist IF list is below FREELIST_SIZE
-                this.freeList.add(cookie);
-            } else {
-                // remove head element, then add
-                this.freeList.remove();
-                this.freeList.add(cookie);
-            }
-            OVXFlowMod ret = this.flowmodMap.remove(cookie);
-            if (ret != null) {
-                this.cookieMap.remove(ret.hashCode());
+        OVXFlowMod ret = this.flowmodMap.remove(cookie);
+        if (ret != null) {
+            this.index.remove(cookie);
+            this.countMatch(ret, false);
+            this.retireCookie(cookie, retireDelay(ret.getFlowMod()));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns an old cookie kept by {@link #renewCookie(long)} for a flow
+     * mod without timeouts, once the physical flows still carrying it have
+     * been deleted. It stays reserved for a few more seconds, for their
+     * FLOW_REMOVED to arrive.
+     *
+     * @param cookie the old cookie
+     */
+    public void releaseCookie(final long cookie) {
+        this.retireCookie(cookie, RETIRE_GRACE);
+    }
+
+    /**
+     * Keeps a cookie no flow mod is stored under reserved until the
+     * physical flows still carrying it have expired, then returns it to the
+     * allocator. Otherwise their FLOW_REMOVED would delete the unrelated
+     * flow mod the cookie was handed out to next.
+     *
+     * @param cookie the cookie
+     * @param delay the delay in seconds
+     */
+    private void retireCookie(final long cookie, final int delay) {
+        PhysicalNetwork.getTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(final Timeout timeout) {
+                OVXFlowTable.this.cookies.release(cookie);
             }
-            return ret;
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets how long a cookie stays retired. The physical flows of a flow
+     * mod expire by its idle or hard timeout, whichever is shorter. Flows
+     * without timeouts never expire; a deleted flow mod has its physical
+     * flows deleted too, so its cookie is only held for a fixed time.
+     *
+     * @param fm the flow mod
+     * @return the delay in seconds
+     */
+    static int retireDelay(final OFFlowMod fm) {
+        final int idle = fm.getIdleTimeout();
+        final int hard = fm.getHardTimeout();
+        if (isPermanent(fm)) {
+            return RETIRE_PERMANENT;
         }
+        final int timeout = idle == 0 ? hard
+                : hard == 0 ? idle : Math.min(idle, hard);
+        return timeout + RETIRE_GRACE;
     }
 
     /**
-     * Fetches a usable cookie for FlowMod storage. If no cookies are available,
-     * generate a new physical cookie from the OVXSwitch tenant ID and
-     * OVXSwitch-unique cookie counter.
+     * Counts or uncounts the given flow mod in the flow ID manager of the
+     * tenant if it matches exactly on both MAC addresses, so that the flow
+     * ID of the pair is not reclaimed while the flow mod is in the table.
      *
-     * @return a physical cookie
+     * @param flowmod the flow mod
+     * @param retain true when the flow mod is added, false when removed
      */
-    private long generateCookie() {
+    private void countMatch(final OVXFlowMod flowmod, final boolean retain) {
+        final Match match = flowmod.getFlowMod().getMatch();
+        if (!match.isExact(MatchField.ETH_SRC)
+                || !match.isExact(MatchField.ETH_DST)) {
+            return;
+        }
+        final OVXFlowManager manager;
         try {
-            return this.freeList.remove();
-        } catch (final NoSuchElementException e) {
-            // none in queue - generate new cookie
-            // TODO double-check that there's no duplicate in ovxFlowMod map.
-            final int cookie = this.cookieCounter.getAndIncrement();
-            return (long) this.vswitch.getTenantId() << 32 | cookie;
+            manager = OVXMap.getInstance()
+                    .getVirtualNetwork(this.vswitch.getTenantId())
+                    .getFlowManager();
+        } catch (NetworkMappingException e) {
+            return;
         }
+        final long srcMac = match.get(MatchField.ETH_SRC).getLong();
+        final long dstMac = match.get(MatchField.ETH_DST).getLong();
+        if (retain) {
+            manager.retainMatch(srcMac, dstMac);
+        } else {
+            manager.releaseMatch(srcMac, dstMac);
+        }
+    }
+
+    /**
+     * Checks if the physical flows of a flow mod never expire.
+     *
+     * @param fm the flow mod
+     * @return true if the flow mod has neither idle nor hard timeout
+     */
+    public static boolean isPermanent(final OFFlowMod fm) {
+        return fm.getIdleTimeout() == 0 && fm.getHardTimeout() == 0;
+    }
+
+    /**
+     * Fetches a usable cookie for FlowMod storage. Physical cookies are made
+     * of the OVXSwitch tenant ID and a slot that is not held by any other
+     * cookie of this table.
+     *
+     * @return a physical cookie
+     */
+    private long generateCookie() {
+        return this.cookies.allocate();
     }
 
     /**
@@ -419,9 +636,13 @@ public class OVXFlowTable implements FlowTable {
      */
     public void dump() {
         String ret = "\n";
-        for (final Map.Entry<Long, OVXFlowMod> fe : this.flowmodMap.entrySet()) {
-            ret += "cookie[" + U64.of(fe.getKey()).toString() + "] HashCode [" + U32.of(fe.getValue().hashCode()).toString() + "] :"
-                    + fe.getValue().getFlowMod().toString()
+        for (final long cookie : this.flowmodMap.keys()) {
+            final OVXFlowMod fm = this.flowmodMap.get(cookie);
+            if (fm == null) {
+                continue;
+            }
+            ret += "cookie[" + U64.of(cookie).toString() + "] HashCode [" + U32.of(fm.hashCode()).toString() + "] :"
+                    + fm.getFlowMod().toString()
                     + "\n";
         }
         this.log.info("OVXFlowTable \n========================\n" + ret
@@ -0,0 +1,406 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import net.onrc.openvirtex.util.ConcurrentLongMap;
+import net.onrc.openvirtex.util.LongHashSet;
+
+import org.projectfloodlight.openflow.protocol.OFActionType;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Match index for the virtual flow table. Keeps, for every field that
+ * {@link OVXFlowEntry#compare(Match, boolean)} inspects, a bucket of cookies
+ * per field value plus a bucket of cookies that wildcard the field, and a
+ * map of complete matches for strict lookups. Complete matches are keyed
+ * independently of the order of their fields, so equivalent OF1.3 matches
+ * built in a different order share a bucket.
+ * <p>
+ * The index only narrows down the set of entries that can possibly compare
+ * as non-disjoint to a given match; callers still run
+ * {@link OVXFlowEntry#compare(Match, boolean)} on the returned candidates so
+ * the outcome is identical to a full table scan.
+ * <p>
+ * The index also keeps the reverse map of output ports to the cookies of
+ * the entries that forward to them, so the flows crossing a virtual link or
+ * big switch route can be found without scanning the table.
+ */
+public class OVXFlowTableIndex {
+
+    /* fields examined by OVXFlowEntry.compare, in the same order */
+    static final MatchField<?>[] INDEXED_FIELDS = {
+        MatchField.IN_PORT,
+        MatchField.ETH_DST,
+        MatchField.ETH_SRC,
+        MatchField.ETH_TYPE,
+        MatchField.VLAN_VID,
+        MatchField.VLAN_PCP,
+        MatchField.IP_PROTO,
+        MatchField.IP_DSCP,
+        MatchField.IPV4_DST,
+        MatchField.IPV4_SRC,
+        MatchField.TCP_DST,
+        MatchField.TCP_SRC
+    };
+
+    private static final long[] EMPTY = new long[0];
+    // position of ETH_SRC in INDEXED_FIELDS
+    private static final int ETH_SRC_SLOT = 2;
+
+    // Match of every indexed cookie, as it was when the cookie was added
+    private final ConcurrentLongMap<Match> matchMap;
+    // Cookies per complete match, used for strict lookups
+    private final Map<MatchKey, LongHashSet> exactMap;
+    // Cookies per field value, one map per indexed field
+    private final List<Map<Object, LongHashSet>> valueMaps;
+    // Cookies that wildcard the field, one set per indexed field
+    private final List<LongHashSet> wildcardSets;
+    // Output ports of every indexed cookie
+    private final ConcurrentLongMap<short[]> outputMap;
+    // Cookies per output port
+    private final Map<Short, LongHashSet> forwardMap;
+
+    /**
+     * Instantiates an empty index.
+     */
+    public OVXFlowTableIndex() {
+        this.matchMap = new ConcurrentLongMap<Match>();
+        this.exactMap = new HashMap<MatchKey, LongHashSet>();
+        this.valueMaps = new ArrayList<Map<Object, LongHashSet>>(
+                INDEXED_FIELDS.length);
+        this.wildcardSets = new ArrayList<LongHashSet>(INDEXED_FIELDS.length);
+        for (int i = 0; i < INDEXED_FIELDS.length; i++) {
+            this.valueMaps.add(new HashMap<Object, LongHashSet>());
+            this.wildcardSets.add(new LongHashSet());
+        }
+        this.outputMap = new ConcurrentLongMap<short[]>();
+        this.forwardMap = new HashMap<Short, LongHashSet>();
+    }
+
+    /**
+     * Indexes the given match and output actions under the given cookie. An
+     * entry previously indexed under the same cookie is replaced.
+     *
+     * @param cookie the cookie
+     * @param match the match of the flow entry
+     * @param actions the actions of the flow entry
+     */
+    public synchronized void add(long cookie, Match match,
+            List<OFAction> actions) {
+        this.remove(cookie);
+        this.matchMap.put(cookie, match);
+        short[] ports = outputPorts(actions);
+        if (ports.length > 0) {
+            this.outputMap.put(cookie, ports);
+            for (short port : ports) {
+                addTo(this.forwardMap, port, cookie);
+            }
+        }
+        addTo(this.exactMap, new MatchKey(match), cookie);
+        for (int i = 0; i < INDEXED_FIELDS.length; i++) {
+            Object value = match.get(INDEXED_FIELDS[i]);
+            if (value == null) {
+                this.wildcardSets.get(i).add(cookie);
+            } else {
+                addTo(this.valueMaps.get(i), value, cookie);
+            }
+        }
+    }
+
+    /**
+     * Removes the given cookie from the index.
+     *
+     * @param cookie the cookie
+     */
+    public synchronized void remove(long cookie) {
+        Match match = this.matchMap.remove(cookie);
+        if (match == null) {
+            return;
+        }
+        removeFrom(this.exactMap, new MatchKey(match), cookie);
+        short[] ports = this.outputMap.remove(cookie);
+        if (ports != null) {
+            for (short port : ports) {
+                removeFrom(this.forwardMap, port, cookie);
+            }
+        }
+        for (int i = 0; i < INDEXED_FIELDS.length; i++) {
+            Object value = match.get(INDEXED_FIELDS[i]);
+            if (value == null) {
+                this.wildcardSets.get(i).remove(cookie);
+            } else {
+                removeFrom(this.valueMaps.get(i), value, cookie);
+            }
+        }
+    }
+
+    /**
+     * Removes all cookies from the index.
+     */
+    public synchronized void clear() {
+        this.matchMap.clear();
+        this.exactMap.clear();
+        this.outputMap.clear();
+        this.forwardMap.clear();
+        for (int i = 0; i < INDEXED_FIELDS.length; i++) {
+            this.valueMaps.get(i).clear();
+            this.wildcardSets.get(i).clear();
+        }
+    }
+
+    /**
+     * Gets the cookies of the entries whose match holds the same fields and
+     * values as the given match, in any order.
+     *
+     * @param match the match to look up
+     * @return a snapshot of the cookies
+     */
+    public synchronized long[] getExact(Match match) {
+        LongHashSet cookies = this.exactMap.get(new MatchKey(match));
+        return cookies == null ? EMPTY : cookies.toArray();
+    }
+
+    /**
+     * Gets the cookies of the entries that may compare as
+     * {@link OVXFlowEntry#EQUAL} to the given match.
+     * <p>
+     * A strict comparison is only equal for identical matches, so strict
+     * lookups are answered from the complete match map. Non-strict lookups
+     * return every entry that does not conflict with the match on the most
+     * selective indexed field, i.e. the entries that either carry the same
+     * value or wildcard that field.
+     *
+     * @param match the match to look up
+     * @param strict true for a strict lookup
+     * @return a snapshot of the candidate cookies
+     */
+    public synchronized long[] getCandidates(Match match, boolean strict) {
+        if (strict) {
+            return this.getExact(match);
+        }
+
+        int best = -1;
+        LongHashSet bestValues = null;
+        int bestSize = Integer.MAX_VALUE;
+        for (int i = 0; i < INDEXED_FIELDS.length; i++) {
+            Object value = match.get(INDEXED_FIELDS[i]);
+            if (value == null) {
+                continue;
+            }
+            LongHashSet values = this.valueMaps.get(i).get(value);
+            int size = this.wildcardSets.get(i).size()
+                    + (values == null ? 0 : values.size());
+            if (size < bestSize) {
+                best = i;
+                bestValues = values;
+                bestSize = size;
+            }
+        }
+
+        if (best == -1) {
+            // nothing to narrow on, every entry is a candidate
+            return this.matchMap.keys();
+        }
+        long[] candidates = new long[bestSize];
+        int pos = 0;
+        if (bestValues != null) {
+            pos = bestValues.copyTo(candidates, pos);
+        }
+        this.wildcardSets.get(best).copyTo(candidates, pos);
+        return candidates;
+    }
+
+    /**
+     * Gets the cookies of the entries with an output action to the given
+     * port.
+     *
+     * @param outPort the output port number
+     * @return a snapshot of the cookies
+     */
+    public synchronized long[] getForwarding(short outPort) {
+        LongHashSet cookies = this.forwardMap.get(outPort);
+        return cookies == null ? EMPTY : cookies.toArray();
+    }
+
+    /**
+     * Gets the cookies of the entries that match exactly on the given input
+     * port and have an output action to the given port.
+     *
+     * @param inPort the input port number
+     * @param outPort the output port number
+     * @return a snapshot of the cookies
+     */
+    public synchronized long[] getForwarding(short inPort, short outPort) {
+        LongHashSet cookies = this.forwardMap.get(outPort);
+        if (cookies == null) {
+            return EMPTY;
+        }
+        long[] candidates = cookies.toArray();
+        int count = 0;
+        for (long cookie : candidates) {
+            OFPort port = this.matchMap.get(cookie).get(MatchField.IN_PORT);
+            if (port != null && port.getShortPortNumber() == inPort) {
+                candidates[count++] = cookie;
+            }
+        }
+        return count == candidates.length ? candidates
+                : Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Checks if an entry matches exactly on the given source and
+     * destination MAC addresses.
+     *
+     * @param ethSrc the source MAC address
+     * @param ethDst the destination MAC address
+     * @return true if such an entry is indexed
+     */
+    public synchronized boolean hasEthPair(long ethSrc, long ethDst) {
+        LongHashSet cookies = this.valueMaps.get(ETH_SRC_SLOT).get(
+                MacAddress.of(ethSrc));
+        if (cookies == null) {
+            return false;
+        }
+        for (long cookie : cookies.toArray()) {
+            MacAddress dst = this.matchMap.get(cookie).get(MatchField.ETH_DST);
+            if (dst != null && dst.getLong() == ethDst) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of indexed cookies
+     */
+    public synchronized int size() {
+        return this.matchMap.size();
+    }
+
+    private static short[] outputPorts(List<OFAction> actions) {
+        short[] ports = new short[actions.size()];
+        int count = 0;
+        for (OFAction act : actions) {
+            if (act.getType() != OFActionType.OUTPUT) {
+                continue;
+            }
+            short port = ((OFActionOutput) act).getPort().getShortPortNumber();
+            boolean seen = false;
+            for (int i = 0; i < count && !seen; i++) {
+                seen = ports[i] == port;
+            }
+            if (!seen) {
+                ports[count++] = port;
+            }
+        }
+        return count == ports.length ? ports : Arrays.copyOf(ports, count);
+    }
+
+    private static <K> void addTo(Map<K, LongHashSet> map, K key,
+            long cookie) {
+        LongHashSet cookies = map.get(key);
+        if (cookies == null) {
+            cookies = new LongHashSet();
+            map.put(key, cookies);
+        }
+        cookies.add(cookie);
+    }
+
+    private static <K> void removeFrom(Map<K, LongHashSet> map, K key,
+            long cookie) {
+        LongHashSet cookies = map.get(key);
+        if (cookies != null) {
+            cookies.remove(cookie);
+            if (cookies.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Order-independent key over the fields of a match.
+     */
+    static final class MatchKey {
+        private final Match match;
+        private final int hash;
+
+        MatchKey(Match match) {
+            this.match = match;
+            int h = match.getVersion().hashCode();
+            for (MatchField<?> field : match.getMatchFields()) {
+                h += field.id.hashCode() ^ valueOf(match, field).hashCode();
+            }
+            this.hash = h;
+        }
+
+        private static Object valueOf(Match match, MatchField<?> field) {
+            return match.isExact(field) ? match.get(field)
+                    : match.getMasked(field);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof MatchKey)) {
+                return false;
+            }
+            MatchKey other = (MatchKey) obj;
+            if (this.hash != other.hash
+                    || this.match.getVersion() != other.match.getVersion()) {
+                return false;
+            }
+            if (this.match.equals(other.match)) {
+                return true;
+            }
+            int count = 0;
+            for (MatchField<?> field : this.match.getMatchFields()) {
+                if (other.match.isFullyWildcarded(field)
+                        || !Objects.equals(valueOf(this.match, field),
+                                valueOf(other.match, field))) {
+                    return false;
+                }
+                count++;
+            }
+            for (MatchField<?> field : other.match.getMatchFields()) {
+                count--;
+            }
+            return count == 0;
+        }
+    }
+}
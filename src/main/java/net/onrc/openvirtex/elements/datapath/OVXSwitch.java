@@ -24,12 +24,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.io.OVXOutboundQueue;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.db.DBManager;
 import net.onrc.openvirtex.elements.Persistable;
 
 import net.onrc.openvirtex.elements.datapath.role.RoleManager.Role;
 import net.onrc.openvirtex.elements.datapath.role.RoleManager;
+import net.onrc.openvirtex.elements.datapath.statistics.VirtualStatistics;
 import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.port.OVXPort;
@@ -40,6 +42,7 @@ import net.onrc.openvirtex.messages.OVXMessage;
 import net.onrc.openvirtex.messages.OVXPacketIn;
 import net.onrc.openvirtex.util.BitSetIndex;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
+import net.onrc.openvirtex.util.OVXMetrics;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -88,6 +91,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
      * the current role of a controller.
      */
     private final RoleManager roleMan;
+    private final VirtualStatistics virtualStats;
 
     //private OFFeaturesReply ofFeaturesReply;
 
@@ -111,6 +115,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
         this.bufferId = new AtomicInteger(1);
         this.flowTable = new OVXFlowTable(this);
         this.roleMan = new RoleManager();
+        this.virtualStats = new VirtualStatistics(this);
         this.channelMux = new XidTranslator<Channel>();
     }
 
@@ -519,6 +524,15 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
         return this.flowTable;
     }
 
+    /**
+     * Gets the cache of the statistics replies of this switch.
+     *
+     * @return the statistics cache
+     */
+    public VirtualStatistics getVirtualStatistics() {
+        return this.virtualStats;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -569,6 +583,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
 
         if (this.isConnected && this.isActive) {
             roleMan.sendMsg(msg.getOFMessage(), c);
+            OVXMetrics.getInstance().countTenantSent(this.tenantId);
         } else {
             // TODO: we probably should install a drop rule here.
             log.warn(
@@ -604,7 +619,11 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
              * send this msg to the dataplane
              */
             if (this.roleMan.canSend(channel, msg.getOFMessage())) {
+                final OVXMetrics metrics = OVXMetrics.getInstance();
+                final long start = metrics.start();
                 ((Devirtualizable) msg).devirtualize(this);
+                metrics.recordDevirtualize(this.tenantId, msg.getOFMessage()
+                        .getType(), start);
             } else {
                 denyAccess(channel, msg.getOFMessage(), this.roleMan.getRole(channel));
             }
@@ -768,7 +787,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
                 .setCode(OFBadRequestCode.EPERM)
                 .build();
 
-        channel.write(Collections.singletonList(e));
+        OVXOutboundQueue.write(channel, e);
     }
 
     /**
@@ -802,7 +821,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
                 .setRole(tempRole)
                 .build();
 
-        channel.write(Collections.singletonList(ofRoleReply));
+        OVXOutboundQueue.write(channel, ofRoleReply);
     }
 
     /**
@@ -23,9 +23,13 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import net.onrc.openvirtex.core.io.OVXOutboundQueue;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.datapath.statistics.FlowStatistics;
 import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
@@ -36,6 +40,7 @@ import net.onrc.openvirtex.messages.OVXMessage;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.Virtualizable;
 import net.onrc.openvirtex.messages.statistics.OVXFlowStatsReply;
+import net.onrc.openvirtex.util.OVXMetrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.channel.Channel;
@@ -57,7 +62,13 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     //private AtomicReference<Map<Short, OVXPortStatisticsReply>> portStats;
     //private AtomicReference<Map<Integer, List<OVXFlowStatisticsReply>>> flowStats;
 
-    private AtomicReference<Map<Integer, List<OFFlowStatsEntry>>> flowStats;
+    private AtomicReference<Map<Integer, FlowStatistics>> flowStats;
+    private AtomicReference<OFAggregateStatsReply> aggregateStats;
+    // tasks waiting on the barriers OVX sent, indexed by xid; these xids are
+    // below the ones the translator hands out
+    private final AtomicReferenceArray<Runnable> barriers =
+            new AtomicReferenceArray<Runnable>(XidTranslator.MIN_XID);
+    private final AtomicInteger barrierXid = new AtomicInteger();
 
     class DeregAction implements Runnable {
 
@@ -100,7 +111,8 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         super(switchId);
         this.translator = new XidTranslator<OVXSwitch>();
         this.portStats = new AtomicReference<Map<Short, OFPortStatsEntry>>();
-        this.flowStats = new AtomicReference<Map<Integer, List<OFFlowStatsEntry>>>();
+        this.flowStats = new AtomicReference<Map<Integer, FlowStatistics>>();
+        this.aggregateStats = new AtomicReference<OFAggregateStatsReply>();
 
         this.setOfVersion(ofv);
 
@@ -130,8 +142,12 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
      */
     @Override
     public void handleIO(final OVXMessage msg, Channel channel) {
+        final OVXMetrics metrics = OVXMetrics.getInstance();
+        final long start = metrics.start();
+        final OFType type = msg.getOFMessage().getType();
         try {
             ((Virtualizable) msg).virtualize(this);
+            metrics.recordVirtualize(this.switchId, type, start);
         } catch (final ClassCastException e) {
             PhysicalSwitch.log.error("Received illegal message : " + msg.getOFMessage().toString());
         }
@@ -199,6 +215,8 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
                 this.featuresReply.getDatapathId(), this.getSwitchName(),
                 this.desc.getOFMessage().getHwDesc());
         PhysicalNetwork.getInstance().addSwitch(this);
+        OVXMetrics.getInstance().addXidTranslator(this.switchId,
+                this.translator);
         this.fillPortMap();
         this.statsMan.start();
 
@@ -276,6 +294,7 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         }
         /* try to remove from network and disconnect */
         PhysicalNetwork.getInstance().removeSwitch(this);
+        OVXMetrics.getInstance().removeSwitch(this.switchId);
         this.portMap.clear();
         this.tearDown();
     }
@@ -283,7 +302,44 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     @Override
     public void sendMsg(final OVXMessage msg, final OVXSendMsg from) {
         if ((this.channel.isOpen()) && (this.isConnected)) {
-            this.channel.write(Collections.singletonList(msg.getOFMessage()));
+            OVXOutboundQueue.write(this.channel, msg.getOFMessage());
+            OVXMetrics.getInstance().countSwitchSent(this.switchId);
+        }
+    }
+
+    /**
+     * Sends a barrier request, and runs the given task once the switch
+     * replied to it. The task runs on the thread handling the reply; it
+     * never runs if the switch does not reply.
+     *
+     * @param onReply the task to run
+     */
+    public void sendBarrier(final Runnable onReply) {
+        int xid;
+        int next;
+        do {
+            xid = this.barrierXid.get();
+            next = xid + 1 < XidTranslator.MIN_XID ? xid + 1 : 1;
+        } while (!this.barrierXid.compareAndSet(xid, next));
+        this.barriers.set(next, onReply);
+        this.sendMsg(new OVXMessage(OFFactories.getFactory(this.getOfVersion())
+                .buildBarrierRequest()
+                .setXid(next)
+                .build()), this);
+    }
+
+    /**
+     * Runs the task waiting on the barrier with the given xid, if any.
+     *
+     * @param xid the xid of the barrier reply
+     */
+    public void barrierReplied(final long xid) {
+        if (xid <= 0 || xid >= XidTranslator.MIN_XID) {
+            return;
+        }
+        final Runnable task = this.barriers.getAndSet((int) xid, null);
+        if (task != null) {
+            task.run();
         }
     }
 
@@ -339,19 +395,58 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     }
 
     public void setFlowStatistics(
-            Map<Integer, List<OFFlowStatsEntry>> stats) {
+            Map<Integer, FlowStatistics> stats) {
         this.flowStats.set(stats);
 
     }
 
+    public void setAggregateStatistics(OFAggregateStatsReply stats) {
+        this.aggregateStats.set(stats);
+    }
+
     public List<OFFlowStatsEntry> getFlowStats(int tid) {
-        Map<Integer, List<OFFlowStatsEntry>> stats = this.flowStats.get();
-        if (stats != null && stats.containsKey(tid)) {
-            return Collections.unmodifiableList(stats.get(tid));
+        FlowStatistics stats = this.getFlowStatistics(tid);
+        if (stats != null) {
+            return stats.getEntries();
         }
         return null;
     }
 
+    /**
+     * Gets the flow statistics of the given virtual network collected by
+     * the last polling round.
+     *
+     * @param tid the tenant ID
+     * @return the flow statistics, or null if the network has no flows
+     */
+    public FlowStatistics getFlowStatistics(int tid) {
+        Map<Integer, FlowStatistics> stats = this.flowStats.get();
+        if (stats != null) {
+            return stats.get(tid);
+        }
+        return null;
+    }
+
+    /**
+     * @return the aggregate statistics of the whole switch collected by the
+     *         last polling round, or null
+     */
+    public OFAggregateStatsReply getAggregateStats() {
+        return this.aggregateStats.get();
+    }
+
+    public StatisticsManager getStatisticsManager() {
+        return this.statsMan;
+    }
+
+    /**
+     * @return the port statistics collected by the last polling round,
+     *         indexed by port number, or null
+     */
+    public Map<Short, OFPortStatsEntry> getPortStatistics() {
+        return this.portStats.get();
+    }
+
     public OFPortStatsEntry getPortStat(short portNumber) {
         Map<Short, OFPortStatsEntry> stats = this.portStats.get();
         if (stats != null) {
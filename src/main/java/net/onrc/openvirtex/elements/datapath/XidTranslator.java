@@ -19,48 +19,128 @@
  */
 package net.onrc.openvirtex.elements.datapath;
 
-import org.projectfloodlight.openflow.util.LRULinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Based on Flowvisor XidTranslator by capveg.
+ * <p>
+ * Translated XIDs are handed out from an atomic sequence and stored in a
+ * fixed-size ring indexed by the low bits of the translated XID, so a
+ * mapping lives until the sequence has advanced by the ring capacity and
+ * its slot is reused by a newer generation. Both {@link #translate} and
+ * {@link #untranslate} are lock-free and safe to call concurrently.
  */
 public class XidTranslator<T> {
 
     static final int MIN_XID = 256;
-    static final int INIT_SIZE = 1 << 10;
     static final int MAX_SIZE = 1 << 14; // must be larger than the max lifetime
                                          // of an XID * rate of
                                          // mesgs/sec
-    int nextID;
-    LRULinkedHashMap<Integer, XidPair<T>> xidMap;
 
+    private final AtomicInteger nextID;
+    private final AtomicReferenceArray<Entry<T>> slots;
+    private final int mask;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * A mapping together with the translated XID it was stored under.
+     */
+    private static final class Entry<T> extends XidPair<T> {
+        private final int id;
+
+        Entry(final int id, final int xid, final T sw) {
+            super(xid, sw);
+            this.id = id;
+        }
+    }
 
     public XidTranslator() {
-        this.nextID = XidTranslator.MIN_XID;
-        this.xidMap = new LRULinkedHashMap<Integer, XidPair<T>>(
-                XidTranslator.INIT_SIZE, XidTranslator.MAX_SIZE);
+        this(XidTranslator.MAX_SIZE);
+    }
+
+    /**
+     * Creates a translator that keeps at least the given number of the
+     * most recent mappings. The capacity is rounded up to a power of two.
+     *
+     * @param capacity the number of mappings to keep
+     */
+    public XidTranslator(final int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.nextID = new AtomicInteger(XidTranslator.MIN_XID);
+        this.slots = new AtomicReferenceArray<Entry<T>>(size);
+        this.mask = size - 1;
     }
 
     /**
      * Recovers the source of the message transaction by Xid.
      *
      * @param xid
-     * @return
+     * @return the pair, or null if the Xid is unknown or has expired
      */
     public XidPair<T> untranslate(final int xid) {
-        return this.xidMap.get(Integer.valueOf(xid));
+        final Entry<T> entry = this.slots.get(xid & this.mask);
+        if (entry != null && entry.id == xid) {
+            this.hits.incrementAndGet();
+            return entry;
+        }
+        if (entry != null && xid >= XidTranslator.MIN_XID) {
+            // slot has since been taken by a newer translation
+            this.expired.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+        return null;
     }
 
     /**
      * @return the new Xid for the message.
      */
     public int translate(final int xid, final T sw) {
-        final int ret = this.nextID++;
-        if (this.nextID < XidTranslator.MIN_XID) {
-            this.nextID = XidTranslator.MIN_XID;
-        }
-        this.xidMap.put(Integer.valueOf(ret), new XidPair<T>(xid, sw));
+        int ret;
+        int next;
+        do {
+            ret = this.nextID.get();
+            next = ret + 1;
+            if (next < XidTranslator.MIN_XID) {
+                next = XidTranslator.MIN_XID;
+            }
+        } while (!this.nextID.compareAndSet(ret, next));
+        this.slots.set(ret & this.mask, new Entry<T>(ret, xid, sw));
         return ret;
     }
 
+    /**
+     * @return the number of mappings the translator keeps
+     */
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * @return the number of successful lookups
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of lookups for Xids that were never translated
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the number of lookups for Xids whose mapping was overwritten
+     *         before it was looked up
+     */
+    public long getExpired() {
+        return this.expired.get();
+    }
+
 }
@@ -19,28 +19,80 @@
  */
 package net.onrc.openvirtex.elements.datapath.role;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.onrc.openvirtex.core.io.OVXOutboundQueue;
 import net.onrc.openvirtex.exceptions.UnknownRoleException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.projectfloodlight.openflow.protocol.OFControllerRole;
 import org.projectfloodlight.openflow.protocol.OFMessage;
-
+import org.projectfloodlight.openflow.protocol.OFType;
+
+/**
+ * Keeps the role of every controller channel of a virtual switch and
+ * decides which controllers may exchange which messages.
+ * <p>
+ * The roles are published as an immutable {@link Channels} snapshot that is
+ * replaced on every change, so the message paths read it without locking.
+ * A message sent to all controllers is serialized once and the same bytes
+ * are queued to every controller allowed to receive it.
+ */
 public class RoleManager {
 
     private static Logger log = LogManager.getLogger(RoleManager.class
             .getName());
     private HashMap<Channel, Role> state;
-    private final AtomicReference<HashMap<Channel, Role>> currentState;
+    private final AtomicReference<Channels> currentState;
     private Channel currentMaster;
 
+    /**
+     * Immutable snapshot of the controller roles, with the channels that
+     * receive each kind of message precomputed.
+     */
+    private static final class Channels {
+        private static final Channel[] NONE = new Channel[0];
+
+        private final Map<Channel, Role> roles;
+        // channels of the controllers with any role
+        private final Channel[] all;
+        // channels of the MASTER and EQUAL controllers
+        private final Channel[] active;
+
+        private Channels(Map<Channel, Role> roles) {
+            this.roles = Collections.unmodifiableMap(roles);
+            List<Channel> allList = new ArrayList<Channel>(roles.size());
+            List<Channel> activeList = new ArrayList<Channel>(roles.size());
+            for (Map.Entry<Channel, Role> e : roles.entrySet()) {
+                if (e.getKey() == null) {
+                    continue;
+                }
+                allList.add(e.getKey());
+                if (e.getValue() == Role.MASTER || e.getValue() == Role.EQUAL) {
+                    activeList.add(e.getKey());
+                }
+            }
+            this.all = allList.toArray(NONE);
+            this.active = activeList.toArray(NONE);
+        }
+
+        /**
+         * Gets the channels that may receive a message of the given type.
+         */
+        private Channel[] receiversOf(OFType type) {
+            return RoleManager.slaveMayReceive(type) ? this.all : this.active;
+        }
+    }
+
     public enum Role {
         EQUAL,
         MASTER,
@@ -82,14 +134,15 @@ public class RoleManager {
 
     public RoleManager() {
         this.state = new HashMap<Channel, Role>();
-        this.currentState = new AtomicReference<HashMap<Channel, Role>>(state);
+        this.currentState = new AtomicReference<Channels>(new Channels(
+                this.state));
     }
     private HashMap<Channel, Role> getState() {
-        return new HashMap<>(this.currentState.get());
+        return new HashMap<>(this.currentState.get().roles);
     }
 
     private void setState() {
-        this.currentState.set(this.state);
+        this.currentState.set(new Channels(this.state));
     }
 
     public synchronized void addController(Channel chan) {
@@ -103,7 +156,7 @@ public class RoleManager {
 
     public synchronized void setRole(Channel channel, Role role)
             throws IllegalArgumentException, UnknownRoleException {
-        if (!this.currentState.get().containsKey(channel)) {
+        if (!this.currentState.get().roles.containsKey(channel)) {
             throw new IllegalArgumentException("Unknown controller "
                     + channel.getRemoteAddress());
         }
@@ -148,7 +201,7 @@ public class RoleManager {
     }
 
     public boolean canSend(Channel channel, OFMessage m) {
-        Role r = this.currentState.get().get(channel);
+        Role r = this.currentState.get().roles.get(channel);
         if (r == Role.MASTER || r == Role.EQUAL) {
             return true;
         }
@@ -164,7 +217,7 @@ public class RoleManager {
     }
 
     public boolean canReceive(Channel channel, OFMessage m) {
-        Role r = this.currentState.get().get(channel);
+        Role r = this.currentState.get().roles.get(channel);
 //        log.info(r.toString());
 
         if (r == Role.MASTER || r == Role.EQUAL) {
@@ -174,7 +227,18 @@ public class RoleManager {
 //            log.info(" not r == Role.MASTER || r == Role.EQUAL");
         }
 
-        switch (m.getType()) {
+        return RoleManager.slaveMayReceive(m.getType());
+    }
+
+    /**
+     * Checks if a controller with any role, including SLAVE, may receive
+     * messages of the given type.
+     *
+     * @param type the message type
+     * @return true if SLAVE controllers receive the message
+     */
+    private static boolean slaveMayReceive(OFType type) {
+        switch (type) {
             case GET_CONFIG_REPLY:
             case QUEUE_GET_CONFIG_REPLY:
             case PORT_STATUS:
@@ -186,33 +250,51 @@ public class RoleManager {
     }
 
     public Role getRole(Channel channel) {
-        return this.currentState.get().get(channel);
+        return this.currentState.get().roles.get(channel);
     }
 
     private void checkAndSend(Channel c, OFMessage m) {
 //        log.info("checkAndSend");
         if (canReceive(c, m)) {
             if (c != null && c.isOpen()) {
-                c.write(Collections.singletonList(m));
+                OVXOutboundQueue.write(c, m);
             }
         }
 
     }
 
+    /**
+     * Sends the message to the given controller, or to every controller
+     * allowed to receive it if the channel is null. In the latter case the
+     * message is serialized only once.
+     *
+     * @param msg the message
+     * @param c the controller channel, or null for all controllers
+     */
     public void sendMsg(OFMessage msg, Channel c) {
 //        log.info("sendMsg");
 
         if (c != null) {
             checkAndSend(c, msg);
-        } else {
-            final Map<Channel, Role> readOnly = Collections
-                    .unmodifiableMap(this.currentState.get());
-            for (Channel chan : readOnly.keySet()) {
-                if (chan == null) {
-                    continue;
-                }
-                checkAndSend(chan, msg);
+            return;
+        }
+        final Channel[] receivers = this.currentState.get().receiversOf(
+                msg.getType());
+        if (receivers.length == 1) {
+            if (receivers[0].isOpen()) {
+                OVXOutboundQueue.write(receivers[0], msg);
+            }
+            return;
+        }
+        ChannelBuffer encoded = null;
+        for (Channel chan : receivers) {
+            if (!chan.isOpen()) {
+                continue;
+            }
+            if (encoded == null) {
+                encoded = OVXOutboundQueue.encode(msg);
             }
+            OVXOutboundQueue.write(chan, encoded, msg.getType());
         }
     }
 
@@ -235,6 +317,6 @@ public class RoleManager {
 
     @Override
     public String toString() {
-        return this.currentState.get().toString();
+        return this.currentState.get().roles.toString();
     }
 }
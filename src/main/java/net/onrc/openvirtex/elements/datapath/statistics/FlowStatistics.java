@@ -0,0 +1,196 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+
+/**
+ * Flow statistics of one virtual network on a physical switch, as collected
+ * by one polling round. The entries are sorted by cookie and the cookies are
+ * kept in a primitive array, so the entries of a virtual flow are found by
+ * binary search. Instances are immutable.
+ */
+public final class FlowStatistics {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long[] cookies;
+    private final OFFlowStatsEntry[] entries;
+    private final long packetCount;
+    private final long byteCount;
+
+    private FlowStatistics(long[] cookies, OFFlowStatsEntry[] entries,
+            long packetCount, long byteCount) {
+        this.cookies = cookies;
+        this.entries = entries;
+        this.packetCount = packetCount;
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * @return the entries, sorted by cookie
+     */
+    public List<OFFlowStatsEntry> getEntries() {
+        return Collections.unmodifiableList(Arrays.asList(this.entries));
+    }
+
+    /**
+     * Gets the entries installed under the given cookie.
+     *
+     * @param cookie the physical cookie
+     * @return the entries, possibly empty
+     */
+    public List<OFFlowStatsEntry> getEntries(long cookie) {
+        int from = this.indexOf(cookie);
+        if (from < 0) {
+            return Collections.emptyList();
+        }
+        int to = from + 1;
+        while (to < this.cookies.length && this.cookies[to] == cookie) {
+            to++;
+        }
+        return Collections.unmodifiableList(Arrays.asList(this.entries)
+                .subList(from, to));
+    }
+
+    /**
+     * Checks if an entry was installed under the given cookie.
+     *
+     * @param cookie the physical cookie
+     * @return true if the cookie has an entry
+     */
+    public boolean contains(long cookie) {
+        return this.indexOf(cookie) >= 0;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return this.entries.length;
+    }
+
+    /**
+     * @return the sum of the packet counters of all entries
+     */
+    public long getPacketCount() {
+        return this.packetCount;
+    }
+
+    /**
+     * @return the sum of the byte counters of all entries
+     */
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+    /**
+     * Finds the first entry with the given cookie.
+     */
+    private int indexOf(long cookie) {
+        int i = Arrays.binarySearch(this.cookies, cookie);
+        if (i < 0) {
+            return -1;
+        }
+        while (i > 0 && this.cookies[i - 1] == cookie) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Collects the entries of one polling round, possibly spread over
+     * several reply parts.
+     */
+    static final class Builder {
+        private long[] cookies = new long[INITIAL_CAPACITY];
+        private OFFlowStatsEntry[] entries =
+                new OFFlowStatsEntry[INITIAL_CAPACITY];
+        private int size = 0;
+        private long packetCount = 0;
+        private long byteCount = 0;
+
+        void add(OFFlowStatsEntry entry) {
+            if (this.size == this.cookies.length) {
+                this.cookies = Arrays.copyOf(this.cookies, this.size * 2);
+                this.entries = Arrays.copyOf(this.entries, this.size * 2);
+            }
+            this.cookies[this.size] = entry.getCookie().getValue();
+            this.entries[this.size] = entry;
+            this.size++;
+            this.packetCount += entry.getPacketCount().getValue();
+            this.byteCount += entry.getByteCount().getValue();
+        }
+
+        FlowStatistics build() {
+            long[] keys = Arrays.copyOf(this.cookies, this.size);
+            OFFlowStatsEntry[] values = Arrays.copyOf(this.entries, this.size);
+            sort(keys, values);
+            return new FlowStatistics(keys, values, this.packetCount,
+                    this.byteCount);
+        }
+
+        /**
+         * Heap sorts the entries by cookie, moving both arrays together.
+         */
+        private static void sort(long[] keys, OFFlowStatsEntry[] values) {
+            int n = keys.length;
+            for (int i = n / 2 - 1; i >= 0; i--) {
+                siftDown(keys, values, i, n);
+            }
+            for (int end = n - 1; end > 0; end--) {
+                swap(keys, values, 0, end);
+                siftDown(keys, values, 0, end);
+            }
+        }
+
+        private static void siftDown(long[] keys, OFFlowStatsEntry[] values,
+                int i, int n) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    return;
+                }
+                if (child + 1 < n && keys[child + 1] > keys[child]) {
+                    child++;
+                }
+                if (keys[i] >= keys[child]) {
+                    return;
+                }
+                swap(keys, values, i, child);
+                i = child;
+            }
+        }
+
+        private static void swap(long[] keys, OFFlowStatsEntry[] values,
+                int i, int j) {
+            long k = keys[i];
+            keys[i] = keys[j];
+            keys[j] = k;
+            OFFlowStatsEntry v = values[i];
+            values[i] = values[j];
+            values[j] = v;
+        }
+    }
+}
@@ -19,7 +19,15 @@
  */
 package net.onrc.openvirtex.elements.datapath.statistics;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
@@ -36,23 +44,72 @@ import org.jboss.netty.util.HashedWheelTimer;
 import org.jboss.netty.util.Timeout;
 import org.jboss.netty.util.TimerTask;
 import org.projectfloodlight.openflow.protocol.*;
-import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.TableId;
 
-
+/**
+ * Periodically collects the port, flow and aggregate statistics of a
+ * physical switch.
+ * <p>
+ * The shared timer only hands each poll over to a small pool of poller
+ * threads, which send the three requests back to back. Polls are spread
+ * over the refresh interval: the first one starts at a random offset and
+ * the following ones are jittered, so that switches connected together do
+ * not all poll at once. A request is not sent again while the previous one
+ * of the same type is still being answered, unless it is older than the
+ * refresh interval.
+ * <p>
+ * Replies split over several parts (the REPLY_MORE flag) are reassembled
+ * before they are published. Flow statistics are collected per virtual
+ * network into {@link FlowStatistics} as the parts arrive, and replace the
+ * previous round at once when the last part is in.
+ */
 public class StatisticsManager implements TimerTask, OVXSendMsg {
 
+    /**
+     * Fraction of the refresh interval by which polls are jittered.
+     */
+    private static final double JITTER = 0.1;
+
+    private static final ExecutorService POLLER = Executors.newFixedThreadPool(
+            Math.min(4, Runtime.getRuntime().availableProcessors()),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "StatisticsManager-"
+                            + this.count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     private HashedWheelTimer timer = null;
     private PhysicalSwitch sw;
 
     Logger log = LogManager.getLogger(StatisticsManager.class.getName());
 
     private Integer refreshInterval = 30;
-    private boolean stopTimer = false;
+    private volatile boolean stopTimer = false;
 
     OFFactory ofFactory;
 
+    // rounds being reassembled, null when no reply is expected
+    private Map<Integer, FlowStatistics.Builder> flowRound = null;
+    private Map<Short, OFPortStatsEntry> portRound = null;
+    // time (ms) the outstanding requests were sent
+    private long flowRequested = 0;
+    private long portRequested = 0;
+    private long aggregateRequested = 0;
+
+    private final Runnable poll = new Runnable() {
+        @Override
+        public void run() {
+            StatisticsManager.this.poll();
+        }
+    };
+
     public StatisticsManager(PhysicalSwitch sw) {
         /*
          * Get the timer from the PhysicalNetwork class.
@@ -67,16 +124,60 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
 
     @Override
     public void run(Timeout timeout) throws Exception {
-        log.info("Collecting stats for {}", this.sw.getSwitchName());
-        sendPortStatistics();
-        sendFlowStatistics(0, (short) 0);
-
-        if (!this.stopTimer) {
-            log.info("Scheduling stats collection in {} seconds for {}",
-                    this.refreshInterval, this.sw.getSwitchName());
-            timeout.getTimer().newTimeout(this, refreshInterval,
-                    TimeUnit.SECONDS);
+        if (this.stopTimer) {
+            return;
         }
+        POLLER.execute(this.poll);
+        long delay = this.jitter(this.refreshInterval * 1000L);
+        log.debug("Scheduling stats collection in {} ms for {}", delay,
+                this.sw.getSwitchName());
+        timeout.getTimer().newTimeout(this, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the statistics requests whose previous round is over.
+     */
+    private void poll() {
+        if (this.stopTimer) {
+            return;
+        }
+        log.debug("Collecting stats for {}", this.sw.getSwitchName());
+        long now = System.currentTimeMillis();
+        long expiry = now - this.refreshInterval * 1000L;
+        boolean port;
+        boolean flow;
+        boolean aggregate;
+        synchronized (this) {
+            port = this.portRound == null || this.portRequested < expiry;
+            if (port) {
+                this.portRound = new HashMap<Short, OFPortStatsEntry>();
+                this.portRequested = now;
+            }
+            flow = this.flowRound == null || this.flowRequested < expiry;
+            if (flow) {
+                this.flowRound = new HashMap<Integer, FlowStatistics.Builder>();
+                this.flowRequested = now;
+            }
+            aggregate = this.aggregateRequested < expiry;
+            if (aggregate) {
+                this.aggregateRequested = now;
+            }
+        }
+        if (port) {
+            sendPortStatistics();
+        }
+        if (flow) {
+            sendFlowStatistics(0, (short) 0);
+        }
+        if (aggregate) {
+            sendAggregateStatistics();
+        }
+    }
+
+    private long jitter(long millis) {
+        double factor = 1 + JITTER
+                * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, (long) (millis * factor));
     }
 
     private void sendFlowStatistics(int tid, short port) {
@@ -95,7 +196,6 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
     }
 
     private void sendPortStatistics() {
-        // xid 설정 안하나?
         OFPortStatsRequest ofPortStatsRequest = this.ofFactory.buildPortStatsRequest()
                 .setPortNo(OFPort.ANY)
                 .build();
@@ -105,14 +205,107 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
         sendMsg(req, this);
     }
 
+    private void sendAggregateStatistics() {
+        OFAggregateStatsRequest ofAggregateStatsRequest = this.ofFactory
+                .buildAggregateStatsRequest()
+                .setMatch(this.ofFactory.matchWildcardAll())
+                .setOutPort(OFPort.ANY)
+                .setTableId(TableId.ALL)
+                .build();
+
+        OVXStatisticsRequest req = new OVXStatisticsRequest(ofAggregateStatsRequest);
+
+        sendMsg(req, this);
+    }
+
+    /**
+     * Adds a part of a flow statistics reply to the current round. The
+     * entries are filed under the virtual network encoded in their cookie.
+     * Once the last part is in, the round replaces the flow statistics of
+     * the switch.
+     *
+     * @param reply the reply part
+     */
+    public void addFlowStatistics(OFFlowStatsReply reply) {
+        Map<Integer, FlowStatistics> stats = null;
+        synchronized (this) {
+            if (this.flowRound == null) {
+                // unsolicited, e.g. answered after the round expired
+                this.flowRound = new HashMap<Integer, FlowStatistics.Builder>();
+            }
+            for (OFFlowStatsEntry entry : reply.getEntries()) {
+                int tid = (int) (entry.getCookie().getValue() >> 32);
+                FlowStatistics.Builder builder = this.flowRound.get(tid);
+                if (builder == null) {
+                    builder = new FlowStatistics.Builder();
+                    this.flowRound.put(tid, builder);
+                }
+                builder.add(entry);
+            }
+            if (!reply.getFlags().contains(OFStatsReplyFlags.REPLY_MORE)) {
+                stats = new HashMap<Integer, FlowStatistics>();
+                for (Map.Entry<Integer, FlowStatistics.Builder> e : this.flowRound
+                        .entrySet()) {
+                    stats.put(e.getKey(), e.getValue().build());
+                }
+                this.flowRound = null;
+            }
+        }
+        if (stats != null) {
+            this.sw.setFlowStatistics(Collections.unmodifiableMap(stats));
+        }
+    }
+
+    /**
+     * Adds a part of a port statistics reply to the current round. Once the
+     * last part is in, the round replaces the port statistics of the
+     * switch.
+     *
+     * @param reply the reply part
+     */
+    public void addPortStatistics(OFPortStatsReply reply) {
+        Map<Short, OFPortStatsEntry> stats = null;
+        synchronized (this) {
+            if (this.portRound == null) {
+                this.portRound = new HashMap<Short, OFPortStatsEntry>();
+            }
+            for (OFPortStatsEntry entry : reply.getEntries()) {
+                this.portRound.put(entry.getPortNo().getShortPortNumber(),
+                        entry);
+            }
+            if (!reply.getFlags().contains(OFStatsReplyFlags.REPLY_MORE)) {
+                stats = this.portRound;
+                this.portRound = null;
+            }
+        }
+        if (stats != null) {
+            this.sw.setPortStatistics(Collections.unmodifiableMap(stats));
+        }
+    }
+
+    /**
+     * Records an aggregate statistics reply.
+     *
+     * @param reply the reply
+     */
+    public void addAggregateStatistics(OFAggregateStatsReply reply) {
+        synchronized (this) {
+            this.aggregateRequested = 0;
+        }
+        this.sw.setAggregateStatistics(reply);
+    }
+
     public void start() {
 
         /*
-         * Initially start polling quickly. Then drop down to configured value
+         * Spread the first polls of the switches over the refresh interval.
+         * Then drop down to configured value
          */
         log.info("Starting Stats collection thread for {}",
                 this.sw.getSwitchName());
-        timer.newTimeout(this, 1, TimeUnit.SECONDS);
+        long delay = 1000L + ThreadLocalRandom.current().nextLong(
+                Math.max(1, this.refreshInterval * 1000L));
+        timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
     }
 
     public void stop() {
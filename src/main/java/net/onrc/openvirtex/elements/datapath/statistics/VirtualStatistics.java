@@ -0,0 +1,402 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.exceptions.MappingException;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
+import net.onrc.openvirtex.exceptions.SwitchMappingException;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.util.LongHashSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFPortStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFTableStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Statistics replies of a virtual switch, served from a cache.
+ * <p>
+ * Each kind of reply is built from the statistics collected from the
+ * underlying physical switches and reused until either a newer polling round
+ * is published by one of those switches, or the reply gets older than the
+ * maximum staleness of the virtual network. The maximum staleness bounds how
+ * long changes to the virtual flow table and ports take to show up in the
+ * replies. Concurrent requests for an outdated reply are coalesced: one of
+ * them rebuilds it and the others wait for and reuse the result.
+ */
+public final class VirtualStatistics {
+
+    private static Logger log = LogManager.getLogger(VirtualStatistics.class
+            .getName());
+
+    /**
+     * Default maximum age (in milliseconds) of a cached reply.
+     */
+    public static final int DEFAULT_MAX_STALENESS = 5000;
+
+    private static final Object[] NO_SOURCES = new Object[0];
+
+    private static final int OFPFW_ALL = (1 << 22) - 1;
+    private static final int OFPFW_NW_DST_ALL = 32 << 14;
+
+    private static volatile int defaultMaxStaleness = DEFAULT_MAX_STALENESS;
+
+    private final OVXSwitch sw;
+
+    private final Cache<List<OFFlowStatsEntry>> flows =
+            new Cache<List<OFFlowStatsEntry>>() {
+                @Override
+                Object[] sources(List<PhysicalSwitch> psws) {
+                    return flowSources(psws);
+                }
+
+                @Override
+                List<OFFlowStatsEntry> build(OFVersion version,
+                        List<PhysicalSwitch> psws) {
+                    return buildFlowStats(version, psws);
+                }
+            };
+
+    private final Cache<List<OFPortStatsEntry>> ports =
+            new Cache<List<OFPortStatsEntry>>() {
+                @Override
+                Object[] sources(List<PhysicalSwitch> psws) {
+                    Object[] sources = new Object[psws.size()];
+                    for (int i = 0; i < sources.length; i++) {
+                        sources[i] = psws.get(i).getPortStatistics();
+                    }
+                    return sources;
+                }
+
+                @Override
+                List<OFPortStatsEntry> build(OFVersion version,
+                        List<PhysicalSwitch> psws) {
+                    return buildPortStats();
+                }
+            };
+
+    private final Cache<long[]> aggregate = new Cache<long[]>() {
+        @Override
+        Object[] sources(List<PhysicalSwitch> psws) {
+            return flowSources(psws);
+        }
+
+        @Override
+        long[] build(OFVersion version, List<PhysicalSwitch> psws) {
+            return buildAggregateStats(psws);
+        }
+    };
+
+    private final Cache<List<OFTableStatsEntry>> tables =
+            new Cache<List<OFTableStatsEntry>>() {
+                @Override
+                Object[] sources(List<PhysicalSwitch> psws) {
+                    return NO_SOURCES;
+                }
+
+                @Override
+                List<OFTableStatsEntry> build(OFVersion version,
+                        List<PhysicalSwitch> psws) {
+                    return buildTableStats(version);
+                }
+            };
+
+    /**
+     * Instantiates the statistics cache of the given virtual switch.
+     *
+     * @param sw the virtual switch
+     */
+    public VirtualStatistics(OVXSwitch sw) {
+        this.sw = sw;
+    }
+
+    /**
+     * Sets the maximum staleness used for virtual networks that do not set
+     * their own.
+     *
+     * @param staleness the maximum age in milliseconds of a cached reply
+     */
+    public static void setDefaultMaxStaleness(int staleness) {
+        VirtualStatistics.defaultMaxStaleness = Math.max(0, staleness);
+    }
+
+    /**
+     * @return the default maximum age in milliseconds of a cached reply
+     */
+    public static int getDefaultMaxStaleness() {
+        return VirtualStatistics.defaultMaxStaleness;
+    }
+
+    /**
+     * Gets the flow statistics entries of every virtual flow of the switch.
+     *
+     * @param version the OpenFlow version of the entries
+     * @return the unmodifiable list of entries
+     */
+    public List<OFFlowStatsEntry> getFlowStats(OFVersion version) {
+        return this.flows.get(version);
+    }
+
+    /**
+     * Gets the port statistics entries of every virtual port of the switch.
+     *
+     * @param version the OpenFlow version of the entries
+     * @return the unmodifiable list of entries
+     */
+    public List<OFPortStatsEntry> getPortStats(OFVersion version) {
+        return this.ports.get(version);
+    }
+
+    /**
+     * Gets the totals over every virtual flow of the switch.
+     *
+     * @return the packet count, byte count and flow count, in this order
+     */
+    public long[] getAggregateStats() {
+        return this.aggregate.get(this.sw.getOfVersion()).clone();
+    }
+
+    /**
+     * Gets the table statistics entries of the virtual flow table.
+     *
+     * @param version the OpenFlow version of the entries
+     * @return the unmodifiable list of entries
+     */
+    public List<OFTableStatsEntry> getTableStats(OFVersion version) {
+        return this.tables.get(version);
+    }
+
+    /**
+     * Gets the physical switches the virtual switch maps to.
+     *
+     * @param sw the virtual switch
+     * @return the physical switches
+     */
+    public static List<PhysicalSwitch> getPhysicalSwitches(OVXSwitch sw) {
+        if (sw instanceof OVXSingleSwitch) {
+            try {
+                return sw.getMap().getPhysicalSwitches(sw);
+            } catch (SwitchMappingException e) {
+                log.debug("OVXSwitch {} does not map to any physical switches",
+                        sw.getSwitchName());
+                return new LinkedList<PhysicalSwitch>();
+            }
+        }
+        LinkedList<PhysicalSwitch> sws = new LinkedList<PhysicalSwitch>();
+        for (OVXPort p : sw.getPorts().values()) {
+            if (!sws.contains(p.getPhysicalPort().getParentSwitch())) {
+                sws.add(p.getPhysicalPort().getParentSwitch());
+            }
+        }
+        return sws;
+    }
+
+    private long maxStaleness() {
+        try {
+            OVXNetwork net = this.sw.getMap().getVirtualNetwork(
+                    this.sw.getTenantId());
+            return net.getStatsStaleness();
+        } catch (NetworkMappingException e) {
+            return VirtualStatistics.defaultMaxStaleness;
+        }
+    }
+
+    private Object[] flowSources(List<PhysicalSwitch> psws) {
+        int tid = this.sw.getTenantId();
+        Object[] sources = new Object[psws.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = psws.get(i).getFlowStatistics(tid);
+        }
+        return sources;
+    }
+
+    private List<OFFlowStatsEntry> buildFlowStats(OFVersion version,
+            List<PhysicalSwitch> psws) {
+        List<OFFlowStatsEntry> entries = new ArrayList<OFFlowStatsEntry>();
+        LongHashSet uniqueCookies = new LongHashSet();
+        int tid = this.sw.getTenantId();
+        for (PhysicalSwitch psw : psws) {
+            FlowStatistics stats = psw.getFlowStatistics(tid);
+            if (stats == null) {
+                continue;
+            }
+            for (OFFlowStatsEntry stat : stats.getEntries()) {
+                long cookie = stat.getCookie().getValue();
+                if (uniqueCookies.contains(cookie)) {
+                    continue;
+                }
+                OFFlowMod fm;
+                try {
+                    fm = this.sw.getFlowMod(cookie).getFlowMod();
+                } catch (MappingException e) {
+                    log.warn("FlowMod not found in FlowTable for cookie={}, {}",
+                            stat.getCookie().toString(), stat.toString());
+                    continue;
+                }
+                uniqueCookies.add(cookie);
+
+                OFFlowStatsEntry.Builder builder = stat.createBuilder()
+                        .setCookie(fm.getCookie())
+                        .setMatch(fm.getMatch());
+                if (version == OFVersion.OF_10) {
+                    builder.setActions(fm.getActions());
+                } else {
+                    builder.setInstructions(fm.getInstructions());
+                }
+                entries.add(builder.build());
+            }
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    private List<OFPortStatsEntry> buildPortStats() {
+        List<OFPortStatsEntry> entries = new ArrayList<OFPortStatsEntry>();
+        for (OVXPort p : this.sw.getPorts().values()) {
+            OFPortStatsEntry entry = p.getPhysicalPort().getParentSwitch()
+                    .getPortStat(p.getPhysicalPort().getPortNumber());
+            if (entry != null) {
+                // port stats are indexed by physical port number, so the
+                // shared entry is copied with the virtual port number
+                entries.add(entry.createBuilder()
+                        .setPortNo(OFPort.of(p.getPortNumber()))
+                        .build());
+            }
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    private long[] buildAggregateStats(List<PhysicalSwitch> psws) {
+        int tid = this.sw.getTenantId();
+        long packetCount = 0;
+        long byteCount = 0;
+        for (PhysicalSwitch psw : psws) {
+            FlowStatistics stats = psw.getFlowStatistics(tid);
+            if (stats != null) {
+                packetCount += stats.getPacketCount();
+                byteCount += stats.getByteCount();
+            }
+        }
+        return new long[] {packetCount, byteCount,
+                this.sw.getFlowTable().getFlowTable().size()};
+    }
+
+    private List<OFTableStatsEntry> buildTableStats(OFVersion version) {
+        OFFactory ofFactory = OFFactories.getFactory(version);
+        OFTableStatsEntry.Builder builder = ofFactory.buildTableStatsEntry()
+                .setActiveCount(this.sw.getFlowTable().getFlowTable().size())
+                .setTableId(TableId.of(1));
+        if (version == OFVersion.OF_10) {
+            builder.setWildcards(OFPFW_ALL & ~OFPFW_NW_DST_ALL)
+                    .setName("Libera vFlowTable (incomplete)")
+                    .setMaxEntries(100000);
+        } else {
+            builder.setMatchedCount(U64.of(0))
+                    .setLookupCount(U64.of(0));
+        }
+        return Collections.singletonList(builder.build());
+    }
+
+    /**
+     * A reply as built at a given time from given physical statistics.
+     */
+    private static final class Snapshot<T> {
+        private final OFVersion version;
+        private final Object[] sources;
+        private final long built;
+        private final T value;
+
+        private Snapshot(OFVersion version, Object[] sources, long built,
+                T value) {
+            this.version = version;
+            this.sources = sources;
+            this.built = built;
+            this.value = value;
+        }
+
+        private boolean isValid(OFVersion ver, Object[] current, long now,
+                long maxStaleness) {
+            if (this.version != ver || now - this.built > maxStaleness
+                    || this.sources.length != current.length) {
+                return false;
+            }
+            // statistics are published as new objects by every round
+            for (int i = 0; i < current.length; i++) {
+                if (this.sources[i] != current[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Cached reply of one kind.
+     */
+    private abstract class Cache<T> {
+        private volatile Snapshot<T> snapshot = null;
+
+        abstract Object[] sources(List<PhysicalSwitch> psws);
+
+        abstract T build(OFVersion version, List<PhysicalSwitch> psws);
+
+        T get(OFVersion version) {
+            List<PhysicalSwitch> psws = getPhysicalSwitches(
+                    VirtualStatistics.this.sw);
+            Object[] current = this.sources(psws);
+            long maxStaleness = VirtualStatistics.this.maxStaleness();
+
+            Snapshot<T> snap = this.snapshot;
+            if (snap != null && snap.isValid(version, current,
+                    System.currentTimeMillis(), maxStaleness)) {
+                return snap.value;
+            }
+            synchronized (this) {
+                // another request may have rebuilt it while we waited
+                snap = this.snapshot;
+                long now = System.currentTimeMillis();
+                if (snap != null && snap.isValid(version, current, now,
+                        maxStaleness)) {
+                    return snap.value;
+                }
+                T value = this.build(version, psws);
+                this.snapshot = new Snapshot<T>(version, current, now, value);
+                return value;
+            }
+        }
+    }
+}
@@ -169,11 +169,21 @@ public abstract class Link<T1 extends Port, T2 extends Switch> implements
      * Compute the link metric based on the link nominal throughput, like OSPF
      * Formula is => metric = refBandwidth / linkThroughput, where refBandwidth
      * is 100Gbps. If the ports exposes different throughputs, trigger a warning
-     * and assume a metric of 1000 (100Mbps)
+     * and assume a metric of 1000 (100Mbps). Ports that do not advertise a
+     * speed are assumed to run at 100Mbps as well.
      *
      * @return the link metric
      */
     public Integer getMetric() {
+        if (this.srcPort.getCurrentThroughput() == 0
+                && this.dstPort.getCurrentThroughput() == 0) {
+            this.log.debug("Metric for link between {}-{},{}-{} is 1000, "
+                    + "ports do not advertise a speed", this.getSrcSwitch()
+                    .getSwitchName(), this.srcPort.getPortNumber(), this
+                    .getDstSwitch().getSwitchName(), this.dstPort
+                    .getPortNumber());
+            return 1000;
+        }
         if (this.srcPort.getCurrentThroughput().equals(
                 this.dstPort.getCurrentThroughput())) {
             // Throughput is expressed in Mbps.
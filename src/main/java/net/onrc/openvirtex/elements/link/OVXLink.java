@@ -20,7 +20,6 @@
 package net.onrc.openvirtex.elements.link;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -38,12 +37,15 @@ import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.exceptions.DroppedMessageException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
+import net.onrc.openvirtex.exceptions.MappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.PortMappingException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 
+import net.onrc.openvirtex.routing.FlowMigration;
 import net.onrc.openvirtex.routing.RoutingAlgorithms;
 import net.onrc.openvirtex.routing.RoutingAlgorithms.RoutingType;
 
@@ -256,54 +258,87 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
      *            the priority value
      */
     public void switchPath(List<PhysicalLink> physicalLinks, byte priority) {
+        FlowMigration migration = new FlowMigration();
+        this.switchPath(physicalLinks, priority, migration);
+        migration.execute();
+    }
+
+    /**
+     * Switch the link to the given path and priority, leaving the migration
+     * of the flows crossing the link to the given flow migration.
+     *
+     * @param physicalLinks
+     *            the path as a list of physical links
+     * @param priority
+     *            the priority value
+     * @param migration
+     *            the flow migration
+     */
+    public void switchPath(List<PhysicalLink> physicalLinks, byte priority,
+            FlowMigration migration) {
         // register the primary link in the map
         this.srcPort.getParentSwitch().getMap().removeVirtualLink(this);
         this.srcPort.getParentSwitch().getMap().addLinks(physicalLinks, this);
 
         this.setPriority(priority);
 
-        Collection<OVXFlowMod> flows = this.getSrcSwitch().getFlowTable().getFlowTable();
-        for (OVXFlowMod fe : flows) {
-            for (OFAction act : fe.getFlowMod().getActions()) {
-                if (act.getType() == OFActionType.OUTPUT) {
-
-                    OFActionOutput temp_act = (OFActionOutput)act;
-
-                    if (temp_act.getPort().getShortPortNumber() == this.getSrcPort().getPortNumber()) {
-                        try {
-                            Integer flowId;
-
-                            flowId = this.map
-                                    .getVirtualNetwork(this.tenantId)
-                                    .getFlowManager()
-                                    .storeFlowValues(
-                                            fe.getFlowMod().getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                            fe.getFlowMod().getMatch().get(MatchField.ETH_DST).getBytes());
-
-                            OVXFlowMod fm = fe.clone();
-
-
-                            fm.setOFMessage(fm.getFlowMod().createBuilder()
-                                    .setCookie(U64.of(((OVXFlowTable) this.getSrcPort().getParentSwitch()
-                                            .getFlowTable()).getCookie(fe, true)))
-                                    .build()
-                            );
-
-                            this.generateLinkFMs(fm, flowId);
+        migration.submit(this.tenantId, this, new FlowMigration.Task() {
+            @Override
+            public int migrate(FlowMigration.Burst burst) {
+                return OVXLink.this.migrateFlows(burst);
+            }
+        });
+    }
 
-                        } catch (IndexOutOfBoundException e) {
-                            log.error(
-                                    "Too many hosts to generate the flow pairs in this virtual network {}. "
-                                            + "Dropping flow-mod {} ",
-                                    this.getTenantId(), fe);
-                        } catch (NetworkMappingException e) {
-                            log.warn("{}: skipping processing of OFAction", e);
-                            return;
-                        }
-                    }
-                }
+    /**
+     * Generates the flow mods that move the flows output to the source port
+     * of this link to its current path. The flow mods along the link carry
+     * the cookies of their flows, so the flows keep their cookies.
+     *
+     * @param burst
+     *            the burst collecting the flow mods
+     * @return the number of migrated flows
+     */
+    private int migrateFlows(FlowMigration.Burst burst) {
+        final OVXFlowTable table = (OVXFlowTable) this.getSrcSwitch()
+                .getFlowTable();
+        int counter = 0;
+        for (long cookie : table.getForwardingCookies(this.getSrcPort()
+                .getPortNumber())) {
+            final OVXFlowMod fm;
+            try {
+                fm = table.getFlowMod(cookie);
+            } catch (MappingException e) {
+                // removed in the meantime
+                continue;
+            }
+            fm.setOFMessage(fm.getFlowMod().createBuilder()
+                    .setCookie(U64.of(cookie))
+                    .build()
+            );
+            try {
+                Integer flowId;
+
+                flowId = OVXLinkUtils.storeFlowId(
+                        this.map.getVirtualNetwork(this.tenantId),
+                        fm.getFlowMod().getMatch());
+
+                this.generateLinkFMs(fm, flowId, burst);
+                counter++;
+
+            } catch (IndexOutOfBoundException e) {
+                log.error(
+                        "Too many hosts to generate the flow pairs in this virtual network {}. "
+                                + "Dropping flow-mod {} ",
+                        this.getTenantId(), fm);
+            } catch (DroppedMessageException e) {
+                log.warn("Not migrating flow-mod {}: {}", fm, e.getMessage());
+            } catch (NetworkMappingException e) {
+                log.warn("{}: skipping processing of OFAction", e);
+                break;
             }
         }
+        return counter;
     }
 
     @Override
@@ -352,31 +387,42 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
      * Push the flow mod to all the intermediate switches of the virtual link.
      *
      * @param fm
-     *            the original flow mod
+     *            the original flow mod, carrying the cookie of its flow
      * @param flowId
      *            the flow identifier
      */
     public void generateLinkFMs(final OVXFlowMod fm, final Integer flowId) {
+        this.generateLinkFMs(fm, flowId, null);
+    }
+
+    /**
+     * Generates the flow mod for all the intermediate switches of the virtual
+     * link, and either pushes them or adds them to the given burst. The
+     * flow mods keep the cookie of the original flow mod, so the flow
+     * removals and statistics of the link hops map back to its flow.
+     *
+     * @param fm
+     *            the original flow mod, carrying the cookie of its flow
+     * @param flowId
+     *            the flow identifier
+     * @param burst
+     *            the burst collecting the flow mods, or null to push them
+     *            right away
+     */
+    public void generateLinkFMs(final OVXFlowMod fm, final Integer flowId,
+            final FlowMigration.Burst burst) {
         /*
          * Change the packet match: 1) change the fields where the virtual link
          * info are stored 2) change the fields where the physical IPs are
          * stored
          */
-        final OVXLinkUtils lUtils = new OVXLinkUtils(this.tenantId, this.linkId, flowId);
+        final OVXLinkUtils lUtils = new OVXLinkUtils(this.tenantId, this.linkId, flowId,
+                fm.getFlowMod().getMatch());
 
         fm.modifyMatch(
                 lUtils.rewriteMatch(fm.getFlowMod().getMatch())
         );
 
-        long cookie = tenantId;
-
-        fm.setOFMessage(fm.getFlowMod().createBuilder()
-                .setCookie(U64.of(cookie << 32))
-                .build()
-        );
-
-        //fm.setCookie(cookie << 32);
-
         if (fm.getFlowMod().getMatch().get(MatchField.ETH_TYPE) == EthType.IPv4) {
             fm.modifyMatch(
                     IPMapper.rewriteMatch(
@@ -440,8 +486,12 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
                         .build()
                 );
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                if (burst == null) {
+                    phyLink.getSrcPort().getParentSwitch()
+                            .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                } else {
+                    burst.addPathMod(phyLink.getSrcPort().getParentSwitch(), fm);
+                }
                 this.log.debug(
                         "Sending virtual link intermediate fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getSwitchName(),
@@ -449,6 +499,10 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
             }
             outPort = phyLink.getDstPort();
         }
+        if (burst != null) {
+            // the burst delays the first flow mods itself
+            return;
+        }
         // TODO: With POX we need to put a timeout between this flows and the
         // first flow mod. Check how to solve.
         try {
@@ -467,6 +521,23 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
      * @return true if successful, false otherwise
      */
     public boolean tryRecovery(PhysicalLink plink) {
+        FlowMigration migration = new FlowMigration();
+        boolean recovered = this.tryRecovery(plink, migration);
+        migration.execute();
+        return recovered;
+    }
+
+    /**
+     * Tries to switch link to a backup path, leaving the migration of its
+     * flows to the given flow migration.
+     *
+     * @param plink
+     *            the failed PhysicalLink
+     * @param migration
+     *            the flow migration
+     * @return true if successful, false otherwise
+     */
+    public boolean tryRecovery(PhysicalLink plink, FlowMigration migration) {
         log.info("Try recovery for virtual link {} in virtual network {} ",
                 this.linkId, this.tenantId);
         if (this.backupLinks.size() > 0) {
@@ -481,7 +552,7 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
             }
             byte priority = this.backupLinks.lastKey();
             List<PhysicalLink> phyLinks = this.backupLinks.get(priority);
-            this.switchPath(phyLinks, priority);
+            this.switchPath(phyLinks, priority, migration);
             this.backupLinks.remove(priority);
             return true;
         }
@@ -496,6 +567,23 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
      * @return true if successful, false otherwise.
      */
     public boolean tryRevert(PhysicalLink plink) {
+        FlowMigration migration = new FlowMigration();
+        boolean reverted = this.tryRevert(plink, migration);
+        migration.execute();
+        return reverted;
+    }
+
+    /**
+     * Attempts to switch this link back to the original path, leaving the
+     * migration of its flows to the given flow migration.
+     *
+     * @param plink
+     *            the restored physical link
+     * @param migration
+     *            the flow migration
+     * @return true if successful, false otherwise.
+     */
+    public boolean tryRevert(PhysicalLink plink, FlowMigration migration) {
         Iterator<Byte> it = this.unusableLinks.descendingKeySet().iterator();
         while (it.hasNext()) {
             Byte curPriority = it.next();
@@ -515,7 +603,7 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
                                 map.getPhysicalLinks(this));
                         this.backupLinks.put(this.getPriority(), backupLinks);
                         this.switchPath(this.unusableLinks.get(curPriority),
-                                curPriority);
+                                curPriority, migration);
                     } catch (LinkMappingException e) {
                         log.warn(
                                 "No physical Links mapped to SwitchRoute? : {}",
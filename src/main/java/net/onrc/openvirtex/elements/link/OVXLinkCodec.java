@@ -0,0 +1,392 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.link;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.util.OVXUtil;
+
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.types.EthType;
+
+/**
+ * Immutable codec for the virtual link identifiers (tenantId, linkId, flowId)
+ * carried in the packet fields. The shifts and masks are computed once from
+ * the number of bits reserved to the tenant id, so that encoding and decoding
+ * work on primitive values only.
+ * <p>
+ * In the MAC addresses the identifiers form a 48 bit value: the tenantId in
+ * the high bits, then the linkId and the flowId in two halves of equal size.
+ * The lower 24 bits of the value go in the destination MAC, the upper 24 in
+ * the source MAC. VLAN IDs and MPLS labels hold the tenantId and the linkId
+ * only. MPLS does not record the Ethernet type it hides, so the traffic
+ * class of the label stack entry holds it instead; only the Ethernet types
+ * listed in {@link #mplsTrafficClass(EthType)} can cross a link this way.
+ * <p>
+ * The codec also caches the action lists that write the link fields, which
+ * only depend on the identifiers and the OpenFlow version.
+ */
+public final class OVXLinkCodec {
+
+    /**
+     * Prefix of the MAC addresses carrying virtual link identifiers.
+     */
+    private static final long MAC_PREFIX = 0xa42305L << 24;
+    private static final long MAC_MASK = 0xFFFFFFL;
+    private static final int MAC_BITS = 48;
+    private static final int VLAN_BITS = 12;
+    private static final int MPLS_BITS = 20;
+    private static final int MAX_CACHED_ACTIONS = 65536;
+    // Ethernet types restored when popping a label, by traffic class
+    private static final EthType[] MPLS_ETH_TYPES = {EthType.IPv4,
+            EthType.ARP, EthType.IPv6};
+
+    private static volatile OVXLinkCodec instance = new OVXLinkCodec(
+            OVXUtil.numBitsneeded(CmdLineSettings.DEFAULT_NUMBER_VIRT_NETS),
+            CmdLineSettings.DEFAULT_LINK_FIELD);
+
+    private final OVXLinkField linkField;
+    private final int tenantShift;
+    private final int linkShift;
+    private final int idMask;
+    private final int vlanShift;
+    private final int vlanMask;
+    private final int mplsShift;
+    private final int mplsMask;
+    private final ConcurrentHashMap<Long, List<OFAction>> setActions =
+            new ConcurrentHashMap<Long, List<OFAction>>();
+    private final ConcurrentHashMap<Long, List<OFAction>> unsetActions =
+            new ConcurrentHashMap<Long, List<OFAction>>();
+
+    private OVXLinkCodec(final int vNets, final OVXLinkField linkField) {
+        OVXLinkCodec.check(vNets, linkField);
+        this.linkField = linkField;
+        this.tenantShift = 48 - vNets;
+        this.linkShift = (48 - vNets) / 2;
+        this.idMask = OVXLinkCodec.mask(this.linkShift);
+        this.vlanShift = VLAN_BITS - vNets;
+        this.vlanMask = OVXLinkCodec.mask(this.vlanShift);
+        this.mplsShift = MPLS_BITS - vNets;
+        this.mplsMask = OVXLinkCodec.mask(this.mplsShift);
+    }
+
+    /**
+     * Gets a mask of the given number of low bits, all of an int at most.
+     */
+    private static int mask(final int bits) {
+        if (bits <= 0) {
+            return 0;
+        }
+        return bits >= 32 ? -1 : (1 << bits) - 1;
+    }
+
+    /**
+     * Gets the number of bits left to the link id once the tenant id is
+     * stored in the given link field.
+     *
+     * @param vNets the number of bits reserved to the tenant id
+     * @param linkField the packet field carrying the virtual link identifiers
+     * @return the number of link id bits, 0 or less if none are left
+     */
+    public static int linkBits(final int vNets, final OVXLinkField linkField) {
+        switch (linkField) {
+            case VLAN:
+                return VLAN_BITS - vNets;
+            case MPLS:
+                return MPLS_BITS - vNets;
+            default:
+                // the link id shares the bits with the flow id
+                return (MAC_BITS - vNets) / 2;
+        }
+    }
+
+    /**
+     * Checks that the given link field can carry a tenant id of the given
+     * number of bits and still leave room for link ids.
+     *
+     * @param vNets the number of bits reserved to the tenant id
+     * @param linkField the packet field carrying the virtual link identifiers
+     * @throws IllegalArgumentException if no bits are left to the link id
+     */
+    public static void check(final int vNets, final OVXLinkField linkField) {
+        if (OVXLinkCodec.linkBits(vNets, linkField) <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "%s cannot carry %d tenant id bits and a link id; "
+                            + "lower the number of virtual networks",
+                    linkField, vNets));
+        }
+    }
+
+    /**
+     * Configures the codec used from now on.
+     *
+     * @param vNets the number of bits reserved to the tenant id
+     * @param linkField the packet field carrying the virtual link identifiers
+     * @throws IllegalArgumentException if no bits are left to the link id
+     */
+    public static void configure(final int vNets,
+            final OVXLinkField linkField) {
+        OVXLinkCodec.instance = new OVXLinkCodec(vNets, linkField);
+    }
+
+    /**
+     * Gets the codec in use.
+     *
+     * @return the codec
+     */
+    public static OVXLinkCodec getInstance() {
+        return OVXLinkCodec.instance;
+    }
+
+    /**
+     * Gets the packet field carrying the virtual link identifiers.
+     *
+     * @return the link field
+     */
+    public OVXLinkField getLinkField() {
+        return this.linkField;
+    }
+
+    /**
+     * Encodes the identifiers in the 48 bit value split over the MAC
+     * addresses.
+     *
+     * @param tenantId the tenant id
+     * @param linkId the link id
+     * @param flowId the flow id
+     * @return the encoded value
+     */
+    public long encode(final int tenantId, final int linkId,
+            final int flowId) {
+        return (long) tenantId << this.tenantShift
+                | (long) linkId << this.linkShift | flowId;
+    }
+
+    /**
+     * Joins the lower halves of the given MAC addresses in the encoded value.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     * @return the encoded value
+     */
+    public static long join(final long srcMac, final long dstMac) {
+        return (srcMac & MAC_MASK) << 24 | dstMac & MAC_MASK;
+    }
+
+    /**
+     * Gets the source MAC address carrying the upper half of the value.
+     *
+     * @param value the encoded value
+     * @return the source MAC address
+     */
+    public static long srcMac(final long value) {
+        return MAC_PREFIX | value >> 24 & MAC_MASK;
+    }
+
+    /**
+     * Gets the destination MAC address carrying the lower half of the value.
+     *
+     * @param value the encoded value
+     * @return the destination MAC address
+     */
+    public static long dstMac(final long value) {
+        return MAC_PREFIX | value & MAC_MASK;
+    }
+
+    /**
+     * @param value the encoded value
+     * @return the tenant id
+     */
+    public int tenantId(final long value) {
+        return (int) (value >> this.tenantShift);
+    }
+
+    /**
+     * @param value the encoded value
+     * @return the link id
+     */
+    public int linkId(final long value) {
+        return (int) (value >> this.linkShift) & this.idMask;
+    }
+
+    /**
+     * @param value the encoded value
+     * @return the flow id
+     */
+    public int flowId(final long value) {
+        return (int) value & this.idMask;
+    }
+
+    /**
+     * @param tenantId the tenant id
+     * @param linkId the link id
+     * @return the VLAN ID carrying the identifiers
+     * @throws IllegalArgumentException if the link id does not fit
+     */
+    public int encodeVlan(final int tenantId, final int linkId) {
+        OVXLinkCodec.checkLinkId(linkId, this.vlanMask, OVXLinkField.VLAN);
+        return tenantId << this.vlanShift | linkId;
+    }
+
+    /**
+     * @param vid the VLAN ID
+     * @return the tenant id
+     */
+    public int vlanTenantId(final int vid) {
+        return vid >> this.vlanShift;
+    }
+
+    /**
+     * @param vid the VLAN ID
+     * @return the link id
+     */
+    public int vlanLinkId(final int vid) {
+        return vid & this.vlanMask;
+    }
+
+    /**
+     * @param tenantId the tenant id
+     * @param linkId the link id
+     * @return the MPLS label carrying the identifiers
+     * @throws IllegalArgumentException if the link id does not fit
+     */
+    public int encodeMpls(final int tenantId, final int linkId) {
+        OVXLinkCodec.checkLinkId(linkId, this.mplsMask, OVXLinkField.MPLS);
+        return tenantId << this.mplsShift | linkId;
+    }
+
+    /**
+     * Gets the MPLS traffic class recording the given Ethernet type.
+     *
+     * @param ethType the Ethernet type hidden by the label
+     * @return the traffic class, or -1 if the type cannot be recorded
+     */
+    public static int mplsTrafficClass(final EthType ethType) {
+        for (int tc = 0; tc < MPLS_ETH_TYPES.length; tc++) {
+            if (MPLS_ETH_TYPES[tc].equals(ethType)) {
+                return tc;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param tc the MPLS traffic class
+     * @return the Ethernet type it records, or null if none
+     */
+    public static EthType mplsEthType(final int tc) {
+        return tc >= 0 && tc < MPLS_ETH_TYPES.length ? MPLS_ETH_TYPES[tc]
+                : null;
+    }
+
+    /**
+     * Rejects link ids that would overflow into the tenant id bits.
+     */
+    private static void checkLinkId(final int linkId, final int mask,
+            final OVXLinkField linkField) {
+        if ((linkId & ~mask) != 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Link id %d does not fit in the %d link id bits of the %s",
+                    linkId, Integer.bitCount(mask), linkField));
+        }
+    }
+
+    /**
+     * @param label the MPLS label
+     * @return the tenant id
+     */
+    public int mplsTenantId(final int label) {
+        return label >> this.mplsShift;
+    }
+
+    /**
+     * @param label the MPLS label
+     * @return the link id
+     */
+    public int mplsLinkId(final int label) {
+        return label & this.mplsMask;
+    }
+
+    /**
+     * Gets the cached actions writing the link fields.
+     *
+     * @param value the encoded identifiers
+     * @param ofv the OpenFlow version
+     * @return the actions, or null if not cached
+     */
+    List<OFAction> getSetActions(final long value, final OFVersion ofv) {
+        return this.setActions.get(OVXLinkCodec.key(value, ofv));
+    }
+
+    /**
+     * Caches the actions writing the link fields. The list must not be
+     * modified anymore.
+     *
+     * @param value the encoded identifiers
+     * @param ofv the OpenFlow version
+     * @param actions the actions
+     */
+    void putSetActions(final long value, final OFVersion ofv,
+            final List<OFAction> actions) {
+        OVXLinkCodec.put(this.setActions, OVXLinkCodec.key(value, ofv),
+                actions);
+    }
+
+    /**
+     * Gets the cached actions popping the link tag.
+     *
+     * @param tc the MPLS traffic class of the tag, 0 for VLANs
+     * @param ofv the OpenFlow version
+     * @return the actions, or null if not cached
+     */
+    List<OFAction> getUnsetActions(final int tc, final OFVersion ofv) {
+        return this.unsetActions.get(OVXLinkCodec.key(tc, ofv));
+    }
+
+    /**
+     * Caches the actions popping the link tag. The list must not be modified
+     * anymore.
+     *
+     * @param tc the MPLS traffic class of the tag, 0 for VLANs
+     * @param ofv the OpenFlow version
+     * @param actions the actions
+     */
+    void putUnsetActions(final int tc, final OFVersion ofv,
+            final List<OFAction> actions) {
+        OVXLinkCodec.put(this.unsetActions, OVXLinkCodec.key(tc, ofv),
+                actions);
+    }
+
+    private static Long key(final long value, final OFVersion ofv) {
+        return (long) ofv.ordinal() << 56 | value & 0xFFFFFFFFFFFFFFL;
+    }
+
+    private static void put(final ConcurrentHashMap<Long, List<OFAction>> cache,
+            final Long key, final List<OFAction> actions) {
+        if (cache.size() >= MAX_CACHED_ACTIONS) {
+            // identifiers are recycled, start over rather than track usage
+            cache.clear();
+        }
+        cache.put(key, actions);
+    }
+}
@@ -21,8 +21,13 @@ package net.onrc.openvirtex.elements.link;
 
 /**
  * Enum used to identify the field(s) used to encapsulate the virtual link
- * information inside the packet. Currently supported values are MAC addresses
- * and VLAN.
+ * information inside the packet. Currently supported values are MAC
+ * addresses, VLAN and MPLS.
+ * <p>
+ * MAC addresses carry the tenant, link and flow IDs, and the original
+ * addresses are recovered through the flow ID. VLAN and MPLS push a tag
+ * carrying the tenant and link IDs and leave the addresses untouched, so
+ * they need no flow ID. MPLS requires OpenFlow 1.3 switches.
  */
 public enum OVXLinkField {
 
@@ -33,7 +38,11 @@ public enum OVXLinkField {
     /**
      * VLAN field.
      */
-    VLAN((byte) 1);
+    VLAN((byte) 1),
+    /**
+     * MPLS label.
+     */
+    MPLS((byte) 2);
     protected byte value;
 
     /**
@@ -54,4 +63,14 @@ public enum OVXLinkField {
     public byte getValue() {
         return this.value;
     }
+
+    /**
+     * Checks if the link information is carried in a tag pushed onto the
+     * packet, rather than in rewritten MAC addresses.
+     *
+     * @return true for VLAN and MPLS, false otherwise
+     */
+    public boolean isTag() {
+        return this != OVXLinkField.MAC_ADDRESS;
+    }
 }
@@ -19,16 +19,19 @@
  */
 package net.onrc.openvirtex.elements.link;
 
-import java.util.BitSet;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 
 
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.exceptions.DroppedMessageException;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
+import net.onrc.openvirtex.packet.PacketContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.OFFactories;
@@ -38,137 +41,291 @@ import org.projectfloodlight.openflow.protocol.action.*;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.protocol.oxm.OFOxm;
+import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.MacAddress;
 import org.projectfloodlight.openflow.types.OFVlanVidMatch;
+import org.projectfloodlight.openflow.types.U32;
+import org.projectfloodlight.openflow.types.U8;
 import org.projectfloodlight.openflow.types.VlanVid;
 
 /**
  * This class provides some useful methods to encapsulate/decapsulate the
  * virtual link identifiers (tenantId, linkId, flowId) inside the packet fields
- * (MAC addresses or VLAN).
+ * (MAC addresses, VLAN or MPLS label).
+ * <p>
+ * VLAN and MPLS tags carry only the tenantId and linkId. The tag is pushed on
+ * the ingress of a virtual link and popped on its egress, so the original MAC
+ * addresses are never rewritten and no flowId is needed to restore them.
+ * <p>
+ * An MPLS label hides the Ethernet type, which must be restored when the
+ * label is popped. Flows that do not match one Ethernet type the label can
+ * record (see {@link OVXLinkCodec#mplsTrafficClass(EthType)}), such as L2
+ * flows, cross the links in the MAC addresses instead, so the link field of
+ * a flow is chosen from its match by {@link #getLinkField(Match)}.
+ * <p>
+ * The values are encoded and decoded by the {@link OVXLinkCodec}, which also
+ * caches the returned action lists; these lists must not be modified.
  */
 public class OVXLinkUtils {
 
     private static Logger log = LogManager.getLogger(OVXLinkUtils.class.getName());
-    private Integer tenantId;
-    private Integer linkId;
-    private Integer flowId;
-    private MacAddress srcMac;
-    private MacAddress dstMac;
-    private Short vlan;
+    private final OVXLinkCodec codec;
+    private OVXLinkField linkField;
+    private int mplsTc;
+    private int tenantId;
+    private int linkId;
+    private int flowId;
+    private boolean hasMacs;
+    private long srcMac;
+    private long dstMac;
+    private short vlan;
+    private int mplsLabel;
 
     /**
      * Instantiates a new link utils instance. Never called by external classes.
      */
     protected OVXLinkUtils() {
+        this.codec = OVXLinkCodec.getInstance();
+        this.linkField = this.codec.getLinkField();
+        this.mplsTc = 0;
         this.tenantId = 0;
         this.linkId = 0;
         this.flowId = 0;
-        this.srcMac = null;
-        this.dstMac = null;
+        this.hasMacs = false;
         this.vlan = 0;
+        this.mplsLabel = 0;
     }
 
     /**
-     * Gets the integer value from a given Bitset.
+     * Instantiates a new link utils instance from the MAC addresses couple.
+     * Automatically decapsulate and set tenantId, linkId and flowId from the
+     * parameters given.
      *
-     * @param bitSet
-     *            the bitset
-     * @return the integer
+     * @param srcMac
+     *            the src mac
+     * @param dstMac
+     *            the dst mac
      */
-    private static int bitSetToInt(final BitSet bitSet) {
-        int bitInteger = 0;
-        for (int i = 0; i < 32; i++) {
-            if (bitSet.get(i)) {
-                bitInteger |= 1 << i;
-            }
-        }
-        return bitInteger;
+    public OVXLinkUtils(final MacAddress srcMac, final MacAddress dstMac) {
+        this(srcMac.getLong(), dstMac.getLong());
     }
 
     /**
-     * Instantiates a new link utils instance from the MAC addresses couple.
-     * Automatically decapsulate and set tenantId, linkId and flowId from the
-     * parameters given.
+     * Instantiates a new link utils instance from the MAC addresses couple,
+     * given as 48-bit values.
      *
      * @param srcMac
      *            the src mac
      * @param dstMac
      *            the dst mac
      */
-    public OVXLinkUtils(final MacAddress srcMac, final MacAddress dstMac) {
+    public OVXLinkUtils(final long srcMac, final long dstMac) {
         this();
+        this.linkField = OVXLinkField.MAC_ADDRESS;
+        this.hasMacs = true;
         this.srcMac = srcMac;
         this.dstMac = dstMac;
-        final int vNets = OpenVirteXController.getInstance()
-                .getNumberVirtualNets();
-        final MacAddress mac = MacAddress.of(
-                (srcMac.getLong() & 0xFFFFFF) << 24 | dstMac.getLong() & 0xFFFFFF);
-                //.valueOf((srcMac.toLong() & 0xFFFFFF) << 24 | dstMac.toLong()
-                  //      & 0xFFFFFF);
-        this.tenantId = (int) (mac.getLong() >> 48 - vNets);
-        final BitSet bmask = new BitSet((48 - vNets) / 2);
-        for (int i = bmask.nextClearBit(0); i < (48 - vNets) / 2; i = bmask
-                .nextClearBit(i + 1)) {
-            bmask.set(i);
-        }
-        final int mask = OVXLinkUtils.bitSetToInt(bmask);
-        this.linkId = (int) (mac.getLong() >> (48 - vNets) / 2) & mask;
-        this.flowId = (int) mac.getLong() & mask;
-        this.vlan = 0;
+        final long value = OVXLinkCodec.join(srcMac, dstMac);
+        this.tenantId = this.codec.tenantId(value);
+        this.linkId = this.codec.linkId(value);
+        this.flowId = this.codec.flowId(value);
     }
 
     /**
-     * Instantiates a new link utils from tenantId, linkId and flowId.
-     * Automatically encapsulate and set these values in the MAC addresses and
-     * in the VLAN.
+     * Instantiates a new link utils from tenantId, linkId and flowId, for the
+     * flow of the given virtual match. Automatically encapsulate and set
+     * these values in the MAC addresses and in the link tag.
      *
      * @param tenantId
      *            the tenant id
      * @param linkId
      *            the link id
      * @param flowId
-     *            the flow id
+     *            the flow id, see {@link #getFlowId(OVXNetwork, Match)}
+     * @param match
+     *            the virtual match of the flow
      */
     public OVXLinkUtils(final Integer tenantId, final Integer linkId,
-                        final Integer flowId) {
+                        final Integer flowId, final Match match) {
         this();
+        this.linkField = OVXLinkUtils.getLinkField(match);
         this.tenantId = tenantId;
         this.linkId = linkId;
         this.flowId = flowId;
-        final int vNets = OpenVirteXController.getInstance()
-                .getNumberVirtualNets();
-        final MacAddress mac = MacAddress.of(
-                tenantId.longValue() << 48 - vNets
-                        | linkId.longValue() << (48 - vNets) / 2
-                        | flowId.longValue());
-//                .valueOf(tenantId.longValue() << 48 - vNets
-//                        | linkId.longValue() << (48 - vNets) / 2
-//                        | flowId.longValue());
-        final Long src = mac.getLong() >> 24 & 0xFFFFFF;
-        final Long dst = mac.getLong() & 0xFFFFFF;
-        this.srcMac = MacAddress.of((long) 0xa42305 << 24 | src);
-        this.dstMac = MacAddress.of((long) 0xa42305 << 24 | dst);
-        // TODO: encapsulate the values in the vlan too
-        this.vlan = 0;
+        final long value = this.codec.encode(tenantId, linkId, flowId);
+        this.hasMacs = true;
+        this.srcMac = OVXLinkCodec.srcMac(value);
+        this.dstMac = OVXLinkCodec.dstMac(value);
+        if (this.linkField == OVXLinkField.VLAN) {
+            this.vlan = (short) this.codec.encodeVlan(tenantId, linkId);
+        } else if (this.linkField == OVXLinkField.MPLS) {
+            this.mplsLabel = this.codec.encodeMpls(tenantId, linkId);
+            this.mplsTc = OVXLinkCodec.mplsTrafficClass(
+                    match.get(MatchField.ETH_TYPE));
+        }
+    }
+
+    /**
+     * Gets the packet field carrying the virtual link identifiers of the
+     * flow of the given virtual match. This is the configured link field,
+     * except for MPLS when the match does not name an Ethernet type the
+     * label can record: the MAC addresses are used then.
+     *
+     * @param match
+     *            the virtual match
+     * @return the link field
+     */
+    public static OVXLinkField getLinkField(final Match match) {
+        final OVXLinkField linkField = OVXLinkCodec.getInstance()
+                .getLinkField();
+        if (linkField == OVXLinkField.MPLS
+                && (!match.isExact(MatchField.ETH_TYPE)
+                || OVXLinkCodec.mplsTrafficClass(
+                        match.get(MatchField.ETH_TYPE)) < 0)) {
+            return OVXLinkField.MAC_ADDRESS;
+        }
+        return linkField;
+    }
+
+    /**
+     * Instantiates a new link utils instance from the link tag of the given
+     * packet, and removes the tag from the packet. The MAC addresses of a
+     * tagged packet are the original ones and are left untouched; packets
+     * without a tag may still carry the identifiers in their MAC addresses.
+     *
+     * @param pkt
+     *            the packet received from a physical link
+     * @return the link utils, or null if the packet carries no link tag
+     */
+    public static OVXLinkUtils fromTag(final PacketContext pkt) {
+        final OVXLinkUtils lUtils = new OVXLinkUtils();
+        final OVXLinkField linkField = lUtils.codec.getLinkField();
+        if (linkField == OVXLinkField.VLAN) {
+            final int vid = pkt.getVlanVid();
+            if (vid <= 0) {
+                return null;
+            }
+            lUtils.tenantId = lUtils.codec.vlanTenantId(vid);
+            lUtils.linkId = lUtils.codec.vlanLinkId(vid);
+            lUtils.vlan = (short) vid;
+        } else if (linkField == OVXLinkField.MPLS) {
+            final int label = pkt.getMplsLabel();
+            if (label <= 0 || OVXLinkCodec.mplsEthType(
+                    pkt.getMplsTrafficClass()) == null) {
+                return null;
+            }
+            lUtils.tenantId = lUtils.codec.mplsTenantId(label);
+            lUtils.linkId = lUtils.codec.mplsLinkId(label);
+            lUtils.mplsLabel = label;
+            lUtils.mplsTc = pkt.getMplsTrafficClass();
+        } else {
+            return null;
+        }
+        if (!lUtils.isValid()) {
+            return null;
+        }
+        if (linkField == OVXLinkField.VLAN) {
+            pkt.popVlan();
+        } else {
+            pkt.popMpls(OVXLinkCodec.mplsEthType(lUtils.mplsTc).getValue());
+        }
+        return lUtils;
+    }
+
+    /**
+     * Stores the MAC addresses of the given match and returns the flow id
+     * identifying them on the virtual links of the given network. Tags do not
+     * carry a flow id, so nothing is stored and zero is returned unless the
+     * link field of the flow is the MAC address.
+     *
+     * @param vnet
+     *            the virtual network
+     * @param match
+     *            the virtual match
+     * @return the flow id
+     * @throws DroppedMessageException
+     *             if the MAC addresses of the match are not exact
+     * @throws IndexOutOfBoundException
+     *             if no flow id is left
+     */
+    public static Integer storeFlowId(final OVXNetwork vnet, final Match match)
+            throws DroppedMessageException, IndexOutOfBoundException {
+        if (OVXLinkUtils.getLinkField(match).isTag()) {
+            return 0;
+        }
+        OVXLinkUtils.checkMacs(match);
+        return vnet.getFlowManager().storeFlowValues(
+                match.get(MatchField.ETH_SRC).getLong(),
+                match.get(MatchField.ETH_DST).getLong());
+    }
+
+    /**
+     * Gets the flow id identifying the MAC addresses of the given match on
+     * the virtual links of the given network, or zero if the link field of
+     * the flow is a tag.
+     *
+     * @param vnet
+     *            the virtual network
+     * @param match
+     *            the virtual match
+     * @return the flow id
+     * @throws DroppedMessageException
+     *             if the MAC addresses of the match are not exact
+     * @throws IndexOutOfBoundException
+     *             if no flow id is left
+     */
+    public static Integer getFlowId(final OVXNetwork vnet, final Match match)
+            throws DroppedMessageException, IndexOutOfBoundException {
+        if (OVXLinkUtils.getLinkField(match).isTag()) {
+            return 0;
+        }
+        OVXLinkUtils.checkMacs(match);
+        return vnet.getFlowManager().getFlowId(
+                match.get(MatchField.ETH_SRC).getLong(),
+                match.get(MatchField.ETH_DST).getLong());
+    }
+
+    /**
+     * Rejects flows whose MAC addresses cannot be mapped to a flow id.
+     */
+    private static void checkMacs(final Match match)
+            throws DroppedMessageException {
+        if (!match.isExact(MatchField.ETH_SRC)
+                || !match.isExact(MatchField.ETH_DST)) {
+            throw new DroppedMessageException(
+                    "Flows crossing a virtual link in the MAC addresses"
+                            + " must match both MAC addresses: " + match);
+        }
     }
 
     /**
      * Checks if the link utils instance is valid. To be valid, the instance has
-     * to have tenantId, linkId and flowId set. Moreover, both MAC addresses or
-     * the VLAN field has to be set too.
+     * to have tenantId and linkId set. Moreover, either the VLAN or the MPLS
+     * label has to be set, or the flowId and both MAC addresses.
      *
      * @return true if valid, false otherwise
      */
     public boolean isValid() {
-        if (this.tenantId != 0 && this.linkId != 0 && this.flowId != 0) {
-            if (this.vlan != 0 || this.srcMac != null && this.dstMac != null) {
+        if (this.tenantId != 0 && this.linkId != 0) {
+            if (this.vlan != 0 || this.mplsLabel != 0) {
+                return true;
+            }
+            if (this.flowId != 0 && this.hasMacs) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Gets the packet field carrying the identifiers of this instance.
+     *
+     * @return the link field
+     */
+    public OVXLinkField getLinkField() {
+        return this.linkField;
+    }
+
     /**
      * Gets the tenant id.
      *
@@ -202,7 +359,7 @@ public class OVXLinkUtils {
      * @return the source MAC
      */
     public MacAddress getSrcMac() {
-        return this.srcMac;
+        return this.hasMacs ? MacAddress.of(this.srcMac) : null;
     }
 
     /**
@@ -211,7 +368,7 @@ public class OVXLinkUtils {
      * @return the destination MAC
      */
     public MacAddress getDstMac() {
-        return this.dstMac;
+        return this.hasMacs ? MacAddress.of(this.dstMac) : null;
     }
 
     /**
@@ -223,12 +380,22 @@ public class OVXLinkUtils {
         return this.vlan;
     }
 
+    /**
+     * Gets the MPLS label.
+     *
+     * @return the MPLS label
+     */
+    public Integer getMplsLabel() {
+        return this.mplsLabel;
+    }
+
     /**
      * Gets the original MAC addresses in a list.
      *
      * @return list of original MAC addresses
      * @throws NetworkMappingException
-     *             if the tenant ID is invalid
+     *             if the tenant ID is invalid, or the flow ID is not
+     *             allocated
      */
     public LinkedList<MacAddress> getOriginalMacAddresses()
             throws NetworkMappingException {
@@ -246,8 +413,9 @@ public class OVXLinkUtils {
     @Override
     public String toString() {
         return "tenantId = " + this.tenantId + ", linkId = " + this.linkId
-                + ", flowId = " + this.flowId + ", srcMac = " + this.srcMac
-                + ", dstMac = " + this.dstMac + ", vlan = " + this.vlan;
+                + ", flowId = " + this.flowId + ", srcMac = " + this.getSrcMac()
+                + ", dstMac = " + this.getDstMac() + ", vlan = " + this.vlan
+                + ", mplsLabel = " + this.mplsLabel;
     }
 
     /**
@@ -257,8 +425,7 @@ public class OVXLinkUtils {
      *            the OpenFlow match
      */
     public Match rewriteMatch(final Match match) {
-        final OVXLinkField linkField = OpenVirteXController.getInstance()
-                .getOvxLinkField();
+        final OVXLinkField linkField = this.linkField;
         if (linkField == OVXLinkField.MAC_ADDRESS) {
             return OVXMessageUtil.updateMatch(match,
                     match.createBuilder()
@@ -266,30 +433,71 @@ public class OVXLinkUtils {
                             .setExact(MatchField.ETH_DST, this.getDstMac())
                             .build());
         } else if (linkField == OVXLinkField.VLAN) {
+            final OFVlanVidMatch vid = match.getVersion() == OFVersion.OF_10
+                    ? OFVlanVidMatch.ofRawVid(this.getVlan())
+                    : OFVlanVidMatch.ofVlan(this.getVlan());
             return OVXMessageUtil.updateMatch(match,
                     match.createBuilder()
-                            .setExact(MatchField.VLAN_VID, OFVlanVidMatch.ofRawVid(this.getVlan()))
+                            .setExact(MatchField.VLAN_VID, vid)
                             .build());
+        } else if (linkField == OVXLinkField.MPLS) {
+            if (match.getVersion() == OFVersion.OF_10) {
+                OVXLinkUtils.log.warn("Unable to match the link, MPLS requires OpenFlow 1.3");
+                return match;
+            }
+            // the label hides the network headers, keep the L2 fields only;
+            // the traffic class tells apart the Ethernet types it hides
+            final Match.Builder mBuilder = OFFactories
+                    .getFactory(match.getVersion()).buildMatch();
+            if (match.isExact(MatchField.IN_PORT)) {
+                mBuilder.setExact(MatchField.IN_PORT,
+                        match.get(MatchField.IN_PORT));
+            }
+            if (match.isExact(MatchField.ETH_SRC)) {
+                mBuilder.setExact(MatchField.ETH_SRC,
+                        match.get(MatchField.ETH_SRC));
+            }
+            if (match.isExact(MatchField.ETH_DST)) {
+                mBuilder.setExact(MatchField.ETH_DST,
+                        match.get(MatchField.ETH_DST));
+            }
+            return mBuilder
+                    .setExact(MatchField.ETH_TYPE, EthType.MPLS_UNICAST)
+                    .setExact(MatchField.MPLS_LABEL,
+                            U32.of(this.getMplsLabel()))
+                    .setExact(MatchField.MPLS_TC, U8.of((short) this.mplsTc))
+                    .build();
         }
         return match;
     }
 
     /**
-     * Gets a list of actions based on the current instance.
+     * Gets a list of actions based on the current instance. The list is
+     * shared and must not be modified.
      *
      * @return list of actions
      */
     public List<OFAction> setLinkFields(final OFVersion ofv) {
-        if(ofv == OFVersion.OF_10)
-            return setLinkFieldsVer10();
-        else
-            return setLinkFieldsVer13();
-
+        // the MPLS fallback to MAC addresses writes the same identifiers
+        // differently, so the field and traffic class are part of the key
+        final long value = this.codec.encode(this.tenantId, this.linkId,
+                this.flowId) | (long) this.linkField.ordinal() << 52
+                | (long) this.mplsTc << 48;
+        List<OFAction> actions = this.codec.getSetActions(value, ofv);
+        if (actions == null) {
+            if(ofv == OFVersion.OF_10)
+                actions = setLinkFieldsVer10();
+            else
+                actions = setLinkFieldsVer13();
+            actions = Collections.unmodifiableList(actions);
+            this.codec.putSetActions(value, ofv, actions);
+        }
+        return actions;
     }
 
     public List<OFAction> setLinkFieldsVer10() {
         final List<OFAction> actions = new LinkedList<OFAction>();
-        final OVXLinkField linkField = OpenVirteXController.getInstance().getOvxLinkField();
+        final OVXLinkField linkField = this.linkField;
 
         OFActions action = OFFactories.getFactory(OFVersion.OF_10).actions();
 
@@ -304,17 +512,20 @@ public class OVXLinkUtils {
                     .build();
             actions.add(setDlDst);
         } else if (linkField == OVXLinkField.VLAN) {
+            // adds a tag to untagged packets
             OFActionSetVlanVid setVlanVid = action.buildSetVlanVid()
                     .setVlanVid(VlanVid.ofVlan((int)this.getVlan()))
                     .build();
             actions.add(setVlanVid);
+        } else if (linkField == OVXLinkField.MPLS) {
+            OVXLinkUtils.log.warn("Unable to set link fields, MPLS requires OpenFlow 1.3");
         }
         return actions;
     }
 
     public List<OFAction> setLinkFieldsVer13() {
         final List<OFAction> actions = new LinkedList<OFAction>();
-        final OVXLinkField linkField = OpenVirteXController.getInstance().getOvxLinkField();
+        final OVXLinkField linkField = this.linkField;
 
         OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
 
@@ -329,33 +540,58 @@ public class OVXLinkUtils {
                     .build();
             actions.add(ofActionSetField);
         } else if (linkField == OVXLinkField.VLAN) {
+            actions.add(factory.actions().pushVlan(EthType.VLAN_FRAME));
             OFActionSetField ofActionSetField = factory.actions().buildSetField()
-                    .setField(factory.oxms().vlanVid(OFVlanVidMatch.ofRawVid(this.getVlan())))
+                    .setField(factory.oxms().vlanVid(OFVlanVidMatch.ofVlan(this.getVlan())))
                     .build();
-
             actions.add(ofActionSetField);
+        } else if (linkField == OVXLinkField.MPLS) {
+            actions.add(factory.actions().pushMpls(EthType.MPLS_UNICAST));
+            OFActionSetField ofActionSetField = factory.actions().buildSetField()
+                    .setField(factory.oxms().mplsLabel(U32.of(this.getMplsLabel())))
+                    .build();
+            actions.add(ofActionSetField);
+            actions.add(factory.actions().buildSetField()
+                    .setField(factory.oxms().mplsTc(U8.of((short) this.mplsTc)))
+                    .build());
         }
         return actions;
     }
 
     /**
-     * Gets a list of actions based on the original MAC addresses.
+     * Gets a list of actions based on the original MAC addresses, or popping
+     * the link tag.
      *
      * @param skipSrcMac Skip rewriting the source MAC address.
      * @param skipDstMac Skip rewriting the destination MAC address.
-     * @return list of actions
+     * @return list of actions, shared and not to be modified when popping a
+     *         tag
      */
-    public List<OFAction> unsetLinkFields(final boolean skipSrcMac, final boolean skipDstMac, final OFVersion ofv) {
-        if(ofv == OFVersion.OF_10)
-            return unsetLinkFieldsVer10(skipSrcMac, skipDstMac);
-        else
-            return unsetLinkFieldsVer13(skipSrcMac, skipDstMac);
+    public List<OFAction> unsetLinkFields(final boolean skipSrcMac, final boolean skipDstMac,
+                                          final OFVersion ofv) {
+        if (!this.linkField.isTag()) {
+            // flow ids are recycled, so the original MACs are looked up
+            if(ofv == OFVersion.OF_10)
+                return unsetLinkFieldsVer10(skipSrcMac, skipDstMac);
+            else
+                return unsetLinkFieldsVer13(skipSrcMac, skipDstMac);
+        }
+        List<OFAction> actions = this.codec.getUnsetActions(this.mplsTc, ofv);
+        if (actions == null) {
+            if(ofv == OFVersion.OF_10)
+                actions = unsetLinkFieldsVer10(skipSrcMac, skipDstMac);
+            else
+                actions = unsetLinkFieldsVer13(skipSrcMac, skipDstMac);
+            actions = Collections.unmodifiableList(actions);
+            this.codec.putUnsetActions(this.mplsTc, ofv, actions);
+        }
+        return actions;
     }
 
     public List<OFAction> unsetLinkFieldsVer13(final boolean skipSrcMac, final boolean skipDstMac) {
         OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
         final List<OFAction> actions = new LinkedList<OFAction>();
-        final OVXLinkField linkField = OpenVirteXController.getInstance().getOvxLinkField();
+        final OVXLinkField linkField = this.linkField;
 
         if (linkField == OVXLinkField.MAC_ADDRESS) {
             LinkedList<MacAddress> macList;
@@ -376,10 +612,11 @@ public class OVXLinkUtils {
             } catch (NetworkMappingException e) {
                 OVXLinkUtils.log.error("Unable to restore actions: " + e);
             }
-        } else {
-            if (linkField == OVXLinkField.VLAN) {
-                OVXLinkUtils.log.warn("Unable to restore actions, VLANs not supported");
-            }
+        } else if (linkField == OVXLinkField.VLAN) {
+            actions.add(factory.actions().popVlan());
+        } else if (linkField == OVXLinkField.MPLS) {
+            actions.add(factory.actions().popMpls(
+                    OVXLinkCodec.mplsEthType(this.mplsTc)));
         }
 
         return actions;
@@ -390,7 +627,7 @@ public class OVXLinkUtils {
     public List<OFAction> unsetLinkFieldsVer10(final boolean skipSrcMac, final boolean skipDstMac) {
         OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
         final List<OFAction> actions = new LinkedList<OFAction>();
-        final OVXLinkField linkField = OpenVirteXController.getInstance().getOvxLinkField();
+        final OVXLinkField linkField = this.linkField;
 
         OFActions action = factory.actions();
 
@@ -413,10 +650,10 @@ public class OVXLinkUtils {
             } catch (NetworkMappingException e) {
                 OVXLinkUtils.log.error("Unable to restore actions: " + e);
             }
-        } else {
-            if (linkField == OVXLinkField.VLAN) {
-                OVXLinkUtils.log.warn("Unable to restore actions, VLANs not supported");
-            }
+        } else if (linkField == OVXLinkField.VLAN) {
+            actions.add(action.stripVlan());
+        } else if (linkField == OVXLinkField.MPLS) {
+            OVXLinkUtils.log.warn("Unable to restore actions, MPLS requires OpenFlow 1.3");
         }
 
         return actions;
@@ -19,12 +19,8 @@
  */
 package net.onrc.openvirtex.elements.network;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.AbstractSet;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import net.onrc.openvirtex.core.io.OVXSendMsg;
@@ -44,6 +40,10 @@ import org.projectfloodlight.openflow.util.HexString;
  *
  * Abstract parent class for networks, maintains data structures for the
  * topology graph.
+ * <p>
+ * The graph is kept in an immutable {@link Topology} version. Updates build
+ * the next version under a lock and publish it atomically, while queries
+ * read the current version without locking.
  *
  * @param <T1> generic Switch type
  * @param <T2> generic Port type
@@ -55,25 +55,24 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
 
     private static Logger log = LogManager.getLogger(Network.class.getName());
 
+    // Read-only views of the current topology version
     @SerializedName("switches")
     @Expose
     protected final Set<T1> switchSet;
     @SerializedName("links")
     @Expose
     protected final Set<T3> linkSet;
-    protected final Map<Long, T1> dpidMap;
-    protected final Map<T2, T2> neighborPortMap;
-    protected final Map<T1, HashSet<T1>> neighborMap;
+
+    private final Object topologyLock = new Object();
+    private volatile Topology<T1, T2, T3> topology;
 
     /**
      * Instantiates the network.
      */
     protected Network() {
-        this.switchSet = new HashSet<T1>();
-        this.linkSet = new HashSet<T3>();
-        this.dpidMap = new HashMap<Long, T1>();
-        this.neighborPortMap = new HashMap<T2, T2>();
-        this.neighborMap = new HashMap<T1, HashSet<T1>>();
+        this.topology = Topology.empty();
+        this.switchSet = new SwitchSetView();
+        this.linkSet = new LinkSetView();
     }
 
     // Protected methods to update topology (only allowed from subclasses)
@@ -83,21 +82,16 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      *
      * @param link the link
      */
-    @SuppressWarnings("unchecked")
     protected void addLink(final T3 link) {
         // Actual link creation is in child classes, because creation of generic
         // types sucks
-        this.linkSet.add(link);
-        final T1 srcSwitch = (T1) link.getSrcSwitch();
-        final T1 dstSwitch = (T1) link.getDstSwitch();
         final Port srcPort = link.getSrcPort();
         final Port dstPort = link.getSrcPort();
         srcPort.setEdge(false);
         dstPort.setEdge(false);
-        final HashSet<T1> neighbours = this.neighborMap.get(srcSwitch);
-        neighbours.add(dstSwitch);
-        this.neighborPortMap
-                .put((T2) link.getSrcPort(), (T2) link.getDstPort());
+        synchronized (this.topologyLock) {
+            this.topology = this.topology.addLink(link);
+        }
     }
 
     /**
@@ -106,71 +100,85 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @param link the link
      * @return true if successful, false otherwise
      */
-    @SuppressWarnings("unchecked")
     protected boolean removeLink(final T3 link) {
-        this.linkSet.remove(link);
-        final T1 srcSwitch = (T1) link.getSrcSwitch();
-        final T1 dstSwitch = (T1) link.getDstSwitch();
         final Port srcPort = link.getSrcPort();
         final Port dstPort = link.getSrcPort();
         srcPort.setEdge(true);
         dstPort.setEdge(true);
-        final HashSet<T1> neighbours = this.neighborMap.get(srcSwitch);
-        neighbours.remove(dstSwitch);
-        this.neighborPortMap.remove(link.getSrcPort());
+        synchronized (this.topologyLock) {
+            this.topology = this.topology.removeLink(link);
+        }
         return true;
     }
 
+    /**
+     * Removes link from the set of links only, leaving the neighbour
+     * information it created in place.
+     *
+     * @param link the link
+     * @return true if the link was in the set, false otherwise
+     */
+    protected boolean removeLinkOnly(final T3 link) {
+        synchronized (this.topologyLock) {
+            final Topology<T1, T2, T3> current = this.topology;
+            this.topology = current.removeLinkOnly(link);
+            return this.topology != current;
+        }
+    }
+
     /**
      * Adds switch to topology.
      *
      * @param sw the switch
      */
     protected void addSwitch(final T1 sw) {
-        if (this.switchSet.add(sw)) {
-            this.dpidMap.put(sw.getSwitchId(), sw);
-            this.neighborMap.put(sw, new HashSet<T1>());
+        synchronized (this.topologyLock) {
+            this.topology = this.topology.addSwitch(sw);
         }
     }
 
     /**
-     * Removes switch from topology.
+     * Removes switch from topology, along with the links that start or end
+     * at it.
      *
      * @param sw the switch
      * @return true if successful, false otherwise
      */
-    @SuppressWarnings("unchecked")
     protected boolean removeSwitch(final T1 sw) {
-        if (this.switchSet.remove(sw)) {
-            this.neighborMap.remove(sw);
-            this.dpidMap.remove(((Switch) sw).getSwitchId());
-            // Remove links that start/end at the given switch
-            // TODO: can be optimized
-            Iterator linkIter = this.linkSet.iterator();
-            while (linkIter.hasNext()) {
-                T3 link = (T3) linkIter.next();
-                if (link.getSrcSwitch() == sw || link.getDstSwitch() == sw) {
-                    linkIter.remove();
-                }
-            }
-            // Remove neighbour ports on the given switch
-            // TODO: can be optimized
-            Iterator neighbourIter = this.neighborPortMap.entrySet().iterator();
-            while (neighbourIter.hasNext()) {
-                Entry<T2, T2> neighbours = (Entry<T2, T2>) neighbourIter.next();
-                if (neighbours.getKey().getParentSwitch() == sw ||
-                        neighbours.getValue().getParentSwitch() == sw) {
-                    neighbourIter.remove();
-                }
-            }
-
-            return true;
+        synchronized (this.topologyLock) {
+            final Topology<T1, T2, T3> current = this.topology;
+            this.topology = current.removeSwitch(sw);
+            return this.topology != current;
+        }
+    }
+
+    /**
+     * Removes switch from the set of switches only, leaving its datapath ID
+     * and neighbour information in place.
+     *
+     * @param sw the switch
+     * @return true if the switch was in the set, false otherwise
+     */
+    protected boolean removeSwitchOnly(final T1 sw) {
+        synchronized (this.topologyLock) {
+            final Topology<T1, T2, T3> current = this.topology;
+            this.topology = current.removeSwitchOnly(sw);
+            return this.topology != current;
         }
-        return false;
     }
 
     // Public methods to query topology information
 
+    /**
+     * Returns the current version of the topology. The version never
+     * changes, so several queries on it see a consistent graph.
+     *
+     * @return the topology
+     */
+    public Topology<T1, T2, T3> getTopology() {
+        return this.topology;
+    }
+
     /**
      * Returns neighbor switches of given switch.
      *
@@ -178,7 +186,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return Unmodifiable set of switch instances.
      */
     public Set<T1> getNeighbors(final T1 sw) {
-        return Collections.unmodifiableSet(this.neighborMap.get(sw));
+        return this.topology.getNeighbors(sw);
     }
 
     /**
@@ -188,7 +196,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return the neighbour port
      */
     public T2 getNeighborPort(final T2 port) {
-        return this.neighborPortMap.get(port);
+        return this.topology.getNeighborPort(port);
     }
 
     /**
@@ -199,7 +207,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      */
     public T1 getSwitch(final Long dpid) throws InvalidDPIDException {
         try {
-            return this.dpidMap.get(dpid);
+            return this.topology.getSwitch(dpid);
         } catch (ClassCastException | NullPointerException ex) {
             throw new InvalidDPIDException("DPID "
                     + HexString.toHexString(dpid) + " is unknown ");
@@ -212,7 +220,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return set of switches
      */
     public Set<T1> getSwitches() {
-        return Collections.unmodifiableSet(this.switchSet);
+        return this.topology.getSwitches();
     }
 
     /**
@@ -221,7 +229,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return set of links
      */
     public Set<T3> getLinks() {
-        return Collections.unmodifiableSet(this.linkSet);
+        return this.topology.getLinks();
     }
 
     /**
@@ -232,14 +240,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return the link instance, null if it doesn't exist
      */
     public T3 getLink(final T2 srcPort, final T2 dstPort) {
-        // TODO: optimize this because we iterate over all links
-        for (final T3 link : this.linkSet) {
-            if (link.getSrcPort().equals(srcPort)
-                    && link.getDstPort().equals(dstPort)) {
-                return link;
-            }
-        }
-        return null;
+        return this.topology.getLink(srcPort, dstPort);
     }
 
     /**
@@ -249,4 +250,43 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      */
     public abstract boolean boot();
 
+    /**
+     * Set of the switches of the current topology version.
+     */
+    private final class SwitchSetView extends AbstractSet<T1> {
+        @Override
+        public Iterator<T1> iterator() {
+            return Network.this.topology.getSwitches().iterator();
+        }
+
+        @Override
+        public int size() {
+            return Network.this.topology.getSwitches().size();
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return Network.this.topology.getSwitches().contains(o);
+        }
+    }
+
+    /**
+     * Set of the links of the current topology version.
+     */
+    private final class LinkSetView extends AbstractSet<T3> {
+        @Override
+        public Iterator<T3> iterator() {
+            return Network.this.topology.getLinks().iterator();
+        }
+
+        @Override
+        public int size() {
+            return Network.this.topology.getLinks().size();
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return Network.this.topology.getLinks().contains(o);
+        }
+    }
 }
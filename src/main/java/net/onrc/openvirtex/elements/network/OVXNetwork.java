@@ -24,11 +24,13 @@ import java.util.*;
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.core.io.PacketInScheduler;
 import net.onrc.openvirtex.db.DBManager;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.Persistable;
 import net.onrc.openvirtex.elements.address.IPAddress;
 import net.onrc.openvirtex.elements.datapath.*;
+import net.onrc.openvirtex.elements.datapath.statistics.VirtualStatistics;
 import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
@@ -45,6 +47,7 @@ import net.onrc.openvirtex.routing.SwitchRoute;
 import net.onrc.openvirtex.util.BitSetIndex;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
 import net.onrc.openvirtex.util.OVXFlowManager;
+import net.onrc.openvirtex.util.OVXMetrics;
 
 
 import org.apache.logging.log4j.LogManager;
@@ -82,6 +85,8 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
     private final BitSetIndex hostCounter;
     private final Map<OVXPort, Host> hostMap;
     private final OVXFlowManager flowManager;
+    // Maximum age in ms of cached statistics replies, null for the default
+    private volatile Integer statsStaleness = null;
 
     /**
      * Instantiates a virtual network. Only use if you have reserved the tenantId
@@ -108,7 +113,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         this.ipCounter = new BitSetIndex(IndexType.IP_ID);
         this.hostCounter = new BitSetIndex(IndexType.HOST_ID);
         this.hostMap = new HashMap<OVXPort, Host>();
-        this.flowManager = new OVXFlowManager(this.tenantId, this.hostMap.values());
+        this.flowManager = new OVXFlowManager(this.tenantId);
     }
 
     /**
@@ -191,6 +196,29 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         return flowManager;
     }
 
+    /**
+     * Gets the maximum age of the statistics replies served to the
+     * controllers of this network from the cache of its switches.
+     *
+     * @return the maximum staleness in milliseconds
+     */
+    public int getStatsStaleness() {
+        final Integer staleness = this.statsStaleness;
+        return staleness == null ? VirtualStatistics.getDefaultMaxStaleness()
+                : staleness;
+    }
+
+    /**
+     * Sets the maximum age of the statistics replies served to the
+     * controllers of this network, or restores the default if null.
+     *
+     * @param staleness the maximum staleness in milliseconds, or null
+     */
+    public void setStatsStaleness(final Integer staleness) {
+        this.statsStaleness = staleness == null ? null
+                : Math.max(0, staleness);
+    }
+
     public void register() {
         OVXMap.getInstance().addNetwork(this);
         DBManager.getInstance().createDoc(this);
@@ -229,6 +257,9 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         // remove the network from the Map
         OVXMap.getInstance().removeVirtualIPs(this.tenantId);
         OVXMap.getInstance().removeNetwork(this);
+        OVXMetrics.getInstance().removeTenant(this.tenantId);
+        PacketInScheduler.getInstance().removeTenant(this.tenantId);
+        this.flowManager.stop();
         OpenVirteXController.getTenantCounter().releaseIndex(this.tenantId);
     }
 
@@ -236,6 +267,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         for (final OVXSwitch sw : this.getSwitches()) {
             sw.tearDown();
         }
+        this.flowManager.stop();
         this.isBooted = false;
     }
 
@@ -600,15 +632,8 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
     @Override
     public boolean boot() {
         boolean result = true;
-        try {
-            flowManager.boot();
-        } catch (final IndexOutOfBoundException e) {
-            OVXNetwork.log
-                    .error("Too many host to generate the flow pairs. Tear down the virtual network {}",
-                            this.tenantId);
-            this.stop();
-            return false;
-        }
+        // flow IDs are allocated on demand, as flows cross virtual links
+        this.flowManager.boot();
         for (final OVXSwitch sw : this.getSwitches()) {
             result &= sw.boot();
         }
@@ -743,6 +768,9 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         dbObject.put(TenantHandler.CTRLURLS, this.controllerUrls);
         dbObject.put(TenantHandler.NETADD, this.network.getIp());
         dbObject.put(TenantHandler.NETMASK, this.mask);
+        if (this.statsStaleness != null) {
+            dbObject.put(TenantHandler.STATS_STALENESS, this.statsStaleness);
+        }
         return dbObject;
     }
 
@@ -752,16 +780,17 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
 
     @Override
     public boolean removeLink(final OVXLink virtualLink) {
-        return this.linkSet.remove(virtualLink);
+        return this.removeLinkOnly(virtualLink);
     }
 
     @Override
     public boolean removeSwitch(final OVXSwitch ovxSwitch) {
-        return this.switchSet.remove(ovxSwitch);
+        return this.removeSwitchOnly(ovxSwitch);
     }
 
     public void removeHost(final Host host) {
         this.hostMap.remove(host.getPort());
+        this.flowManager.releaseHost(host.getMac().getLong());
     }
 
     public void addControllers(ArrayList<String> ctrlUrls) {
@@ -30,6 +30,7 @@ import net.onrc.openvirtex.elements.datapath.*;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.linkdiscovery.SwitchDiscoveryManager;
+import net.onrc.openvirtex.routing.ShortestPathCache;
 
 import net.onrc.openvirtex.messages.OVXMessage;
 import org.apache.logging.log4j.LogManager;
@@ -53,6 +54,7 @@ public final class PhysicalNetwork extends
     private static PhysicalNetwork instance;
     private ArrayList<Uplink> uplinkList;
     private final ConcurrentHashMap<Long, SwitchDiscoveryManager> discoveryManager;
+    private final ShortestPathCache pathCache;
     private static HashedWheelTimer timer;
     private static Logger log = LogManager.getLogger(PhysicalNetwork.class.getName());
 
@@ -60,6 +62,7 @@ public final class PhysicalNetwork extends
         PhysicalNetwork.log.info("Starting network discovery...");
         // PhysicalNetwork.timer = new HashedWheelTimer();
         this.discoveryManager = new ConcurrentHashMap<Long, SwitchDiscoveryManager>();
+        this.pathCache = new ShortestPathCache();
     }
 
     public static PhysicalNetwork getInstance() {
@@ -82,6 +85,15 @@ public final class PhysicalNetwork extends
         PhysicalNetwork.instance = null;
     }
 
+    /**
+     * Gets the cache of shortest path trees over the physical links.
+     *
+     * @return the path cache
+     */
+    public ShortestPathCache getPathCache() {
+        return this.pathCache;
+    }
+
     public ArrayList<Uplink> getUplinkList() {
         return this.uplinkList;
     }
@@ -118,7 +130,9 @@ public final class PhysicalNetwork extends
         if (sdm != null) {
             this.discoveryManager.remove(sw.getSwitchId());
         }
-        return super.removeSwitch(sw);
+        final boolean removed = super.removeSwitch(sw);
+        this.pathCache.switchRemoved(sw);
+        return removed;
     }
 
     /**
@@ -157,7 +171,7 @@ public final class PhysicalNetwork extends
             }
         }
         /* remove from this network's mappings */
-        PhysicalPort dst = this.neighborPortMap.get(port);
+        PhysicalPort dst = this.getNeighborPort(port);
         if (dst != null) {
             this.removeLink(port, dst);
         }
@@ -176,6 +190,7 @@ public final class PhysicalNetwork extends
             final PhysicalLink link = new PhysicalLink(srcPort, dstPort);
             OVXMap.getInstance().knownLink(link);
             super.addLink(link);
+            this.pathCache.linkAdded(link);
             log.info("Adding physical link between {}/{} and {}/{}", link
                     .getSrcSwitch().getSwitchName(), link.getSrcPort()
                     .getPortNumber(), link.getDstSwitch().getSwitchName(), link
@@ -205,6 +220,7 @@ public final class PhysicalNetwork extends
                             dstPort.getPortNumber()));
             DBManager.getInstance().delLink(dpp);
             super.removeLink(link);
+            this.pathCache.linkRemoved(link);
             log.info("Removing physical link between {}/{} and {}/{}", link
                     .getSrcSwitch().getSwitchName(), link.getSrcPort()
                     .getPortNumber(), link.getDstSwitch().getSwitchName(), link
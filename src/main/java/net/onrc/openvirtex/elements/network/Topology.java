@@ -0,0 +1,323 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.network;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.onrc.openvirtex.elements.datapath.Switch;
+import net.onrc.openvirtex.elements.link.Link;
+import net.onrc.openvirtex.elements.port.Port;
+import net.onrc.openvirtex.util.PersistentMap;
+
+/**
+ * Immutable version of the topology graph of a network. Every update
+ * returns a new version that shares the unchanged parts with this one, so
+ * readers can keep using a version while the network publishes the next.
+ * <p>
+ * The switch, link, datapath ID and neighbour tables are
+ * {@link PersistentMap}s, so an update copies only a few trie nodes of
+ * each table it changes, and the neighbour and link sets of the switches
+ * it touches. An update costs O(degree) rather than O(V+E).
+ * <p>
+ * Besides the switch, link and neighbour sets, a version indexes the links
+ * incident to each switch, so removing a switch or looking up a link
+ * touches only the links of the switches involved.
+ *
+ * @param <T1> generic Switch type
+ * @param <T2> generic Port type
+ * @param <T3> generic Link type
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public final class Topology<T1 extends Switch, T2 extends Port, T3 extends Link> {
+
+    private final long version;
+    private final PersistentMap<T1, Boolean> switches;
+    private final PersistentMap<T3, Boolean> links;
+    private final PersistentMap<Long, T1> dpids;
+    private final PersistentMap<T2, T2> neighborPorts;
+    private final PersistentMap<T1, Set<T1>> neighbors;
+    // Links that start or end at each switch
+    private final PersistentMap<T1, Set<T3>> incidentLinks;
+
+    private Topology(final long version,
+            final PersistentMap<T1, Boolean> switches,
+            final PersistentMap<T3, Boolean> links,
+            final PersistentMap<Long, T1> dpids,
+            final PersistentMap<T2, T2> neighborPorts,
+            final PersistentMap<T1, Set<T1>> neighbors,
+            final PersistentMap<T1, Set<T3>> incidentLinks) {
+        this.version = version;
+        this.switches = switches;
+        this.links = links;
+        this.dpids = dpids;
+        this.neighborPorts = neighborPorts;
+        this.neighbors = neighbors;
+        this.incidentLinks = incidentLinks;
+    }
+
+    /**
+     * Creates an empty topology.
+     *
+     * @param <T1> generic Switch type
+     * @param <T2> generic Port type
+     * @param <T3> generic Link type
+     * @return the first version of a topology
+     */
+    public static <T1 extends Switch, T2 extends Port, T3 extends Link> Topology<T1, T2, T3> empty() {
+        return new Topology<T1, T2, T3>(0, PersistentMap.<T1, Boolean>empty(),
+                PersistentMap.<T3, Boolean>empty(),
+                PersistentMap.<Long, T1>empty(),
+                PersistentMap.<T2, T2>empty(),
+                PersistentMap.<T1, Set<T1>>empty(),
+                PersistentMap.<T1, Set<T3>>empty());
+    }
+
+    /**
+     * @return the version number, increased by every update
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return the unmodifiable set of switches
+     */
+    public Set<T1> getSwitches() {
+        return this.switches.keySet();
+    }
+
+    /**
+     * @return the unmodifiable set of links
+     */
+    public Set<T3> getLinks() {
+        return this.links.keySet();
+    }
+
+    /**
+     * Gets the switch with the given datapath ID.
+     *
+     * @param dpid the datapath ID
+     * @return the switch, or null if unknown
+     */
+    public T1 getSwitch(final Long dpid) {
+        return this.dpids.get(dpid);
+    }
+
+    /**
+     * Gets the neighbour of a port.
+     *
+     * @param port the port
+     * @return the neighbour port, or null if the port has no link
+     */
+    public T2 getNeighborPort(final T2 port) {
+        return this.neighborPorts.get(port);
+    }
+
+    /**
+     * Gets the switches reachable from a switch over one link.
+     *
+     * @param sw the switch
+     * @return the unmodifiable set of neighbours, empty for unknown switches
+     */
+    public Set<T1> getNeighbors(final T1 sw) {
+        final Set<T1> set = this.neighbors.get(sw);
+        return set == null ? Collections.<T1>emptySet() : set;
+    }
+
+    /**
+     * Gets the links that start or end at a switch.
+     *
+     * @param sw the switch
+     * @return the unmodifiable set of links, empty for unknown switches
+     */
+    public Set<T3> getIncidentLinks(final T1 sw) {
+        final Set<T3> set = this.incidentLinks.get(sw);
+        return set == null ? Collections.<T3>emptySet() : set;
+    }
+
+    /**
+     * Gets the link between two ports.
+     *
+     * @param srcPort the source port
+     * @param dstPort the destination port
+     * @return the link, or null if it doesn't exist
+     */
+    public T3 getLink(final T2 srcPort, final T2 dstPort) {
+        for (final T3 link : this.getIncidentLinks(
+                (T1) srcPort.getParentSwitch())) {
+            if (link.getSrcPort().equals(srcPort)
+                    && link.getDstPort().equals(dstPort)) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a switch.
+     *
+     * @param sw the switch
+     * @return the new version, or this one if the switch is known
+     */
+    public Topology<T1, T2, T3> addSwitch(final T1 sw) {
+        if (this.switches.containsKey(sw)) {
+            return this;
+        }
+        return new Topology<T1, T2, T3>(this.version + 1, this.switches.plus(
+                sw, Boolean.TRUE), this.links, this.dpids.plus(
+                sw.getSwitchId(), sw), this.neighborPorts,
+                this.neighbors.plus(sw, Collections.<T1>emptySet()),
+                this.incidentLinks);
+    }
+
+    /**
+     * Removes a switch along with the links that start or end at it and
+     * the neighbour entries of their ports.
+     *
+     * @param sw the switch
+     * @return the new version, or this one if the switch is unknown
+     */
+    public Topology<T1, T2, T3> removeSwitch(final T1 sw) {
+        if (!this.switches.containsKey(sw)) {
+            return this;
+        }
+        PersistentMap<T3, Boolean> lnks = this.links;
+        PersistentMap<T2, T2> ports = this.neighborPorts;
+        PersistentMap<T1, Set<T1>> nbrs = this.neighbors.minus(sw);
+        PersistentMap<T1, Set<T3>> inc = this.incidentLinks.minus(sw);
+        for (final T3 link : this.getIncidentLinks(sw)) {
+            lnks = lnks.minus(link);
+            ports = ports.minus(link.getSrcPort());
+            final T1 other = (T1) (link.getSrcSwitch() == sw ? link
+                    .getDstSwitch() : link.getSrcSwitch());
+            if (other != sw) {
+                inc = inc.plus(other, without(inc.get(other), link));
+                nbrs = nbrs.plus(other, without(nbrs.get(other), sw));
+            }
+        }
+        return new Topology<T1, T2, T3>(this.version + 1,
+                this.switches.minus(sw), lnks, this.dpids.minus(sw
+                        .getSwitchId()), ports, nbrs, inc);
+    }
+
+    /**
+     * Removes a switch from the set of switches only, keeping its datapath
+     * ID, neighbour and link entries.
+     *
+     * @param sw the switch
+     * @return the new version, or this one if the switch is unknown
+     */
+    public Topology<T1, T2, T3> removeSwitchOnly(final T1 sw) {
+        if (!this.switches.containsKey(sw)) {
+            return this;
+        }
+        return new Topology<T1, T2, T3>(this.version + 1,
+                this.switches.minus(sw), this.links, this.dpids,
+                this.neighborPorts, this.neighbors, this.incidentLinks);
+    }
+
+    /**
+     * Adds a link, making its end points neighbours.
+     *
+     * @param link the link
+     * @return the new version
+     */
+    public Topology<T1, T2, T3> addLink(final T3 link) {
+        final T1 srcSwitch = (T1) link.getSrcSwitch();
+        final T1 dstSwitch = (T1) link.getDstSwitch();
+        return new Topology<T1, T2, T3>(this.version + 1, this.switches,
+                this.links.plus(link, Boolean.TRUE), this.dpids,
+                this.neighborPorts.plus((T2) link.getSrcPort(),
+                        (T2) link.getDstPort()), this.neighbors.plus(
+                        srcSwitch, with(this.neighbors.get(srcSwitch),
+                                dstSwitch)), this.withIncident(link, true));
+    }
+
+    /**
+     * Removes a link along with the neighbour entries it created.
+     *
+     * @param link the link
+     * @return the new version
+     */
+    public Topology<T1, T2, T3> removeLink(final T3 link) {
+        final T1 srcSwitch = (T1) link.getSrcSwitch();
+        final T1 dstSwitch = (T1) link.getDstSwitch();
+        PersistentMap<T1, Set<T1>> nbrs = this.neighbors;
+        if (nbrs.containsKey(srcSwitch)) {
+            nbrs = nbrs.plus(srcSwitch, without(nbrs.get(srcSwitch),
+                    dstSwitch));
+        }
+        return new Topology<T1, T2, T3>(this.version + 1, this.switches,
+                this.links.minus(link), this.dpids,
+                this.neighborPorts.minus(link.getSrcPort()), nbrs,
+                this.withIncident(link, false));
+    }
+
+    /**
+     * Removes a link from the set of links only, keeping the neighbour
+     * entries it created.
+     *
+     * @param link the link
+     * @return the new version, or this one if the link is unknown
+     */
+    public Topology<T1, T2, T3> removeLinkOnly(final T3 link) {
+        if (!this.links.containsKey(link)) {
+            return this;
+        }
+        return new Topology<T1, T2, T3>(this.version + 1, this.switches,
+                this.links.minus(link), this.dpids, this.neighborPorts,
+                this.neighbors, this.withIncident(link, false));
+    }
+
+    private PersistentMap<T1, Set<T3>> withIncident(final T3 link,
+            final boolean add) {
+        PersistentMap<T1, Set<T3>> inc = this.incidentLinks;
+        for (final Object end : new Object[] {link.getSrcSwitch(),
+                link.getDstSwitch()}) {
+            final T1 sw = (T1) end;
+            final Set<T3> set = add ? with(inc.get(sw), link) : without(
+                    inc.get(sw), link);
+            if (set.isEmpty()) {
+                inc = inc.minus(sw);
+            } else {
+                inc = inc.plus(sw, set);
+            }
+        }
+        return inc;
+    }
+
+    private static <E> Set<E> with(final Set<E> set, final E element) {
+        final Set<E> copy = set == null ? new HashSet<E>() : new HashSet<E>(
+                set);
+        copy.add(element);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    private static <E> Set<E> without(final Set<E> set, final E element) {
+        if (set == null) {
+            return Collections.<E>emptySet();
+        }
+        final Set<E> copy = new HashSet<E>(set);
+        copy.remove(element);
+        return Collections.unmodifiableSet(copy);
+    }
+}
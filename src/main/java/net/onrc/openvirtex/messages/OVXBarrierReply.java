@@ -40,7 +40,7 @@ public class OVXBarrierReply extends OVXMessage implements Virtualizable {
 
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-       // this.log.info("virtualize");
-
+        // only replies to the barriers OVX sent itself are acted upon
+        sw.barrierReplied(this.getOFMessage().getXid());
     }
 }
@@ -108,12 +108,21 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
         OVXMatch ovxMatch = new OVXMatch(this.getFlowMod().getMatch());
         ovxCookie = ((OVXFlowTable) ft).getCookie(this, false);
 
-        ovxMatch.setCookie(ovxCookie);
-
-        this.setOFMessage(this.getFlowMod().createBuilder()
-                .setCookie(U64.of(ovxMatch.getCookie()))
-                .build()
-        );
+        if (ovxCookie != OVXFlowTable.NO_COOKIE) {
+            ovxMatch.setCookie(ovxCookie);
+
+            this.setOFMessage(this.getFlowMod().createBuilder()
+                    .setCookie(U64.of(ovxMatch.getCookie()))
+                    .build()
+            );
+        } else if (this.isDelete()) {
+            this.scopeToTenant(sw.getTenantId());
+        } else {
+            // refused by the flow table, which already told the controller
+            this.log.debug("Flow mod {} is not held by the flow table; dropping it",
+                    this.getOFMessage());
+            return;
+        }
 
         for (final OFAction act : this.getFlowMod().getActions()) {
             try {
@@ -124,12 +133,16 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
             } catch (final ActionVirtualizationDenied e) {
                 this.log.debug("Action {} could not be virtualized; error: {}",
                         act, e.getMessage());
-                ft.deleteFlowMod(ovxCookie);
+                if (ovxCookie != OVXFlowTable.NO_COOKIE) {
+                    ft.deleteFlowMod(ovxCookie);
+                }
                 sw.sendMsg(OVXMessageUtil.makeError(e.getErrorCode(), this), sw);
                 return;
             } catch (final DroppedMessageException e) {
                 this.log.debug("Dropping ovxFlowMod {} {}", this.getOFMessage().toString(), e);
-                ft.deleteFlowMod(ovxCookie);
+                if (ovxCookie != OVXFlowTable.NO_COOKIE) {
+                    ft.deleteFlowMod(ovxCookie);
+                }
                 // TODO perhaps send error message to controller
                 return;
             } catch (final NullPointerException e) {
@@ -164,6 +177,31 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
 
     }
 
+    private boolean isDelete() {
+        final OFFlowModCommand command = this.getFlowMod().getCommand();
+        return command == OFFlowModCommand.DELETE
+                || command == OFFlowModCommand.DELETE_STRICT;
+    }
+
+    /**
+     * Restricts a delete to the physical flows of the given tenant, whose
+     * cookies all carry the tenant ID in their upper 32 bits. OpenFlow 1.0
+     * has no cookie mask and ignores the cookie of a delete, so there the
+     * delete is only scoped by its rewritten match.
+     *
+     * @param tenantId the tenant ID
+     */
+    private void scopeToTenant(final int tenantId) {
+        if (this.getFlowMod().getVersion() == OFVersion.OF_10) {
+            return;
+        }
+        this.setOFMessage(this.getFlowMod().createBuilder()
+                .setCookie(U64.of((long) tenantId << 32))
+                .setCookieMask(U64.of(0xFFFFFFFF00000000L))
+                .build()
+        );
+    }
+
     public void modifyMatch(Match match)
     {
         this.setOFMessage(this.getFlowMod().createBuilder()
@@ -221,17 +259,14 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
                     if (inPort != null && link != null) {
                         try {
 
-                            Integer flowId = sw.getMap()
-                                    .getVirtualNetwork(sw.getTenantId())
-                                    .getFlowManager()
-                                    .getFlowId(
-                                            this.getFlowMod().getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                            this.getFlowMod().getMatch().get(MatchField.ETH_DST).getBytes()
-                                    );
+                            Integer flowId = OVXLinkUtils.getFlowId(
+                                    sw.getMap().getVirtualNetwork(sw.getTenantId()),
+                                    this.getFlowMod().getMatch());
 
 
                             OVXLinkUtils lUtils = new OVXLinkUtils(
-                                    sw.getTenantId(), link.getLinkId(), flowId);
+                                    sw.getTenantId(), link.getLinkId(), flowId,
+                                    this.getFlowMod().getMatch());
 
                             this.log.debug("before " + this.getFlowMod().getMatch().toString());
 
@@ -260,16 +295,21 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
                     this.sw.getTenantId(), this);
         }
 
-        this.setOFMessage(this.getFlowMod().createBuilder()
-                .setActions(this.approvedActions)
-                .build()
-        );
+        final OFFlowMod.Builder builder = this.getFlowMod().createBuilder()
+                .setActions(this.approvedActions);
+        if (pflag && !this.getFlowMod().getFlags()
+                .contains(OFFlowModFlags.SEND_FLOW_REM)) {
+            // the FLOW_REMOVED of the physical flows takes the flow mod out
+            // of the flow table and frees its cookie; loxi flag sets are
+            // immutable, so the flags are copied
+            final Set<OFFlowModFlags> flags = EnumSet.noneOf(OFFlowModFlags.class);
+            flags.addAll(this.getFlowMod().getFlags());
+            flags.add(OFFlowModFlags.SEND_FLOW_REM);
+            builder.setFlags(flags);
+        }
+        this.setOFMessage(builder.build());
 
         if (pflag) {
-
-            if(!this.getFlowMod().getFlags().contains(OFFlowModFlags.SEND_FLOW_REM))
-                this.getFlowMod().getFlags().add(OFFlowModFlags.SEND_FLOW_REM);
-
             sw.sendSouth(this, inPort);
         }
     }
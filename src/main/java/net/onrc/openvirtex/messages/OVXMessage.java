@@ -19,6 +19,8 @@
  */
 package net.onrc.openvirtex.messages;
 
+import net.onrc.openvirtex.util.OVXMetrics;
+
 import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFMessage;
@@ -26,6 +28,8 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 public class OVXMessage {
     private OFMessage msg;
     public OFFactory factory;
+    // System.nanoTime() at which the message was decoded
+    private long timestamp = OVXMetrics.DISABLED;
 
     public OVXMessage(OFMessage msg) {
         this.msg = msg;
@@ -45,6 +49,25 @@ public class OVXMessage {
         return this.msg;
     }
 
+    /**
+     * Gets the time at which the message was read from its channel, as
+     * returned by {@link OVXMetrics#start()}.
+     *
+     * @return the timestamp, or {@link OVXMetrics#DISABLED} if unknown
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Sets the time at which the message was read from its channel.
+     *
+     * @param timestamp the timestamp
+     */
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 97;
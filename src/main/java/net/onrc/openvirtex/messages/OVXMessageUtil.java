@@ -25,6 +25,7 @@ import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.datapath.XidPair;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
+import net.onrc.openvirtex.packet.FlowKey;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -35,7 +36,6 @@ import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
 
-import java.nio.ByteBuffer;
 
 
 /**
@@ -339,189 +339,30 @@ public final class OVXMessageUtil {
         }
     }
 
-    public static Match loadFromPacket(final byte[] packetData, final short inputPort, OFVersion ofVersion) {
-        //packetData은 PacketIn으로 올라온 패킷(Ethernet+IP/ICMP+TCP/UCP)형태임 여기서 MAC주소등등의 정보를 Match로 저장한다.
-        short scratch;
-        int transportOffset = 34;
-        final ByteBuffer packetDataBB = ByteBuffer.wrap(packetData);
-
-        final int limit = packetDataBB.limit();
-
-        OFFactory ofFactory = OFFactories.getFactory(ofVersion);
-
-        Match tempMatch = ofFactory.buildMatch().build();
-
-        tempMatch = updateMatch(tempMatch,
-                tempMatch.createBuilder()
-                        .setExact(MatchField.IN_PORT, OFPort.of(inputPort))
-                        .build());
-
-        //log.info("1 = " + tempMatch.toString());
-
-        assert limit >= 14;
-        // dl dst
-
-        byte[] dataLayerDestination = new byte[6];
-        packetDataBB.get(dataLayerDestination);
-        // dl src
-        byte[] dataLayerSource = new byte[6];
-        packetDataBB.get(dataLayerSource);
-        // dl type
-        short dataLayerType = packetDataBB.getShort();
-
-        tempMatch = updateMatch(tempMatch,
-                tempMatch.createBuilder()
-                        .setExact(MatchField.ETH_SRC, MacAddress.of(dataLayerSource))
-                        .setExact(MatchField.ETH_DST, MacAddress.of(dataLayerDestination))
-                        .build());
-
-//        log.info("2 = " + tempMatch.toString());
-
-        short dataLayerVirtualLan;
-        byte dataLayerVirtualLanPriorityCodePoint;
-
-        if (dataLayerType != (short) 0x8100) { // need cast to avoid
-            // signed
-            // bug
-            dataLayerVirtualLan = (short) 0xffff;
-            dataLayerVirtualLanPriorityCodePoint = (byte) 0;
-        } else {
-            // has vlan tag
-            scratch = packetDataBB.getShort();
-            dataLayerVirtualLan = ((short) (0xfff & scratch));
-            dataLayerVirtualLanPriorityCodePoint = (byte) ((0xe000 & scratch) >> 13);
-            dataLayerType = packetDataBB.getShort();
-
-            tempMatch = updateMatch(tempMatch,
-                    tempMatch.createBuilder()
-                            .setExact(MatchField.VLAN_VID, OFVlanVidMatch.ofRawVid(dataLayerVirtualLan))
-                            .setExact(MatchField.VLAN_PCP, VlanPcp.of(dataLayerVirtualLanPriorityCodePoint))
-                            .build());
-        }
-
-        byte networkTypeOfService = 0;
-        byte networkProtocol = 0;
-        int networkSource;
-        int networkDestination;
-        int transportSource = 0;
-        int transportDestination = 0;
-
-        switch (dataLayerType) {
-            case 0x0800:
-                // ipv4
-                // check packet length
-                scratch = packetDataBB.get();
-                scratch = (short) (0xf & scratch);
-                transportOffset = packetDataBB.position() - 1 + scratch * 4;
-                // nw tos (dscp)
-                scratch = packetDataBB.get();
-                networkTypeOfService = (byte) ((0xfc & scratch) >> 2);
-                // nw protocol
-                packetDataBB.position(packetDataBB.position() + 7);
-                networkProtocol = packetDataBB.get();
-                // nw src
-                packetDataBB.position(packetDataBB.position() + 2);
-                networkSource = packetDataBB.getInt();
-                // nw dst
-                networkDestination = packetDataBB.getInt();
-                packetDataBB.position(transportOffset);
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.ETH_TYPE, EthType.of(dataLayerType))
-                                .setExact(MatchField.IPV4_SRC, IPv4Address.of(networkSource))
-                                .setExact(MatchField.IPV4_DST, IPv4Address.of(networkDestination))
-                                .setExact(MatchField.IP_DSCP, IpDscp.of(networkTypeOfService))
-                                .build());
-
-                //log.info("IPV4_SRC " + IPv4Address.of(networkSource).toString());
-                //log.info("IPV4_DST " + IPv4Address.of(networkDestination).toString());
-
-
-                break;
-            case 0x0806:
-                // arp
-                final int arpPos = packetDataBB.position();
-                // opcode
-                scratch = packetDataBB.getShort(arpPos + 6);
-                networkProtocol = (byte) (0xff & scratch);
-
-                scratch = packetDataBB.getShort(arpPos + 2);
-                // if ipv4 and addr len is 4
-                if (scratch == 0x800 && packetDataBB.get(arpPos + 5) == 4) {
-                    // nw src
-                    networkSource = packetDataBB.getInt(arpPos + 14);
-                    // nw dst
-                    networkDestination = packetDataBB.getInt(arpPos + 24);
-                } else {
-                    networkSource = 0;
-                    networkDestination = 0;
-                }
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.ETH_TYPE, EthType.of(dataLayerType))
-                                .setExact(MatchField.ARP_SPA, IPv4Address.of(networkSource))
-                                .setExact(MatchField.ARP_TPA, IPv4Address.of(networkDestination))
-                                .build());
-
-//                log.info("ARP_SPA " + IPv4Address.of(networkSource).toString());
-//                log.info("ARP_TPA " + IPv4Address.of(networkDestination).toString());
-                break;
-        }
-
-//        log.info("3 = " + tempMatch.toString());
-
-        switch (networkProtocol) {
-            case 0x01:
-                // icmp
-                // type
-                transportSource = U8.f(packetDataBB.get());
-                // code
-                transportDestination = U8.f(packetDataBB.get());
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.IP_PROTO,IpProtocol.of(networkProtocol))
-                                .build());
-                break;
-            case 0x06:
-                // tcp
-                // tcp src
-                transportSource = U16.f(packetDataBB.getShort());
-                // tcp dest
-                transportDestination = U16.f(packetDataBB.getShort());
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.IP_PROTO,IpProtocol.of(networkProtocol))
-                                .setExact(MatchField.TCP_SRC, TransportPort.of(transportSource))
-                                .setExact(MatchField.TCP_DST, TransportPort.of(transportDestination))
-                                .build());
-                break;
-            case 0x11:
-                // udp
-                // udp src
-                transportSource = U16.f(packetDataBB.getShort());
-                // udp dest
-                transportDestination = U16.f(packetDataBB.getShort());
-
-                //log.info("UDP SRC port = " + TransportPort.of(transportSource) + "[" + transportSource + "]");
-                //log.info("UDP DST port = " + TransportPort.of(transportDestination) + "[" + transportDestination + "]");
-
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.IP_PROTO,IpProtocol.of(networkProtocol))
-                                .setExact(MatchField.TCP_SRC, TransportPort.of(transportSource))
-                                .setExact(MatchField.TCP_DST, TransportPort.of(transportDestination))
-                                .build());
-                break;
-        }
-
-//        log.info("4 = " + tempMatch.toString());
+    /**
+     * Extracts the flow key of the given packet, as seen on the given input
+     * port. The key can be rewritten in place and is only turned into a
+     * match with {@link FlowKey#toMatch(OFVersion)} when it is encoded.
+     *
+     * @param packetData the packet bytes, starting with the Ethernet header
+     * @param inputPort the input port
+     * @return the flow key
+     */
+    public static FlowKey loadFlowKey(final byte[] packetData, final short inputPort) {
+        return FlowKey.fromPacket(packetData, inputPort);
+    }
 
-       return tempMatch;
+    /**
+     * Builds the match describing the given packet, as seen on the given
+     * input port.
+     *
+     * @param packetData the packet bytes, starting with the Ethernet header
+     * @param inputPort the input port
+     * @param ofVersion the OpenFlow version of the match
+     * @return the match
+     */
+    public static Match loadFromPacket(final byte[] packetData, final short inputPort, OFVersion ofVersion) {
+        return loadFlowKey(packetData, inputPort).toMatch(ofVersion);
     }
 
     public static Match updateMatch(Match tmatch, Match omatch) {
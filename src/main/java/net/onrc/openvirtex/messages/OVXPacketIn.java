@@ -20,13 +20,14 @@
 package net.onrc.openvirtex.messages;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.io.PacketInScheduler;
 import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.address.IPMapper;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.XidPair;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
 
@@ -55,10 +56,14 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
     private PhysicalPort port = null;
     private OVXPort ovxPort = null;
     private Integer tenantId = null;
+    private Integer xid = null;
+    // the packet as received, kept for the buffer map until forwarded
+    private OFPacketIn received = null;
 
     public OVXPacketIn(final OVXPacketIn pktIn) {
 
-        super(pktIn.getOFMessage().createBuilder().build());
+        // OpenFlow messages are immutable, so the copy can share it
+        super(pktIn.getOFMessage());
     }
 
     public OVXPacketIn(OFMessage msg) {
@@ -99,52 +104,51 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
     }
 
     public void setInport(short inport) {
+        OFPacketIn.Builder builder = this.getPacketIn().createBuilder();
+        this.setInport(builder, inport);
+        this.setOFMessage(builder.build());
+    }
+
+    /**
+     * Sets the input port on a packet in builder, in the field the OpenFlow
+     * version of this message carries it in.
+     *
+     * @param builder the packet in builder
+     * @param inport the input port
+     */
+    private void setInport(OFPacketIn.Builder builder, short inport) {
         if(this.getOFMessage().getVersion() == OFVersion.OF_10) {
-            this.setOFMessage(this.getPacketIn().createBuilder()
-                    .setInPort(OFPort.of(inport))
-                    .build()
-            );
+            builder.setInPort(OFPort.of(inport));
         }else{
             Match temp = this.getPacketIn().getMatch();
             temp = OVXMessageUtil.updateMatch(temp, temp.createBuilder()
                     .setExact(MatchField.IN_PORT, OFPort.of(inport))
                     .build());
-
-            this.setOFMessage(
-                    this.getPacketIn().createBuilder().setMatch(temp).build()
-            );
+            builder.setMatch(temp);
         }
     }
 
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-        //this.log.info("virtualize");
-        //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
-
-        //OF_1.3일 경우 PACKET_IN으로 오는 데이터에 Ethernet Trailer가 붙어서 오는데 이 패킷을 OVX가
-        // ONOS로 전송하면 ONOS는 그부분을 실제 데이터로 인식하여 UDP의 length로 포함되어 PACKET_OUT으로 내려보낸다.
-        // 그러나 checksum은 그대로 이기 때문에 Destination에서 Receive를 하지 못하는 문제가 생긴다.
-        // 이것을 해결하고자 Data에서 Trailer를 삭제하는 루틴을 구현한것
-        Ethernet eth2 = new Ethernet();
-        eth2.deserialize(this.getPacketIn().getData(), 0, this.getPacketIn().getData().length);
-
-        if(eth2.getPayload() instanceof IPv4) {
-            IPv4 ip = (IPv4)eth2.getPayload();
-            if (ip.isTruncated()) {
-                ByteBuffer bb = ByteBuffer.wrap(this.getPacketIn().getData());
-                byte[] temp = new byte[bb.limit()-ip.getTrimLength()];
-                bb.get(temp, 0, temp.length);
-                this.setOFMessage(this.getPacketIn().createBuilder().setData(temp).build());
-            }
+        // The packet headers are decoded once, straight from the data of the
+        // PACKET_IN. The context also drops the Ethernet trailer OF1.3
+        // switches append to the data: left in place, ONOS counts it in the
+        // UDP length of the PACKET_OUT it sends back while the checksum stays
+        // unchanged, so the destination discards the packet.
+        final PacketContext pkt = new PacketContext(this.getPacketIn().getData());
+
+        final XidPair<OVXSwitch> pair = sw.untranslate(this);
+        OVXSwitch vSwitch = null;
+        if (pair != null) {
+            this.xid = pair.getXid();
+            vSwitch = pair.getSwitch();
         }
 
-        OVXSwitch vSwitch = OVXMessageUtil.untranslateXid(this, sw);
-
         /*
          * Fetching port from the physical switch
          */
 
-        short inport;// = ((OFPacketIn) this.getOFMessage()).getInPort().getShortPortNumber();
+        short inport;
         if(this.getOFMessage().getVersion() == OFVersion.OF_10) {
             inport = this.getPacketIn().getInPort().getShortPortNumber();
         }else{
@@ -160,22 +164,20 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
 
         Mappable map = sw.getMap();
 
-        Match match = OVXMessageUtil.loadFromPacket(
-                this.getPacketIn().getData(),
-                inport,
-                sw.getOfVersion());
+        // rewritten in place below, a match is only built to install a rule
+        FlowKey key = pkt.toFlowKey(inport);
 
-        this.log.debug(match.toString());
+        this.log.debug("{}", key);
 
         if (this.port.isEdge()) {
-            this.tenantId = this.fetchTenantId(match, map, true);
+            this.tenantId = this.fetchTenantId(key, map, true);
 
             if (this.tenantId == null) {
                 this.log.debug(
                         "PacketIn {} does not belong to any virtual network; "
                                 + "dropping and installing a temporary drop rule",
                         this);
-                this.installDropRule(sw, match);
+                this.installDropRule(sw, key);
                 return;
             }
 
@@ -184,106 +186,82 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
              */
             vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
             this.ovxPort = this.port.getOVXPort(this.tenantId, 0);
-            this.sendPkt(vSwitch, match, sw);
-            this.learnHostIP(match, map);
-            this.learnAddresses(match);
+            this.sendPkt(vSwitch, key, sw, pkt);
+            this.learnHostIP(key, map);
+            this.learnAddresses(key);
             this.log.debug("Edge PacketIn {} sent to virtual network {}", this.getOFMessage().toString(),
                     this.tenantId);
             return;
         }
 
-        if (match.get(MatchField.ETH_TYPE) == EthType.IPv4
-                || match.get(MatchField.ETH_TYPE) == EthType.ARP) {
-
-            PhysicalIPAddress srcIP = new PhysicalIPAddress(
-                    match.get(MatchField.IPV4_SRC).getInt()
-            );
+        final OVXLinkField linkField = OpenVirteXController.getInstance()
+                .getOvxLinkField();
+        OVXLinkUtils lUtils = null;
+        if (linkField.isTag()) {
+            // the link tag is popped before the packet reaches the tenant
+            lUtils = OVXLinkUtils.fromTag(pkt);
+            if (lUtils != null) {
+                key = pkt.toFlowKey(inport);
+            }
+        }
 
-            PhysicalIPAddress dstIP = new PhysicalIPAddress(
-                    match.get(MatchField.IPV4_DST).getInt()
-            );
+        if (pkt.isIPv4() || pkt.isARP()) {
 
-            Ethernet eth = new Ethernet();
-            eth.deserialize(this.getPacketIn().getData(), 0, this.getPacketIn().getData().length);
+            PhysicalIPAddress srcIP = new PhysicalIPAddress(pkt.getNwSrc());
 
-            OVXLinkUtils lUtils = new OVXLinkUtils(eth.getSourceMAC(),
-                    eth.getDestinationMAC());
+            PhysicalIPAddress dstIP = new PhysicalIPAddress(pkt.getNwDst());
 
-            if (lUtils.isValid()) {
-                OVXPort srcPort = port.getOVXPort(lUtils.getTenantId(),
-                        lUtils.getLinkId());
+            if (lUtils == null && linkField != OVXLinkField.VLAN) {
+                // untagged packets of an MPLS flow cross the links in their
+                // MAC addresses, see OVXLinkUtils.getLinkField(Match)
+                lUtils = new OVXLinkUtils(pkt.getEthSrc(), pkt.getEthDst());
+            }
 
-                if (srcPort == null) {
-                    this.log.debug(
-                            "Virtual Src Port Unknown: {}, port {} with this match {}; dropping packet",
-                            sw.getName(), match.get(MatchField.IN_PORT).getShortPortNumber(), match);
+            if (lUtils != null && lUtils.isValid()) {
+                if (!this.fetchLinkPort(sw, map, key, lUtils)) {
                     return;
                 }
-
-                this.setInport(srcPort.getPortNumber());
-
-                OVXLink link;
-                try {
-                    OVXPort dstPort = map.getVirtualNetwork(
-                            lUtils.getTenantId()).getNeighborPort(srcPort);
-                    link = map.getVirtualSwitch(sw, lUtils.getTenantId())
-                            .getMap().getVirtualNetwork(lUtils.getTenantId())
-                            .getLink(dstPort, srcPort);
-                } catch (SwitchMappingException | NetworkMappingException e) {
-                    return; // same as (link == null)
-                }
-                this.ovxPort = this.port.getOVXPort(lUtils.getTenantId(),
-                        link.getLinkId());
-                OVXLinkField linkField = OpenVirteXController.getInstance()
-                        .getOvxLinkField();
                 // TODO: Need to check that the values in linkId and flowId
                 // don't exceed their space
-                if (linkField == OVXLinkField.MAC_ADDRESS) {
+                if (lUtils.getLinkField() == OVXLinkField.MAC_ADDRESS) {
                     try {
                         LinkedList<MacAddress> macList = sw.getMap()
                                 .getVirtualNetwork(this.ovxPort.getTenantId())
                                 .getFlowManager()
                                 .getFlowValues(lUtils.getFlowId());
-                        eth.setSourceMACAddress(macList.get(0).getBytes())
-                                .setDestinationMACAddress(macList.get(1).getBytes());
-                        match = OVXMessageUtil.updateMatch(match, match.createBuilder()
-                                .setExact(MatchField.ETH_SRC, eth.getSourceMAC())
-                                .setExact(MatchField.ETH_DST, eth.getDestinationMAC())
-                                .build()
-                        );
+                        pkt.setEthSrc(macList.get(0).getLong());
+                        pkt.setEthDst(macList.get(1).getLong());
+                        key.setEthSrc(macList.get(0).getLong())
+                                .setEthDst(macList.get(1).getLong());
 
                     } catch (NetworkMappingException e) {
-                        log.warn(e);
+                        // the flow ID was reclaimed, the original MAC
+                        // addresses of the packet are lost
+                        this.log.debug("Dropping PacketIn {}: {}", this,
+                                e.getMessage());
+                        return;
                     }
-                } else if (linkField == OVXLinkField.VLAN) {
-                    // TODO
-                    log.warn("VLAN virtual links not yet implemented.");
-                    return;
                 }
             }
 
-            if (match.get(MatchField.ETH_TYPE) == EthType.ARP) {
+            if (pkt.isARP()) {
                 // ARP packet
-                final ARP arp = (ARP) eth.getPayload();
-                this.tenantId = this.fetchTenantId(match, map, true);
+                this.tenantId = this.fetchTenantId(key, map, true);
 
                 try {
                     if (map.hasVirtualIP(srcIP)) {
-                        arp.setSenderProtocolAddress(map.getVirtualIP(srcIP)
-                                .getIp());
+                        pkt.setNwSrc(map.getVirtualIP(srcIP).getIp());
                     }
                     if (map.hasVirtualIP(dstIP)) {
-                        arp.setTargetProtocolAddress(map.getVirtualIP(dstIP)
-                                .getIp());
+                        pkt.setNwDst(map.getVirtualIP(dstIP).getIp());
                     }
                 } catch (AddressMappingException e) {
                     log.warn("Inconsistency in OVXMap? : {}", e);
                 }
-            }else if (match.get(MatchField.ETH_TYPE) == EthType.IPv4) {
+            } else {
                 try {
-                    final IPv4 ip = (IPv4) eth.getPayload();
-                    ip.setDestinationAddress(map.getVirtualIP(dstIP).getIp());
-                    ip.setSourceAddress(map.getVirtualIP(srcIP).getIp());
+                    pkt.setNwDst(map.getVirtualIP(dstIP).getIp());
+                    pkt.setNwSrc(map.getVirtualIP(srcIP).getIp());
                     // TODO: Incorporate below into fetchTenantId
                     if (this.tenantId == null) {
                         this.tenantId = dstIP.getTenantId();
@@ -291,49 +269,80 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
                 } catch (AddressMappingException e) {
                     log.warn("Could not rewrite IP fields : {}", e);
                 }
-            } else {
-                this.log.info("{} handling not yet implemented; dropping",
-                        match.get(MatchField.ETH_TYPE).toString());
-                this.installDropRule(sw, match);
-                return;
             }
 
-            this.setOFMessage(this.getPacketIn().createBuilder()
-                    .setData(eth.serialize())
-                    .build()
-            );
-
             vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
 
-            this.sendPkt(vSwitch, match, sw);
+            this.sendPkt(vSwitch, key, sw, pkt);
             this.log.info("IPv4 PacketIn {} sent to virtual network {}", this,
                     this.tenantId);
             return;
         }
 
-        this.tenantId = this.fetchTenantId(match, map, true);
+        if (lUtils != null) {
+            // only tags carry non-IP packets across virtual links
+            if (!this.fetchLinkPort(sw, map, key, lUtils)) {
+                return;
+            }
+            this.tenantId = lUtils.getTenantId();
+        } else {
+            this.tenantId = this.fetchTenantId(key, map, true);
+        }
         if (this.tenantId == null) {
             this.log.debug(
                     "PacketIn {} does not belong to any virtual network; "
                             + "dropping and installing a temporary drop rule",
                     this);
-            this.installDropRule(sw, match);
+            this.installDropRule(sw, key);
             return;
         }
         vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
 
-        this.sendPkt(vSwitch, match, sw);
+        this.sendPkt(vSwitch, key, sw, pkt);
         this.log.info("Layer2 PacketIn {} sent to virtual network {}", this.getOFMessage(),
                 this.tenantId);
     }
 
-    private void learnHostIP(Match match, Mappable map) {
-        if(match.get(MatchField.IPV4_SRC) != null) {
+    /**
+     * Sets the virtual port on which a packet received from a virtual link
+     * enters the tenant network.
+     *
+     * @return false if the virtual link is unknown
+     */
+    private boolean fetchLinkPort(final PhysicalSwitch sw, final Mappable map,
+                                  final FlowKey key, final OVXLinkUtils lUtils) {
+        OVXPort srcPort = port.getOVXPort(lUtils.getTenantId(),
+                lUtils.getLinkId());
+
+        if (srcPort == null) {
+            this.log.debug(
+                    "Virtual Src Port Unknown: {}, port {} with this match {}; dropping packet",
+                    sw.getName(), key.getInPort(), key);
+            return false;
+        }
+
+        OVXLink link;
+        try {
+            OVXPort dstPort = map.getVirtualNetwork(
+                    lUtils.getTenantId()).getNeighborPort(srcPort);
+            link = map.getVirtualSwitch(sw, lUtils.getTenantId())
+                    .getMap().getVirtualNetwork(lUtils.getTenantId())
+                    .getLink(dstPort, srcPort);
+        } catch (SwitchMappingException | NetworkMappingException e) {
+            return false; // same as (link == null)
+        }
+        this.ovxPort = this.port.getOVXPort(lUtils.getTenantId(),
+                link.getLinkId());
+        return true;
+    }
+
+    private void learnHostIP(FlowKey key, Mappable map) {
+        if(key.hasIPv4Addresses() && key.has(FlowKey.NW_SRC)) {
             try {
                 OVXNetwork vnet = map.getVirtualNetwork(this.tenantId);
                 Host host = vnet.getHost(ovxPort);
                 if (host != null) {
-                    host.setIPAddress(match.get(MatchField.IPV4_SRC).getInt());
+                    host.setIPAddress(key.getNwSrc());
                 } else {
                     log.warn("Host not found on virtual port {}", ovxPort);
                 }
@@ -347,20 +356,24 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         }
     }
 
-    private void sendPkt(final OVXSwitch vSwitch, final Match match,
-                         final PhysicalSwitch sw) {
+    private void sendPkt(final OVXSwitch vSwitch, final FlowKey key,
+                         final PhysicalSwitch sw, final PacketContext pkt) {
         if (vSwitch == null || !vSwitch.isActive()) {
             this.log.warn(
                     "Controller for virtual network {} has not yet connected "
                             + "or is down", this.tenantId);
-            this.installDropRule(sw, match);
+            this.installDropRule(sw, key);
             return;
         }
 
-        this.setOFMessage(this.getPacketIn().createBuilder()
-                .setBufferId(OFBufferId.of(vSwitch.addToBufferMap(this)))
-                .build()
-        );
+        // the buffer map keeps the rewritten packet with its physical buffer id
+        if (pkt.isModified()) {
+            this.setOFMessage(this.getPacketIn().createBuilder()
+                    .setData(pkt.getData())
+                    .build()
+            );
+        }
+        this.received = this.getPacketIn();
 
         short inport;
         if(this.getOFMessage().getVersion() == OFVersion.OF_10) {
@@ -375,26 +388,37 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         if (this.port != null && this.ovxPort != null
                 && this.ovxPort.isActive()) {
 
-            //this.log.info("before-----------------------------------------------------");
-            //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
-
-            this.setInport(this.ovxPort.getPortNumber());
+            // apply the virtual xid, port and data in one go; the buffer id
+            // is assigned once the PACKET_IN is admitted
+            final OFPacketIn.Builder builder = this.getPacketIn().createBuilder();
+            if (this.xid != null) {
+                builder.setXid(this.xid);
+            }
+            this.setInport(builder, this.ovxPort.getPortNumber());
 
             if((this.getPacketIn().getData() != null)
                 && (vSwitch.getMissSendLen() != OVXSetConfig.MSL_FULL)) {
-
-                this.setOFMessage(this.getPacketIn().createBuilder()
-                        .setData(Arrays.copyOf(
-                                this.getPacketIn().getData(),
-                                U16.f(vSwitch.getMissSendLen())))
-                        .build()
-                );
+                builder.setData(Arrays.copyOf(
+                        this.getPacketIn().getData(),
+                        U16.f(vSwitch.getMissSendLen())));
+            }
+            this.setOFMessage(builder.build());
+
+            switch (PacketInScheduler.getInstance().admit(vSwitch, sw, this,
+                    key)) {
+                case SEND:
+                    this.forward(vSwitch, sw);
+                    break;
+                case SUPPRESS:
+                    this.installDropRule(sw, key);
+                    break;
+                case DROP:
+                    this.releaseBuffer(sw);
+                    break;
+                default:
+                    // held back by the scheduler
+                    break;
             }
-
-            //this.log.info("after------------------------------------------------------");
-            //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
-
-            vSwitch.sendMsg(this, sw);
         }else if (this.port == null) {
             log.error("The port {} doesn't belong to the physical switch {}", inport, sw.getName());
         }else if (this.ovxPort == null || !this.ovxPort.isActive()) {
@@ -405,25 +429,79 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         }
     }
 
+    /**
+     * Registers the received packet in the buffer map of the virtual switch
+     * and sends the virtualized PACKET_IN to the tenant controllers. Only
+     * PACKET_INs admitted by the {@link PacketInScheduler} are forwarded, so
+     * dropped or merged ones take no buffer.
+     *
+     * @param vSwitch the virtual switch the PACKET_IN is sent from
+     * @param sw the physical switch the PACKET_IN came from
+     */
+    public void forward(final OVXSwitch vSwitch, final PhysicalSwitch sw) {
+        final int bufferId = vSwitch.addToBufferMap(new OVXPacketIn(
+                this.received));
+        this.received = null;
+        this.setOFMessage(this.getPacketIn().createBuilder()
+                .setBufferId(OFBufferId.of(bufferId))
+                .build()
+        );
+        vSwitch.sendMsg(this, sw);
+    }
 
+    /**
+     * Drops the packet the physical switch buffered for a PACKET_IN that is
+     * not forwarded, so the switch frees the buffer right away instead of
+     * holding it until it times out.
+     *
+     * @param sw the physical switch the PACKET_IN came from
+     */
+    public void releaseBuffer(final PhysicalSwitch sw) {
+        final OFPacketIn pi = this.received;
+        this.received = null;
+        if (pi == null || pi.getBufferId().equals(OFBufferId.NO_BUFFER)) {
+            return;
+        }
+        final OFPort inPort = pi.getVersion() == OFVersion.OF_10
+                ? pi.getInPort() : pi.getMatch().get(MatchField.IN_PORT);
+        // a PACKET_OUT without actions drops the buffered packet
+        final OFPacketOut drop = OFFactories.getFactory(pi.getVersion())
+                .buildPacketOut()
+                .setBufferId(pi.getBufferId())
+                .setInPort(inPort == null ? OFPort.CONTROLLER : inPort)
+                .build();
+        sw.sendMsg(new OVXMessage(drop), sw);
+    }
+
+
+
+    private void learnAddresses(final FlowKey key) {
+        OVXPacketIn.learnAddresses(this.tenantId, key);
+    }
 
-    private void learnAddresses(final Match match) {
-        if(match.get(MatchField.ETH_TYPE) == EthType.IPv4
-            || match.get(MatchField.ETH_TYPE) == EthType.ARP) {
-            if(match.get(MatchField.IPV4_SRC) != null) {
-                IPMapper.getPhysicalIp(this.tenantId, match.get(MatchField.IPV4_SRC).getInt());
+    /**
+     * Maps the IPv4 addresses of a packet to physical IPs of the tenant, the
+     * protocol addresses of an ARP message included.
+     *
+     * @param tenantId the tenant ID
+     * @param key the flow key of the packet
+     */
+    static void learnAddresses(final int tenantId, final FlowKey key) {
+        if(key.hasIPv4Addresses()) {
+            if(key.has(FlowKey.NW_SRC)) {
+                IPMapper.getPhysicalIp(tenantId, key.getNwSrc());
             }
 
-            if(match.get(MatchField.IPV4_DST) != null) {
-                IPMapper.getPhysicalIp(this.tenantId, match.get(MatchField.IPV4_DST).getInt());
+            if(key.has(FlowKey.NW_DST)) {
+                IPMapper.getPhysicalIp(tenantId, key.getNwDst());
             }
         }
     }
 
-    private void installDropRule(final PhysicalSwitch sw, final Match match) {
+    private void installDropRule(final PhysicalSwitch sw, final FlowKey key) {
         final OVXFlowMod fm = new OVXFlowMod(
                 this.factory.buildFlowModify()
-                        .setMatch(match)
+                        .setMatch(key.toMatch(sw.getOfVersion()))
                         .setBufferId(this.getPacketIn().getBufferId())
                         .setHardTimeout(1)
                         .build()
@@ -432,9 +510,10 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         sw.sendMsg(fm, sw);
     }
 
-    private Integer fetchTenantId(final Match match, final Mappable map,
+    private Integer fetchTenantId(final FlowKey key, final Mappable map,
                                   final boolean useMAC) {
-        MacAddress mac = match.get(MatchField.ETH_SRC);
+        MacAddress mac = key.has(FlowKey.ETH_SRC)
+                ? MacAddress.of(key.getEthSrc()) : null;
         if (useMAC && map.hasMAC(mac)) {
             try {
                 return map.getMAC(mac);
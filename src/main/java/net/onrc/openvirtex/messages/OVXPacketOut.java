@@ -27,14 +27,13 @@ import net.onrc.openvirtex.exceptions.DroppedMessageException;
 import net.onrc.openvirtex.messages.actions.OVXAction;
 import net.onrc.openvirtex.messages.actions.OVXActionUtil;
 import net.onrc.openvirtex.messages.actions.VirtualizableAction;
+import net.onrc.openvirtex.packet.FlowKey;
 import net.onrc.openvirtex.protocol.OVXMatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.exceptions.OFParseError;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.action.*;
-import org.projectfloodlight.openflow.protocol.match.Match;
-import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
 import org.projectfloodlight.openflow.util.HexString;
 
@@ -46,7 +45,7 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
 
     private final Logger log = LogManager.getLogger(OVXPacketOut.class
             .getName());
-    private Match match = null;
+    private FlowKey key = null;
     private final List<OFAction> approvedActions = new LinkedList<OFAction>();
 
     public OVXPacketOut(OFMessage msg) {
@@ -101,16 +100,15 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
                 return;
             }
 
-            this.match = OVXMessageUtil.loadFromPacket(
+            this.key = OVXMessageUtil.loadFlowKey(
                     this.getPacketOut().getData(),
-                    this.getPacketOut().getInPort().getShortPortNumber(),
-                    sw.getOfVersion()
+                    this.getPacketOut().getInPort().getShortPortNumber()
             );
 
             this.log.debug("Data Length = " + this.getPacketOut().getData().length);
-            this.log.debug(this.match.toString());
+            this.log.debug("{}", this.key);
 
-            ovxMatch = new OVXMatch(this.match);
+            ovxMatch = new OVXMatch(this.key.toMatch(sw.getOfVersion()));
             ovxMatch.setPktData(this.getPacketOut().getData());
         } else {
 
@@ -123,10 +121,9 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
                 return;
             }
 
-            this.match = OVXMessageUtil.loadFromPacket(
+            this.key = OVXMessageUtil.loadFlowKey(
                     cause.getPacketIn().getData(),
-                    this.getPacketOut().getInPort().getShortPortNumber(),
-                    sw.getOfVersion()
+                    this.getPacketOut().getInPort().getShortPortNumber()
             );
 
             this.setOFMessage(this.getPacketOut().createBuilder()
@@ -134,7 +131,7 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
                     .build()
             );
 
-            ovxMatch = new OVXMatch(this.match);
+            ovxMatch = new OVXMatch(this.key.toMatch(sw.getOfVersion()));
             ovxMatch.setPktData(cause.getPacketIn().getData());
 
             if (cause.getPacketIn().getBufferId() == OFBufferId.NO_BUFFER) {
@@ -198,42 +195,42 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
     }
 
     private void prependRewriteActionsVer13(final OVXSwitch sw) {
-        if(this.match.get(MatchField.IPV4_SRC) != null) {
+        if(this.key.isIPv4() && this.key.has(FlowKey.NW_SRC)) {
             OFActionSetField ofActionSetField = this.factory.actions().buildSetField()
                     .setField(this.factory.oxms().ipv4Src(
                             IPv4Address.of(
                                     IPMapper.getPhysicalIp(
                                             sw.getTenantId(),
-                                            this.match.get(MatchField.IPV4_SRC).getInt()))))
+                                            this.key.getNwSrc()))))
                     .build();
             this.approvedActions.add(0, ofActionSetField);
         }
 
-        if(this.match.get(MatchField.IPV4_DST) != null) {
+        if(this.key.isIPv4() && this.key.has(FlowKey.NW_DST)) {
             OFActionSetField ofActionSetField = this.factory.actions().buildSetField()
                     .setField(this.factory.oxms().ipv4Dst(
                             IPv4Address.of(
                                     IPMapper.getPhysicalIp(
                                             sw.getTenantId(),
-                                            this.match.get(MatchField.IPV4_DST).getInt()))))
+                                            this.key.getNwDst()))))
                     .build();
             this.approvedActions.add(0, ofActionSetField);
         }
     }
 
     private void prependRewriteActionsVer10(final OVXSwitch sw) {
-        if(this.match.get(MatchField.IPV4_SRC) != null) {
+        if(this.key.isIPv4() && this.key.has(FlowKey.NW_SRC)) {
             OFActionSetNwSrc srcAct = this.factory.actions().buildSetNwSrc()
                     .setNwAddr(IPv4Address.of(IPMapper.getPhysicalIp(sw.getTenantId(),
-                            this.match.get(MatchField.IPV4_SRC).getInt())))
+                            this.key.getNwSrc())))
                     .build();
             this.approvedActions.add(0, srcAct);
         }
 
-        if(this.match.get(MatchField.IPV4_DST) != null) {
+        if(this.key.isIPv4() && this.key.has(FlowKey.NW_DST)) {
             OFActionSetNwDst dstAct = this.factory.actions().buildSetNwDst()
                     .setNwAddr(IPv4Address.of(IPMapper.getPhysicalIp(sw.getTenantId(),
-                            this.match.get(MatchField.IPV4_DST).getInt())))
+                            this.key.getNwDst())))
                     .build();
             this.approvedActions.add(0, dstAct);
         }
@@ -38,6 +38,7 @@ import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
+import net.onrc.openvirtex.routing.FlowMigration;
 import net.onrc.openvirtex.routing.SwitchRoute;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -70,11 +71,21 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
         LinkPair<PhysicalLink> pair = p.getLink();
         try {
             Set<Integer> vnets = map.listVirtualNetworks().keySet();
-            for (Integer tenantId : vnets) {
-                /* handle vLinks/routes containing phyLink to/from this port. */
-                if ((pair != null) && (pair.exists())) {
-                    handleLinkChange(sw, map, pair, tenantId);
+            if ((pair != null) && (pair.exists())) {
+                /*
+                 * handle vLinks/routes containing phyLink to/from this port,
+                 * then move their flows for all tenants at once.
+                 */
+                FlowMigration migration = new FlowMigration();
+                try {
+                    for (Integer tenantId : vnets) {
+                        handleLinkChange(sw, map, pair, tenantId, migration);
+                    }
+                } finally {
+                    migration.execute();
                 }
+            }
+            for (Integer tenantId : vnets) {
                 List<Map<Integer, OVXPort>> vports = p.getOVXPorts(tenantId);
                 /* cycle through all OVXPorts for this port. */
                 Iterator<Map<Integer, OVXPort>> pItr = vports.iterator();
@@ -148,11 +159,14 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
      *            the LinkPair associated with the PhysicalPort
      * @param tid
      *            the tenant ID
+     * @param migration
+     *            the flow migration collecting the flows to move
      * @throws LinkMappingException
      * @throws NetworkMappingException
      */
     private void handleLinkChange(PhysicalSwitch sw, Mappable map,
-                                  LinkPair<PhysicalLink> pair, int tid) throws LinkMappingException,
+                                  LinkPair<PhysicalLink> pair, int tid,
+                                  FlowMigration migration) throws LinkMappingException,
             NetworkMappingException {
         PhysicalLink plink = pair.getOutLink();
 
@@ -161,14 +175,14 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
 
             OVXNetwork net = map.getVirtualNetwork(tid);
             for (OVXLink link : net.getLinks()) {
-                link.tryRevert(plink);
+                link.tryRevert(plink, migration);
             }
             for (OVXSwitch ovxSw : net.getSwitches()) {
                 if (ovxSw instanceof OVXBigSwitch) {
                     for (Map<OVXPort, SwitchRoute> routeMap : ((OVXBigSwitch) ovxSw)
                             .getRouteMap().values()) {
                         for (SwitchRoute route : routeMap.values()) {
-                            route.tryRevert(plink);
+                            route.tryRevert(plink, migration);
                         }
                     }
                 }
@@ -180,7 +194,7 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
             for (OVXLink vlink : vlinks) {
                 if (isReason(OFPortReason.DELETE)) {
                     /* couldn't recover, remove link */
-                    if (!vlink.tryRecovery(plink)) {
+                    if (!vlink.tryRecovery(plink, migration)) {
                         OVXPort vport = vlink.getSrcPort();
                         vport.unMapHost();
                         vport.handlePortDelete(this);
@@ -190,7 +204,7 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
                 if (isReason(OFPortReason.MODIFY)) {
                     if (isState(OFPortState.LINK_DOWN)) {
                         /* couldn't recover, remove link */
-                        if (!vlink.tryRecovery(plink)) {
+                        if (!vlink.tryRecovery(plink, migration)) {
                             vlink.getSrcPort().handlePortDisable(this);
                         }
                     } else if (!isState(OFPortState.LINK_DOWN)
@@ -200,7 +214,7 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
                          * try to switch back to original path, if not just
                          * bring up and hope it's working
                          */
-                        if (!vlink.tryRevert(plink)) {
+                        if (!vlink.tryRevert(plink, migration)) {
                             vlink.getSrcPort().handlePortEnable(this);
                         }
                     }
@@ -217,7 +231,7 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
                  */
                 if ((isReason(OFPortReason.DELETE))
                         || (isReason(OFPortReason.MODIFY) & isState(OFPortState.LINK_DOWN))) {
-                    if (!route.tryRecovery(plink)) {
+                    if (!route.tryRecovery(plink, migration)) {
                         route.getSrcPort().handleRouteDisable(this);
                     }
                 }
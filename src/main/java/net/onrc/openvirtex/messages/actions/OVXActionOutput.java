@@ -142,15 +142,13 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                                 && match.getMatch().get(MatchField.ETH_DST) != null
                                 && match.getMatch().get(MatchField.ETH_SRC) != null) {
                             try {
-                                flowId = vnet.getFlowManager()
-                                        .getFlowId(
-                                                match.getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                                match.getMatch().get(MatchField.ETH_DST).getBytes()
-                                        );
+                                flowId = OVXLinkUtils.getFlowId(vnet, match.getMatch());
                                 OVXLinkUtils lUtils = new OVXLinkUtils(
-                                        sw.getTenantId(), link.getLinkId(), flowId);
+                                        sw.getTenantId(), link.getLinkId(), flowId,
+                                        match.getMatch());
                                 approvedActions.addAll(
-                                        lUtils.unsetLinkFields(false, false, sw.getOfVersion())
+                                        lUtils.unsetLinkFields(false, false,
+                                                sw.getOfVersion())
                                 );
                             } catch (IndexOutOfBoundException e) {
                                 log.error(
@@ -211,12 +209,10 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             final OVXLink link = outPort.getLink().getOutLink();
                             linkId = link.getLinkId();
                             try {
-                                flowId = vnet.getFlowManager().storeFlowValues(
-                                        match.getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                        match.getMatch().get(MatchField.ETH_DST).getBytes());
+                                flowId = OVXLinkUtils.storeFlowId(vnet, match.getMatch());
                                 link.generateLinkFMs(fm.clone(), flowId);
-                                approvedActions.addAll(new OVXLinkUtils(sw.getTenantId(), linkId, flowId)
-                                        .setLinkFields(sw.getOfVersion()));
+                                approvedActions.addAll(new OVXLinkUtils(sw.getTenantId(), linkId, flowId,
+                                        match.getMatch()).setLinkFields(sw.getOfVersion()));
                             } catch (IndexOutOfBoundException e) {
                                 log.error(
                                         "Too many host to generate the flow pairs in this virtual network {}. "
@@ -235,6 +231,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                              * related to the link
                              */
                             //log.info("prependUnRewriteActions2");
+                            final int unRewriteIndex = approvedActions.size();
                             approvedActions.addAll(
                                     IPMapper.prependUnRewriteActions(match.getMatch())
                             );
@@ -244,12 +241,10 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             final OVXLink link = dstPort.getLink().getOutLink();
                             if (link != null) {
                                 try {
-                                    flowId = vnet.getFlowManager().getFlowId(
-                                            match.getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                            match.getMatch().get(MatchField.ETH_DST).getBytes());
+                                    flowId = OVXLinkUtils.getFlowId(vnet, match.getMatch());
                                     OVXLinkUtils lUtils = new OVXLinkUtils(
                                             sw.getTenantId(), link.getLinkId(),
-                                            flowId);
+                                            flowId, match.getMatch());
                                     // Don't rewrite src or dst MAC if the action already exists
                                     // OFActionOutput만 있는 경우에도 이부분이 실행되나?
                                     boolean skipSrcMac = false;
@@ -277,8 +272,12 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                                     }
 
 
+                                    // a tag is popped before the IPs are restored
                                     approvedActions.addAll(
-                                            lUtils.unsetLinkFields(skipSrcMac, skipDstMac, sw.getOfVersion())
+                                            lUtils.getLinkField().isTag()
+                                                    ? unRewriteIndex : approvedActions.size(),
+                                            lUtils.unsetLinkFields(skipSrcMac, skipDstMac,
+                                                    sw.getOfVersion())
                                     );
                                 } catch (IndexOutOfBoundException e) {
                                     log.error(
@@ -299,13 +298,16 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             final OVXLink link = outPort.getLink().getOutLink();
                             linkId = link.getLinkId();
                             try {
-                                flowId = vnet.getFlowManager().storeFlowValues(
-                                        match.getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                        match.getMatch().get(MatchField.ETH_DST).getBytes());
+                                flowId = OVXLinkUtils.storeFlowId(vnet, match.getMatch());
                                 link.generateLinkFMs(fm.clone(), flowId);
-                                approvedActions.addAll(new OVXLinkUtils(sw
-                                        .getTenantId(), linkId, flowId)
-                                        .setLinkFields(sw.getOfVersion()));
+                                final OVXLinkUtils lUtils = new OVXLinkUtils(
+                                        sw.getTenantId(), linkId, flowId, match.getMatch());
+                                if (lUtils.getLinkField().isTag()) {
+                                    // replace the tag of the incoming link
+                                    approvedActions.addAll(lUtils.unsetLinkFields(false, false,
+                                            sw.getOfVersion()));
+                                }
+                                approvedActions.addAll(lUtils.setLinkFields(sw.getOfVersion()));
 
                             } catch (IndexOutOfBoundException e) {
                                 log.error(
@@ -43,8 +43,8 @@ public class OVXAggregateStatsReply extends OVXStatistics implements Virtualizab
 
     @Override
     public void virtualizeStatistic(final PhysicalSwitch sw, final OVXStatisticsReply msg) {
-
-
+        sw.getStatisticsManager().addAggregateStatistics(
+                (OFAggregateStatsReply) msg.getOFMessage());
     }
 
     @Override
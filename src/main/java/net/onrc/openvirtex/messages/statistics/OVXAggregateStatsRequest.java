@@ -19,12 +19,7 @@
  */
 package net.onrc.openvirtex.messages.statistics;
 
-import net.onrc.openvirtex.elements.datapath.FlowTable;
-import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
-import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
-import net.onrc.openvirtex.elements.port.OVXPort;
-import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 
@@ -67,10 +62,6 @@ public class OVXAggregateStatsRequest extends OVXStatistics implements Devirtual
     @Override
     public void devirtualizeStatistic(final OVXSwitch sw, final OVXStatisticsRequest msg) {
 
-        int tid = sw.getTenantId();
-        HashSet<Long> uniqueCookies = new HashSet<Long>();
-
-
         OFFactory ofFactory = OFFactories.getFactory(msg.getOFMessage().getVersion());
 
         Set<MatchField> matchFields = new HashSet<MatchField>();
@@ -80,31 +71,12 @@ public class OVXAggregateStatsRequest extends OVXStatistics implements Devirtual
         OFAggregateStatsReply ofAggregateStatsReply = ofFactory.buildAggregateStatsReply().build();
 
         if(matchFields.size() == 0 && this.outPort == OFPort.ANY.getPortNumber()) {
-            FlowTable ft = sw.getFlowTable();
+            long[] totals = sw.getVirtualStatistics().getAggregateStats();
             ofAggregateStatsReply= ofAggregateStatsReply.createBuilder()
-                                            .setFlowCount(ft.getFlowTable().size())
-                                            .setByteCount(U64.of(0))
-                                            .setPacketCount(U64.of(0))
+                                            .setFlowCount(totals[2])
+                                            .setByteCount(U64.of(totals[1]))
+                                            .setPacketCount(U64.of(totals[0]))
                                             .build();
-
-            for (PhysicalSwitch psw : getPhysicalSwitches(sw)) {
-                List<OFFlowStatsEntry> reps = psw.getFlowStats(tid);
-                if (reps != null) {
-                    for (OFFlowStatsEntry s : reps) {
-
-                        if (!uniqueCookies.contains(s.getCookie())) {
-                            ofAggregateStatsReply = ofAggregateStatsReply.createBuilder()
-                                    .setByteCount(U64.of(ofAggregateStatsReply.getByteCount().getValue() +
-                                            s.getByteCount().getValue()))
-                                    .setPacketCount(U64.of(ofAggregateStatsReply.getPacketCount().getValue() +
-                                            s.getPacketCount().getValue()))
-                                    .build();
-
-                            uniqueCookies.add(s.getCookie().getValue());
-                        }
-                    }
-                }
-            }
         }
 
         OVXStatisticsReply reply =
@@ -116,25 +88,6 @@ public class OVXAggregateStatsRequest extends OVXStatistics implements Devirtual
 
     }
 
-    private List<PhysicalSwitch> getPhysicalSwitches(OVXSwitch sw) {
-        if (sw instanceof OVXSingleSwitch) {
-            try {
-                return sw.getMap().getPhysicalSwitches(sw);
-            } catch (SwitchMappingException e) {
-                log.debug("OVXSwitch {} does not map to any physical switches",
-                        sw.getSwitchName());
-                return new LinkedList<>();
-            }
-        }
-        LinkedList<PhysicalSwitch> sws = new LinkedList<PhysicalSwitch>();
-        for (OVXPort p : sw.getPorts().values()) {
-            if (!sws.contains(p.getPhysicalPort().getParentSwitch())) {
-                sws.add(p.getPhysicalPort().getParentSwitch());
-            }
-        }
-        return sws;
-    }
-
     @Override
     public int hashCode() {
         return this.ofAggregateStatsRequest.hashCode();
@@ -28,10 +28,6 @@ import org.projectfloodlight.openflow.protocol.OFFlowStatsReply;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFStatsType;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-
 public class OVXFlowStatsReply extends OVXStatistics implements VirtualizableStatistic {
 
     Logger log = LogManager.getLogger(OVXFlowStatsReply.class.getName());
@@ -73,30 +69,8 @@ public class OVXFlowStatsReply extends OVXStatistics implements VirtualizableSta
             return;
         }
 
-        HashMap<Integer, List<OFFlowStatsEntry>> stats = new HashMap<Integer, List<OFFlowStatsEntry>>();
-
-        OFFlowStatsReply ofFlowStatsReply = (OFFlowStatsReply)msg.getOFMessage();
-
-        for (OFFlowStatsEntry stat : ofFlowStatsReply.getEntries()) {
-             int tid = getTidFromCookie(stat.getCookie().getValue());
-            addToStats(tid, stat, stats);
-        }
-
-        sw.setFlowStatistics(stats);
-    }
-
-    private void addToStats(int tid, OFFlowStatsEntry reply,
-                            HashMap<Integer, List<OFFlowStatsEntry>> stats) {
-        List<OFFlowStatsEntry> statsList = stats.get(tid);
-        if (statsList == null) {
-            statsList = new LinkedList<OFFlowStatsEntry>();
-        }
-        statsList.add(reply);
-        stats.put(tid, statsList);
-    }
-
-    private int getTidFromCookie(long cookie) {
-        return (int) (cookie >> 32);
+        sw.getStatisticsManager().addFlowStatistics(
+                (OFFlowStatsReply) msg.getOFMessage());
     }
 
     @Override
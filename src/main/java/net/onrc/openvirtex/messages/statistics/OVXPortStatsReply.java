@@ -19,23 +19,17 @@
  */
 package net.onrc.openvirtex.messages.statistics;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.OFMessage;
-import org.projectfloodlight.openflow.protocol.OFPortStatsEntry;
 import org.projectfloodlight.openflow.protocol.OFPortStatsReply;
 import org.projectfloodlight.openflow.protocol.OFStatsType;
 
 public class OVXPortStatsReply extends OVXStatistics implements VirtualizableStatistic {
     Logger log = LogManager.getLogger(OVXPortStatsReply.class.getName());
 
-    private Map<Short, OFPortStatsEntry> stats = null;
     protected OFPortStatsReply ofPortStatsReply;
 
     public OVXPortStatsReply(OFMessage ofMessage) {
@@ -47,13 +41,8 @@ public class OVXPortStatsReply extends OVXStatistics implements VirtualizableSta
     public void virtualizeStatistic(final PhysicalSwitch sw, final OVXStatisticsReply msg) {
         //this.log.info("virtualizeStatistic");
 
-        stats = new HashMap<Short, OFPortStatsEntry>();
-        List<OFPortStatsEntry> statList = ((OFPortStatsReply)msg.getOFMessage()).getEntries();
-        for(OFPortStatsEntry stat : statList) {
-            stats.put(stat.getPortNo().getShortPortNumber(), stat);
-        }
-
-        sw.setPortStatistics(stats);
+        sw.getStatisticsManager().addPortStatistics(
+                (OFPortStatsReply) msg.getOFMessage());
     }
 
     @Override
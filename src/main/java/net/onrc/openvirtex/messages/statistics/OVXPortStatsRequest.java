@@ -20,7 +20,6 @@
 package net.onrc.openvirtex.messages.statistics;
 
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
-import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 import org.apache.logging.log4j.LogManager;
@@ -28,7 +27,6 @@ import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.types.OFPort;
 
-import java.util.LinkedList;
 import java.util.List;
 
 public class OVXPortStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
@@ -48,27 +46,9 @@ public class OVXPortStatsRequest extends OVXStatistics implements Devirtualizabl
     public void devirtualizeStatistic(final OVXSwitch sw, final OVXStatisticsRequest msg) {
         //this.log.info("devirtualizeStatistic");
 
-        List<OFPortStatsEntry> replies = new LinkedList<OFPortStatsEntry>();
-
         if(this.portNo.getPortNumber() == OFPort.ANY.getPortNumber()) {
-            for (OVXPort p : sw.getPorts().values()) {
-                OFPortStatsEntry reply = p.getPhysicalPort()
-                        .getParentSwitch()
-                        .getPortStat(p.getPhysicalPort().getPortNumber());
-                if (reply != null) {
-                    /*
-                     * Setting it here will also update the reference but this
-                     * should not matter since we index our port stats struct by
-                     * physical port number (so this info is not lost) and we
-                     * always rewrite the port num to the virtual port number.
-                     */
-
-                    reply = reply.createBuilder()
-                            .setPortNo(OFPort.of(p.getPortNumber()))
-                            .build();
-                    replies.add(reply);
-                }
-            }
+            List<OFPortStatsEntry> replies = sw.getVirtualStatistics()
+                    .getPortStats(msg.getOFMessage().getVersion());
 
             OFPortStatsReply portStatsReply = OFFactories.getFactory(msg.getOFMessage().getVersion()).buildPortStatsReply()
                     .setEntries(replies)
@@ -23,10 +23,7 @@ import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 import org.projectfloodlight.openflow.protocol.*;
-import org.projectfloodlight.openflow.types.TableId;
-import org.projectfloodlight.openflow.types.U64;
 
-import java.util.LinkedList;
 import java.util.List;
 
 public class OVXTableStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
@@ -34,10 +31,6 @@ public class OVXTableStatsRequest extends OVXStatistics implements Devirtualizab
     protected OFTableStatsRequest ofTableStatsRequest;
     protected OFTableStatsEntry ofTableStatsEntry;
 
-    int OFPFW_ALL = (1 << 22) - 1;
-    int OFPFW_NW_DST_SHIFT = 14;
-    int OFPFW_NW_DST_ALL = 32 << OFPFW_NW_DST_SHIFT;
-
     public OVXTableStatsRequest(OFMessage ofMessage) {
         super(OFStatsType.TABLE);
 
@@ -48,30 +41,9 @@ public class OVXTableStatsRequest extends OVXStatistics implements Devirtualizab
     public void devirtualizeStatistic(final OVXSwitch sw, final OVXStatisticsRequest msg) {
         OFFactory ofFactory = OFFactories.getFactory(msg.getOFMessage().getVersion());
 
-        List<OFTableStatsEntry> tableStatsEntries = new LinkedList<OFTableStatsEntry>();
-
-        if(ofFactory.getVersion() == OFVersion.OF_10) {
-
-            this.ofTableStatsEntry = ofFactory.buildTableStatsEntry()
-                    .setActiveCount(sw.getFlowTable().getFlowTable().size())
-                    .setTableId(TableId.of(1))
-                    .setWildcards(OFPFW_ALL & ~OFPFW_NW_DST_ALL & ~OFPFW_NW_DST_ALL)
-                    .setName("Libera vFlowTable (incomplete)")
-                    .setMaxEntries(100000)
-                    .build();
-
-            tableStatsEntries.add(this.ofTableStatsEntry);
-        }else {
-
-            this.ofTableStatsEntry = ofFactory.buildTableStatsEntry()
-                    .setActiveCount(sw.getFlowTable().getFlowTable().size())
-                    .setMatchedCount(U64.of(0))
-                    .setLookupCount(U64.of(0))
-                    .setTableId(TableId.of(1))
-                    .build();
-
-            tableStatsEntries.add(this.ofTableStatsEntry);
-        }
+        List<OFTableStatsEntry> tableStatsEntries = sw.getVirtualStatistics()
+                .getTableStats(ofFactory.getVersion());
+        this.ofTableStatsEntry = tableStatsEntries.get(0);
 
         OVXStatisticsReply reply = new OVXStatisticsReply(
                 ofFactory.buildTableStatsReply()
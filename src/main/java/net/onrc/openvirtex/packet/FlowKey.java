@@ -0,0 +1,438 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.packet;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpDscp;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.OFVlanVidMatch;
+import org.projectfloodlight.openflow.types.TransportPort;
+import org.projectfloodlight.openflow.types.VlanPcp;
+
+/**
+ * Mutable flow key over the header fields of a packet. Field values are kept
+ * as primitives, with a bitmask recording which fields are present, so a key
+ * can be extracted, rewritten, hashed and compared without creating any
+ * OpenFlow types. A {@link Match} is only built by {@link #toMatch(OFVersion)},
+ * when the key has to be encoded.
+ * <p>
+ * The network addresses hold the IPv4 addresses of an IPv4 datagram, or the
+ * sender and target protocol addresses of an ARP message, as the OpenFlow
+ * match does. A key must not be changed while it is held in a hash based
+ * collection.
+ */
+public final class FlowKey {
+
+    public static final int IN_PORT = 1;
+    public static final int ETH_SRC = 1 << 1;
+    public static final int ETH_DST = 1 << 2;
+    public static final int VLAN_VID = 1 << 3;
+    public static final int VLAN_PCP = 1 << 4;
+    public static final int ETH_TYPE = 1 << 5;
+    public static final int NW_SRC = 1 << 6;
+    public static final int NW_DST = 1 << 7;
+    public static final int IP_DSCP = 1 << 8;
+    public static final int IP_PROTO = 1 << 9;
+    public static final int TP_SRC = 1 << 10;
+    public static final int TP_DST = 1 << 11;
+
+    private int fields = 0;
+    private short inPort;
+    private long ethSrc;
+    private long ethDst;
+    private short vlanVid;
+    private byte vlanPcp;
+    private int ethType;
+    private int nwSrc;
+    private int nwDst;
+    private byte dscp;
+    private short nwProto;
+    private int tpSrc;
+    private int tpDst;
+
+    /**
+     * Creates an empty key, with no field present.
+     */
+    public FlowKey() {
+    }
+
+    /**
+     * Creates a copy of the given key.
+     *
+     * @param key the key to copy
+     */
+    public FlowKey(final FlowKey key) {
+        this.fields = key.fields;
+        this.inPort = key.inPort;
+        this.ethSrc = key.ethSrc;
+        this.ethDst = key.ethDst;
+        this.vlanVid = key.vlanVid;
+        this.vlanPcp = key.vlanPcp;
+        this.ethType = key.ethType;
+        this.nwSrc = key.nwSrc;
+        this.nwDst = key.nwDst;
+        this.dscp = key.dscp;
+        this.nwProto = key.nwProto;
+        this.tpSrc = key.tpSrc;
+        this.tpDst = key.tpDst;
+    }
+
+    /**
+     * Extracts the key of a packet straight from its bytes.
+     *
+     * @param data the packet bytes, starting with the Ethernet header
+     * @param inPort the input port
+     * @return the key
+     */
+    public static FlowKey fromPacket(final byte[] data, final short inPort) {
+        return new PacketContext(data).toFlowKey(inPort);
+    }
+
+    /**
+     * Checks if all of the given fields are present.
+     *
+     * @param mask one or more field bits
+     * @return true if every field is present
+     */
+    public boolean has(final int mask) {
+        return (this.fields & mask) == mask;
+    }
+
+    /**
+     * @return the bitmask of the present fields
+     */
+    public int getFields() {
+        return this.fields;
+    }
+
+    /**
+     * Removes the given fields from the key.
+     *
+     * @param mask one or more field bits
+     * @return this key
+     */
+    public FlowKey clear(final int mask) {
+        this.fields &= ~mask;
+        return this;
+    }
+
+    /**
+     * @return true if the key describes an IPv4 datagram
+     */
+    public boolean isIPv4() {
+        return this.has(ETH_TYPE)
+                && this.ethType == (Ethernet.TYPE_IPV4 & 0xffff);
+    }
+
+    /**
+     * @return true if the key describes an ARP message
+     */
+    public boolean isARP() {
+        return this.has(ETH_TYPE)
+                && this.ethType == (Ethernet.TYPE_ARP & 0xffff);
+    }
+
+    /**
+     * @return true if the network addresses of the key are IPv4 addresses,
+     *         those of an IPv4 datagram or of an ARP message
+     */
+    public boolean hasIPv4Addresses() {
+        return this.isIPv4() || this.isARP();
+    }
+
+    public short getInPort() {
+        return this.inPort;
+    }
+
+    public FlowKey setInPort(final short inPort) {
+        this.inPort = inPort;
+        this.fields |= IN_PORT;
+        return this;
+    }
+
+    public long getEthSrc() {
+        return this.ethSrc;
+    }
+
+    public FlowKey setEthSrc(final long mac) {
+        this.ethSrc = mac;
+        this.fields |= ETH_SRC;
+        return this;
+    }
+
+    public long getEthDst() {
+        return this.ethDst;
+    }
+
+    public FlowKey setEthDst(final long mac) {
+        this.ethDst = mac;
+        this.fields |= ETH_DST;
+        return this;
+    }
+
+    public short getVlanVid() {
+        return this.vlanVid;
+    }
+
+    public FlowKey setVlanVid(final short vid) {
+        this.vlanVid = vid;
+        this.fields |= VLAN_VID;
+        return this;
+    }
+
+    public byte getVlanPcp() {
+        return this.vlanPcp;
+    }
+
+    public FlowKey setVlanPcp(final byte pcp) {
+        this.vlanPcp = pcp;
+        this.fields |= VLAN_PCP;
+        return this;
+    }
+
+    public int getEthType() {
+        return this.ethType;
+    }
+
+    public FlowKey setEthType(final int ethType) {
+        this.ethType = ethType;
+        this.fields |= ETH_TYPE;
+        return this;
+    }
+
+    public int getNwSrc() {
+        return this.nwSrc;
+    }
+
+    public FlowKey setNwSrc(final int ip) {
+        this.nwSrc = ip;
+        this.fields |= NW_SRC;
+        return this;
+    }
+
+    public int getNwDst() {
+        return this.nwDst;
+    }
+
+    public FlowKey setNwDst(final int ip) {
+        this.nwDst = ip;
+        this.fields |= NW_DST;
+        return this;
+    }
+
+    public byte getDscp() {
+        return this.dscp;
+    }
+
+    public FlowKey setDscp(final byte dscp) {
+        this.dscp = dscp;
+        this.fields |= IP_DSCP;
+        return this;
+    }
+
+    public short getNwProto() {
+        return this.nwProto;
+    }
+
+    public FlowKey setNwProto(final short nwProto) {
+        this.nwProto = nwProto;
+        this.fields |= IP_PROTO;
+        return this;
+    }
+
+    public int getTpSrc() {
+        return this.tpSrc;
+    }
+
+    public FlowKey setTpSrc(final int port) {
+        this.tpSrc = port;
+        this.fields |= TP_SRC;
+        return this;
+    }
+
+    public int getTpDst() {
+        return this.tpDst;
+    }
+
+    public FlowKey setTpDst(final int port) {
+        this.tpDst = port;
+        this.fields |= TP_DST;
+        return this;
+    }
+
+    /**
+     * Builds the OpenFlow match holding the present fields, using a single
+     * match builder.
+     *
+     * @param ofVersion the OpenFlow version of the match
+     * @return the match
+     */
+    public Match toMatch(final OFVersion ofVersion) {
+        final Match.Builder builder = OFFactories.getFactory(ofVersion)
+                .buildMatch();
+        if (this.has(IN_PORT)) {
+            builder.setExact(MatchField.IN_PORT, OFPort.of(this.inPort));
+        }
+        if (this.has(ETH_SRC)) {
+            builder.setExact(MatchField.ETH_SRC, MacAddress.of(this.ethSrc));
+        }
+        if (this.has(ETH_DST)) {
+            builder.setExact(MatchField.ETH_DST, MacAddress.of(this.ethDst));
+        }
+        if (this.has(VLAN_VID)) {
+            builder.setExact(MatchField.VLAN_VID,
+                    OFVlanVidMatch.ofRawVid(this.vlanVid));
+        }
+        if (this.has(VLAN_PCP)) {
+            builder.setExact(MatchField.VLAN_PCP, VlanPcp.of(this.vlanPcp));
+        }
+        if (this.has(ETH_TYPE)) {
+            builder.setExact(MatchField.ETH_TYPE, EthType.of(this.ethType));
+        }
+        final boolean arp = this.isARP();
+        if (this.has(NW_SRC)) {
+            builder.setExact(arp ? MatchField.ARP_SPA : MatchField.IPV4_SRC,
+                    IPv4Address.of(this.nwSrc));
+        }
+        if (this.has(NW_DST)) {
+            builder.setExact(arp ? MatchField.ARP_TPA : MatchField.IPV4_DST,
+                    IPv4Address.of(this.nwDst));
+        }
+        if (this.has(IP_DSCP)) {
+            builder.setExact(MatchField.IP_DSCP, IpDscp.of(this.dscp));
+        }
+        if (this.has(IP_PROTO)) {
+            builder.setExact(MatchField.IP_PROTO, IpProtocol.of(this.nwProto));
+        }
+        // the OXM prerequisites of OF1.3 require the ports of ip_proto
+        final boolean udp = this.has(IP_PROTO)
+                && this.nwProto == IpProtocol.UDP.getIpProtocolNumber();
+        if (this.has(TP_SRC)) {
+            builder.setExact(udp ? MatchField.UDP_SRC : MatchField.TCP_SRC,
+                    TransportPort.of(this.tpSrc));
+        }
+        if (this.has(TP_DST)) {
+            builder.setExact(udp ? MatchField.UDP_DST : MatchField.TCP_DST,
+                    TransportPort.of(this.tpDst));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int hashCode() {
+        final int f = this.fields;
+        int h = f;
+        h = 31 * h + ((f & IN_PORT) != 0 ? this.inPort : 0);
+        h = 31 * h + ((f & ETH_SRC) != 0 ? mix(this.ethSrc) : 0);
+        h = 31 * h + ((f & ETH_DST) != 0 ? mix(this.ethDst) : 0);
+        h = 31 * h + ((f & VLAN_VID) != 0 ? this.vlanVid : 0);
+        h = 31 * h + ((f & VLAN_PCP) != 0 ? this.vlanPcp : 0);
+        h = 31 * h + ((f & ETH_TYPE) != 0 ? this.ethType : 0);
+        h = 31 * h + ((f & NW_SRC) != 0 ? this.nwSrc : 0);
+        h = 31 * h + ((f & NW_DST) != 0 ? this.nwDst : 0);
+        h = 31 * h + ((f & IP_DSCP) != 0 ? this.dscp : 0);
+        h = 31 * h + ((f & IP_PROTO) != 0 ? this.nwProto : 0);
+        h = 31 * h + ((f & TP_SRC) != 0 ? this.tpSrc : 0);
+        h = 31 * h + ((f & TP_DST) != 0 ? this.tpDst : 0);
+        return h;
+    }
+
+    private static int mix(final long value) {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowKey)) {
+            return false;
+        }
+        final FlowKey other = (FlowKey) obj;
+        final int f = this.fields;
+        return f == other.fields
+                && ((f & IN_PORT) == 0 || this.inPort == other.inPort)
+                && ((f & ETH_SRC) == 0 || this.ethSrc == other.ethSrc)
+                && ((f & ETH_DST) == 0 || this.ethDst == other.ethDst)
+                && ((f & VLAN_VID) == 0 || this.vlanVid == other.vlanVid)
+                && ((f & VLAN_PCP) == 0 || this.vlanPcp == other.vlanPcp)
+                && ((f & ETH_TYPE) == 0 || this.ethType == other.ethType)
+                && ((f & NW_SRC) == 0 || this.nwSrc == other.nwSrc)
+                && ((f & NW_DST) == 0 || this.nwDst == other.nwDst)
+                && ((f & IP_DSCP) == 0 || this.dscp == other.dscp)
+                && ((f & IP_PROTO) == 0 || this.nwProto == other.nwProto)
+                && ((f & TP_SRC) == 0 || this.tpSrc == other.tpSrc)
+                && ((f & TP_DST) == 0 || this.tpDst == other.tpDst);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("FlowKey[");
+        if (this.has(IN_PORT)) {
+            sb.append("in_port=").append(this.inPort & 0xffff).append(' ');
+        }
+        if (this.has(ETH_SRC)) {
+            sb.append("eth_src=").append(MacAddress.of(this.ethSrc)).append(' ');
+        }
+        if (this.has(ETH_DST)) {
+            sb.append("eth_dst=").append(MacAddress.of(this.ethDst)).append(' ');
+        }
+        if (this.has(VLAN_VID)) {
+            sb.append("vlan_vid=").append(this.vlanVid).append(' ');
+        }
+        if (this.has(VLAN_PCP)) {
+            sb.append("vlan_pcp=").append(this.vlanPcp).append(' ');
+        }
+        if (this.has(ETH_TYPE)) {
+            sb.append("eth_type=0x").append(Integer.toHexString(this.ethType))
+                    .append(' ');
+        }
+        if (this.has(NW_SRC)) {
+            sb.append("nw_src=").append(IPv4Address.of(this.nwSrc)).append(' ');
+        }
+        if (this.has(NW_DST)) {
+            sb.append("nw_dst=").append(IPv4Address.of(this.nwDst)).append(' ');
+        }
+        if (this.has(IP_DSCP)) {
+            sb.append("ip_dscp=").append(this.dscp).append(' ');
+        }
+        if (this.has(IP_PROTO)) {
+            sb.append("ip_proto=").append(this.nwProto).append(' ');
+        }
+        if (this.has(TP_SRC)) {
+            sb.append("tp_src=").append(this.tpSrc).append(' ');
+        }
+        if (this.has(TP_DST)) {
+            sb.append("tp_dst=").append(this.tpDst).append(' ');
+        }
+        if (sb.charAt(sb.length() - 1) == ' ') {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.packet;
+
+import java.util.Arrays;
+
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+
+/**
+ * Header view over the raw bytes of a packet carried in a PACKET_IN or
+ * PACKET_OUT. Headers are located on first access and read straight from
+ * the byte array; nothing is deserialized into packet objects.
+ * <p>
+ * Address rewrites are applied to the bytes in place. The original array is
+ * copied once, on the first rewrite, so the OpenFlow message it came from is
+ * never modified. Checksums are left untouched, as the rewrites are undone
+ * again on the way back to the physical network.
+ */
+public class PacketContext {
+
+    private static final int TYPE_VLAN = 0x8100;
+    private static final int TYPE_MPLS = 0x8847;
+    private static final int TYPE_IPV6 = 0x86dd;
+    private static final int ETH_HEADER_LENGTH = 14;
+    private static final int VLAN_HEADER_LENGTH = 4;
+    private static final int IPV4_MIN_HEADER_LENGTH = 20;
+    private static final int ARP_IPV4_LENGTH = 28;
+    private static final int MPLS_HEADER_LENGTH = 4;
+
+    private byte[] data;
+    private int length;
+    private boolean copied = false;
+
+    // offsets and values located by parse()
+    private boolean parsed = false;
+    private int ethType = -1;
+    private int vlanTci = -1;
+    private int l3Offset = -1;
+    private int l4Offset = -1;
+    private int nwProto = 0;
+    private boolean hasNwAddresses = false;
+    private int nwSrcOffset = -1;
+    private int nwDstOffset = -1;
+
+    /**
+     * Creates a view over the given packet bytes.
+     *
+     * @param data the packet bytes, starting with the Ethernet header
+     */
+    public PacketContext(final byte[] data) {
+        this.data = data;
+        this.length = data == null ? 0 : data.length;
+    }
+
+    /**
+     * Locates the Ethernet, VLAN, IPv4/ARP and transport headers, and trims
+     * any Ethernet trailer following an IPv4 datagram.
+     */
+    private void parse() {
+        if (this.parsed) {
+            return;
+        }
+        this.parsed = true;
+        this.ethType = -1;
+        this.vlanTci = -1;
+        this.l3Offset = -1;
+        this.l4Offset = -1;
+        this.nwProto = 0;
+        this.hasNwAddresses = false;
+        this.nwSrcOffset = -1;
+        this.nwDstOffset = -1;
+        if (this.length < ETH_HEADER_LENGTH) {
+            return;
+        }
+        int offset = 12;
+        this.ethType = this.getU16(offset);
+        offset += 2;
+        if (this.ethType == TYPE_VLAN) {
+            if (this.length < ETH_HEADER_LENGTH + VLAN_HEADER_LENGTH) {
+                this.ethType = -1;
+                return;
+            }
+            this.vlanTci = this.getU16(offset);
+            this.ethType = this.getU16(offset + 2);
+            offset += VLAN_HEADER_LENGTH;
+        }
+        this.l3Offset = offset;
+
+        if (this.ethType == (Ethernet.TYPE_IPV4 & 0xffff)) {
+            if (this.length - offset < IPV4_MIN_HEADER_LENGTH) {
+                return;
+            }
+            // strip the Ethernet trailer some switches append to PACKET_INs
+            final int totalLength = this.getU16(offset + 2);
+            if (totalLength >= IPV4_MIN_HEADER_LENGTH
+                    && totalLength < this.length - offset) {
+                this.length = offset + totalLength;
+            }
+            this.nwProto = this.data[offset + 9] & 0xff;
+            this.hasNwAddresses = true;
+            this.nwSrcOffset = offset + 12;
+            this.nwDstOffset = offset + 16;
+            this.l4Offset = offset + (this.data[offset] & 0xf) * 4;
+        } else if (this.ethType == (Ethernet.TYPE_ARP & 0xffff)) {
+            if (this.length - offset < 8) {
+                return;
+            }
+            // the low byte of the ARP opcode stands in for nw_proto
+            this.nwProto = this.data[offset + 7] & 0xff;
+            this.l4Offset = offset;
+            if (this.length - offset >= ARP_IPV4_LENGTH
+                    && this.getU16(offset + 2) == (Ethernet.TYPE_IPV4 & 0xffff)
+                    && this.data[offset + 5] == 4) {
+                this.hasNwAddresses = true;
+                this.nwSrcOffset = offset + 14;
+                this.nwDstOffset = offset + 24;
+            }
+        }
+    }
+
+    /**
+     * Extracts the flow key of this packet. The fields set are the ones
+     * {@link net.onrc.openvirtex.messages.OVXMessageUtil#loadFromPacket}
+     * has always produced.
+     *
+     * @param inPort the input port
+     * @return the flow key
+     */
+    public FlowKey toFlowKey(final short inPort) {
+        this.parse();
+        final FlowKey key = new FlowKey().setInPort(inPort);
+        if (this.length < ETH_HEADER_LENGTH) {
+            return key;
+        }
+        key.setEthSrc(this.getEthSrc()).setEthDst(this.getEthDst());
+        if (this.vlanTci != -1) {
+            key.setVlanVid((short) (this.vlanTci & 0xfff))
+                    .setVlanPcp((byte) ((this.vlanTci & 0xe000) >> 13));
+        }
+
+        if (this.isIPv4() && this.hasNwAddresses) {
+            key.setEthType(this.ethType)
+                    .setNwSrc(this.getNwSrc())
+                    .setNwDst(this.getNwDst())
+                    .setDscp((byte) ((this.data[this.l3Offset + 1] & 0xfc) >> 2));
+        } else if (this.isARP() && this.l4Offset != -1) {
+            key.setEthType(this.ethType)
+                    .setNwSrc(this.getNwSrc())
+                    .setNwDst(this.getNwDst());
+        } else {
+            return key;
+        }
+
+        switch (this.nwProto) {
+            case 0x01:
+                key.setNwProto((short) this.nwProto);
+                break;
+            case 0x06:
+            case 0x11:
+                if (this.l4Offset + 4 > this.length) {
+                    break;
+                }
+                key.setNwProto((short) this.nwProto)
+                        .setTpSrc(this.getU16(this.l4Offset))
+                        .setTpDst(this.getU16(this.l4Offset + 2));
+                break;
+            default:
+                break;
+        }
+        return key;
+    }
+
+    /**
+     * Builds the OpenFlow match describing this packet, see
+     * {@link #toFlowKey(short)}.
+     *
+     * @param inPort the input port
+     * @param ofVersion the OpenFlow version of the match
+     * @return the match
+     */
+    public Match toMatch(final short inPort, final OFVersion ofVersion) {
+        return this.toFlowKey(inPort).toMatch(ofVersion);
+    }
+
+    /**
+     * @return the Ethernet type, looking past a VLAN tag, or -1 if the
+     *         packet is too short
+     */
+    public int getEthType() {
+        this.parse();
+        return this.ethType;
+    }
+
+    /**
+     * @return true if the packet carries an IPv4 datagram
+     */
+    public boolean isIPv4() {
+        return this.getEthType() == (Ethernet.TYPE_IPV4 & 0xffff);
+    }
+
+    /**
+     * @return true if the packet carries an ARP message
+     */
+    public boolean isARP() {
+        return this.getEthType() == (Ethernet.TYPE_ARP & 0xffff);
+    }
+
+    /**
+     * @return the VLAN ID of the outer VLAN tag, or -1 if the packet is
+     *         untagged
+     */
+    public int getVlanVid() {
+        this.parse();
+        return this.vlanTci == -1 ? -1 : this.vlanTci & 0xfff;
+    }
+
+    /**
+     * @return the label of the outer MPLS label stack entry, or -1 if the
+     *         packet carries no MPLS label
+     */
+    public int getMplsLabel() {
+        this.parse();
+        if (this.ethType != TYPE_MPLS
+                || this.length - this.l3Offset < MPLS_HEADER_LENGTH) {
+            return -1;
+        }
+        return this.getInt(this.l3Offset) >>> 12;
+    }
+
+    /**
+     * @return the traffic class of the outer MPLS label stack entry, or -1
+     *         if the packet carries no MPLS label
+     */
+    public int getMplsTrafficClass() {
+        if (this.getMplsLabel() == -1) {
+            return -1;
+        }
+        return (this.data[this.l3Offset + 2] & 0x0e) >>> 1;
+    }
+
+    /**
+     * Removes the outer VLAN tag from the packet.
+     *
+     * @return true if a tag was removed
+     */
+    public boolean popVlan() {
+        this.parse();
+        if (this.vlanTci == -1) {
+            return false;
+        }
+        // the tag sits between the source MAC and the inner Ethernet type
+        this.cut(12, VLAN_HEADER_LENGTH);
+        return true;
+    }
+
+    /**
+     * Removes the outer MPLS label stack entry from the packet. When it was
+     * the bottom of the stack, the Ethernet type is restored from the first
+     * bytes of the payload, as MPLS does not record it.
+     *
+     * @return true if a label was removed
+     */
+    public boolean popMpls() {
+        return this.popMpls(-1);
+    }
+
+    /**
+     * Removes the outer MPLS label stack entry from the packet. When it was
+     * the bottom of the stack, the Ethernet type is set to the given one.
+     *
+     * @param ethType the Ethernet type of the payload, or -1 to guess it
+     *            from the first bytes of the payload
+     * @return true if a label was removed
+     */
+    public boolean popMpls(final int ethType) {
+        if (this.getMplsLabel() == -1) {
+            return false;
+        }
+        final int offset = this.l3Offset;
+        final boolean bottom = (this.data[offset + 2] & 0x01) != 0;
+        this.cut(offset, MPLS_HEADER_LENGTH);
+        if (bottom) {
+            final int type = ethType < 0 ? this.payloadType(offset) : ethType;
+            this.data[offset - 2] = (byte) (type >>> 8);
+            this.data[offset - 1] = (byte) type;
+        }
+        return true;
+    }
+
+    /**
+     * Guesses the Ethernet type of the payload starting at the given offset,
+     * following a bottom of stack MPLS label.
+     */
+    private int payloadType(final int offset) {
+        if (this.length - offset >= 4 && this.getU16(offset) == 0x0001
+                && this.getU16(offset + 2) == (Ethernet.TYPE_IPV4 & 0xffff)) {
+            return Ethernet.TYPE_ARP & 0xffff;
+        }
+        if (this.length > offset && (this.data[offset] & 0xf0) == 0x60) {
+            return TYPE_IPV6;
+        }
+        return Ethernet.TYPE_IPV4 & 0xffff;
+    }
+
+    /**
+     * Removes the given number of bytes at the given offset. The headers are
+     * located again on the next access.
+     */
+    private void cut(final int offset, final int count) {
+        final byte[] cut = new byte[this.length - count];
+        System.arraycopy(this.data, 0, cut, 0, offset);
+        System.arraycopy(this.data, offset + count, cut, offset,
+                this.length - offset - count);
+        this.data = cut;
+        this.length = cut.length;
+        this.copied = true;
+        this.parsed = false;
+    }
+
+    /**
+     * @return the source MAC address as a 48-bit value
+     */
+    public long getEthSrc() {
+        return this.getU48(6);
+    }
+
+    /**
+     * @return the destination MAC address as a 48-bit value
+     */
+    public long getEthDst() {
+        return this.getU48(0);
+    }
+
+    /**
+     * Gets the network source address: the IPv4 source address, or the
+     * sender protocol address of an IPv4 ARP message.
+     *
+     * @return the address, or 0 if the packet carries none
+     */
+    public int getNwSrc() {
+        this.parse();
+        return this.hasNwAddresses ? this.getInt(this.nwSrcOffset) : 0;
+    }
+
+    /**
+     * Gets the network destination address: the IPv4 destination address,
+     * or the target protocol address of an IPv4 ARP message.
+     *
+     * @return the address, or 0 if the packet carries none
+     */
+    public int getNwDst() {
+        this.parse();
+        return this.hasNwAddresses ? this.getInt(this.nwDstOffset) : 0;
+    }
+
+    /**
+     * Rewrites the source MAC address.
+     *
+     * @param mac the 48-bit MAC address
+     */
+    public void setEthSrc(final long mac) {
+        this.putU48(6, mac);
+    }
+
+    /**
+     * Rewrites the destination MAC address.
+     *
+     * @param mac the 48-bit MAC address
+     */
+    public void setEthDst(final long mac) {
+        this.putU48(0, mac);
+    }
+
+    /**
+     * Rewrites the network source address, see {@link #getNwSrc()}.
+     *
+     * @param ip the IPv4 address
+     */
+    public void setNwSrc(final int ip) {
+        this.parse();
+        if (this.hasNwAddresses) {
+            this.putInt(this.nwSrcOffset, ip);
+        }
+    }
+
+    /**
+     * Rewrites the network destination address, see {@link #getNwDst()}.
+     *
+     * @param ip the IPv4 address
+     */
+    public void setNwDst(final int ip) {
+        this.parse();
+        if (this.hasNwAddresses) {
+            this.putInt(this.nwDstOffset, ip);
+        }
+    }
+
+    /**
+     * Checks if the packet bytes differ from the ones this view was created
+     * with, either because a header was rewritten or a trailer was trimmed.
+     *
+     * @return true if the packet was changed
+     */
+    public boolean isModified() {
+        this.parse();
+        return this.copied || (this.data != null && this.length != this.data.length);
+    }
+
+    /**
+     * Gets the packet bytes, including any rewrite and without trailer.
+     * Returns the original array when the packet was not changed.
+     *
+     * @return the packet bytes
+     */
+    public byte[] getData() {
+        this.parse();
+        if (this.data != null && this.length != this.data.length) {
+            this.data = Arrays.copyOf(this.data, this.length);
+            this.copied = true;
+        }
+        return this.data;
+    }
+
+    private void ensureWritable() {
+        this.parse();
+        if (!this.copied) {
+            this.data = Arrays.copyOf(this.data, this.length);
+            this.copied = true;
+        }
+    }
+
+    private int getU16(final int offset) {
+        return ((this.data[offset] & 0xff) << 8) | (this.data[offset + 1] & 0xff);
+    }
+
+    private int getInt(final int offset) {
+        return ((this.data[offset] & 0xff) << 24)
+                | ((this.data[offset + 1] & 0xff) << 16)
+                | ((this.data[offset + 2] & 0xff) << 8)
+                | (this.data[offset + 3] & 0xff);
+    }
+
+    private long getU48(final int offset) {
+        if (this.length < ETH_HEADER_LENGTH) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = 0; i < 6; i++) {
+            value = (value << 8) | (this.data[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private void putInt(final int offset, final int value) {
+        this.ensureWritable();
+        this.data[offset] = (byte) (value >>> 24);
+        this.data[offset + 1] = (byte) (value >>> 16);
+        this.data[offset + 2] = (byte) (value >>> 8);
+        this.data[offset + 3] = (byte) value;
+    }
+
+    private void putU48(final int offset, final long value) {
+        if (this.length < ETH_HEADER_LENGTH) {
+            return;
+        }
+        this.ensureWritable();
+        for (int i = 5; i >= 0; i--) {
+            this.data[offset + i] = (byte) (value >>> (8 * (5 - i)));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+
+/**
+ * This class computes the primary and backup paths of big-switch routes and
+ * virtual links in one pass, as the set of link-disjoint paths with the
+ * lowest total metric (Suurballe and Bhandari). Unlike pruning the network
+ * after every shortest path, this finds disjoint backups whenever they
+ * exist, so that a failover always lands on an independent path.
+ */
+public class DisjointPath extends ShortestPath {
+
+    @Override
+    protected List<LinkedList<PhysicalLink>> computePaths(
+            final PhysicalSwitch srcSw, final PhysicalSwitch dstSw,
+            final int count, final Set<PhysicalLink> excluded,
+            final Set<PhysicalSwitch> allowed) {
+        return PhysicalNetwork.getInstance().getPathCache().getSnapshot()
+                .disjointPaths(srcSw, dstSw, count, excluded, allowed);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.onrc.openvirtex.routing.Routable#getName()
+     */
+    @Override
+    public String getName() {
+        return "disjoint path";
+    }
+}
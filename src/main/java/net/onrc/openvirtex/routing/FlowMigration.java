@@ -0,0 +1,343 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.onrc.openvirtex.core.io.OVXOutboundQueue;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.messages.OVXMessage;
+import net.onrc.openvirtex.util.OVXMetrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+
+/**
+ * Moves the flows of virtual links and big switch routes to a new path in
+ * bulk. Every link or route that changes path submits a task, once per
+ * migration even if it changes path several times; when the migration is
+ * executed, the tasks of the different virtual networks run in
+ * parallel and collect the replacement FlowMods, which are then sent as one
+ * barrier-terminated burst per physical switch. The FlowMods along the new
+ * paths go out first; the FlowMods that steer traffic into them follow once
+ * every switch on the new paths replied to the barrier ending its burst.
+ * <p>
+ * The tasks of one virtual network run one after the other, as they share
+ * its flow tables and flow manager. The time from the creation of the
+ * migration until the ingress bursts were sent is recorded in
+ * {@link OVXMetrics}.
+ */
+public final class FlowMigration {
+
+    private static Logger log = LogManager.getLogger(FlowMigration.class
+            .getName());
+
+    /**
+     * Time (in milliseconds) to wait for the barrier replies of the path
+     * bursts before sending the ingress bursts anyway.
+     */
+    private static final long BARRIER_TIMEOUT = 1000;
+
+    private static final ExecutorService EXECUTOR = Executors
+            .newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "FlowMigration-"
+                                    + this.count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+
+    /**
+     * Computes the replacement FlowMods of one virtual link or route.
+     */
+    public interface Task {
+        /**
+         * Adds the replacement FlowMods to the given burst.
+         *
+         * @param burst the burst
+         * @return the number of migrated flows
+         */
+        int migrate(Burst burst);
+    }
+
+    /**
+     * FlowMods to send to the physical switches, grouped by switch.
+     */
+    public static final class Burst {
+        private final Map<PhysicalSwitch, List<OVXMessage>> pathMods =
+                new LinkedHashMap<PhysicalSwitch, List<OVXMessage>>();
+        private final Map<PhysicalSwitch, List<OVXMessage>> ingressMods =
+                new LinkedHashMap<PhysicalSwitch, List<OVXMessage>>();
+        private int flows = 0;
+
+        /**
+         * Adds a FlowMod along a new path. The message is copied, so the
+         * caller may reuse it.
+         *
+         * @param sw the physical switch
+         * @param msg the FlowMod
+         */
+        public void addPathMod(PhysicalSwitch sw, OVXMessage msg) {
+            add(this.pathMods, sw, new OVXMessage(msg.getOFMessage()));
+        }
+
+        /**
+         * Adds a FlowMod that steers traffic into a new path. It is sent
+         * after all the FlowMods along the new paths. The message is copied,
+         * so the caller may reuse it.
+         *
+         * @param sw the physical switch
+         * @param msg the FlowMod
+         */
+        public void addIngressMod(PhysicalSwitch sw, OVXMessage msg) {
+            add(this.ingressMods, sw, new OVXMessage(msg.getOFMessage()));
+        }
+
+        private void merge(Burst other) {
+            for (Map.Entry<PhysicalSwitch, List<OVXMessage>> e : other.pathMods
+                    .entrySet()) {
+                for (OVXMessage msg : e.getValue()) {
+                    add(this.pathMods, e.getKey(), msg);
+                }
+            }
+            for (Map.Entry<PhysicalSwitch, List<OVXMessage>> e : other.ingressMods
+                    .entrySet()) {
+                for (OVXMessage msg : e.getValue()) {
+                    add(this.ingressMods, e.getKey(), msg);
+                }
+            }
+            this.flows += other.flows;
+        }
+
+        private static void add(Map<PhysicalSwitch, List<OVXMessage>> map,
+                PhysicalSwitch sw, OVXMessage msg) {
+            List<OVXMessage> msgs = map.get(sw);
+            if (msgs == null) {
+                msgs = new ArrayList<OVXMessage>();
+                map.put(sw, msgs);
+            }
+            msgs.add(msg);
+        }
+    }
+
+    private final Map<Integer, Map<Object, Task>> tasks;
+    private final long start;
+
+    /**
+     * Instantiates an empty migration, starting its recovery time.
+     */
+    public FlowMigration() {
+        this.tasks = new LinkedHashMap<Integer, Map<Object, Task>>();
+        this.start = OVXMetrics.getInstance().start();
+    }
+
+    /**
+     * Adds the task of a virtual link or route of the given virtual network.
+     * A task reads the current path of its link or route when it runs, so
+     * only the first task submitted for a link or route is kept.
+     *
+     * @param tenantId the tenant ID
+     * @param owner the virtual link or route whose flows the task moves
+     * @param task the task
+     */
+    public void submit(int tenantId, Object owner, Task task) {
+        Map<Object, Task> owners = this.tasks.get(tenantId);
+        if (owners == null) {
+            owners = new LinkedHashMap<Object, Task>();
+            this.tasks.put(tenantId, owners);
+        }
+        if (!owners.containsKey(owner)) {
+            owners.put(owner, task);
+        }
+    }
+
+    /**
+     * Runs the submitted tasks and sends their FlowMods. Returns once the
+     * FlowMods along the new paths were queued to the physical switches;
+     * the ingress FlowMods are sent when those switches acknowledged them,
+     * on the thread handling the last barrier reply.
+     *
+     * @return the number of migrated flows
+     */
+    public int execute() {
+        if (this.tasks.isEmpty()) {
+            return 0;
+        }
+        final Burst burst = new Burst();
+        if (this.tasks.size() == 1) {
+            burst.merge(run(this.tasks.values().iterator().next().values()));
+        } else {
+            final List<Future<Burst>> futures = new ArrayList<Future<Burst>>();
+            for (final Map<Object, Task> owners : this.tasks.values()) {
+                futures.add(EXECUTOR.submit(new Callable<Burst>() {
+                    @Override
+                    public Burst call() {
+                        return FlowMigration.run(owners.values());
+                    }
+                }));
+            }
+            // the tasks already changed the flow tables of their virtual
+            // networks, so every burst is sent even if interrupted
+            boolean interrupted = false;
+            for (Future<Burst> future : futures) {
+                while (true) {
+                    try {
+                        burst.merge(future.get());
+                        break;
+                    } catch (ExecutionException e) {
+                        log.error("Unable to migrate the flows of a virtual network: {}",
+                                e.getCause());
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.tasks.clear();
+
+        if (burst.pathMods.isEmpty() || burst.ingressMods.isEmpty()) {
+            send(burst.pathMods, null);
+            this.finish(burst);
+        } else {
+            final Settle settle = new Settle(burst);
+            settle.timeout = PhysicalNetwork.getTimer().newTimeout(settle,
+                    BARRIER_TIMEOUT, TimeUnit.MILLISECONDS);
+            send(burst.pathMods, settle);
+        }
+        return burst.flows;
+    }
+
+    /**
+     * Sends the ingress bursts and records the migration.
+     */
+    private void finish(final Burst burst) {
+        send(burst.ingressMods, null);
+        OVXMetrics.getInstance().recordRecovery(burst.flows, this.start);
+        log.info("Migrated {} flow(s) in {} burst(s)", burst.flows,
+                burst.pathMods.size() + burst.ingressMods.size());
+    }
+
+    /**
+     * Sends the ingress bursts of a migration once every switch on the new
+     * paths replied to its barrier, or once the wait timed out.
+     */
+    private final class Settle implements Runnable, TimerTask {
+        private final Burst burst;
+        private final AtomicInteger pending;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile Timeout timeout;
+
+        private Settle(final Burst burst) {
+            this.burst = burst;
+            this.pending = new AtomicInteger(burst.pathMods.size());
+        }
+
+        @Override
+        public void run() {
+            if (this.pending.decrementAndGet() == 0) {
+                this.settled();
+            }
+        }
+
+        @Override
+        public void run(final Timeout t) {
+            log.warn("{} switch(es) did not reply to the path barrier within "
+                    + "{} ms, sending the ingress FlowMods", this.pending.get(),
+                    BARRIER_TIMEOUT);
+            this.settled();
+        }
+
+        private void settled() {
+            if (!this.done.compareAndSet(false, true)) {
+                return;
+            }
+            final Timeout t = this.timeout;
+            if (t != null) {
+                t.cancel();
+            }
+            FlowMigration.this.finish(this.burst);
+        }
+    }
+
+    private static Burst run(Collection<Task> list) {
+        final Burst burst = new Burst();
+        for (Task task : list) {
+            burst.flows += task.migrate(burst);
+        }
+        return burst;
+    }
+
+    /**
+     * Sends the FlowMods of every switch in one write, terminated by a
+     * barrier request.
+     *
+     * @param mods the FlowMods, by switch
+     * @param onReply the task to run on each barrier reply, or null
+     */
+    private static void send(Map<PhysicalSwitch, List<OVXMessage>> mods,
+            Runnable onReply) {
+        OVXOutboundQueue.beginBatch();
+        try {
+            for (Map.Entry<PhysicalSwitch, List<OVXMessage>> e : mods
+                    .entrySet()) {
+                final PhysicalSwitch sw = e.getKey();
+                for (OVXMessage msg : e.getValue()) {
+                    sw.sendMsg(msg, sw);
+                }
+                if (onReply != null) {
+                    sw.sendBarrier(onReply);
+                } else {
+                    sw.sendMsg(new OVXMessage(OFFactories
+                            .getFactory(e.getValue().get(0).getOFMessage()
+                                    .getVersion())
+                            .buildBarrierRequest().build()), sw);
+                }
+            }
+        } finally {
+            OVXOutboundQueue.endBatch();
+        }
+    }
+}
@@ -24,7 +24,7 @@ import net.onrc.openvirtex.exceptions.RoutingAlgorithmException;
 public class RoutingAlgorithms {
     public enum RoutingType {
 
-        NONE("manual"), SPF("spf");
+        NONE("manual"), SPF("spf"), DISJOINT("disjoint");
 
         protected String value;
 
@@ -49,11 +49,15 @@ public class RoutingAlgorithms {
         } else if (type.equals(RoutingType.SPF.getValue())) {
             this.type = RoutingType.SPF;
             this.routing = new ShortestPath();
+        } else if (type.equals(RoutingType.DISJOINT.getValue())) {
+            this.type = RoutingType.DISJOINT;
+            this.routing = new DisjointPath();
         } else {
             throw new RoutingAlgorithmException("The algorithm " + type
                     + " is not supported." + "Supported values are "
                     + RoutingType.NONE.getValue() + ", "
-                    + RoutingType.SPF.getValue());
+                    + RoutingType.SPF.getValue() + ", "
+                    + RoutingType.DISJOINT.getValue());
         }
         this.backups = backups;
     }
@@ -21,11 +21,10 @@ package net.onrc.openvirtex.routing;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.onrc.openvirtex.elements.OVXMap;
@@ -48,6 +47,8 @@ import org.projectfloodlight.openflow.types.U8;
 /**
  * This class implements the Dijkstra Algorithm to compute the shortest path
  * between two physical switches based on the nominal throughput of the link.
+ * Unrestricted paths are read from the shortest path trees cached by
+ * {@link ShortestPathCache}.
  */
 public class ShortestPath implements Routable {
 
@@ -59,201 +60,10 @@ public class ShortestPath implements Routable {
             .getName());
 
     /**
-     * This class stores the info related to a PhysicalSwitch predecessor. In
-     * particular, each predecessor is a PhysicalSwitch, but also the best
-     * PhysicalLink between the switches is stored. This solution allows to
-     * support multiple physical links between two physical switches.
-     */
-    public class Predecessor {
-
-        private final PhysicalSwitch sw;
-        private final PhysicalLink link;
-
-        /**
-         * Instantiates a new predecessor.
-         *
-         * @param sw
-         *            the switch
-         * @param link
-         *            the link
-         */
-        public Predecessor(final PhysicalSwitch sw, final PhysicalLink link) {
-            this.sw = sw;
-            this.link = link;
-        }
-
-        /**
-         * Gets the switch.
-         *
-         * @return the switch
-         */
-        public PhysicalSwitch getSwitch() {
-            return this.sw;
-        }
-
-        /**
-         * Gets the link.
-         *
-         * @return the link
-         */
-        public PhysicalLink getLink() {
-            return this.link;
-        }
-    }
-
-    private List<PhysicalLink> edges;
-    private LinkedHashSet<PhysicalSwitch> settledNodes;
-    private LinkedHashSet<PhysicalSwitch> unSettledNodes;
-    private Map<PhysicalSwitch, Predecessor> predecessors;
-    private Map<PhysicalSwitch, Integer> distance;
-
-    /**
-     * Instantiates a new shortest path. Gets an immutable copy of the physical
-     * links from the physical network and stores it in a local list
+     * Instantiates a new shortest path. Paths are computed on the topology
+     * snapshot of the physical network, so no state is kept per instance.
      */
     public ShortestPath() {
-        this.edges = new ArrayList<PhysicalLink>(PhysicalNetwork.getInstance()
-                .getLinks());
-    }
-
-    /**
-     * Compute all the paths between a source switch and all the switches in the
-     * network.
-     *
-     * @param source
-     *            the source switch
-     */
-    public void execute(final PhysicalSwitch source) {
-        /*
-         * TODO: The alg is not optimal because it recomputes all the paths from
-         * the source every time we call computePath. A solution is to store
-         * this info. Evaluate pros/cons
-         */
-        this.settledNodes = new LinkedHashSet<PhysicalSwitch>();
-        this.unSettledNodes = new LinkedHashSet<PhysicalSwitch>();
-        this.distance = new HashMap<PhysicalSwitch, Integer>();
-        this.predecessors = new HashMap<PhysicalSwitch, Predecessor>();
-        this.distance.put(source, 0);
-        this.unSettledNodes.add(source);
-        while (this.unSettledNodes.size() > 0) {
-            final PhysicalSwitch node = this.getMinimum(this.unSettledNodes);
-            this.settledNodes.add(node);
-            this.unSettledNodes.remove(node);
-            this.findMinimalDistances(node);
-        }
-    }
-
-    /**
-     * Find minimal distances from a given node.
-     *
-     * @param node
-     *            the source node
-     */
-    private void findMinimalDistances(final PhysicalSwitch node) {
-        final List<PhysicalSwitch> adjacentNodes = this.getNeighbors(node);
-        for (final PhysicalSwitch target : adjacentNodes) {
-            if (this.getShortestDistance(target) > this
-                    .getShortestDistance(node)
-                    + this.getBestLink(node, target).getMetric()) {
-                final PhysicalLink bestLink = this.getBestLink(node, target);
-                this.distance.put(target, this.getShortestDistance(node)
-                        + bestLink.getMetric());
-                this.predecessors.put(target, new Predecessor(node, bestLink));
-                this.unSettledNodes.add(target);
-            }
-        }
-    }
-
-    /**
-     * Gets the best link between two switches. Uses the link metric to evaluate
-     * the link with the highest throughput (e.g., the lowest metric)
-     *
-     * @param node
-     *            the source node
-     * @param target
-     *            the destination node
-     * @return the best link
-     */
-    private PhysicalLink getBestLink(final PhysicalSwitch node,
-                                     final PhysicalSwitch target) {
-        PhysicalLink bestLink = null;
-        for (final PhysicalLink edge : this.edges) {
-            if (edge.getSrcSwitch().equals(node)
-                    && edge.getDstSwitch().equals(target)) {
-                if (bestLink == null || bestLink.getMetric() > edge.getMetric()) {
-                    bestLink = edge;
-                }
-            }
-        }
-        return bestLink;
-    }
-
-    /**
-     * Gets the unsettled neighboring switches from a given switch.
-     *
-     * @param node
-     *            the node
-     * @return the neighbors list
-     */
-    private List<PhysicalSwitch> getNeighbors(final PhysicalSwitch node) {
-        final List<PhysicalSwitch> neighbors = new ArrayList<PhysicalSwitch>();
-        for (final PhysicalLink edge : this.edges) {
-            if (edge.getSrcSwitch().equals(node)
-                    && !this.isSettled(edge.getDstSwitch())) {
-                neighbors.add(edge.getDstSwitch());
-            }
-        }
-        return neighbors;
-    }
-
-    /**
-     * Return the physical switch that has the shortest distance.
-     *
-     * @param vertices
-     *            list of physical switches
-     * @return the closest switch
-     */
-    private PhysicalSwitch getMinimum(
-            final LinkedHashSet<PhysicalSwitch> vertices) {
-        PhysicalSwitch minimum = null;
-        for (final PhysicalSwitch vertex : vertices) {
-            if (minimum == null) {
-                minimum = vertex;
-            } else {
-                if (this.getShortestDistance(vertex) < this
-                        .getShortestDistance(minimum)) {
-                    minimum = vertex;
-                }
-            }
-        }
-        return minimum;
-    }
-
-    /**
-     * Checks if the physical switch is the settle list.
-     *
-     * @param vertex
-     *            the physical switch
-     * @return true, if is settled
-     */
-    private boolean isSettled(final PhysicalSwitch vertex) {
-        return this.settledNodes.contains(vertex);
-    }
-
-    /**
-     * Gets the shortest distance to the given destination.
-     *
-     * @param destination
-     *            the destination
-     * @return the shortest distance
-     */
-    private int getShortestDistance(final PhysicalSwitch destination) {
-        final Integer d = this.distance.get(destination);
-        if (d == null) {
-            return Integer.MAX_VALUE;
-        } else {
-            return d;
-        }
     }
 
     /**
@@ -285,22 +95,112 @@ public class ShortestPath implements Routable {
      */
     public LinkedList<PhysicalLink> computePath(final PhysicalSwitch srcSw,
                                                 final PhysicalSwitch dstSw) {
-        final LinkedList<PhysicalLink> path = new LinkedList<PhysicalLink>();
-        if (srcSw != dstSw) {
-            this.execute(srcSw);
-            PhysicalSwitch step = dstSw;
-            // check if a path exists
-            if (this.predecessors.get(step) == null) {
-                return null;
+        return this.computePath(srcSw, dstSw, null, null);
+    }
+
+    /**
+     * Gets the physical path between two physical switches that avoids the
+     * given links and only traverses the given switches.
+     * <p>
+     * The cached shortest path tree of the source is tried first: removing
+     * links or switches cannot make a path shorter, so if the unrestricted
+     * shortest path already satisfies the restrictions it is also the
+     * shortest restricted one. Otherwise Dijkstra runs on the topology
+     * snapshot with the restrictions applied.
+     *
+     * @param srcSw
+     *            the physical source switch
+     * @param dstSw
+     *            the physical destination switch
+     * @param excluded
+     *            the links that may not be used, or null
+     * @param allowed
+     *            the only switches that may be traversed, or null
+     * @return path between two physical switches, or null if none exists
+     */
+    private LinkedList<PhysicalLink> computePath(final PhysicalSwitch srcSw,
+            final PhysicalSwitch dstSw, final Set<PhysicalLink> excluded,
+            final Set<PhysicalSwitch> allowed) {
+        if (srcSw == dstSw) {
+            return new LinkedList<PhysicalLink>();
+        }
+        final ShortestPathCache cache = PhysicalNetwork.getInstance()
+                .getPathCache();
+        final LinkedList<PhysicalLink> path = cache.getTree(srcSw).getPath(
+                dstSw);
+        if (path == null || isAllowed(path, excluded, allowed)) {
+            return path;
+        }
+        return cache.getSnapshot().shortestPaths(srcSw, excluded, allowed)
+                .getPath(dstSw);
+    }
+
+    /**
+     * Computes the primary path between two physical switches followed by
+     * up to count - 1 backup paths. Each backup is the shortest path once
+     * the links of the previous paths, in both directions, are removed from
+     * the physical network.
+     *
+     * @param srcSw
+     *            the physical source switch
+     * @param dstSw
+     *            the physical destination switch
+     * @param count
+     *            the maximum number of paths
+     * @param excluded
+     *            the links that may not be used
+     * @param allowed
+     *            the only switches that may be traversed, or null
+     * @return the paths, primary first
+     */
+    protected List<LinkedList<PhysicalLink>> computePaths(
+            final PhysicalSwitch srcSw, final PhysicalSwitch dstSw,
+            final int count, final Set<PhysicalLink> excluded,
+            final Set<PhysicalSwitch> allowed) {
+        final List<LinkedList<PhysicalLink>> paths = new ArrayList<LinkedList<PhysicalLink>>();
+        final Set<PhysicalLink> pruned = new HashSet<PhysicalLink>(excluded);
+        for (int i = 0; i < count; i++) {
+            final LinkedList<PhysicalLink> path = this.computePath(srcSw,
+                    dstSw, pruned, allowed);
+            if (path == null) {
+                break;
             }
-            while (this.predecessors.get(step) != null) {
-                path.add(this.predecessors.get(step).getLink());
-                step = this.predecessors.get(step).getSwitch();
+            paths.add(path);
+            for (final PhysicalLink link : path) {
+                pruned.add(link);
+                pruned.add(PhysicalNetwork.getInstance().getLink(
+                        link.getDstPort(), link.getSrcPort()));
             }
-            // Put it into the correct order
-            Collections.reverse(path);
         }
-        return path;
+        return paths;
+    }
+
+    /**
+     * Checks if a path avoids the excluded links and only traverses the
+     * allowed switches.
+     *
+     * @param path
+     *            the path
+     * @param excluded
+     *            the links that may not be used, or null
+     * @param allowed
+     *            the only switches that may be traversed, or null
+     * @return true if the path satisfies the restrictions
+     */
+    private static boolean isAllowed(final List<PhysicalLink> path,
+            final Set<PhysicalLink> excluded,
+            final Set<PhysicalSwitch> allowed) {
+        for (final PhysicalLink link : path) {
+            if (excluded != null && excluded.contains(link)) {
+                return false;
+            }
+            if (allowed != null
+                    && (!allowed.contains(link.getSrcSwitch()) || !allowed
+                            .contains(link.getDstSwitch()))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -354,28 +254,13 @@ public class ShortestPath implements Routable {
             }
         }
 
-        // Run Djikstra to compute all the paths (primary and backups)
-        List<PhysicalLink> phyLinkList = new ArrayList<PhysicalLink>(
-                PhysicalNetwork.getInstance().getLinks());
-        Collections.sort(phyLinkList);
-        LinkedList<PhysicalLink> path = new LinkedList<>();
-        LinkedList<PhysicalLink> revpath = new LinkedList<>();
-
-        // Retrieve the list of physical switches from the OVXMap and remove
-        // from the edges
-        // (physical network copy) all the edges that don't have that switches
-        // as src or dst
-        // (remove all the links that go outside the big-switch).
-        this.edges.clear();
+        // Retrieve the list of physical switches from the OVXMap, and only
+        // allow paths between those switches (ignore all the links that go
+        // outside the big-switch).
+        final Set<PhysicalSwitch> phySwSet;
         try {
-            List<PhysicalSwitch> phySwList = OVXMap.getInstance()
-                    .getPhysicalSwitches(vSwitch);
-            for (PhysicalLink edge : phyLinkList) {
-                if (phySwList.contains(edge.getSrcSwitch())
-                        && phySwList.contains(edge.getDstSwitch())) {
-                    this.edges.add(edge);
-                }
-            }
+            phySwSet = new HashSet<PhysicalSwitch>(OVXMap.getInstance()
+                    .getPhysicalSwitches(vSwitch));
         } catch (SwitchMappingException e1) {
             log.error(
                     "Cannot retrieve the physical switches associated to the virtual big-switch {} in the OVXMap. "
@@ -384,14 +269,16 @@ public class ShortestPath implements Routable {
             return null;
         }
 
+        // Compute all the paths (primary and backups)
+        final List<LinkedList<PhysicalLink>> paths = this.computePaths(
+                srcPort.getPhysicalPort().getParentSwitch(), dstPort
+                        .getPhysicalPort().getParentSwitch(), U8.f(vSwitch
+                        .getAlg().getBackups()) + 1,
+                new HashSet<PhysicalLink>(), phySwSet);
         for (Short i = 0; i <= U8.f(vSwitch.getAlg().getBackups()); i++) {
-            // Remove from the physical network the shortest-paths already used.
-            // For the primary path, all the physical network is used
-            this.edges.removeAll(path);
-            this.edges.removeAll(revpath);
-            path.clear();
-            revpath.clear();
-            path = computePath(srcPort, dstPort);
+            final LinkedList<PhysicalLink> path = i < paths.size() ? paths
+                    .get(i) : null;
+            final LinkedList<PhysicalLink> revpath = new LinkedList<>();
             if (!checkPath(path)) {
                 if (i == 0) {
                     log.warn(
@@ -448,9 +335,7 @@ public class ShortestPath implements Routable {
     @Override
     public void setLinkPath(OVXLink ovxLink) throws PortMappingException {
         // Run Dijkstra to compute all the paths (primary and backups)
-        this.edges = new ArrayList<PhysicalLink>(PhysicalNetwork.getInstance()
-                .getLinks());
-        Collections.sort(this.edges);
+        final Set<PhysicalLink> excluded = new HashSet<PhysicalLink>();
         LinkedList<PhysicalLink> path = new LinkedList<>();
         PhysicalPort srcPathPort = PhysicalNetwork.getInstance()
                 .getNeighborPort(ovxLink.getSrcPort().getPhysicalPort());
@@ -482,24 +367,21 @@ public class ShortestPath implements Routable {
                     "Virtual link {} embeds to a dual-hop physical link {}. No automatic backups are possible.",
                     ovxLink.getLinkId(), path);
         } else {
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            excluded.add(PhysicalNetwork.getInstance().getLink(
                     ovxLink.getSrcPort().getPhysicalPort(), srcPathPort));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            excluded.add(PhysicalNetwork.getInstance().getLink(
                     srcPathPort, ovxLink.getSrcPort().getPhysicalPort()));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            excluded.add(PhysicalNetwork.getInstance().getLink(
                     dstPathPort, ovxLink.getDstPort().getPhysicalPort()));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            excluded.add(PhysicalNetwork.getInstance().getLink(
                     ovxLink.getDstPort().getPhysicalPort(), dstPathPort));
 
+            final List<LinkedList<PhysicalLink>> paths = this.computePaths(
+                    srcPathPort.getParentSwitch(),
+                    dstPathPort.getParentSwitch(),
+                    U8.f(ovxLink.getAlg().getBackups()) + 1, excluded, null);
             for (Short i = 0; i <= U8.f(ovxLink.getAlg().getBackups()); i++) {
-                /*
-                 * Remove from the physical network the shortest-paths already
-                 * used. For the primary path, all the physical network is used
-                 */
-                this.edges.removeAll(path);
-                path.clear();
-                path = computePath(srcPathPort.getParentSwitch(),
-                        dstPathPort.getParentSwitch());
+                path = i < paths.size() ? paths.get(i) : null;
                 if (path == null) {
                     if (i == 0) {
                         log.warn(
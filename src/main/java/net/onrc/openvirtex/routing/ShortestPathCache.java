@@ -0,0 +1,175 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.routing.TopologySnapshot.PathTree;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Shortest path trees of the physical network, keyed by source switch.
+ * <p>
+ * The cache mirrors the links of the physical network and builds a
+ * {@link TopologySnapshot} of them on demand. Trees are computed on first
+ * use and kept until a link change may affect them: an added link only
+ * evicts the trees it would shorten, and a removed link only evicts the
+ * trees that route over it. Lookups of cached trees do not lock.
+ */
+public final class ShortestPathCache {
+
+    private static Logger log = LogManager.getLogger(ShortestPathCache.class
+            .getName());
+
+    private final Set<PhysicalLink> links;
+    private final ConcurrentHashMap<PhysicalSwitch, PathTree> trees;
+    // Null when the links changed since the last snapshot was built
+    private volatile TopologySnapshot snapshot;
+    private TopologySnapshot previous;
+
+    /**
+     * Instantiates an empty cache.
+     */
+    public ShortestPathCache() {
+        this.links = new HashSet<PhysicalLink>();
+        this.trees = new ConcurrentHashMap<PhysicalSwitch, PathTree>();
+        this.snapshot = null;
+        this.previous = null;
+    }
+
+    /**
+     * Gets the snapshot of the current physical links, building it if the
+     * links changed since the last call.
+     *
+     * @return the topology snapshot
+     */
+    public TopologySnapshot getSnapshot() {
+        TopologySnapshot current = this.snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = this.snapshot;
+                if (current == null) {
+                    current = new TopologySnapshot(this.links, this.previous);
+                    if (current.isRenumbered()) {
+                        this.trees.clear();
+                    }
+                    this.previous = current;
+                    this.snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Gets the shortest path tree rooted at the given switch, computing it
+     * if it is not cached.
+     *
+     * @param source the source switch
+     * @return the shortest path tree
+     */
+    public PathTree getTree(final PhysicalSwitch source) {
+        PathTree tree = this.trees.get(source);
+        if (tree != null) {
+            return tree;
+        }
+        synchronized (this) {
+            tree = this.trees.get(source);
+            if (tree == null) {
+                tree = this.getSnapshot().shortestPaths(source, null, null);
+                this.trees.put(source, tree);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Records a link added to the physical network, and evicts the trees
+     * in which the link offers a shorter path.
+     *
+     * @param link the new link
+     */
+    public synchronized void linkAdded(final PhysicalLink link) {
+        if (!this.links.add(link)) {
+            return;
+        }
+        this.snapshot = null;
+        final int metric = link.getMetric();
+        final Iterator<PathTree> iter = this.trees.values().iterator();
+        while (iter.hasNext()) {
+            final PathTree tree = iter.next();
+            final int src = tree.getDistance(link.getSrcSwitch());
+            if (src != TopologySnapshot.UNREACHABLE
+                    && (long) src + metric < tree.getDistance(link
+                            .getDstSwitch())) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Records a link removed from the physical network, and evicts the
+     * trees that route over it.
+     *
+     * @param link the removed link
+     */
+    public synchronized void linkRemoved(final PhysicalLink link) {
+        if (!this.links.remove(link)) {
+            return;
+        }
+        this.snapshot = null;
+        final Iterator<PathTree> iter = this.trees.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().uses(link)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Records a switch removed from the physical network, along with all
+     * the links that start or end at it.
+     *
+     * @param sw the removed switch
+     */
+    public synchronized void switchRemoved(final PhysicalSwitch sw) {
+        final List<PhysicalLink> removed = new ArrayList<PhysicalLink>();
+        for (final PhysicalLink link : this.links) {
+            if (link.getSrcSwitch() == sw || link.getDstSwitch() == sw) {
+                removed.add(link);
+            }
+        }
+        for (final PhysicalLink link : removed) {
+            this.linkRemoved(link);
+        }
+        this.trees.remove(sw);
+        log.debug("Removed switch {} and {} links from the path cache",
+                sw.getSwitchName(), removed.size());
+    }
+}
@@ -34,8 +34,10 @@ import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
+import net.onrc.openvirtex.exceptions.MappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.messages.OVXMessage;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -236,13 +238,29 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
      * @param priority the priority of the new path
      */
     public void switchPath(List<PhysicalLink> physicalLinks, byte priority) {
+        FlowMigration migration = new FlowMigration();
+        this.switchPath(physicalLinks, priority, migration);
+        migration.execute();
+    }
+
+    /**
+     * Switches over to the given path, leaving the migration of the flows
+     * crossing the route to the given flow migration.
+     *
+     * @param physicalLinks the new path
+     * @param priority the priority of the new path
+     * @param migration the flow migration
+     */
+    public void switchPath(List<PhysicalLink> physicalLinks, byte priority,
+                           FlowMigration migration) {
+        // the flows crossing the route are still installed along the old path
+        final List<PhysicalLink> oldPath = this.getPath();
         // Register the new path as primary path in the OVXMap
         OVXMap.getInstance().removeRoute(this);
         OVXMap.getInstance().addRoute(this, physicalLinks);
         // Set the route priority to the new one
         this.setPriority(priority);
 
-        int counter = 0;
         SwitchRoute.log.info(
                 "Virtual network {}: switching all existing flow-mods crossing"
                         + "the big-switch {} route {} between ports ({},{}) to the new path: {}",
@@ -250,43 +268,62 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         .getSwitchName(), this.getRouteId(), this.getSrcPort()
                         .getPortNumber(), this.getDstPort().getPortNumber(),
                 physicalLinks);
-        Collection<OVXFlowMod> flows = this.getSrcPort().getParentSwitch()
-                .getFlowTable().getFlowTable();
-        for (OVXFlowMod fe : flows) {
-            for (OFAction act : fe.getFlowMod().getActions()) {
-
-                //check MatchField.IN_PORT
-                if(fe.getFlowMod().getMatch().get(MatchField.IN_PORT) != null) {
-
-                    if (act.getType() == OFActionType.OUTPUT
-                            && fe.getFlowMod().getMatch().get(MatchField.IN_PORT).getShortPortNumber()
-                            == this.getSrcPort().getPortNumber()
-                            && ((OFActionOutput) act).getPort().getShortPortNumber()
-                            == this.getDstPort().getPortNumber()) {
-
-                        SwitchRoute.log.info(
-                                "Virtual network {}, switch {}, route {} between ports {}-{}: switch fm {}",
-                                this.getTenantId(), this.getSrcPort()
-                                        .getParentSwitch().getSwitchName(), this
-                                        .getRouteId(), this.getSrcPort()
-                                        .getPortNumber(), this.getDstPort()
-                                        .getPortNumber(), fe);
-                        counter++;
-
-                        OVXFlowMod fm = fe.clone();
-
-                        fe.setOFMessage(fe.getFlowMod().createBuilder()
-                                .setCookie(U64.of(((OVXFlowTable)this.getSrcPort().getParentSwitch().getFlowTable()).getCookie(fe, true)))
-                                .build()
-                        );
-
-                        //fm.setCookie(U64.of(((OVXFlowTable2)this.getSrcPort().getParentSwitch().getFlowTable()).getCookie(fe, true)));
+        migration.submit(this.getTenantId(), this, new FlowMigration.Task() {
+            @Override
+            public int migrate(FlowMigration.Burst burst) {
+                return SwitchRoute.this.migrateFlows(burst, oldPath);
+            }
+        });
+    }
 
-                        this.generateRouteFMs(fm);
-                        this.generateFirstFM(fm);
+    /**
+     * Generates the FlowMods that move the flows crossing this route to its
+     * current path. The flows are looked up by their virtual in and out
+     * ports, and each of them gets a new cookie.
+     *
+     * @param burst the burst collecting the FlowMods
+     * @param oldPath the path the flows are currently installed along
+     * @return the number of migrated flows
+     */
+    private int migrateFlows(FlowMigration.Burst burst,
+                             List<PhysicalLink> oldPath) {
+        final OVXFlowTable table = (OVXFlowTable) this.getSrcPort()
+                .getParentSwitch().getFlowTable();
+        int counter = 0;
+        for (long cookie : table.getForwardingCookies(this.getSrcPort()
+                .getPortNumber(), this.getDstPort().getPortNumber())) {
+            final long newCookie = table.renewCookie(cookie);
+            if (newCookie == OVXFlowTable.NO_COOKIE) {
+                // removed in the meantime
+                continue;
+            }
+            final OVXFlowMod fm;
+            try {
+                fm = table.getFlowMod(newCookie);
+            } catch (MappingException e) {
+                // removed in the meantime
+                continue;
+            }
+            SwitchRoute.log.debug(
+                    "Virtual network {}, switch {}, route {} between ports {}-{}: switch fm {}",
+                    this.getTenantId(), this.getSrcPort()
+                            .getParentSwitch().getSwitchName(), this
+                            .getRouteId(), this.getSrcPort()
+                            .getPortNumber(), this.getDstPort()
+                            .getPortNumber(), fm);
+            counter++;
+
+            fm.setOFMessage(fm.getFlowMod().createBuilder()
+                    .setCookie(U64.of(newCookie))
+                    .build()
+            );
 
-                    }
-                }
+            final boolean permanent = OVXFlowTable.isPermanent(fm.getFlowMod());
+            this.generateRouteFMs(fm.clone(), burst);
+            this.generateFirstFM(fm, burst);
+            // the old hops of a flow without timeouts never expire
+            if (permanent && this.deleteOldFlows(cookie, oldPath, burst)) {
+                table.releaseCookie(cookie);
             }
         }
 
@@ -296,6 +333,62 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         .getSwitchName(), this.getRouteId(), this.getSrcPort()
                         .getPortNumber(), this.getDstPort().getPortNumber(),
                 counter);
+        return counter;
+    }
+
+    /**
+     * Gets the physical path currently mapped to this route.
+     *
+     * @return the path, empty if none is mapped
+     */
+    private List<PhysicalLink> getPath() {
+        try {
+            return new ArrayList<PhysicalLink>(OVXMap.getInstance().getRoute(this));
+        } catch (LinkMappingException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Deletes the physical flows left under the given cookie along the old
+     * path of this route. The deletes are sent with the ingress flow mods,
+     * once traffic was steered onto the new path, and select the flows by
+     * their cookie, which OpenFlow 1.0 cannot do: if a switch of the old path
+     * speaks it, nothing is deleted.
+     *
+     * @param cookie the old cookie
+     * @param oldPath the old path
+     * @param burst the burst collecting the flow mods
+     * @return true if the deletes were added to the burst
+     */
+    private boolean deleteOldFlows(final long cookie,
+                                   final List<PhysicalLink> oldPath,
+                                   final FlowMigration.Burst burst) {
+        final Set<PhysicalSwitch> switches = new LinkedHashSet<PhysicalSwitch>();
+        for (final PhysicalLink link : oldPath) {
+            switches.add(link.getSrcPort().getParentSwitch());
+            switches.add(link.getDstPort().getParentSwitch());
+        }
+        if (switches.isEmpty()) {
+            return false;
+        }
+        for (final PhysicalSwitch psw : switches) {
+            if (psw.getOfVersion() == OFVersion.OF_10) {
+                return false;
+            }
+        }
+        for (final PhysicalSwitch psw : switches) {
+            final OFFlowDelete delete = OFFactories.getFactory(psw.getOfVersion())
+                    .buildFlowDelete()
+                    .setCookie(U64.of(cookie))
+                    .setCookieMask(U64.NO_MASK)
+                    .setTableId(TableId.ALL)
+                    .setOutPort(OFPort.ANY)
+                    .setOutGroup(OFGroup.ANY)
+                    .build();
+            burst.addIngressMod(psw, new OVXMessage(delete));
+        }
+        return true;
     }
 
     /**
@@ -305,6 +398,19 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
      * @param fm the virtual flow mod
      */
     public void generateRouteFMs(final OVXFlowMod fm) {
+        this.generateRouteFMs(fm, null);
+    }
+
+    /**
+     * Generates all flow mods needed to bring up switch route, and either
+     * installs them or adds them to the given burst.
+     *
+     * @param fm the virtual flow mod
+     * @param burst the burst collecting the flow mods, or null to install
+     *            them right away
+     */
+    private void generateRouteFMs(final OVXFlowMod fm,
+                                  final FlowMigration.Burst burst) {
         // This list includes all the actions that have to be applied at the end
         // of the route
         final LinkedList<OFAction> outActions = new LinkedList<OFAction>();
@@ -316,26 +422,26 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
             Integer linkId = link.getLinkId();
             Integer flowId = 0;
             try {
-                flowId = OVXMap
-                        .getInstance()
-                        .getVirtualNetwork(this.getTenantId())
-                        .getFlowManager()
-                        .storeFlowValues(
-                                fm.getFlowMod().getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                fm.getFlowMod().getMatch().get(MatchField.ETH_DST).getBytes()
-                        );
-                link.generateLinkFMs(fm.clone(), flowId);
+                flowId = OVXLinkUtils.storeFlowId(
+                        OVXMap.getInstance().getVirtualNetwork(this.getTenantId()),
+                        fm.getFlowMod().getMatch());
+                link.generateLinkFMs(fm.clone(), flowId, burst);
                 outActions.addAll(
                         new OVXLinkUtils(
                                 this.getTenantId(),
                                 linkId,
-                                flowId
+                                flowId,
+                                fm.getFlowMod().getMatch()
                         ).setLinkFields(fm.getOFMessage().getVersion()));
             } catch (IndexOutOfBoundException e) {
                 SwitchRoute.log.error(
                         "Too many host to generate the flow pairs in this virtual network {}. "
                                 + "Dropping flow-mod {} ", this.getTenantId(),
                         fm);
+            } catch (DroppedMessageException e) {
+                SwitchRoute.log.warn("Dropping flow-mod {}: {}", fm,
+                        e.getMessage());
+                return;
             } catch (NetworkMappingException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
@@ -397,8 +503,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         .setActions(actionList)
                         .build());
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                send(phyLink.getSrcPort().getParentSwitch(), fm, burst);
                 SwitchRoute.log.debug(
                         "Sending big-switch route intermediate fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getName(), fm);
@@ -421,14 +526,17 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         .setActions(outActions)
                         .build());
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                send(phyLink.getSrcPort().getParentSwitch(), fm, burst);
                 SwitchRoute.log.debug("Sending big-switch route last fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getName(), fm);
             }
             outPort = phyLink.getDstPort();
         }
 
+        if (burst != null) {
+            // the burst delays the first flowMods itself
+            return;
+        }
         // TODO: With POX we need to put a timeout between this flows and the
         // first flowMod. Check how to solve
         try {
@@ -439,12 +547,26 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
     }
 
     /**
-     * Generates and installs flow mod on the first physical switch of a switch route,
+     * Sends the flow mod to the physical switch, or adds it to the given
+     * burst.
+     */
+    private static void send(PhysicalSwitch sw, OVXFlowMod fm,
+                             FlowMigration.Burst burst) {
+        if (burst == null) {
+            sw.sendMsg(fm, sw);
+        } else {
+            burst.addPathMod(sw, fm);
+        }
+    }
+
+    /**
+     * Generates the flow mod on the first physical switch of a switch route,
      * based an a controller-generated flow mod.
      *
      * @param fm the virtual flow mod
+     * @param burst the burst collecting the flow mod
      */
-    private void generateFirstFM(OVXFlowMod fm) {
+    private void generateFirstFM(OVXFlowMod fm, FlowMigration.Burst burst) {
         fm.setOFMessage(fm.getFlowMod().createBuilder()
                 .setBufferId(OFBufferId.NO_BUFFER)
                 .build()
@@ -465,14 +587,9 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
             Integer flowId = 0;
             if (link != null) {
                 try {
-                    flowId = OVXMap
-                            .getInstance()
-                            .getVirtualNetwork(this.getTenantId())
-                            .getFlowManager()
-                            .getFlowId(
-                                    fm.getFlowMod().getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                    fm.getFlowMod().getMatch().get(MatchField.ETH_DST).getBytes()
-                            );
+                    flowId = OVXLinkUtils.getFlowId(
+                            OVXMap.getInstance().getVirtualNetwork(this.getTenantId()),
+                            fm.getFlowMod().getMatch());
                 } catch (NetworkMappingException e) {
                     SwitchRoute.log.warn(
                             "Error retrieving the network with id {} for flowMod {}. Dropping packet...",
@@ -490,11 +607,13 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                             sw.getTenantId(), fm);
                     return;
                 }
-                OVXLinkUtils lUtils = new OVXLinkUtils(this.getTenantId(), link.getLinkId(), flowId);
+                OVXLinkUtils lUtils = new OVXLinkUtils(this.getTenantId(), link.getLinkId(), flowId,
+                        fm.getFlowMod().getMatch());
                 fm.modifyMatch(lUtils.rewriteMatch(fm.getFlowMod().getMatch()));
                 fm.modifyMatch(IPMapper.rewriteMatch(this.getTenantId(), fm.getFlowMod().getMatch()));
 
-                approvedActions.addAll(lUtils.unsetLinkFields(false, false, fm.getOFMessage().getVersion()));
+                approvedActions.addAll(lUtils.unsetLinkFields(false, false,
+                        fm.getOFMessage().getVersion()));
             } else {
                 SwitchRoute.log.warn(
                         "Cannot retrieve the virtual link between ports {} {}. Dropping packet...",
@@ -537,7 +656,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                 .setActions(approvedActions)
                 .build());
 
-        this.getSrcSwitch().sendMsg(fm, this.getSrcSwitch());
+        burst.addIngressMod(this.getSrcSwitch(), fm);
         SwitchRoute.log.debug("Sending big-switch route first fm to sw {}: {}", this
                 .getSrcSwitch().getName(), fm);
     }
@@ -606,6 +725,21 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
      * @return true if successful
      */
     public boolean tryRecovery(PhysicalLink plink) {
+        FlowMigration migration = new FlowMigration();
+        boolean recovered = this.tryRecovery(plink, migration);
+        migration.execute();
+        return recovered;
+    }
+
+    /**
+     * Tries to switch this route to a backup path, leaving the migration of
+     * its flows to the given flow migration.
+     *
+     * @param plink the failed PhysicalLink
+     * @param migration the flow migration
+     * @return true if successful
+     */
+    public boolean tryRecovery(PhysicalLink plink, FlowMigration migration) {
         log.info(
                 "Try recovery for virtual network {} big-switch {} internal route {} between ports"
                         + "({},{}) in virtual network {} ",
@@ -625,7 +759,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
             }
             byte priority = this.backupRoutes.lastKey();
             List<PhysicalLink> phyLinks = this.backupRoutes.get(priority);
-            this.switchPath(phyLinks, priority);
+            this.switchPath(phyLinks, priority, migration);
             this.backupRoutes.remove(priority);
             return true;
         } else {
@@ -660,6 +794,21 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
      * @return true for success, false otherwise
      */
     public boolean tryRevert(PhysicalLink plink) {
+        FlowMigration migration = new FlowMigration();
+        boolean reverted = this.tryRevert(plink, migration);
+        migration.execute();
+        return reverted;
+    }
+
+    /**
+     * Attempts to switch this route back to the original path, leaving the
+     * migration of its flows to the given flow migration.
+     *
+     * @param plink physical link that was restored
+     * @param migration the flow migration
+     * @return true for success, false otherwise
+     */
+    public boolean tryRevert(PhysicalLink plink, FlowMigration migration) {
         Iterator<Byte> it = this.unusableRoutes.descendingKeySet().iterator();
         while (it.hasNext()) {
             Byte curPriority = it.next();
@@ -684,7 +833,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                                 .getRoute(this));
                         this.backupRoutes.put(this.getPriority(), backupLinks);
                         this.switchPath(this.unusableRoutes.get(curPriority),
-                                curPriority);
+                                curPriority, migration);
                     } catch (LinkMappingException e) {
                         log.warn(
                                 "No physical Links mapped to SwitchRoute? : {}",
@@ -0,0 +1,543 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+/**
+ * Immutable adjacency-list view of the physical topology. Every switch is
+ * given a small integer index, kept stable across the snapshots built from
+ * one another, and the outgoing links of each switch are stored in
+ * compressed arrays together with their metric. Shortest paths are computed
+ * with Dijkstra over those indices using an indexed binary heap, and sets of
+ * link-disjoint paths with successive shortest paths on the residual graph.
+ */
+public final class TopologySnapshot {
+
+    /**
+     * Distance of the switches that cannot be reached.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    // Index of each switch that has at least one link
+    private final Map<PhysicalSwitch, Integer> indices;
+    // Number of index slots, including the ones left by removed switches
+    private final int size;
+    // True if the indices of the previous snapshot could not be kept
+    private final boolean renumbered;
+    // Outgoing links of switch i are first[i] .. first[i + 1] - 1
+    private final int[] first;
+    private final int[] origin;
+    private final int[] target;
+    private final int[] metric;
+    // Link in the opposite direction between the same ports, or -1
+    private final int[] reverse;
+    // Incoming links of switch i are inLink[inFirst[i] .. inFirst[i + 1] - 1]
+    private final int[] inFirst;
+    private final int[] inLink;
+    private final PhysicalLink[] links;
+    private final Map<PhysicalLink, Integer> linkIndices;
+
+    /**
+     * Builds a snapshot of the given links. Switches already indexed by the
+     * previous snapshot keep their index, unless too many slots have been
+     * left unused by removed switches, in which case all switches are
+     * renumbered.
+     *
+     * @param physicalLinks the links of the physical network
+     * @param previous the previous snapshot, or null
+     */
+    TopologySnapshot(final Collection<PhysicalLink> physicalLinks,
+            final TopologySnapshot previous) {
+        final List<PhysicalLink> sorted = new ArrayList<PhysicalLink>(
+                physicalLinks);
+        // Same link order as the former list based implementation, so that
+        // equal cost paths are resolved the same way
+        Collections.sort(sorted);
+
+        final Map<PhysicalSwitch, Integer> live = new HashMap<PhysicalSwitch, Integer>();
+        for (final PhysicalLink link : sorted) {
+            live.put(link.getSrcSwitch(), null);
+            live.put(link.getDstSwitch(), null);
+        }
+        int slots = 0;
+        final boolean keep = previous != null
+                && previous.size <= 2 * live.size() + 16;
+        if (keep) {
+            slots = previous.size;
+            for (final Map.Entry<PhysicalSwitch, Integer> entry : live
+                    .entrySet()) {
+                entry.setValue(previous.indices.get(entry.getKey()));
+            }
+        }
+        for (final PhysicalLink link : sorted) {
+            if (live.get(link.getSrcSwitch()) == null) {
+                live.put(link.getSrcSwitch(), slots++);
+            }
+            if (live.get(link.getDstSwitch()) == null) {
+                live.put(link.getDstSwitch(), slots++);
+            }
+        }
+        this.indices = live;
+        this.size = slots;
+        this.renumbered = previous != null && !keep;
+
+        this.first = new int[slots + 1];
+        this.origin = new int[sorted.size()];
+        this.target = new int[sorted.size()];
+        this.metric = new int[sorted.size()];
+        this.reverse = new int[sorted.size()];
+        this.inFirst = new int[slots + 1];
+        this.inLink = new int[sorted.size()];
+        this.links = new PhysicalLink[sorted.size()];
+        this.linkIndices = new HashMap<PhysicalLink, Integer>();
+        for (final PhysicalLink link : sorted) {
+            this.first[live.get(link.getSrcSwitch()) + 1]++;
+        }
+        for (int i = 0; i < slots; i++) {
+            this.first[i + 1] += this.first[i];
+        }
+        final int[] next = Arrays.copyOf(this.first, slots);
+        final Map<PhysicalPort, Integer> byPort = new HashMap<PhysicalPort, Integer>();
+        for (final PhysicalLink link : sorted) {
+            final int e = next[live.get(link.getSrcSwitch())]++;
+            this.origin[e] = live.get(link.getSrcSwitch());
+            this.target[e] = live.get(link.getDstSwitch());
+            this.metric[e] = link.getMetric();
+            this.links[e] = link;
+            this.linkIndices.put(link, e);
+            byPort.put(link.getSrcPort(), e);
+            this.inFirst[this.target[e] + 1]++;
+        }
+        for (int i = 0; i < slots; i++) {
+            this.inFirst[i + 1] += this.inFirst[i];
+        }
+        final int[] nextIn = Arrays.copyOf(this.inFirst, slots);
+        for (int e = 0; e < this.links.length; e++) {
+            this.inLink[nextIn[this.target[e]]++] = e;
+            final Integer r = byPort.get(this.links[e].getDstPort());
+            this.reverse[e] = r != null
+                    && this.links[r].getDstPort().equals(
+                            this.links[e].getSrcPort()) ? r : -1;
+        }
+    }
+
+    /**
+     * @return true if switch indices differ from the previous snapshot
+     */
+    boolean isRenumbered() {
+        return this.renumbered;
+    }
+
+    /**
+     * @return the number of links in the snapshot
+     */
+    public int getLinkCount() {
+        return this.links.length;
+    }
+
+    private int indexOf(final PhysicalSwitch sw) {
+        final Integer index = this.indices.get(sw);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Computes the shortest paths from the given switch to every switch of
+     * the snapshot.
+     *
+     * @param source the source switch
+     * @param excluded links that may not be used, or null
+     * @param allowed the only switches that may be traversed, or null for
+     *            all of them
+     * @return the shortest path tree rooted at the source
+     */
+    public PathTree shortestPaths(final PhysicalSwitch source,
+            final Set<PhysicalLink> excluded,
+            final Collection<PhysicalSwitch> allowed) {
+        final int[] dist = new int[this.size];
+        final int[] pred = new int[this.size];
+        Arrays.fill(dist, UNREACHABLE);
+        Arrays.fill(pred, -1);
+        final PathTree tree = new PathTree(this, source, dist, pred);
+
+        final int src = this.indexOf(source);
+        if (src < 0 || (allowed != null && !allowed.contains(source))) {
+            return tree;
+        }
+        final boolean[] skip = this.skippedLinks(excluded, allowed);
+
+        // Indexed binary min-heap on dist; pos[v] is the heap slot of v
+        final int[] heap = new int[this.size];
+        final int[] pos = new int[this.size];
+        Arrays.fill(pos, -1);
+        int heapSize = 0;
+        dist[src] = 0;
+        heap[heapSize] = src;
+        pos[src] = heapSize++;
+        while (heapSize > 0) {
+            final int u = heap[0];
+            pos[u] = -1;
+            if (--heapSize > 0) {
+                heap[0] = heap[heapSize];
+                pos[heap[0]] = 0;
+                siftDown(heap, pos, dist, heapSize, 0);
+            }
+            for (int e = this.first[u]; e < this.first[u + 1]; e++) {
+                if (skip != null && skip[e]) {
+                    continue;
+                }
+                final int v = this.target[e];
+                final int d = dist[u] + this.metric[e];
+                if (d < dist[v]) {
+                    dist[v] = d;
+                    pred[v] = e;
+                    if (pos[v] < 0) {
+                        heap[heapSize] = v;
+                        pos[v] = heapSize++;
+                    }
+                    siftUp(heap, pos, dist, pos[v]);
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Computes up to the given number of link-disjoint paths between two
+     * switches, with the lowest total metric (Suurballe and Bhandari).
+     * Paths are disjoint in both directions: a path never uses a link, nor
+     * the link in the opposite direction between the same ports, used by
+     * another path.
+     * <p>
+     * Each round runs Dijkstra on the residual graph, in which the links of
+     * the paths found so far are replaced by zero-capacity arcs that cancel
+     * them; node potentials keep the reduced metrics non-negative. The
+     * links left in use are then split into paths.
+     *
+     * @param source the source switch
+     * @param destination the destination switch
+     * @param count the maximum number of paths
+     * @param excluded links that may not be used, or null
+     * @param allowed the only switches that may be traversed, or null for
+     *            all of them
+     * @return the paths, cheapest first; a single empty path if source and
+     *         destination are the same switch, or no path if the
+     *         destination cannot be reached
+     */
+    public List<LinkedList<PhysicalLink>> disjointPaths(
+            final PhysicalSwitch source, final PhysicalSwitch destination,
+            final int count, final Set<PhysicalLink> excluded,
+            final Collection<PhysicalSwitch> allowed) {
+        final List<LinkedList<PhysicalLink>> paths = new ArrayList<LinkedList<PhysicalLink>>();
+        if (count <= 0) {
+            return paths;
+        }
+        if (source == destination) {
+            paths.add(new LinkedList<PhysicalLink>());
+            return paths;
+        }
+        final int s = this.indexOf(source);
+        final int t = this.indexOf(destination);
+        if (s < 0 || t < 0 || (allowed != null
+                && (!allowed.contains(source) || !allowed
+                        .contains(destination)))) {
+            return paths;
+        }
+        final boolean[] skip = this.skippedLinks(excluded, allowed);
+
+        final boolean[] used = new boolean[this.links.length];
+        final int[] potential = new int[this.size];
+        final int[] dist = new int[this.size];
+        // last arc towards each switch: a link index, or ~e for the arc
+        // cancelling link e
+        final int[] pred = new int[this.size];
+        final int[] heap = new int[this.size];
+        final int[] pos = new int[this.size];
+        int found = 0;
+        while (found < count) {
+            Arrays.fill(dist, UNREACHABLE);
+            Arrays.fill(pos, -1);
+            int heapSize = 0;
+            dist[s] = 0;
+            heap[heapSize] = s;
+            pos[s] = heapSize++;
+            while (heapSize > 0) {
+                final int u = heap[0];
+                pos[u] = -1;
+                if (--heapSize > 0) {
+                    heap[0] = heap[heapSize];
+                    pos[heap[0]] = 0;
+                    siftDown(heap, pos, dist, heapSize, 0);
+                }
+                for (int e = this.first[u]; e < this.first[u + 1]; e++) {
+                    if ((skip != null && skip[e]) || used[e]
+                            || (this.reverse[e] >= 0 && used[this.reverse[e]])) {
+                        continue;
+                    }
+                    final int v = this.target[e];
+                    final int d = dist[u] + this.metric[e] + potential[u]
+                            - potential[v];
+                    if (d < dist[v]) {
+                        dist[v] = d;
+                        pred[v] = e;
+                        if (pos[v] < 0) {
+                            heap[heapSize] = v;
+                            pos[v] = heapSize++;
+                        }
+                        siftUp(heap, pos, dist, pos[v]);
+                    }
+                }
+                for (int j = this.inFirst[u]; j < this.inFirst[u + 1]; j++) {
+                    final int e = this.inLink[j];
+                    if (!used[e]) {
+                        continue;
+                    }
+                    final int v = this.origin[e];
+                    final int d = dist[u] - this.metric[e] + potential[u]
+                            - potential[v];
+                    if (d < dist[v]) {
+                        dist[v] = d;
+                        pred[v] = ~e;
+                        if (pos[v] < 0) {
+                            heap[heapSize] = v;
+                            pos[v] = heapSize++;
+                        }
+                        siftUp(heap, pos, dist, pos[v]);
+                    }
+                }
+            }
+            if (dist[t] == UNREACHABLE) {
+                break;
+            }
+            for (int v = 0; v < this.size; v++) {
+                potential[v] += Math.min(dist[v], dist[t]);
+            }
+            for (int v = t; v != s;) {
+                final int e = pred[v];
+                if (e >= 0) {
+                    used[e] = true;
+                    v = this.origin[e];
+                } else {
+                    used[~e] = false;
+                    v = this.target[~e];
+                }
+            }
+            found++;
+        }
+
+        // Split the links in use into paths, keeping them sorted by metric
+        final List<Integer> costs = new ArrayList<Integer>();
+        final int[] next = Arrays.copyOf(this.first, this.size);
+        for (int p = 0; p < found; p++) {
+            final LinkedList<PhysicalLink> path = new LinkedList<PhysicalLink>();
+            int cost = 0;
+            int u = s;
+            while (u != t) {
+                int e = next[u];
+                while (!used[e]) {
+                    e++;
+                }
+                next[u] = e + 1;
+                path.add(this.links[e]);
+                cost += this.metric[e];
+                u = this.target[e];
+            }
+            int i = costs.size();
+            while (i > 0 && costs.get(i - 1) > cost) {
+                i--;
+            }
+            costs.add(i, cost);
+            paths.add(i, path);
+        }
+        return paths;
+    }
+
+    /**
+     * Marks the links that are excluded or that leave the allowed switches.
+     *
+     * @param excluded links that may not be used, or null
+     * @param allowed the only switches that may be traversed, or null
+     * @return the skipped links by index, or null if none is skipped
+     */
+    private boolean[] skippedLinks(final Set<PhysicalLink> excluded,
+            final Collection<PhysicalSwitch> allowed) {
+        boolean[] skip = null;
+        if (excluded != null && !excluded.isEmpty()) {
+            skip = new boolean[this.links.length];
+            for (final PhysicalLink link : excluded) {
+                final Integer e = this.linkIndices.get(link);
+                if (e != null) {
+                    skip[e] = true;
+                }
+            }
+        }
+        if (allowed != null) {
+            final boolean[] out = new boolean[this.size];
+            Arrays.fill(out, true);
+            for (final PhysicalSwitch sw : allowed) {
+                final int i = this.indexOf(sw);
+                if (i >= 0) {
+                    out[i] = false;
+                }
+            }
+            if (skip == null) {
+                skip = new boolean[this.links.length];
+            }
+            for (int e = 0; e < this.links.length; e++) {
+                skip[e] |= out[this.origin[e]] || out[this.target[e]];
+            }
+        }
+        return skip;
+    }
+
+    private static void siftUp(final int[] heap, final int[] pos,
+            final int[] dist, int i) {
+        final int v = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (dist[heap[parent]] <= dist[v]) {
+                break;
+            }
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    private static void siftDown(final int[] heap, final int[] pos,
+            final int[] dist, final int heapSize, int i) {
+        final int v = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize
+                    && dist[heap[child + 1]] < dist[heap[child]]) {
+                child++;
+            }
+            if (dist[v] <= dist[heap[child]]) {
+                break;
+            }
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    /**
+     * Shortest path tree computed on a snapshot. For every reachable switch
+     * it holds the distance from the source and the last link of the
+     * shortest path towards it.
+     */
+    public static final class PathTree {
+
+        private final TopologySnapshot snapshot;
+        private final PhysicalSwitch source;
+        private final int[] dist;
+        private final int[] pred;
+
+        private PathTree(final TopologySnapshot snapshot,
+                final PhysicalSwitch source, final int[] dist,
+                final int[] pred) {
+            this.snapshot = snapshot;
+            this.source = source;
+            this.dist = dist;
+            this.pred = pred;
+        }
+
+        /**
+         * @return the root of the tree
+         */
+        public PhysicalSwitch getSource() {
+            return this.source;
+        }
+
+        /**
+         * Gets the distance from the source to the given switch.
+         *
+         * @param sw the switch
+         * @return the distance, or {@link TopologySnapshot#UNREACHABLE}
+         */
+        public int getDistance(final PhysicalSwitch sw) {
+            if (sw == this.source) {
+                return 0;
+            }
+            final int i = this.snapshot.indexOf(sw);
+            return i < 0 || i >= this.dist.length ? UNREACHABLE : this.dist[i];
+        }
+
+        /**
+         * Checks if the given link is the last hop of a shortest path of
+         * this tree.
+         *
+         * @param link the link
+         * @return true if the tree uses the link
+         */
+        public boolean uses(final PhysicalLink link) {
+            final int i = this.snapshot.indexOf(link.getDstSwitch());
+            if (i < 0 || i >= this.pred.length || this.pred[i] < 0) {
+                return false;
+            }
+            return this.snapshot.links[this.pred[i]].equals(link);
+        }
+
+        /**
+         * Gets the shortest path from the source to the given switch.
+         *
+         * @param dst the destination switch
+         * @return a new list with the links of the path, an empty list if
+         *         the destination is the source, or null if the destination
+         *         cannot be reached
+         */
+        public LinkedList<PhysicalLink> getPath(final PhysicalSwitch dst) {
+            final LinkedList<PhysicalLink> path = new LinkedList<PhysicalLink>();
+            if (dst == this.source) {
+                return path;
+            }
+            int i = this.snapshot.indexOf(dst);
+            if (i < 0 || i >= this.pred.length || this.pred[i] < 0) {
+                return null;
+            }
+            while (this.pred[i] >= 0) {
+                final PhysicalLink link = this.snapshot.links[this.pred[i]];
+                path.addFirst(link);
+                i = this.snapshot.indexOf(link.getSrcSwitch());
+            }
+            return path;
+        }
+    }
+}
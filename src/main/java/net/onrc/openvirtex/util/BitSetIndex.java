@@ -64,8 +64,14 @@ public class BitSetIndex {
                         .getInstance().getNumberVirtualNets()) / 2));
             } else if (OpenVirteXController.getInstance().getOvxLinkField()
                     .getValue() == OVXLinkField.VLAN.getValue()) {
-                return (int) Math.pow(2, ((12 - OpenVirteXController
-                        .getInstance().getNumberVirtualNets()) / 2));
+                // the VLAN ID only carries tenant and link IDs, and must not
+                // be all ones
+                return (int) Math.pow(2, (12 - OpenVirteXController
+                        .getInstance().getNumberVirtualNets())) - 1;
+            } else if (OpenVirteXController.getInstance().getOvxLinkField()
+                    .getValue() == OVXLinkField.MPLS.getValue()) {
+                return (int) Math.pow(2, (20 - OpenVirteXController
+                        .getInstance().getNumberVirtualNets()));
             } else {
                 return 1000;
             }
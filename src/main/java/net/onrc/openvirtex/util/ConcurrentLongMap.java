@@ -0,0 +1,365 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Concurrent map from primitive longs to objects. Keys are spread over a
+ * fixed number of lock-striped segments, each an open-addressing table
+ * with linear probing, so no key or entry objects are allocated per
+ * mapping.
+ *
+ * @param <V> the value type
+ */
+public class ConcurrentLongMap<V> {
+
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment<V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongMap() {
+        this.segments = (Segment<V>[]) new Segment<?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment<V>();
+        }
+    }
+
+    private static int hash(final long key) {
+        final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment<V> segmentFor(final int hash) {
+        return this.segments[hash >>> (32 - SEGMENT_SHIFT)];
+    }
+
+    /**
+     * Gets the value mapped to the given key.
+     *
+     * @param key the key
+     * @return the value, or null if the key is not mapped
+     */
+    public V get(final long key) {
+        final int hash = hash(key);
+        return this.segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Checks if the given key is mapped.
+     *
+     * @param key the key
+     * @return true if the key is mapped, false otherwise
+     */
+    public boolean containsKey(final long key) {
+        return this.get(key) != null;
+    }
+
+    /**
+     * Maps the given key to the given value.
+     *
+     * @param key the key
+     * @param value the value, must not be null
+     * @return the value previously mapped to the key, or null
+     */
+    public V put(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        final int hash = hash(key);
+        return this.segmentFor(hash).put(key, hash, value, false);
+    }
+
+    /**
+     * Maps the given key to the given value, unless the key is already
+     * mapped.
+     *
+     * @param key the key
+     * @param value the value, must not be null
+     * @return the value already mapped to the key, or null if the given
+     *         value was mapped
+     */
+    public V putIfAbsent(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        final int hash = hash(key);
+        return this.segmentFor(hash).put(key, hash, value, true);
+    }
+
+    /**
+     * Removes the mapping of the given key.
+     *
+     * @param key the key
+     * @return the value that was mapped to the key, or null
+     */
+    public V remove(final long key) {
+        final int hash = hash(key);
+        return this.segmentFor(hash).remove(key, hash);
+    }
+
+    /**
+     * Removes all mappings.
+     */
+    public void clear() {
+        for (Segment<V> segment : this.segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return the number of mappings
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : this.segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if there are no mappings, false otherwise
+     */
+    public boolean isEmpty() {
+        for (Segment<V> segment : this.segments) {
+            if (segment.size() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets a snapshot of the mapped keys.
+     *
+     * @return the keys
+     */
+    public long[] keys() {
+        final List<long[]> parts = new ArrayList<long[]>(SEGMENTS);
+        int total = 0;
+        for (Segment<V> segment : this.segments) {
+            final long[] part = segment.keys();
+            parts.add(part);
+            total += part.length;
+        }
+        final long[] keys = new long[total];
+        int pos = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, keys, pos, part.length);
+            pos += part.length;
+        }
+        return keys;
+    }
+
+    /**
+     * Gets a view of the mapped values. Iterators work on a per-segment
+     * snapshot and never throw ConcurrentModificationException.
+     *
+     * @return the values
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public int size() {
+                return ConcurrentLongMap.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return ConcurrentLongMap.this.isEmpty();
+            }
+
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator();
+            }
+        };
+    }
+
+    private final class ValueIterator implements Iterator<V> {
+        private int segment = 0;
+        private Object[] current = new Object[0];
+        private int pos = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (this.pos == this.current.length) {
+                if (this.segment == SEGMENTS) {
+                    return false;
+                }
+                this.current = ConcurrentLongMap.this.segments[this.segment++]
+                        .values();
+                this.pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (V) this.current[this.pos++];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Open-addressing table guarded by its own monitor. A null value marks
+     * an empty slot; removals shift the following run back so that probing
+     * never needs tombstones.
+     */
+    private static final class Segment<V> {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int size = 0;
+
+        private int indexOf(final long key, final int hash) {
+            final int mask = this.keys.length - 1;
+            int i = hash & mask;
+            while (this.values[i] != null) {
+                if (this.keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1 - i;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(final long key, final int hash) {
+            final int i = this.indexOf(key, hash);
+            return i < 0 ? null : (V) this.values[i];
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V put(final long key, final int hash, final V value,
+                final boolean onlyIfAbsent) {
+            int i = this.indexOf(key, hash);
+            if (i >= 0) {
+                final V old = (V) this.values[i];
+                if (!onlyIfAbsent) {
+                    this.values[i] = value;
+                }
+                return old;
+            }
+            if ((this.size + 1) << 2 > this.keys.length * 3) {
+                this.resize(this.keys.length << 1);
+                i = this.indexOf(key, hash);
+            }
+            i = -1 - i;
+            this.keys[i] = key;
+            this.values[i] = value;
+            this.size++;
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(final long key, final int hash) {
+            int i = this.indexOf(key, hash);
+            if (i < 0) {
+                return null;
+            }
+            final V old = (V) this.values[i];
+            final int mask = this.keys.length - 1;
+            // shift back entries whose probe sequence crosses the hole
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (this.values[j] == null) {
+                    break;
+                }
+                final int home = ConcurrentLongMap.hash(this.keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    this.keys[i] = this.keys[j];
+                    this.values[i] = this.values[j];
+                    i = j;
+                }
+            }
+            this.values[i] = null;
+            this.size--;
+            return old;
+        }
+
+        synchronized void clear() {
+            this.keys = new long[INITIAL_CAPACITY];
+            this.values = new Object[INITIAL_CAPACITY];
+            this.size = 0;
+        }
+
+        synchronized int size() {
+            return this.size;
+        }
+
+        synchronized long[] keys() {
+            final long[] ret = new long[this.size];
+            int n = 0;
+            for (int i = 0; i < this.values.length; i++) {
+                if (this.values[i] != null) {
+                    ret[n++] = this.keys[i];
+                }
+            }
+            return ret;
+        }
+
+        synchronized Object[] values() {
+            final Object[] ret = new Object[this.size];
+            int n = 0;
+            for (int i = 0; i < this.values.length; i++) {
+                if (this.values[i] != null) {
+                    ret[n++] = this.values[i];
+                }
+            }
+            return ret;
+        }
+
+        private void resize(final int capacity) {
+            final long[] oldKeys = this.keys;
+            final Object[] oldValues = this.values;
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            final int mask = capacity - 1;
+            for (int k = 0; k < oldValues.length; k++) {
+                if (oldValues[k] != null) {
+                    int i = ConcurrentLongMap.hash(oldKeys[k]) & mask;
+                    while (this.values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    this.keys[i] = oldKeys[k];
+                    this.values[i] = oldValues[k];
+                }
+            }
+        }
+    }
+}
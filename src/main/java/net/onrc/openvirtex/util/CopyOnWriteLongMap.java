@@ -0,0 +1,249 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Map from primitive longs to objects for read-mostly data. The mappings
+ * are held in an immutable open-addressing table published through a
+ * volatile field, so lookups take no lock and allocate nothing. Updates
+ * copy the table under the map's monitor and publish the copy.
+ *
+ * @param <V> the value type
+ */
+public class CopyOnWriteLongMap<V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+
+    /**
+     * Open-addressing table with linear probing. A null value marks an
+     * empty slot. Tables are never modified once published.
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final Object[] values;
+        private int size = 0;
+
+        private Table(final int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+        }
+
+        private int indexOf(final long key) {
+            final int mask = this.keys.length - 1;
+            int i = hash(key) & mask;
+            while (this.values[i] != null) {
+                if (this.keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1 - i;
+        }
+
+        private void insert(final long key, final Object value) {
+            final int i = -1 - this.indexOf(key);
+            this.keys[i] = key;
+            this.values[i] = value;
+            this.size++;
+        }
+    }
+
+    private static int hash(final long key) {
+        final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int capacityFor(final int size) {
+        int capacity = INITIAL_CAPACITY;
+        while (size << 2 > capacity * 3) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Gets the value mapped to the given key.
+     *
+     * @param key the key
+     * @return the value, or null if the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        final Table t = this.table;
+        final int i = t.indexOf(key);
+        return i < 0 ? null : (V) t.values[i];
+    }
+
+    /**
+     * Checks if the given key is mapped.
+     *
+     * @param key the key
+     * @return true if the key is mapped, false otherwise
+     */
+    public boolean containsKey(final long key) {
+        return this.table.indexOf(key) >= 0;
+    }
+
+    /**
+     * Maps the given key to the given value.
+     *
+     * @param key the key
+     * @param value the value, must not be null
+     * @return the value previously mapped to the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        final Table old = this.table;
+        final int i = old.indexOf(key);
+        final Table t = copy(old, capacityFor(old.size + 1));
+        if (i >= 0) {
+            t.values[t.indexOf(key)] = value;
+        } else {
+            t.insert(key, value);
+        }
+        this.table = t;
+        return i < 0 ? null : (V) old.values[i];
+    }
+
+    /**
+     * Removes the mapping of the given key.
+     *
+     * @param key the key
+     * @return the value that was mapped to the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(final long key) {
+        final Table old = this.table;
+        final int i = old.indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        this.table = without(old, new long[] {key});
+        return (V) old.values[i];
+    }
+
+    /**
+     * Removes the mappings of the given keys with a single copy of the
+     * table.
+     *
+     * @param keys the keys
+     */
+    public synchronized void removeAll(final long[] keys) {
+        final long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        final Table t = without(this.table, sorted);
+        if (t != null) {
+            this.table = t;
+        }
+    }
+
+    /**
+     * Removes all mappings.
+     */
+    public synchronized void clear() {
+        this.table = new Table(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return the number of mappings
+     */
+    public int size() {
+        return this.table.size;
+    }
+
+    /**
+     * @return true if there are no mappings, false otherwise
+     */
+    public boolean isEmpty() {
+        return this.table.size == 0;
+    }
+
+    /**
+     * Gets a snapshot of the mapped keys.
+     *
+     * @return the keys
+     */
+    public long[] keys() {
+        final Table t = this.table;
+        final long[] keys = new long[t.size];
+        int n = 0;
+        for (int i = 0; i < t.values.length; i++) {
+            if (t.values[i] != null) {
+                keys[n++] = t.keys[i];
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Gets a snapshot of the mapped values.
+     *
+     * @return the values
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<V> values() {
+        final Table t = this.table;
+        final List<V> values = new ArrayList<V>(t.size);
+        for (int i = 0; i < t.values.length; i++) {
+            if (t.values[i] != null) {
+                values.add((V) t.values[i]);
+            }
+        }
+        return values;
+    }
+
+    private static Table copy(final Table old, final int capacity) {
+        final Table t = new Table(Math.max(old.keys.length, capacity));
+        for (int i = 0; i < old.values.length; i++) {
+            if (old.values[i] != null) {
+                t.insert(old.keys[i], old.values[i]);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Copies the table without the given keys.
+     *
+     * @param old the table
+     * @param sorted the keys to leave out, in ascending order
+     * @return the copy, or null if none of the keys is mapped
+     */
+    private static Table without(final Table old, final long[] sorted) {
+        final Table t = new Table(old.keys.length);
+        for (int i = 0; i < old.values.length; i++) {
+            if (old.values[i] != null
+                    && Arrays.binarySearch(sorted, old.keys[i]) < 0) {
+                t.insert(old.keys[i], old.values[i]);
+            }
+        }
+        return t.size == old.size ? null : t;
+    }
+}
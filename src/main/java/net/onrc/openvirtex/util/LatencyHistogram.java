@@ -0,0 +1,171 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds. Values are counted in
+ * log-linear buckets: every power of two is split into 16 buckets, so a
+ * reported percentile is within about 3% of the recorded value whatever its
+ * magnitude. Recording is wait-free and does not allocate.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int BUCKETS = (64 - SUB_BITS) * HALF + 2 * HALF;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    private static int indexOf(final long value) {
+        final int shift = Math.max(0,
+                64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long valueOf(final int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        final int shift = index / HALF - 1;
+        final long sub = index - shift * HALF;
+        // middle of the bucket
+        return (sub << shift) + (1L << shift) / 2;
+    }
+
+    /**
+     * Records a latency. Negative values are recorded as zero.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(indexOf(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long m = this.max.get();
+        while (value > m && !this.max.compareAndSet(m, value)) {
+            m = this.max.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()}.
+     *
+     * @param startNanos the start time
+     */
+    public void recordSince(final long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return the sum of the recorded values, in nanoseconds
+     */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * @return the largest recorded value, in nanoseconds
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, in nanoseconds
+     */
+    public long getMean() {
+        final long n = this.count.get();
+        return n == 0 ? 0 : this.sum.get() / n;
+    }
+
+    /**
+     * Gets the value below which the given fraction of the recorded values
+     * fall. Values recorded concurrently may or may not be accounted for.
+     *
+     * @param fraction the fraction, between 0 and 1
+     * @return the value in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(final double fraction) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += this.counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1,
+                (long) Math.ceil(Math.min(1.0, fraction) * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(valueOf(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Gets a percentile converted to the given unit.
+     *
+     * @param fraction the fraction, between 0 and 1
+     * @param unit the unit
+     * @return the value in the given unit
+     */
+    public double getPercentile(final double fraction, final TimeUnit unit) {
+        return (double) this.getPercentile(fraction)
+                / unit.toNanos(1);
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may be
+     * partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+/**
+ * Set of primitive longs backed by an open-addressing table with linear
+ * probing. Zero marks an empty slot, so the value zero itself is tracked
+ * by a flag. Not thread-safe; callers synchronize externally.
+ */
+public class LongHashSet {
+
+    private static final int INITIAL_CAPACITY = 2;
+
+    private long[] keys;
+    private boolean hasZero;
+    private int size;
+
+    public LongHashSet() {
+        this.keys = new long[INITIAL_CAPACITY];
+        this.hasZero = false;
+        this.size = 0;
+    }
+
+    private static int hash(final long key) {
+        final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(final long key) {
+        final int mask = this.keys.length - 1;
+        int i = hash(key) & mask;
+        while (this.keys[i] != 0) {
+            if (this.keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1 - i;
+    }
+
+    /**
+     * Adds the given value to the set.
+     *
+     * @param value the value
+     * @return true if the value was not already in the set
+     */
+    public boolean add(final long value) {
+        if (value == 0) {
+            if (this.hasZero) {
+                return false;
+            }
+            this.hasZero = true;
+            this.size++;
+            return true;
+        }
+        int i = this.indexOf(value);
+        if (i >= 0) {
+            return false;
+        }
+        if ((this.size + 1) << 2 > this.keys.length * 3) {
+            this.resize(this.keys.length << 1);
+            i = this.indexOf(value);
+        }
+        i = -1 - i;
+        this.keys[i] = value;
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Removes the given value from the set.
+     *
+     * @param value the value
+     * @return true if the value was in the set
+     */
+    public boolean remove(final long value) {
+        if (value == 0) {
+            if (!this.hasZero) {
+                return false;
+            }
+            this.hasZero = false;
+            this.size--;
+            return true;
+        }
+        int i = this.indexOf(value);
+        if (i < 0) {
+            return false;
+        }
+        final int mask = this.keys.length - 1;
+        // shift back entries whose probe sequence crosses the hole
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (this.keys[j] == 0) {
+                break;
+            }
+            final int home = hash(this.keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                this.keys[i] = this.keys[j];
+                i = j;
+            }
+        }
+        this.keys[i] = 0;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Checks if the given value is in the set.
+     *
+     * @param value the value
+     * @return true if the value is in the set, false otherwise
+     */
+    public boolean contains(final long value) {
+        if (value == 0) {
+            return this.hasZero;
+        }
+        return this.indexOf(value) >= 0;
+    }
+
+    /**
+     * @return the number of values in the set
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return true if the set is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all values from the set.
+     */
+    public void clear() {
+        this.keys = new long[INITIAL_CAPACITY];
+        this.hasZero = false;
+        this.size = 0;
+    }
+
+    /**
+     * Copies the values of the set into the given array.
+     *
+     * @param dest the destination array
+     * @param offset the position of the first copied value in dest
+     * @return the position after the last copied value
+     */
+    public int copyTo(final long[] dest, final int offset) {
+        int pos = offset;
+        if (this.hasZero) {
+            dest[pos++] = 0;
+        }
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != 0) {
+                dest[pos++] = this.keys[i];
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return the values of the set
+     */
+    public long[] toArray() {
+        final long[] ret = new long[this.size];
+        this.copyTo(ret, 0);
+        return ret;
+    }
+
+    private void resize(final int capacity) {
+        final long[] oldKeys = this.keys;
+        this.keys = new long[capacity];
+        final int mask = capacity - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] != 0) {
+                int i = hash(oldKeys[k]) & mask;
+                while (this.keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = oldKeys[k];
+            }
+        }
+    }
+}
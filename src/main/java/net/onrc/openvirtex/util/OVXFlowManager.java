@@ -19,107 +19,579 @@
  */
 package net.onrc.openvirtex.util;
 
-import java.math.BigInteger;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-
-import com.google.common.collect.HashBiMap;
 import org.projectfloodlight.openflow.types.MacAddress;
 
+/**
+ * Allocates the flow IDs that virtual links carry in place of the source
+ * and destination MAC addresses of a virtual flow.
+ * <p>
+ * Flow IDs are allocated on the first use of a MAC address pair, and kept
+ * in a bidirectional map: a lock-striped open-addressing table looked up by
+ * the two addresses, and a paged array from the flow ID to the same entry.
+ * Neither lookup allocates; lookups by flow ID take no lock, and only the
+ * allocation of a new flow ID goes through the flow counter.
+ * <p>
+ * The virtual flow tables of the tenant count the flow mods matching
+ * exactly on each pair, see {@link #retainMatch(long, long)}. A flow ID is
+ * given back when one of the hosts of its pair is disconnected, or when it
+ * has not been used for {@link #IDLE_TIMEOUT} milliseconds and no flow mod
+ * matches on its pair any more. An idle pair is retired by an atomic swap
+ * of its last use time, so a flow ID handed out concurrently is never
+ * reclaimed: either the lookup sees the pair retired and allocates a new
+ * one, or the reclaim sees the pair used and keeps it. Reclaims run on a
+ * thread of their own, shared by all virtual networks.
+ */
 public class OVXFlowManager {
     static Logger log = LogManager.getLogger(OVXFlowManager.class.getName());
 
-    private final HashBiMap<Integer, BigInteger> flowValues;
+    /**
+     * Time (in milliseconds) after which an unused flow ID is reclaimed.
+     */
+    public static final long IDLE_TIMEOUT = 60000;
+
+    // last use of a flow ID is only recorded at this granularity
+    private static final long TOUCH_INTERVAL = 1000;
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final long BROADCAST = 0xffffffffffffL;
+    // last use time of a retired pair
+    private static final long RETIRED = Long.MIN_VALUE;
+
+    private static final ScheduledExecutorService RECLAIMER = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "OVXFlowManager");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final PairTable<FlowPair> flowPairs;
+    // flow mods matching exactly on a pair, guarded by the table itself
+    private final PairTable<MatchCount> matches;
+    private volatile AtomicReferenceArray<FlowPair>[] flowIds;
+    private final Object pageLock = new Object();
     private final BitSetIndex flowCounter;
     private final Integer tenantId;
-    private Collection<Host> hostList;
+    private ScheduledFuture<?> reclaim = null;
 
-    public OVXFlowManager(Integer tenantId, Collection<Host> hostList) {
-        this.flowValues = HashBiMap.create();
+    @SuppressWarnings("unchecked")
+    public OVXFlowManager(Integer tenantId) {
+        this.flowPairs = new PairTable<FlowPair>();
+        this.matches = new PairTable<MatchCount>();
+        this.flowIds = (AtomicReferenceArray<FlowPair>[]) new AtomicReferenceArray<?>[0];
         this.flowCounter = new BitSetIndex(IndexType.FLOW_COUNTER);
         this.tenantId = tenantId;
-        this.hostList = hostList;
     }
 
-    public synchronized Integer storeFlowValues(final byte[] srcMac, final byte[] dstMac)
+    /**
+     * Gets the flow ID of the given MAC address pair, allocating one if the
+     * pair has none yet.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     * @return the flow ID
+     * @throws IndexOutOfBoundException if no flow ID is left
+     */
+    public Integer storeFlowValues(final long srcMac, final long dstMac)
             throws IndexOutOfBoundException {
-        // TODO: Optimize flow numbers
-        final BigInteger dualMac = new BigInteger(ArrayUtils.addAll(srcMac,
-                dstMac));
-        Integer flowId = this.flowValues.inverse().get(dualMac);
-        if (flowId == null) {
-            flowId = this.flowCounter.getNewIndex();
-            log.debug(
-                    "virtual net = {}: save flowId = {} that is associated to {} {}",
-                    this.tenantId, flowId,
-                    MacAddress.of(srcMac).toString(),
-                    MacAddress.of(dstMac).toString());
-            this.flowValues.put(flowId, dualMac);
+        FlowPair pair = this.flowPairs.get(srcMac, dstMac);
+        if (pair != null && pair.touch()) {
+            return pair.flowId;
         }
+
+        final int flowId = this.flowCounter.getNewIndex();
+        pair = new FlowPair(srcMac, dstMac, flowId);
+        // publish the reverse mapping first, the flow ID is not handed out
+        // before the pair is in the map
+        this.pageFor(flowId).set(flowId & (PAGE_SIZE - 1), pair);
+        FlowPair prev;
+        while ((prev = this.flowPairs.putIfAbsent(pair)) != null) {
+            if (prev.touch()) {
+                // lost the race against another thread allocating the pair
+                this.pageFor(flowId).compareAndSet(flowId & (PAGE_SIZE - 1),
+                        pair, null);
+                this.flowCounter.releaseIndex(flowId);
+                return prev.flowId;
+            }
+            // retired by a concurrent reclaim, finish its release
+            this.release(prev);
+        }
+        log.debug(
+                "virtual net = {}: save flowId = {} that is associated to {} {}",
+                this.tenantId, flowId, MacAddress.of(srcMac),
+                MacAddress.of(dstMac));
         return flowId;
     }
 
-    public synchronized LinkedList<MacAddress> getFlowValues(final Integer flowId) {
-        final LinkedList<MacAddress> macList = new LinkedList<MacAddress>();
-        final BigInteger dualMac = this.flowValues.get(flowId);
-        if (dualMac != null) {
-            final MacAddress srcMac = MacAddress.of(dualMac.shiftRight(48).longValue());
-            final MacAddress dstMac = MacAddress.of(dualMac.longValue());
-            macList.add(srcMac);
-            macList.add(dstMac);
+    /**
+     * Gets the MAC address pair of the given flow ID.
+     *
+     * @param flowId the flow ID
+     * @return the source and destination MAC addresses
+     * @throws NetworkMappingException if the flow ID is not allocated, e.g.
+     *             because it was reclaimed
+     */
+    public LinkedList<MacAddress> getFlowValues(final Integer flowId)
+            throws NetworkMappingException {
+        final FlowPair pair = this.getFlowPair(flowId);
+        if (pair == null || !pair.touch()) {
+            throw new NetworkMappingException("Flow ID " + flowId
+                    + " is not allocated in virtual network " + this.tenantId);
         }
+        final LinkedList<MacAddress> macList = new LinkedList<MacAddress>();
+        macList.add(MacAddress.of(pair.srcMac));
+        macList.add(MacAddress.of(pair.dstMac));
         return macList;
     }
 
-    public synchronized Integer getFlowId(final byte[] srcMac, final byte[] dstMac)
+    /**
+     * Gets the flow ID of the given MAC address pair, allocating one if the
+     * pair has none yet.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     * @return the flow ID
+     * @throws DroppedMessageException never, kept for existing callers
+     * @throws IndexOutOfBoundException if no flow ID is left
+     */
+    public Integer getFlowId(final long srcMac, final long dstMac)
             throws DroppedMessageException, IndexOutOfBoundException {
-        final BigInteger dualMac = new BigInteger(ArrayUtils.addAll(srcMac,
-                dstMac));
-        final Integer flowId = this.flowValues.inverse().get(dualMac);
-        if (flowId != null && flowId != 0) {
-            log.debug(
-                    "virtual net = {}: retrieving flowId {} that is associated to {} {}",
-                    this.tenantId, flowId,
-                    MacAddress.of(srcMac).toString(),
-                    MacAddress.of(dstMac).toString());
-            return flowId;
-        } else {
-            // Create new flow ID
-            // TODO: this is probably incorrect if the match is not identical
-            // at both ends of the virtual link
-            return this.storeFlowValues(srcMac, dstMac);
-        }
-    }
-
-    /**
-     * Gets list of all registered MAC addresses in this virtual network.
-     */
-    private List<MacAddress> getMACList() {
-        final List<MacAddress> result = new LinkedList<MacAddress>();
-        for (final Host host : this.hostList) {
-            result.add(host.getMac());
-        }
-        return result;
-    }
-
-    public void boot() throws IndexOutOfBoundException {
-        final List<MacAddress> macList = this.getMACList();
-        for (final MacAddress srcMac : macList) {
-            this.storeFlowValues(srcMac.getBytes(),
-                    MacAddress.of("ff:ff:ff:ff:ff:ff").getBytes());
-            for (final MacAddress dstMac : macList) {
-                if (srcMac.getLong() != dstMac.getLong()) {
-                    this.storeFlowValues(srcMac.getBytes(), dstMac.getBytes());
+        // TODO: this is probably incorrect if the match is not identical
+        // at both ends of the virtual link
+        return this.storeFlowValues(srcMac, dstMac);
+    }
+
+    /**
+     * Gives back the flow IDs of all pairs the given host is part of.
+     *
+     * @param mac the MAC address of the host
+     */
+    public void releaseHost(final long mac) {
+        for (final FlowPair pair : this.flowPairs.entries()) {
+            if (pair.srcMac == mac || pair.dstMac == mac) {
+                pair.retire();
+                this.release(pair);
+            }
+        }
+    }
+
+    /**
+     * Counts a virtual flow mod matching exactly on the given MAC address
+     * pair. The flow ID of the pair is not reclaimed while it is counted.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     */
+    public void retainMatch(final long srcMac, final long dstMac) {
+        synchronized (this.matches) {
+            MatchCount count = this.matches.get(srcMac, dstMac);
+            if (count == null) {
+                count = new MatchCount(srcMac, dstMac);
+                this.matches.putIfAbsent(count);
+            }
+            count.count++;
+        }
+    }
+
+    /**
+     * Uncounts a virtual flow mod counted by
+     * {@link #retainMatch(long, long)}.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     */
+    public void releaseMatch(final long srcMac, final long dstMac) {
+        synchronized (this.matches) {
+            final MatchCount count = this.matches.get(srcMac, dstMac);
+            if (count != null && --count.count == 0) {
+                this.matches.remove(count);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of virtual flow mods matching exactly on the given
+     * MAC address pair.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     * @return the number of flow mods
+     */
+    public int getMatchCount(final long srcMac, final long dstMac) {
+        synchronized (this.matches) {
+            final MatchCount count = this.matches.get(srcMac, dstMac);
+            return count == null ? 0 : count.count;
+        }
+    }
+
+    /**
+     * Starts reclaiming idle flow IDs. Flow IDs themselves are allocated on
+     * demand.
+     */
+    public synchronized void boot() {
+        if (this.reclaim == null) {
+            this.reclaim = RECLAIMER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        OVXFlowManager.this.reclaimIdle(
+                                System.currentTimeMillis() - IDLE_TIMEOUT);
+                    } catch (RuntimeException e) {
+                        // an exception would cancel the following runs
+                        log.error("virtual net = {}: reclaim failed",
+                                OVXFlowManager.this.tenantId, e);
+                    }
+                }
+            }, IDLE_TIMEOUT, IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops reclaiming idle flow IDs.
+     */
+    public synchronized void stop() {
+        if (this.reclaim != null) {
+            this.reclaim.cancel(false);
+            this.reclaim = null;
+        }
+    }
+
+    /**
+     * Gives back the flow IDs that were not used since the given time and
+     * that no virtual flow mod of the tenant matches on.
+     *
+     * @param idleSince the time (in milliseconds) of the last use
+     * @return the number of flow IDs given back
+     */
+    int reclaimIdle(final long idleSince) {
+        int count = 0;
+        for (final FlowPair pair : this.flowPairs.entries()) {
+            final long lastUsed = pair.lastUsed;
+            if (lastUsed > idleSince) {
+                continue;
+            }
+            // broadcast flows are set up per packet, not by flow entries;
+            // retiring fails if the pair was used since it was read
+            if ((pair.dstMac == BROADCAST
+                    || this.getMatchCount(pair.srcMac, pair.dstMac) == 0)
+                    && pair.retire(lastUsed) && this.release(pair)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            log.debug("virtual net = {}: reclaimed {} idle flowIds",
+                    this.tenantId, count);
+        }
+        return count;
+    }
+
+    /**
+     * Removes a retired pair and gives back its flow ID.
+     */
+    private boolean release(final FlowPair pair) {
+        if (!this.flowPairs.remove(pair)) {
+            return false;
+        }
+        this.pageFor(pair.flowId).compareAndSet(
+                pair.flowId & (PAGE_SIZE - 1), pair, null);
+        this.flowCounter.releaseIndex(pair.flowId);
+        log.debug(
+                "virtual net = {}: release flowId = {} that is associated to {} {}",
+                this.tenantId, pair.flowId, MacAddress.of(pair.srcMac),
+                MacAddress.of(pair.dstMac));
+        return true;
+    }
+
+    private FlowPair getFlowPair(final Integer flowId) {
+        if (flowId == null || flowId <= 0) {
+            return null;
+        }
+        final AtomicReferenceArray<FlowPair>[] pages = this.flowIds;
+        final int page = flowId >>> PAGE_SHIFT;
+        if (page >= pages.length || pages[page] == null) {
+            return null;
+        }
+        return pages[page].get(flowId & (PAGE_SIZE - 1));
+    }
+
+    /**
+     * Gets the page holding the given flow ID, adding pages as needed. Only
+     * called on allocation, readers never wait for it.
+     */
+    @SuppressWarnings("unchecked")
+    private AtomicReferenceArray<FlowPair> pageFor(final int flowId) {
+        final int page = flowId >>> PAGE_SHIFT;
+        AtomicReferenceArray<FlowPair>[] pages = this.flowIds;
+        if (page < pages.length && pages[page] != null) {
+            return pages[page];
+        }
+        synchronized (this.pageLock) {
+            pages = this.flowIds;
+            if (page >= pages.length) {
+                final AtomicReferenceArray<FlowPair>[] grown =
+                        (AtomicReferenceArray<FlowPair>[]) new AtomicReferenceArray<?>[Math
+                                .max(page + 1, pages.length * 2)];
+                System.arraycopy(pages, 0, grown, 0, pages.length);
+                pages = grown;
+            }
+            if (pages[page] == null) {
+                pages[page] = new AtomicReferenceArray<FlowPair>(PAGE_SIZE);
+            }
+            this.flowIds = pages;
+            return pages[page];
+        }
+    }
+
+    /**
+     * Source and destination MAC address pair, the key of a
+     * {@link PairTable}.
+     */
+    private abstract static class MacPair {
+        protected final long srcMac;
+        protected final long dstMac;
+        protected final int hash;
+
+        protected MacPair(long srcMac, long dstMac) {
+            this.srcMac = srcMac;
+            this.dstMac = dstMac;
+            this.hash = hash(srcMac, dstMac);
+        }
+
+        private static int hash(final long srcMac, final long dstMac) {
+            final long h = (srcMac * 0x9E3779B97F4A7C15L ^ dstMac)
+                    * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * MAC address pair and its flow ID.
+     */
+    private static final class FlowPair extends MacPair {
+        private static final AtomicLongFieldUpdater<FlowPair> LAST_USED =
+                AtomicLongFieldUpdater.newUpdater(FlowPair.class, "lastUsed");
+
+        private final int flowId;
+        private volatile long lastUsed;
+
+        private FlowPair(long srcMac, long dstMac, int flowId) {
+            super(srcMac, dstMac);
+            this.flowId = flowId;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Records a use of the pair.
+         *
+         * @return false if the pair is retired and its flow ID not usable
+         */
+        private boolean touch() {
+            final long now = System.currentTimeMillis();
+            for (;;) {
+                final long last = this.lastUsed;
+                if (last == RETIRED) {
+                    return false;
+                }
+                if (now - last <= TOUCH_INTERVAL
+                        || LAST_USED.compareAndSet(this, last, now)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Retires the pair if it was not used since the given time was read.
+         */
+        private boolean retire(final long lastUsed) {
+            return LAST_USED.compareAndSet(this, lastUsed, RETIRED);
+        }
+
+        private void retire() {
+            this.lastUsed = RETIRED;
+        }
+    }
+
+    /**
+     * MAC address pair and the number of flow mods matching on it.
+     */
+    private static final class MatchCount extends MacPair {
+        private int count = 0;
+
+        private MatchCount(long srcMac, long dstMac) {
+            super(srcMac, dstMac);
+        }
+    }
+
+    /**
+     * Table of MAC address pairs, looked up by the two addresses without
+     * allocating a key. Pairs are spread over lock-striped segments, each an
+     * open-addressing table with linear probing like the ones of
+     * {@link ConcurrentLongMap}.
+     *
+     * @param <E> the entry type
+     */
+    private static final class PairTable<E extends MacPair> {
+        private static final int SEGMENT_SHIFT = 4;
+        private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final Segment[] segments;
+
+        private PairTable() {
+            this.segments = new Segment[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) {
+                this.segments[i] = new Segment();
+            }
+        }
+
+        private Segment segmentFor(final int hash) {
+            return this.segments[hash >>> (32 - SEGMENT_SHIFT)];
+        }
+
+        @SuppressWarnings("unchecked")
+        private E get(final long srcMac, final long dstMac) {
+            final int hash = MacPair.hash(srcMac, dstMac);
+            return (E) this.segmentFor(hash).get(srcMac, dstMac, hash);
+        }
+
+        /**
+         * Adds the given entry, unless its pair is already in the table.
+         *
+         * @return the entry already in the table, or null
+         */
+        @SuppressWarnings("unchecked")
+        private E putIfAbsent(final E entry) {
+            return (E) this.segmentFor(entry.hash).putIfAbsent(entry);
+        }
+
+        /**
+         * Removes the given entry, but not another entry of the same pair.
+         *
+         * @return true if the entry was removed
+         */
+        private boolean remove(final E entry) {
+            return this.segmentFor(entry.hash).remove(entry);
+        }
+
+        /**
+         * @return a snapshot of the entries
+         */
+        @SuppressWarnings("unchecked")
+        private List<E> entries() {
+            final List<E> entries = new ArrayList<E>();
+            for (final Segment segment : this.segments) {
+                segment.collect((List<MacPair>) (List<?>) entries);
+            }
+            return entries;
+        }
+
+        /**
+         * Open-addressing table guarded by its own monitor. A null slot is
+         * empty; removals shift the following run back so that probing never
+         * needs tombstones.
+         */
+        private static final class Segment {
+            private MacPair[] slots = new MacPair[INITIAL_CAPACITY];
+            private int size = 0;
+
+            private int indexOf(final long srcMac, final long dstMac,
+                    final int hash) {
+                final int mask = this.slots.length - 1;
+                int i = hash & mask;
+                MacPair pair;
+                while ((pair = this.slots[i]) != null) {
+                    if (pair.srcMac == srcMac && pair.dstMac == dstMac) {
+                        return i;
+                    }
+                    i = (i + 1) & mask;
+                }
+                return -1 - i;
+            }
+
+            synchronized MacPair get(final long srcMac, final long dstMac,
+                    final int hash) {
+                final int i = this.indexOf(srcMac, dstMac, hash);
+                return i < 0 ? null : this.slots[i];
+            }
+
+            synchronized MacPair putIfAbsent(final MacPair entry) {
+                int i = this.indexOf(entry.srcMac, entry.dstMac, entry.hash);
+                if (i >= 0) {
+                    return this.slots[i];
+                }
+                if ((this.size + 1) << 2 > this.slots.length * 3) {
+                    this.resize(this.slots.length << 1);
+                    i = this.indexOf(entry.srcMac, entry.dstMac, entry.hash);
+                }
+                this.slots[-1 - i] = entry;
+                this.size++;
+                return null;
+            }
+
+            synchronized boolean remove(final MacPair entry) {
+                int i = this.indexOf(entry.srcMac, entry.dstMac, entry.hash);
+                if (i < 0 || this.slots[i] != entry) {
+                    return false;
+                }
+                final int mask = this.slots.length - 1;
+                // shift back entries whose probe sequence crosses the hole
+                int j = i;
+                while (true) {
+                    j = (j + 1) & mask;
+                    if (this.slots[j] == null) {
+                        break;
+                    }
+                    final int home = this.slots[j].hash & mask;
+                    if (((j - home) & mask) >= ((j - i) & mask)) {
+                        this.slots[i] = this.slots[j];
+                        i = j;
+                    }
+                }
+                this.slots[i] = null;
+                this.size--;
+                return true;
+            }
+
+            synchronized void collect(final List<MacPair> entries) {
+                for (final MacPair pair : this.slots) {
+                    if (pair != null) {
+                        entries.add(pair);
+                    }
+                }
+            }
+
+            private void resize(final int capacity) {
+                final MacPair[] old = this.slots;
+                this.slots = new MacPair[capacity];
+                final int mask = capacity - 1;
+                for (final MacPair pair : old) {
+                    if (pair != null) {
+                        int i = pair.hash & mask;
+                        while (this.slots[i] != null) {
+                            i = (i + 1) & mask;
+                        }
+                        this.slots[i] = pair;
+                    }
                 }
             }
         }
@@ -0,0 +1,706 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.onrc.openvirtex.elements.datapath.XidTranslator;
+
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+/**
+ * Message processing metrics of the hypervisor: latency histograms per
+ * processing stage and OpenFlow message type, message counters per virtual
+ * network and physical switch, and the state of flow recovery, PACKET_IN
+ * admission, the event loop shards and the database journal.
+ * <p>
+ * Callers take a timestamp with {@link #start()} and hand it back to one of
+ * the record methods once the stage is done. When metrics are disabled,
+ * {@link #start()} returns {@link #DISABLED} and nothing is recorded.
+ */
+public final class OVXMetrics {
+
+    /**
+     * Stages of message processing.
+     */
+    public enum Stage {
+        /** Parsing of a message read from a channel. */
+        DECODE,
+        /** Wait in the pipeline executor before processing. */
+        QUEUE,
+        /** Virtualization of a message from a physical switch. */
+        VIRTUALIZE,
+        /** Devirtualization of a message from a tenant controller. */
+        DEVIRTUALIZE,
+        /** Serialization of a message written to a channel. */
+        ENCODE;
+
+        private final String label = this.name().toLowerCase();
+    }
+
+    /**
+     * Admission decisions on a PACKET_IN bound for a tenant controller.
+     */
+    public enum Admission {
+        /** Sent to the controller right away. */
+        ADMITTED,
+        /** Held back, then sent to the controller. */
+        DELAYED,
+        /** Merged into a held back PACKET_IN of the same flow. */
+        AGGREGATED,
+        /** Dropped. */
+        DROPPED,
+        /** Dropped, and a temporary drop rule installed for its flow. */
+        SUPPRESSED;
+
+        private final String label = this.name().toLowerCase();
+    }
+
+    /**
+     * Timestamp returned by {@link #start()} while metrics are disabled.
+     */
+    public static final long DISABLED = Long.MIN_VALUE;
+
+    private static final OFType[] TYPES = OFType.values();
+    private static final Stage[] STAGES = Stage.values();
+    private static final Admission[] ADMISSIONS = Admission.values();
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MICRO = 1e3;
+
+    private static final OVXMetrics INSTANCE = new OVXMetrics();
+
+    private volatile boolean enabled = true;
+    private final AtomicReferenceArray<LatencyHistogram> byType;
+    private final ConcurrentMap<Integer, Counters> tenants;
+    private final ConcurrentLongMap<Counters> switches;
+    private final ConcurrentLongMap<XidTranslator<?>> xids;
+    private final LatencyHistogram recovery;
+    private final AtomicLong recoveredFlows;
+    private final ConcurrentMap<Integer, ShardStats> shards;
+    private volatile AtomicInteger dbBacklog;
+    private final LatencyHistogram dbFlush;
+
+    /**
+     * Message counters and processing latency of a virtual network or
+     * physical switch.
+     */
+    private static final class Counters {
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong sent = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray admissions =
+                new AtomicLongArray(ADMISSIONS.length);
+    }
+
+    /**
+     * Queue depth and wait time of an event loop shard.
+     */
+    private static final class ShardStats {
+        private final AtomicInteger depth;
+        private final LatencyHistogram wait = new LatencyHistogram();
+
+        private ShardStats(final AtomicInteger depth) {
+            this.depth = depth;
+        }
+    }
+
+    private OVXMetrics() {
+        this.byType = new AtomicReferenceArray<LatencyHistogram>(
+                STAGES.length * TYPES.length);
+        this.tenants = new ConcurrentHashMap<Integer, Counters>();
+        this.switches = new ConcurrentLongMap<Counters>();
+        this.xids = new ConcurrentLongMap<XidTranslator<?>>();
+        this.recovery = new LatencyHistogram();
+        this.recoveredFlows = new AtomicLong();
+        this.shards = new ConcurrentHashMap<Integer, ShardStats>();
+        this.dbBacklog = new AtomicInteger();
+        this.dbFlush = new LatencyHistogram();
+    }
+
+    /**
+     * @return the metrics instance
+     */
+    public static OVXMetrics getInstance() {
+        return OVXMetrics.INSTANCE;
+    }
+
+    /**
+     * Enables or disables recording. Values recorded so far are kept.
+     *
+     * @param enabled true to record metrics
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return true if metrics are recorded
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Takes the timestamp that starts a measured stage.
+     *
+     * @return the current {@link System#nanoTime()}, or {@link #DISABLED}
+     */
+    public long start() {
+        return this.enabled ? System.nanoTime() : OVXMetrics.DISABLED;
+    }
+
+    /**
+     * Records the time spent in a stage since the given timestamp.
+     *
+     * @param stage the stage
+     * @param type the type of the processed message
+     * @param start the timestamp returned by {@link #start()}
+     * @return the end timestamp, or {@link #DISABLED} if nothing was
+     *         recorded
+     */
+    public long record(final Stage stage, final OFType type,
+            final long start) {
+        if (start == OVXMetrics.DISABLED) {
+            return OVXMetrics.DISABLED;
+        }
+        final long end = System.nanoTime();
+        this.record(stage, type, start, end);
+        return end;
+    }
+
+    /**
+     * Records the time spent in a stage between two timestamps.
+     *
+     * @param stage the stage
+     * @param type the type of the processed message
+     * @param start the timestamp the stage started at
+     * @param end the timestamp the stage ended at
+     */
+    public void record(final Stage stage, final OFType type,
+            final long start, final long end) {
+        if (start != OVXMetrics.DISABLED && end != OVXMetrics.DISABLED
+                && type != null) {
+            this.histogram(stage, type).record(end - start);
+        }
+    }
+
+    /**
+     * Records the virtualization of a message received from a physical
+     * switch.
+     *
+     * @param dpid the physical datapath ID
+     * @param type the type of the message
+     * @param start the timestamp returned by {@link #start()}
+     */
+    public void recordVirtualize(final long dpid, final OFType type,
+            final long start) {
+        if (start == OVXMetrics.DISABLED) {
+            return;
+        }
+        final long elapsed = System.nanoTime() - start;
+        this.histogram(Stage.VIRTUALIZE, type).record(elapsed);
+        final Counters c = this.switchCounters(dpid);
+        c.received.incrementAndGet();
+        c.latency.record(elapsed);
+    }
+
+    /**
+     * Records the devirtualization of a message received from a tenant
+     * controller.
+     *
+     * @param tenantId the tenant ID
+     * @param type the type of the message
+     * @param start the timestamp returned by {@link #start()}
+     */
+    public void recordDevirtualize(final int tenantId, final OFType type,
+            final long start) {
+        if (start == OVXMetrics.DISABLED) {
+            return;
+        }
+        final long elapsed = System.nanoTime() - start;
+        this.histogram(Stage.DEVIRTUALIZE, type).record(elapsed);
+        final Counters c = this.counters(this.tenants, tenantId);
+        c.received.incrementAndGet();
+        c.latency.record(elapsed);
+    }
+
+    /**
+     * Counts a message sent to a physical switch.
+     *
+     * @param dpid the physical datapath ID
+     */
+    public void countSwitchSent(final long dpid) {
+        if (this.enabled) {
+            this.switchCounters(dpid).sent.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a message sent to the controllers of a virtual network.
+     *
+     * @param tenantId the tenant ID
+     */
+    public void countTenantSent(final int tenantId) {
+        if (this.enabled) {
+            this.counters(this.tenants, tenantId).sent.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts an admission decision on a PACKET_IN bound for the controllers
+     * of a virtual network.
+     *
+     * @param tenantId the tenant ID
+     * @param admission the decision
+     */
+    public void countAdmission(final int tenantId,
+            final Admission admission) {
+        if (this.enabled) {
+            this.counters(this.tenants, tenantId).admissions
+                    .incrementAndGet(admission.ordinal());
+        }
+    }
+
+    /**
+     * Records a flow migration, from the detection of a path change until
+     * the replacement flows of every virtual network were sent.
+     *
+     * @param flows the number of migrated flows
+     * @param start the timestamp returned by {@link #start()}
+     */
+    public void recordRecovery(final int flows, final long start) {
+        if (start == OVXMetrics.DISABLED) {
+            return;
+        }
+        this.recovery.recordSince(start);
+        this.recoveredFlows.addAndGet(flows);
+    }
+
+    /**
+     * Registers an event loop shard.
+     *
+     * @param shard the shard number
+     * @param depth the number of events queued for the shard, maintained
+     *            by the shard
+     */
+    public void addShard(final int shard, final AtomicInteger depth) {
+        this.shards.put(shard, new ShardStats(depth));
+    }
+
+    /**
+     * Drops the metrics of an event loop shard.
+     *
+     * @param shard the shard number
+     */
+    public void removeShard(final int shard) {
+        this.shards.remove(shard);
+    }
+
+    /**
+     * Records the time an event waited in the queue of a shard.
+     *
+     * @param shard the shard number
+     * @param start the timestamp returned by {@link #start()} when the
+     *            event was queued
+     */
+    public void recordShardWait(final int shard, final long start) {
+        if (start == OVXMetrics.DISABLED) {
+            return;
+        }
+        final ShardStats s = this.shards.get(shard);
+        if (s != null) {
+            s.wait.recordSince(start);
+        }
+    }
+
+    /**
+     * Registers the backlog of the database journal.
+     *
+     * @param backlog the number of queued database updates, maintained by
+     *            the journal
+     */
+    public void setDBBacklog(final AtomicInteger backlog) {
+        this.dbBacklog = backlog;
+    }
+
+    /**
+     * Records the time taken to write a batch of database updates.
+     *
+     * @param start the timestamp returned by {@link #start()}
+     */
+    public void recordDBFlush(final long start) {
+        if (start == OVXMetrics.DISABLED) {
+            return;
+        }
+        this.dbFlush.recordSince(start);
+    }
+
+    /**
+     * Registers the XID translator of a physical switch, whose capacity and
+     * lookup counters are reported with the metrics of the switch.
+     *
+     * @param dpid the physical datapath ID
+     * @param translator the translator, maintaining its own counters
+     */
+    public void addXidTranslator(final long dpid,
+            final XidTranslator<?> translator) {
+        this.xids.put(dpid, translator);
+    }
+
+    /**
+     * Drops the metrics of a physical switch.
+     *
+     * @param dpid the physical datapath ID
+     */
+    public void removeSwitch(final long dpid) {
+        this.switches.remove(dpid);
+        this.xids.remove(dpid);
+    }
+
+    /**
+     * Drops the metrics of a virtual network.
+     *
+     * @param tenantId the tenant ID
+     */
+    public void removeTenant(final int tenantId) {
+        this.tenants.remove(tenantId);
+    }
+
+    /**
+     * Clears all recorded metrics.
+     */
+    public void reset() {
+        for (int i = 0; i < this.byType.length(); i++) {
+            this.byType.set(i, null);
+        }
+        this.tenants.clear();
+        this.switches.clear();
+        this.recovery.reset();
+        this.recoveredFlows.set(0);
+        for (final ShardStats s : this.shards.values()) {
+            s.wait.reset();
+        }
+        this.dbFlush.reset();
+    }
+
+    private LatencyHistogram histogram(final Stage stage, final OFType type) {
+        final int index = stage.ordinal() * TYPES.length + type.ordinal();
+        LatencyHistogram h = this.byType.get(index);
+        if (h == null) {
+            this.byType.compareAndSet(index, null, new LatencyHistogram());
+            h = this.byType.get(index);
+        }
+        return h;
+    }
+
+    private <K> Counters counters(final ConcurrentMap<K, Counters> map,
+            final K key) {
+        Counters c = map.get(key);
+        if (c == null) {
+            final Counters added = map.putIfAbsent(key, new Counters());
+            c = added == null ? map.get(key) : added;
+        }
+        return c;
+    }
+
+    private Counters switchCounters(final long dpid) {
+        Counters c = this.switches.get(dpid);
+        if (c == null) {
+            final Counters added = this.switches.putIfAbsent(dpid,
+                    new Counters());
+            c = added == null ? this.switches.get(dpid) : added;
+        }
+        return c;
+    }
+
+    /**
+     * Gets the metrics as nested maps, suitable for a JSON response.
+     * Latencies are in microseconds.
+     *
+     * @return the metrics
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> types = new TreeMap<String, Object>();
+        for (final OFType type : TYPES) {
+            final Map<String, Object> stages =
+                    new LinkedHashMap<String, Object>();
+            for (final Stage stage : STAGES) {
+                final LatencyHistogram h = this.byType.get(stage.ordinal()
+                        * TYPES.length + type.ordinal());
+                if (h != null && h.getCount() > 0) {
+                    stages.put(stage.label, summary(h));
+                }
+            }
+            if (!stages.isEmpty()) {
+                types.put(type.name(), stages);
+            }
+        }
+
+        final Map<String, Object> tenantMap = new TreeMap<String, Object>();
+        for (final Map.Entry<Integer, Counters> e : this.tenants.entrySet()) {
+            final Map<String, Object> m = counterMap(e.getValue(),
+                    Stage.DEVIRTUALIZE);
+            final Map<String, Object> admissions =
+                    new LinkedHashMap<String, Object>();
+            for (final Admission admission : ADMISSIONS) {
+                admissions.put(admission.label, e.getValue().admissions
+                        .get(admission.ordinal()));
+            }
+            m.put("packetIn", admissions);
+            tenantMap.put(e.getKey().toString(), m);
+        }
+        final Map<String, Object> switchMap = new TreeMap<String, Object>();
+        for (final long key : this.switches.keys()) {
+            final Counters c = this.switches.get(key);
+            if (c != null) {
+                switchMap.put(DatapathId.of(key).toString(),
+                        counterMap(c, Stage.VIRTUALIZE));
+            }
+        }
+        for (final long key : this.xids.keys()) {
+            final XidTranslator<?> translator = this.xids.get(key);
+            if (translator == null) {
+                continue;
+            }
+            final String dpid = DatapathId.of(key).toString();
+            @SuppressWarnings("unchecked")
+            Map<String, Object> m = (Map<String, Object>) switchMap.get(dpid);
+            if (m == null) {
+                m = new LinkedHashMap<String, Object>();
+                switchMap.put(dpid, m);
+            }
+            m.put("xid", xidMap(translator));
+        }
+
+        final Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("enabled", this.enabled);
+        result.put("types", types);
+        result.put("tenants", tenantMap);
+        result.put("switches", switchMap);
+        final Map<String, Object> recoveryMap = summary(this.recovery);
+        recoveryMap.put("flows", this.recoveredFlows.get());
+        result.put("recovery", recoveryMap);
+        final Map<String, Object> shardMap = new TreeMap<String, Object>();
+        for (final Map.Entry<Integer, ShardStats> e : this.shards.entrySet()) {
+            final Map<String, Object> m = new LinkedHashMap<String, Object>();
+            m.put("depth", e.getValue().depth.get());
+            m.put("wait", summary(e.getValue().wait));
+            shardMap.put(e.getKey().toString(), m);
+        }
+        result.put("shards", shardMap);
+        final Map<String, Object> dbMap = new LinkedHashMap<String, Object>();
+        dbMap.put("backlog", this.dbBacklog.get());
+        dbMap.put("flush", summary(this.dbFlush));
+        result.put("db", dbMap);
+        return result;
+    }
+
+    private static Map<String, Object> counterMap(final Counters c,
+            final Stage stage) {
+        final Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("received", c.received.get());
+        m.put("sent", c.sent.get());
+        m.put(stage.label, summary(c.latency));
+        return m;
+    }
+
+    private static Map<String, Object> xidMap(
+            final XidTranslator<?> translator) {
+        final Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("capacity", translator.getCapacity());
+        m.put("hits", translator.getHits());
+        m.put("misses", translator.getMisses());
+        m.put("expired", translator.getExpired());
+        return m;
+    }
+
+    private static Map<String, Object> summary(final LatencyHistogram h) {
+        final Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("count", h.getCount());
+        m.put("mean", h.getMean() / NANOS_PER_MICRO);
+        m.put("p50", h.getPercentile(0.5) / NANOS_PER_MICRO);
+        m.put("p99", h.getPercentile(0.99) / NANOS_PER_MICRO);
+        m.put("p999", h.getPercentile(0.999) / NANOS_PER_MICRO);
+        m.put("max", h.getMax() / NANOS_PER_MICRO);
+        return m;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     * Latencies are in seconds.
+     *
+     * @param out the writer
+     */
+    public void writeText(final PrintWriter out) {
+        out.println("# HELP ovx_message_seconds Time spent per processing"
+                + " stage and message type");
+        out.println("# TYPE ovx_message_seconds summary");
+        for (final Stage stage : STAGES) {
+            for (final OFType type : TYPES) {
+                final LatencyHistogram h = this.byType.get(stage.ordinal()
+                        * TYPES.length + type.ordinal());
+                if (h != null && h.getCount() > 0) {
+                    writeSummary(out, "ovx_message_seconds", "stage=\""
+                            + stage.label + "\",type=\"" + type.name() + "\"",
+                            h);
+                }
+            }
+        }
+
+        out.println("# HELP ovx_tenant_messages_total Messages exchanged"
+                + " with the controllers of a virtual network");
+        out.println("# TYPE ovx_tenant_messages_total counter");
+        for (final Map.Entry<Integer, Counters> e : this.tenants.entrySet()) {
+            writeCounters(out, "ovx_tenant_messages_total", "tenant=\""
+                    + e.getKey() + "\"", e.getValue());
+        }
+        out.println("# HELP ovx_tenant_devirtualize_seconds Time spent"
+                + " devirtualizing the messages of a virtual network");
+        out.println("# TYPE ovx_tenant_devirtualize_seconds summary");
+        for (final Map.Entry<Integer, Counters> e : this.tenants.entrySet()) {
+            writeSummary(out, "ovx_tenant_devirtualize_seconds", "tenant=\""
+                    + e.getKey() + "\"", e.getValue().latency);
+        }
+        out.println("# HELP ovx_tenant_packet_in_total Admission decisions on"
+                + " the PACKET_INs bound for a virtual network");
+        out.println("# TYPE ovx_tenant_packet_in_total counter");
+        for (final Map.Entry<Integer, Counters> e : this.tenants.entrySet()) {
+            for (final Admission admission : ADMISSIONS) {
+                out.println("ovx_tenant_packet_in_total{tenant=\""
+                        + e.getKey() + "\",admission=\"" + admission.label
+                        + "\"} " + e.getValue().admissions
+                        .get(admission.ordinal()));
+            }
+        }
+
+        out.println("# HELP ovx_switch_messages_total Messages exchanged"
+                + " with a physical switch");
+        out.println("# TYPE ovx_switch_messages_total counter");
+        for (final long dpid : this.switches.keys()) {
+            final Counters c = this.switches.get(dpid);
+            if (c != null) {
+                writeCounters(out, "ovx_switch_messages_total", "dpid=\""
+                        + DatapathId.of(dpid) + "\"", c);
+            }
+        }
+        out.println("# HELP ovx_switch_virtualize_seconds Time spent"
+                + " virtualizing the messages of a physical switch");
+        out.println("# TYPE ovx_switch_virtualize_seconds summary");
+        for (final long dpid : this.switches.keys()) {
+            final Counters c = this.switches.get(dpid);
+            if (c != null) {
+                writeSummary(out, "ovx_switch_virtualize_seconds", "dpid=\""
+                        + DatapathId.of(dpid) + "\"", c.latency);
+            }
+        }
+        out.println("# HELP ovx_switch_xid_capacity XID translations kept"
+                + " for a physical switch");
+        out.println("# TYPE ovx_switch_xid_capacity gauge");
+        for (final long dpid : this.xids.keys()) {
+            final XidTranslator<?> translator = this.xids.get(dpid);
+            if (translator != null) {
+                out.println("ovx_switch_xid_capacity{dpid=\""
+                        + DatapathId.of(dpid) + "\"} "
+                        + translator.getCapacity());
+            }
+        }
+        out.println("# HELP ovx_switch_xid_lookups_total XID translation"
+                + " lookups of the replies of a physical switch");
+        out.println("# TYPE ovx_switch_xid_lookups_total counter");
+        for (final long dpid : this.xids.keys()) {
+            final XidTranslator<?> translator = this.xids.get(dpid);
+            if (translator == null) {
+                continue;
+            }
+            final String prefix = "ovx_switch_xid_lookups_total{dpid=\""
+                    + DatapathId.of(dpid) + "\",result=";
+            out.println(prefix + "\"hit\"} " + translator.getHits());
+            out.println(prefix + "\"miss\"} " + translator.getMisses());
+            out.println(prefix + "\"expired\"} "
+                    + translator.getExpired());
+        }
+
+        out.println("# HELP ovx_recovery_seconds Time taken to move the flows"
+                + " of a failed or restored path");
+        out.println("# TYPE ovx_recovery_seconds summary");
+        writeSummary(out, "ovx_recovery_seconds", "", this.recovery);
+        out.println("# HELP ovx_recovery_flows_total Flows moved to a new"
+                + " path");
+        out.println("# TYPE ovx_recovery_flows_total counter");
+        out.println("ovx_recovery_flows_total " + this.recoveredFlows.get());
+
+        out.println("# HELP ovx_shard_queue_depth Events queued for an event"
+                + " loop shard");
+        out.println("# TYPE ovx_shard_queue_depth gauge");
+        for (final Map.Entry<Integer, ShardStats> e : this.shards.entrySet()) {
+            out.println("ovx_shard_queue_depth{shard=\"" + e.getKey()
+                    + "\"} " + e.getValue().depth.get());
+        }
+        out.println("# HELP ovx_shard_wait_seconds Time events wait in the"
+                + " queue of an event loop shard");
+        out.println("# TYPE ovx_shard_wait_seconds summary");
+        for (final Map.Entry<Integer, ShardStats> e : this.shards.entrySet()) {
+            writeSummary(out, "ovx_shard_wait_seconds", "shard=\""
+                    + e.getKey() + "\"", e.getValue().wait);
+        }
+
+        out.println("# HELP ovx_db_backlog Database updates queued or being"
+                + " written");
+        out.println("# TYPE ovx_db_backlog gauge");
+        out.println("ovx_db_backlog " + this.dbBacklog.get());
+        out.println("# HELP ovx_db_flush_seconds Time taken to write a batch"
+                + " of database updates");
+        out.println("# TYPE ovx_db_flush_seconds summary");
+        writeSummary(out, "ovx_db_flush_seconds", "", this.dbFlush);
+        out.flush();
+    }
+
+    private static void writeCounters(final PrintWriter out,
+            final String name, final String labels, final Counters c) {
+        out.println(name + "{" + labels + ",direction=\"received\"} "
+                + c.received.get());
+        out.println(name + "{" + labels + ",direction=\"sent\"} "
+                + c.sent.get());
+    }
+
+    private static void writeSummary(final PrintWriter out, final String name,
+            final String labels, final LatencyHistogram h) {
+        final String prefix = labels.isEmpty() ? "" : labels + ",";
+        final String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        for (final double q : QUANTILES) {
+            out.println(name + "{" + prefix + "quantile=\"" + q + "\"} "
+                    + h.getPercentile(q) / NANOS_PER_SECOND);
+        }
+        out.println(name + "_sum" + suffix + " " + h.getSum()
+                / NANOS_PER_SECOND);
+        out.println(name + "_count" + suffix + " " + h.getCount());
+    }
+}
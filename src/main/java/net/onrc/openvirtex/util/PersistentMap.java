@@ -0,0 +1,569 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable hash map whose updates return a new map sharing all but the
+ * changed path with this one. The map is a hash array mapped trie: each
+ * branch holds up to 32 children selected by 5 bits of the key hash, so
+ * an update copies at most one small node per level instead of the whole
+ * table.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class PersistentMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_DEPTH = 32 / BITS + 2;
+
+    private static final PersistentMap<Object, Object> EMPTY =
+            new PersistentMap<Object, Object>(null, 0);
+
+    // null, a Leaf, a Collision or a Branch
+    private final Object root;
+    private final int size;
+    private final Map<K, V> map;
+    private final Set<K> keys;
+
+    private PersistentMap(final Object root, final int size) {
+        this.root = root;
+        this.size = size;
+        this.map = new MapView();
+        this.keys = new KeyView();
+    }
+
+    /**
+     * Gets the empty map.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @return the number of mappings
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return true if the map has no mappings
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Gets the value mapped to a key.
+     *
+     * @param key the key
+     * @return the value, or null if the key is unknown
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final Object key) {
+        final Leaf leaf = find(this.root, hash(key), key, 0);
+        return leaf == null ? null : (V) leaf.value;
+    }
+
+    /**
+     * Checks if a key is mapped.
+     *
+     * @param key the key
+     * @return true if the key is mapped
+     */
+    public boolean containsKey(final Object key) {
+        return find(this.root, hash(key), key, 0) != null;
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the updated map, or this one if the mapping exists
+     */
+    public PersistentMap<K, V> plus(final K key, final V value) {
+        final boolean[] added = new boolean[1];
+        final Object r = put(this.root, hash(key), key, value, 0, added);
+        if (r == this.root) {
+            return this;
+        }
+        return new PersistentMap<K, V>(r, added[0] ? this.size + 1
+                : this.size);
+    }
+
+    /**
+     * Removes the mapping of a key.
+     *
+     * @param key the key
+     * @return the updated map, or this one if the key is unknown
+     */
+    public PersistentMap<K, V> minus(final Object key) {
+        final Object r = remove(this.root, hash(key), key, 0);
+        if (r == this.root) {
+            return this;
+        }
+        return new PersistentMap<K, V>(r, this.size - 1);
+    }
+
+    /**
+     * @return an unmodifiable map view of this map
+     */
+    public Map<K, V> asMap() {
+        return this.map;
+    }
+
+    /**
+     * @return an unmodifiable set view of the keys
+     */
+    public Set<K> keySet() {
+        return this.keys;
+    }
+
+    private static int hash(final Object key) {
+        final int h = key == null ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean eq(final Object a, final Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    private static int bit(final int hash, final int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Leaf find(final Object node, final int hash,
+            final Object key, final int shift) {
+        Object n = node;
+        int s = shift;
+        while (n != null) {
+            if (n instanceof Branch) {
+                final Branch b = (Branch) n;
+                final int bit = bit(hash, s);
+                if ((b.bitmap & bit) == 0) {
+                    return null;
+                }
+                n = b.children[b.index(bit)];
+                s += BITS;
+            } else if (n instanceof Leaf) {
+                final Leaf l = (Leaf) n;
+                return l.hash == hash && eq(l.key, key) ? l : null;
+            } else {
+                final Collision c = (Collision) n;
+                return c.hash == hash ? c.find(key) : null;
+            }
+        }
+        return null;
+    }
+
+    private static Object put(final Object node, final int hash,
+            final Object key, final Object value, final int shift,
+            final boolean[] added) {
+        if (node == null) {
+            added[0] = true;
+            return new Leaf(hash, key, value);
+        }
+        if (node instanceof Branch) {
+            final Branch b = (Branch) node;
+            final int bit = bit(hash, shift);
+            final int idx = b.index(bit);
+            if ((b.bitmap & bit) == 0) {
+                added[0] = true;
+                return b.insert(bit, idx, new Leaf(hash, key, value));
+            }
+            final Object child = b.children[idx];
+            final Object c = put(child, hash, key, value, shift + BITS, added);
+            return c == child ? b : b.replace(idx, c);
+        }
+        if (node instanceof Leaf) {
+            final Leaf l = (Leaf) node;
+            if (l.hash == hash && eq(l.key, key)) {
+                return l.value == value ? l : new Leaf(hash, key, value);
+            }
+            added[0] = true;
+            if (l.hash == hash) {
+                return new Collision(hash, new Leaf[] {l,
+                        new Leaf(hash, key, value)});
+            }
+            return merge(l, l.hash, new Leaf(hash, key, value), hash, shift);
+        }
+        final Collision c = (Collision) node;
+        if (c.hash != hash) {
+            added[0] = true;
+            return merge(c, c.hash, new Leaf(hash, key, value), hash, shift);
+        }
+        final Object r = c.put(key, value);
+        added[0] = ((Collision) r).leaves.length > c.leaves.length;
+        return r;
+    }
+
+    private static Object merge(final Object a, final int hashA,
+            final Object b, final int hashB, final int shift) {
+        final int bitA = bit(hashA, shift);
+        final int bitB = bit(hashB, shift);
+        if (bitA == bitB) {
+            return new Branch(bitA, new Object[] {merge(a, hashA, b, hashB,
+                    shift + BITS)});
+        }
+        // children are ordered by their bit position
+        final Object[] children = (bitA & (bitB - 1)) != 0 ? new Object[] {
+                a, b} : new Object[] {b, a};
+        return new Branch(bitA | bitB, children);
+    }
+
+    private static Object remove(final Object node, final int hash,
+            final Object key, final int shift) {
+        if (node == null) {
+            return null;
+        }
+        if (node instanceof Leaf) {
+            final Leaf l = (Leaf) node;
+            return l.hash == hash && eq(l.key, key) ? null : l;
+        }
+        if (node instanceof Collision) {
+            final Collision c = (Collision) node;
+            return c.hash == hash ? c.remove(key) : c;
+        }
+        final Branch b = (Branch) node;
+        final int bit = bit(hash, shift);
+        if ((b.bitmap & bit) == 0) {
+            return b;
+        }
+        final int idx = b.index(bit);
+        final Object child = b.children[idx];
+        final Object c = remove(child, hash, key, shift + BITS);
+        if (c == child) {
+            return b;
+        }
+        if (c == null) {
+            if (b.children.length == 1) {
+                return null;
+            }
+            if (b.children.length == 2
+                    && !(b.children[1 - idx] instanceof Branch)) {
+                // a lone leaf can move up to the parent slot
+                return b.children[1 - idx];
+            }
+            return b.delete(bit, idx);
+        }
+        if (b.children.length == 1 && !(c instanceof Branch)) {
+            return c;
+        }
+        return b.replace(idx, c);
+    }
+
+    private static final class Leaf implements Map.Entry<Object, Object> {
+        final int hash;
+        final Object key;
+        final Object value;
+
+        Leaf(final int hash, final Object key, final Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return this.key;
+        }
+
+        @Override
+        public Object getValue() {
+            return this.value;
+        }
+
+        @Override
+        public Object setValue(final Object v) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return eq(this.key, e.getKey()) && eq(this.value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.key == null ? 0 : this.key.hashCode())
+                    ^ (this.value == null ? 0 : this.value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    // leaves whose keys have the same full hash
+    private static final class Collision {
+        final int hash;
+        final Leaf[] leaves;
+
+        Collision(final int hash, final Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        Leaf find(final Object key) {
+            for (final Leaf l : this.leaves) {
+                if (eq(l.key, key)) {
+                    return l;
+                }
+            }
+            return null;
+        }
+
+        Object put(final Object key, final Object value) {
+            final int n = this.leaves.length;
+            for (int i = 0; i < n; i++) {
+                if (eq(this.leaves[i].key, key)) {
+                    if (this.leaves[i].value == value) {
+                        return this;
+                    }
+                    final Leaf[] copy = this.leaves.clone();
+                    copy[i] = new Leaf(this.hash, key, value);
+                    return new Collision(this.hash, copy);
+                }
+            }
+            final Leaf[] copy = new Leaf[n + 1];
+            System.arraycopy(this.leaves, 0, copy, 0, n);
+            copy[n] = new Leaf(this.hash, key, value);
+            return new Collision(this.hash, copy);
+        }
+
+        Object remove(final Object key) {
+            final int n = this.leaves.length;
+            for (int i = 0; i < n; i++) {
+                if (eq(this.leaves[i].key, key)) {
+                    if (n == 2) {
+                        return this.leaves[1 - i];
+                    }
+                    final Leaf[] copy = new Leaf[n - 1];
+                    System.arraycopy(this.leaves, 0, copy, 0, i);
+                    System.arraycopy(this.leaves, i + 1, copy, i, n - i - 1);
+                    return new Collision(this.hash, copy);
+                }
+            }
+            return this;
+        }
+    }
+
+    private static final class Branch {
+        final int bitmap;
+        final Object[] children;
+
+        Branch(final int bitmap, final Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        int index(final int bit) {
+            return Integer.bitCount(this.bitmap & (bit - 1));
+        }
+
+        Branch insert(final int bit, final int idx, final Object child) {
+            final int n = this.children.length;
+            final Object[] copy = new Object[n + 1];
+            System.arraycopy(this.children, 0, copy, 0, idx);
+            copy[idx] = child;
+            System.arraycopy(this.children, idx, copy, idx + 1, n - idx);
+            return new Branch(this.bitmap | bit, copy);
+        }
+
+        Branch replace(final int idx, final Object child) {
+            final Object[] copy = this.children.clone();
+            copy[idx] = child;
+            return new Branch(this.bitmap, copy);
+        }
+
+        Branch delete(final int bit, final int idx) {
+            final int n = this.children.length;
+            final Object[] copy = new Object[n - 1];
+            System.arraycopy(this.children, 0, copy, 0, idx);
+            System.arraycopy(this.children, idx + 1, copy, idx, n - idx - 1);
+            return new Branch(this.bitmap & ~bit, copy);
+        }
+    }
+
+    // walks the leaves depth first
+    private static final class LeafIterator implements Iterator<Leaf> {
+        private final Object[][] arrays = new Object[MAX_DEPTH + 1][];
+        private final int[] pos = new int[MAX_DEPTH + 1];
+        private int depth = -1;
+        private Leaf[] collision;
+        private int collisionPos;
+        private Leaf next;
+
+        LeafIterator(final Object root) {
+            if (root != null) {
+                this.arrays[0] = new Object[] {root};
+                this.depth = 0;
+            }
+            this.advance();
+        }
+
+        private void advance() {
+            this.next = null;
+            if (this.collision != null
+                    && this.collisionPos < this.collision.length) {
+                this.next = this.collision[this.collisionPos++];
+                return;
+            }
+            this.collision = null;
+            while (this.depth >= 0) {
+                final Object[] array = this.arrays[this.depth];
+                if (this.pos[this.depth] == array.length) {
+                    this.depth--;
+                    continue;
+                }
+                final Object n = array[this.pos[this.depth]++];
+                if (n instanceof Branch) {
+                    this.depth++;
+                    this.arrays[this.depth] = ((Branch) n).children;
+                    this.pos[this.depth] = 0;
+                } else if (n instanceof Collision) {
+                    this.collision = ((Collision) n).leaves;
+                    this.collisionPos = 1;
+                    this.next = this.collision[0];
+                    return;
+                } else {
+                    this.next = (Leaf) n;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public Leaf next() {
+            final Leaf l = this.next;
+            if (l == null) {
+                throw new NoSuchElementException();
+            }
+            this.advance();
+            return l;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final class MapView extends AbstractMap<K, V> {
+        private final Set<Map.Entry<K, V>> entries =
+                new AbstractSet<Map.Entry<K, V>>() {
+                    @Override
+                    @SuppressWarnings({"unchecked", "rawtypes"})
+                    public Iterator<Map.Entry<K, V>> iterator() {
+                        return (Iterator) new LeafIterator(
+                                PersistentMap.this.root);
+                    }
+
+                    @Override
+                    public int size() {
+                        return PersistentMap.this.size;
+                    }
+                };
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return this.entries;
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return PersistentMap.this.keys;
+        }
+
+        @Override
+        public int size() {
+            return PersistentMap.this.size;
+        }
+
+        @Override
+        public V get(final Object key) {
+            return PersistentMap.this.get(key);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return PersistentMap.this.containsKey(key);
+        }
+    }
+
+    private final class KeyView extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            final LeafIterator it = new LeafIterator(PersistentMap.this.root);
+            return new Iterator<K>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public K next() {
+                    return (K) it.next().key;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return PersistentMap.this.size;
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return PersistentMap.this.containsKey(o);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+
+/**
+ * Checks that {@link EventShards} runs the events of a shard in order on
+ * its own thread, pins connections to shards, and stops reading from a
+ * channel while its shard is too far behind.
+ */
+public class EventShardsTest extends TestCase {
+
+    private EventShards shards;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.shards != null) {
+            this.shards.shutdown();
+        }
+    }
+
+    public void testEventsRunInOrder() throws Exception {
+        this.shards = new EventShards(2);
+        final int events = 10000;
+        final List<Integer> order = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        final Set<String> threads = Collections
+                .synchronizedSet(new HashSet<String>());
+        final CountDownLatch done = new CountDownLatch(events);
+        final Executor shard = this.shards.next();
+        for (int i = 0; i < events; i++) {
+            final int event = i;
+            shard.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(event);
+                    threads.add(Thread.currentThread().getName());
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < events; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        assertEquals(1, threads.size());
+        assertTrue(threads.iterator().next().startsWith("EventShard-"));
+    }
+
+    public void testFailedEventDoesNotStopShard() throws Exception {
+        this.shards = new EventShards(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Executor shard = this.shards.next();
+        shard.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("test");
+            }
+        });
+        shard.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    public void testConnectionsSpreadOverShards() {
+        this.shards = new EventShards(3);
+        assertEquals(3, this.shards.size());
+        final Set<Executor> used = new HashSet<Executor>();
+        final Executor first = this.shards.next();
+        used.add(first);
+        used.add(this.shards.next());
+        used.add(this.shards.next());
+        assertEquals(3, used.size());
+        assertSame(first, this.shards.next());
+    }
+
+    public void testDefaultShardCount() {
+        this.shards = new EventShards(0);
+        assertTrue(this.shards.size() >= 2);
+    }
+
+    public void testVirtualSwitchPinnedToOneShard() {
+        // virtual switches size their flow table from the settings
+        new OpenVirteXController(new CmdLineSettings());
+        OVXMap.reset();
+        this.shards = new EventShards(4);
+        final Executor shard = this.shards.forSwitch(new OVXSingleSwitch(
+                0x100L, 1));
+        assertSame(shard, this.shards.forSwitch(new OVXSingleSwitch(0x100L,
+                1)));
+        OVXMap.reset();
+    }
+
+    public void testShutdownRejectsEvents() {
+        this.shards = new EventShards(1);
+        final Executor shard = this.shards.next();
+        this.shards.shutdown();
+        try {
+            shard.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("Shut down shard accepted an event");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    public void testBackpressure() throws Exception {
+        this.shards = new EventShards(1);
+        final int events = EventShards.HIGH_WATERMARK + 10;
+        final CountDownLatch suspended = new CountDownLatch(1);
+        final CountDownLatch resumed = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(events);
+        final Set<String> threads = Collections
+                .synchronizedSet(new HashSet<String>());
+        // records the read interest requested instead of applying it
+        final ChannelPipeline pipeline = Channels.pipeline();
+        pipeline.addLast("interest", new SimpleChannelDownstreamHandler() {
+            @Override
+            public void setInterestOpsRequested(
+                    final ChannelHandlerContext ctx,
+                    final ChannelStateEvent e) {
+                if (((Integer) e.getValue() & Channel.OP_READ) == 0) {
+                    threads.add(Thread.currentThread().getName());
+                    suspended.countDown();
+                } else {
+                    resumed.countDown();
+                }
+                e.getFuture().setSuccess();
+            }
+        });
+        final Executor shard = this.shards.next();
+        pipeline.addLast("shard", this.shards.newHandler(shard));
+        pipeline.addLast("receiver", new SimpleChannelUpstreamHandler() {
+            @Override
+            public void messageReceived(final ChannelHandlerContext ctx,
+                    final MessageEvent e) {
+                received.countDown();
+            }
+        });
+        final Channel channel = new DefaultLocalClientChannelFactory()
+                .newChannel(pipeline);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        shard.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        // the test thread plays the I/O thread of the channel
+        for (int i = 0; i < events; i++) {
+            Channels.fireMessageReceived(channel, i);
+        }
+        assertEquals(0, suspended.getCount());
+        assertEquals(1, resumed.getCount());
+        assertTrue(threads.contains(Thread.currentThread().getName()));
+
+        gate.countDown();
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertTrue(resumed.await(10, TimeUnit.SECONDS));
+    }
+
+    public void testWritesRunOnChannelShard() throws Exception {
+        this.shards = new EventShards(2);
+        final Executor shard = this.shards.next();
+        final List<String> writers = Collections
+                .synchronizedList(new ArrayList<String>());
+        final CountDownLatch written = new CountDownLatch(2);
+        final ChannelPipeline pipeline = Channels.pipeline();
+        pipeline.addLast("writer", new SimpleChannelDownstreamHandler() {
+            @Override
+            public void writeRequested(final ChannelHandlerContext ctx,
+                    final MessageEvent e) {
+                writers.add(Thread.currentThread().getName());
+                e.getFuture().setSuccess();
+                written.countDown();
+            }
+        });
+        pipeline.addLast("shard", this.shards.newHandler(shard));
+        final Channel channel = new DefaultLocalClientChannelFactory()
+                .newChannel(pipeline);
+        assertSame(shard, EventShards.shardOf(channel));
+        assertFalse(EventShards.inShard(shard));
+
+        // a write from another shard is passed to the shard of the channel
+        this.shards.next().execute(new Runnable() {
+            @Override
+            public void run() {
+                channel.write("peer");
+            }
+        });
+        shard.execute(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(EventShards.inShard(shard));
+                channel.write("own");
+            }
+        });
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        assertEquals(2, writers.size());
+        assertEquals(writers.get(0), writers.get(1));
+        assertTrue(writers.get(0).startsWith("EventShard-"));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.messages.OVXMessage;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.projectfloodlight.openflow.exceptions.OFParseError;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+/**
+ * Checks that the {@link OVXMessageDecoder} delimits frames by their header
+ * length, whatever way they are split over reads, and that a malformed
+ * frame only costs that frame.
+ */
+public class OVXMessageDecoderTest extends TestCase {
+
+    // a complete OpenFlow 1.0 header with an unknown message type
+    private static final byte[] MALFORMED = {1, (byte) 0xfe, 0, 8, 0, 0, 0,
+            9};
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+    private final List<Throwable> errors = new ArrayList<Throwable>();
+    private DecoderEmbedder<Object> decoder;
+
+    @Override
+    protected void setUp() throws Exception {
+        // records the errors reported by the decoder instead of failing
+        this.decoder = new DecoderEmbedder<Object>(new OVXMessageDecoder(),
+                new SimpleChannelUpstreamHandler() {
+                    @Override
+                    public void exceptionCaught(
+                            final ChannelHandlerContext ctx,
+                            final ExceptionEvent e) {
+                        OVXMessageDecoderTest.this.errors.add(e.getCause());
+                    }
+                });
+    }
+
+    /**
+     * Serializes echo requests with the given xids, back to back.
+     */
+    private ChannelBuffer echoes(final int... xids) {
+        final ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        for (final int xid : xids) {
+            this.factory.buildEchoRequest().setXid(xid)
+                    .setData(new byte[] {1, 2, 3}).build().writeTo(buf);
+        }
+        return buf;
+    }
+
+    private void offer(final ChannelBuffer... reads) {
+        for (final ChannelBuffer read : reads) {
+            this.decoder.offer(read);
+        }
+    }
+
+    /**
+     * Collects the xids of the messages decoded so far.
+     */
+    private List<Long> decoded() {
+        final List<Long> xids = new ArrayList<Long>();
+        Object product;
+        while ((product = this.decoder.poll()) != null) {
+            for (final Object msg : (List<?>) product) {
+                xids.add(((OVXMessage) msg).getOFMessage().getXid());
+            }
+        }
+        return xids;
+    }
+
+    public void testSplitFrame() {
+        final ChannelBuffer frame = this.echoes(1);
+        final int length = frame.readableBytes();
+        for (int i = 0; i < length - 1; i++) {
+            this.offer(frame.readBytes(1));
+            assertTrue(this.decoded().isEmpty());
+        }
+        this.offer(frame.readBytes(1));
+        assertEquals(Arrays.asList(1L), this.decoded());
+        assertTrue(this.errors.isEmpty());
+    }
+
+    public void testPartialHeader() {
+        final ChannelBuffer frame = this.echoes(1);
+        this.offer(frame.readBytes(3));
+        assertTrue(this.decoded().isEmpty());
+        this.offer(frame);
+        assertEquals(Arrays.asList(1L), this.decoded());
+    }
+
+    public void testConcatenatedFrames() {
+        final ChannelBuffer read = this.echoes(1, 2, 3, 4);
+        // the last frame is cut in the middle
+        final int cut = read.readableBytes() - 5;
+        this.offer(read.readBytes(cut));
+        assertEquals(Arrays.asList(1L, 2L, 3L), this.decoded());
+        this.offer(read);
+        assertEquals(Arrays.asList(4L), this.decoded());
+        assertTrue(this.errors.isEmpty());
+    }
+
+    public void testMalformedFrameSkipped() {
+        this.offer(ChannelBuffers.wrappedBuffer(this.echoes(1),
+                ChannelBuffers.wrappedBuffer(MALFORMED), this.echoes(2, 3)));
+        assertEquals(Arrays.asList(1L, 2L, 3L), this.decoded());
+        assertEquals(1, this.errors.size());
+        assertTrue(this.errors.get(0) instanceof OFParseError);
+    }
+
+    public void testMalformedFirstFrame() {
+        // the frame behind the malformed one only arrives partly
+        final ChannelBuffer next = this.echoes(1, 2);
+        final int cut = next.readableBytes() - 5;
+        this.offer(ChannelBuffers.wrappedBuffer(
+                ChannelBuffers.wrappedBuffer(MALFORMED), next.readBytes(cut)));
+        assertEquals(Arrays.asList(1L), this.decoded());
+        assertEquals(1, this.errors.size());
+
+        this.offer(next);
+        assertEquals(Arrays.asList(2L), this.decoded());
+        assertEquals(1, this.errors.size());
+    }
+
+    public void testMalformedOnlyFrame() {
+        this.offer(ChannelBuffers.wrappedBuffer(MALFORMED));
+        assertTrue(this.decoded().isEmpty());
+        assertEquals(1, this.errors.size());
+        this.offer(this.echoes(1));
+        assertEquals(Arrays.asList(1L), this.decoded());
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.core.io.PacketInScheduler.Verdict;
+import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.OVXPacketIn;
+import net.onrc.openvirtex.packet.FlowKey;
+import net.onrc.openvirtex.util.OVXMetrics;
+
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+/**
+ * Checks the admission decisions of the {@link PacketInScheduler} and the
+ * counters they leave in {@link OVXMetrics}.
+ */
+public class PacketInSchedulerTest extends TestCase {
+
+    private static final int TENANT = 1;
+    private static final int OTHER_TENANT = 2;
+    // slow enough that no token is earned and the dispatcher stays idle
+    private static final int RATE = 1;
+    private static final int BURST = 2;
+    private static final int QUEUE_SIZE = 2;
+
+    private final PacketInScheduler scheduler = PacketInScheduler
+            .getInstance();
+    private final OVXMetrics metrics = OVXMetrics.getInstance();
+    private PhysicalSwitch sw;
+    private OVXSwitch vsw;
+    private OVXSwitch otherVsw;
+
+    @Override
+    protected void setUp() throws Exception {
+        new OpenVirteXController(new CmdLineSettings());
+        this.sw = new PhysicalSwitch(0x1L, OFVersion.OF_10);
+        this.vsw = new OVXSingleSwitch(0x100L, TENANT);
+        this.otherVsw = new OVXSingleSwitch(0x200L, OTHER_TENANT);
+        this.metrics.removeTenant(TENANT);
+        this.metrics.removeTenant(OTHER_TENANT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.scheduler.removeTenant(TENANT);
+        this.scheduler.removeTenant(OTHER_TENANT);
+        this.scheduler.configure(PacketInScheduler.DEFAULT_RATE,
+                PacketInScheduler.DEFAULT_BURST,
+                PacketInScheduler.DEFAULT_QUEUE_SIZE, false);
+        this.metrics.removeTenant(TENANT);
+        this.metrics.removeTenant(OTHER_TENANT);
+    }
+
+    private Verdict admit(final OVXSwitch vSwitch, final long src) {
+        return this.admit(vSwitch, src, 64);
+    }
+
+    private Verdict admit(final OVXSwitch vSwitch, final long src,
+            final int size) {
+        final OVXPacketIn pktIn = new OVXPacketIn(new byte[size], (short) 1,
+                OFVersion.OF_10);
+        return this.scheduler.admit(vSwitch, this.sw, pktIn,
+                new FlowKey().setEthSrc(src));
+    }
+
+    @SuppressWarnings("unchecked")
+    private long count(final int tenantId, final String admission) {
+        final Map<String, Object> tenants = (Map<String, Object>) this.metrics
+                .toMap().get("tenants");
+        final Map<String, Object> tenant = (Map<String, Object>) tenants
+                .get(Integer.toString(tenantId));
+        if (tenant == null) {
+            return 0;
+        }
+        return (Long) ((Map<String, Object>) tenant.get("packetIn"))
+                .get(admission);
+    }
+
+    public void testLimitedByDefault() {
+        assertTrue(PacketInScheduler.DEFAULT_RATE > 0);
+    }
+
+    public void testUnlimitedWithoutRate() {
+        this.scheduler.configure(0, BURST, QUEUE_SIZE, false);
+        for (int i = 0; i < 10 * BURST; i++) {
+            assertEquals(Verdict.SEND, this.admit(this.vsw, i));
+        }
+        assertEquals(0, this.count(TENANT, "admitted"));
+    }
+
+    public void testTokenBucketPerTenant() {
+        this.scheduler.configure(RATE, BURST, QUEUE_SIZE, false);
+        assertEquals(Verdict.SEND, this.admit(this.vsw, 1));
+        assertEquals(Verdict.SEND, this.admit(this.vsw, 2));
+        // the burst is spent: held back until the queue fills up
+        assertEquals(Verdict.HOLD, this.admit(this.vsw, 3));
+        assertEquals(Verdict.HOLD, this.admit(this.vsw, 4));
+        // same flow as a held back PACKET_IN: merged into it
+        assertEquals(Verdict.DROP, this.admit(this.vsw, 3));
+        assertEquals(Verdict.DROP, this.admit(this.vsw, 5));
+        assertEquals(Verdict.DROP, this.admit(this.vsw, 6));
+
+        // the storm in one network leaves the other one's bucket untouched
+        assertEquals(Verdict.SEND, this.admit(this.otherVsw, 1));
+        assertEquals(Verdict.SEND, this.admit(this.otherVsw, 2));
+        assertEquals(Verdict.HOLD, this.admit(this.otherVsw, 3));
+
+        assertEquals(2, this.count(TENANT, "admitted"));
+        assertEquals(2, this.count(TENANT, "delayed"));
+        assertEquals(1, this.count(TENANT, "aggregated"));
+        assertEquals(2, this.count(TENANT, "dropped"));
+        assertEquals(0, this.count(TENANT, "suppressed"));
+        assertEquals(2, this.count(OTHER_TENANT, "admitted"));
+        assertEquals(1, this.count(OTHER_TENANT, "delayed"));
+        assertEquals(0, this.count(OTHER_TENANT, "dropped"));
+    }
+
+    public void testSuppress() {
+        this.scheduler.configure(RATE, 1, 0, true);
+        assertEquals(Verdict.SEND, this.admit(this.vsw, 1));
+        assertEquals(Verdict.SUPPRESS, this.admit(this.vsw, 2));
+        assertEquals(Verdict.SEND, this.admit(this.otherVsw, 1));
+
+        assertEquals(1, this.count(TENANT, "admitted"));
+        assertEquals(1, this.count(TENANT, "suppressed"));
+        assertEquals(0, this.count(TENANT, "dropped"));
+        assertEquals(1, this.count(OTHER_TENANT, "admitted"));
+    }
+
+    public void testDeficitRoundRobin() {
+        final int backlog = 300;
+        this.scheduler.configure(RATE, backlog, backlog, false);
+        for (int i = 0; i < backlog; i++) {
+            assertEquals(Verdict.SEND, this.admit(this.vsw, i));
+            assertEquals(Verdict.SEND, this.admit(this.otherVsw, i));
+        }
+        // large PACKET_INs in one network, small ones in the other
+        for (int i = backlog; i < 2 * backlog; i++) {
+            assertEquals(Verdict.HOLD, this.admit(this.vsw, i, 1500));
+            assertEquals(Verdict.HOLD, this.admit(this.otherVsw, i, 100));
+        }
+
+        // refill both buckets, so only the deficit limits the rounds
+        final List<PacketInScheduler.Pending> batch = this.scheduler
+                .nextBatch(System.nanoTime() + TimeUnit.SECONDS.toNanos(
+                        backlog));
+        int large = 0;
+        int small = 0;
+        for (PacketInScheduler.Pending p : batch) {
+            if (p.getVirtualSwitch() == this.vsw) {
+                large++;
+            } else {
+                small++;
+            }
+        }
+        // both networks get the same number of bytes per round
+        assertEquals(256, large + small);
+        assertEquals(16, large);
+        assertEquals(240, small);
+    }
+
+    public void testRemoveTenantDropsHeldBack() {
+        this.scheduler.configure(RATE, 1, QUEUE_SIZE, false);
+        assertEquals(Verdict.SEND, this.admit(this.vsw, 1));
+        assertEquals(Verdict.HOLD, this.admit(this.vsw, 2));
+        this.scheduler.removeTenant(TENANT);
+        // a new bucket with a full burst
+        assertEquals(Verdict.SEND, this.admit(this.vsw, 2));
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Checks that {@link DBJournal} writes queued updates in order, coalesces
+ * additions, blocks when full and drops the updates issued once it is
+ * stopped.
+ */
+public class DBJournalTest extends TestCase {
+
+    /**
+     * Records the documents inserted and the updates applied, in order. The
+     * insert of a document with a negative id blocks until the gate opens.
+     */
+    private static final class RecordingConnection implements DBConnection {
+        private final List<Map<String, Object>> inserted = Collections
+                .synchronizedList(new ArrayList<Map<String, Object>>());
+        private final List<String> updates = Collections
+                .synchronizedList(new ArrayList<String>());
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public void connect(final String host, final Integer port) {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void setIndex(final String coll, final String key) {
+        }
+
+        @Override
+        public void clear(final String coll) {
+        }
+
+        @Override
+        public List<Map<String, Object>> find(final String coll) {
+            return new ArrayList<Map<String, Object>>();
+        }
+
+        @Override
+        public void insert(final String coll, final Map<String, Object> doc) {
+            if ((Integer) doc.get("id") < 0) {
+                this.blocked.countDown();
+                try {
+                    this.gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            this.inserted.add(doc);
+        }
+
+        @Override
+        public void remove(final String coll, final Map<String, Object> doc) {
+            this.updates.add(doc.get("id") + " remove");
+        }
+
+        @Override
+        public void addToSet(final String coll,
+                final Map<String, Object> query,
+                final Map<String, List<Object>> values) {
+            this.updates.add(query.get("id") + " addToSet " + values);
+        }
+
+        @Override
+        public void pull(final String coll, final Map<String, Object> query,
+                final String key, final Object value) {
+            this.updates.add(query.get("id") + " pull " + key + "=" + value);
+        }
+    }
+
+    private RecordingConnection connection;
+    private DBJournal journal;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.connection = new RecordingConnection();
+        this.journal = new DBJournal(this.connection, 10, 50, 100);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.journal.stop();
+    }
+
+    private static Map<String, Object> doc(final int id) {
+        final Map<String, Object> doc = new HashMap<String, Object>();
+        doc.put("id", id);
+        return doc;
+    }
+
+    /**
+     * Holds the background thread in the database until the gate opens, so
+     * the updates queued meanwhile are flushed as one batch.
+     */
+    private void block() throws Exception {
+        this.journal.insert("coll", doc(-1), doc(-1));
+        assertTrue(this.connection.blocked.await(5, TimeUnit.SECONDS));
+    }
+
+    private List<String> updates(final int id) {
+        final List<String> updates = new ArrayList<String>();
+        synchronized (this.connection.updates) {
+            for (final String update : this.connection.updates) {
+                if (update.startsWith(id + " ")) {
+                    updates.add(update);
+                }
+            }
+        }
+        return updates;
+    }
+
+    public void testWrite() throws Exception {
+        assertTrue(this.journal.insert("coll", doc(1), doc(1))
+                .get(5, TimeUnit.SECONDS));
+        assertEquals(1, this.connection.inserted.size());
+        assertTrue(this.journal.sync().get(5, TimeUnit.SECONDS));
+        assertEquals(0, this.journal.getBacklog());
+    }
+
+    public void testStopWritesQueued() throws Exception {
+        this.journal.insert("coll", doc(1), doc(1));
+        this.journal.insert("coll", doc(2), doc(2));
+        this.journal.stop();
+        assertEquals(2, this.connection.inserted.size());
+    }
+
+    public void testDropAfterStop() throws Exception {
+        this.journal.stop();
+        assertFalse(this.journal.insert("coll", doc(1), doc(1))
+                .get(5, TimeUnit.SECONDS));
+        assertFalse(this.journal.sync().get(5, TimeUnit.SECONDS));
+        assertTrue(this.connection.inserted.isEmpty());
+        assertEquals(0, this.journal.getBacklog());
+    }
+
+    public void testCoalesceAddToSet() throws Exception {
+        this.block();
+        final List<ListenableFuture<Boolean>> futures =
+                new ArrayList<ListenableFuture<Boolean>>();
+        futures.add(this.journal.addToSet("coll", doc(1), "a", 1));
+        futures.add(this.journal.addToSet("coll", doc(1), "b", 2));
+        futures.add(this.journal.addToSet("coll", doc(1), "a", 3));
+        this.connection.gate.countDown();
+        assertTrue(this.journal.sync().get(5, TimeUnit.SECONDS));
+        for (final ListenableFuture<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        assertEquals(Collections.singletonList("1 addToSet {a=[1, 3], b=[2]}"),
+                this.updates(1));
+        assertEquals(0, this.journal.getBacklog());
+    }
+
+    public void testOrderPerDocument() throws Exception {
+        this.block();
+        this.journal.addToSet("coll", doc(1), "a", 1);
+        this.journal.addToSet("coll", doc(2), "a", 1);
+        this.journal.addToSet("coll", doc(1), "a", 2);
+        this.journal.pull("coll", doc(1), "a", 1);
+        this.journal.pull("coll", doc(2), "a", 1);
+        this.journal.removeDoc("coll", doc(1), doc(1));
+        this.journal.addToSet("coll", doc(1), "a", 3);
+        this.connection.gate.countDown();
+        assertTrue(this.journal.sync().get(5, TimeUnit.SECONDS));
+        // additions are only coalesced up to the next pull or removal
+        final List<String> expected = new ArrayList<String>();
+        expected.add("1 addToSet {a=[1, 2]}");
+        expected.add("1 pull a=1");
+        expected.add("1 remove");
+        expected.add("1 addToSet {a=[3]}");
+        assertEquals(expected, this.updates(1));
+        expected.clear();
+        expected.add("2 addToSet {a=[1]}");
+        expected.add("2 pull a=1");
+        assertEquals(expected, this.updates(2));
+    }
+
+    public void testBlockWhenFull() throws Exception {
+        this.journal.stop();
+        this.journal = new DBJournal(this.connection, 10, 50, 2);
+        this.block();
+        this.journal.insert("coll", doc(1), doc(1));
+        this.journal.insert("coll", doc(2), doc(2));
+        final List<ListenableFuture<Boolean>> future =
+                Collections.synchronizedList(
+                        new ArrayList<ListenableFuture<Boolean>>());
+        final Thread caller = new Thread() {
+            @Override
+            public void run() {
+                future.add(DBJournalTest.this.journal.insert("coll", doc(3),
+                        doc(3)));
+            }
+        };
+        caller.start();
+        caller.join(200);
+        assertTrue(caller.isAlive());
+        assertEquals(4, this.journal.getBacklog());
+        this.connection.gate.countDown();
+        caller.join(5000);
+        assertFalse(caller.isAlive());
+        assertTrue(future.get(0).get(5, TimeUnit.SECONDS));
+        assertTrue(this.journal.sync().get(5, TimeUnit.SECONDS));
+        assertEquals(4, this.connection.inserted.size());
+        assertEquals(0, this.journal.getBacklog());
+    }
+}
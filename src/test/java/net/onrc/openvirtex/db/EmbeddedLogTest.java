@@ -0,0 +1,107 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link EmbeddedLog} keeps its records across growth and
+ * reopening, and rejects logs larger than it can map.
+ */
+public class EmbeddedLogTest extends TestCase {
+
+    private File path;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.path = File.createTempFile("ovx", ".log");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.path.delete();
+    }
+
+    public void testGrowAndReopen() throws Exception {
+        final byte[] data = new byte[64 << 10];
+        EmbeddedLog log = new EmbeddedLog(this.path);
+        assertTrue(log.open(1).isEmpty());
+        // several times the initial mapping
+        for (int i = 0; i < 64; i++) {
+            Arrays.fill(data, (byte) i);
+            log.append(data);
+        }
+        log.close();
+
+        log = new EmbeddedLog(this.path);
+        final List<ByteBuffer> records = log.open(1);
+        assertEquals(64, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(data.length, records.get(i).remaining());
+            assertEquals((byte) i, records.get(i).get(data.length - 1));
+        }
+        log.close();
+    }
+
+    public void testOtherGeneration() throws Exception {
+        EmbeddedLog log = new EmbeddedLog(this.path);
+        log.open(1);
+        log.append(new byte[] {1, 2, 3});
+        log.close();
+
+        log = new EmbeddedLog(this.path);
+        assertTrue(log.open(2).isEmpty());
+        assertTrue(log.isEmpty());
+        log.close();
+    }
+
+    public void testCanAppend() throws Exception {
+        final EmbeddedLog log = new EmbeddedLog(this.path);
+        log.open(1);
+        assertTrue(log.canAppend(1024));
+        assertFalse(log.canAppend(EmbeddedLog.MAX_CAPACITY));
+        log.close();
+    }
+
+    public void testRejectOversized() throws Exception {
+        final RandomAccessFile file = new RandomAccessFile(this.path, "rw");
+        try {
+            file.setLength(EmbeddedLog.MAX_CAPACITY + 1L);
+        } finally {
+            file.close();
+        }
+        final EmbeddedLog log = new EmbeddedLog(this.path);
+        try {
+            log.open(1);
+            fail("Oversized log opened");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.address;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.address.IPTranslationCache.Translation;
+import net.onrc.openvirtex.exceptions.AddressMappingException;
+
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.action.OFActionSetField;
+import org.projectfloodlight.openflow.protocol.oxm.OFOxmIpv4Src;
+import org.projectfloodlight.openflow.types.IPv4Address;
+
+/**
+ * Checks that the {@link IPTranslationCache} follows the IP mappings of the
+ * {@link OVXMap}.
+ */
+public class IPTranslationCacheTest extends TestCase {
+
+    private static final int TENANT = 1;
+    private static final int VIRTUAL_IP = 0x0a000001;
+
+    private OVXMap map;
+
+    @Override
+    protected void setUp() {
+        OVXMap.reset();
+        this.map = OVXMap.getInstance();
+    }
+
+    @Override
+    protected void tearDown() {
+        OVXMap.reset();
+    }
+
+    public void testAddIP() throws Exception {
+        final OVXIPAddress vip = new OVXIPAddress(TENANT, VIRTUAL_IP);
+        this.map.addIP(new PhysicalIPAddress(0x01000001), vip);
+
+        assertEquals(0x01000001, this.map.getPhysicalIP(vip, TENANT).getIp());
+        assertSame(vip, this.map.getVirtualIP(
+                new PhysicalIPAddress(0x01000001)));
+        assertFalse(this.map.hasPhysicalIP(vip, TENANT + 1));
+    }
+
+    public void testReplacedIPDropsRewriteActions() throws Exception {
+        final OVXIPAddress vip = new OVXIPAddress(TENANT, VIRTUAL_IP);
+        final IPTranslationCache cache = this.map.getIPTranslationCache();
+        this.map.addIP(new PhysicalIPAddress(0x01000001), vip);
+        final OFAction before = cache.getTranslation(TENANT, VIRTUAL_IP)
+                .getRewriteAction(OFVersion.OF_13, true);
+        assertEquals(IPv4Address.of(0x01000001), rewrittenIp(before));
+
+        this.map.addIP(new PhysicalIPAddress(0x01000002), vip);
+        final Translation t = cache.getTranslation(TENANT, VIRTUAL_IP);
+        assertEquals(0x01000002, t.getPhysicalIp().getIp());
+        assertEquals(IPv4Address.of(0x01000002),
+                rewrittenIp(t.getRewriteAction(OFVersion.OF_13, true)));
+        assertFalse(this.map.hasVirtualIP(new PhysicalIPAddress(0x01000001)));
+    }
+
+    public void testRemoveIP() throws Exception {
+        final OVXIPAddress vip = new OVXIPAddress(TENANT, VIRTUAL_IP);
+        final OVXIPAddress other = new OVXIPAddress(TENANT, VIRTUAL_IP + 1);
+        this.map.addIP(new PhysicalIPAddress(0x01000001), vip);
+        this.map.addIP(new PhysicalIPAddress(0x01000002), other);
+
+        this.map.removeIP(vip);
+
+        assertNull(this.map.getIPTranslationCache().getTranslation(TENANT,
+                VIRTUAL_IP));
+        try {
+            this.map.getPhysicalIP(vip, TENANT);
+            fail("removed virtual IP still mapped");
+        } catch (AddressMappingException e) {
+            // expected
+        }
+        try {
+            this.map.getVirtualIP(new PhysicalIPAddress(0x01000001));
+            fail("removed physical IP still mapped");
+        } catch (AddressMappingException e) {
+            // expected
+        }
+        assertEquals(0x01000002, this.map.getPhysicalIP(other, TENANT)
+                .getIp());
+    }
+
+    public void testRemoveVirtualIPs() throws Exception {
+        final OVXIPAddress vip = new OVXIPAddress(TENANT, VIRTUAL_IP);
+        final OVXIPAddress otherTenant = new OVXIPAddress(TENANT + 1,
+                VIRTUAL_IP);
+        this.map.addIP(new PhysicalIPAddress(0x01000001), vip);
+        this.map.addIP(new PhysicalIPAddress(0x02000001), otherTenant);
+
+        this.map.removeVirtualIPs(TENANT);
+
+        assertFalse(this.map.hasPhysicalIP(vip, TENANT));
+        assertFalse(this.map.hasVirtualIP(new PhysicalIPAddress(0x01000001)));
+        assertTrue(this.map.hasPhysicalIP(otherTenant, TENANT + 1));
+        assertTrue(this.map.hasVirtualIP(new PhysicalIPAddress(0x02000001)));
+    }
+
+    private static IPv4Address rewrittenIp(final OFAction action) {
+        return ((OFOxmIpv4Src) ((OFActionSetField) action).getField())
+                .getValue();
+    }
+}
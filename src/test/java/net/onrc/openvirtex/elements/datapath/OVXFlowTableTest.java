@@ -0,0 +1,257 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.util.OVXFlowManager;
+
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+/**
+ * Checks that the virtual flow table returns every cookie it reserves to
+ * the allocator once the flow mod leaves the table.
+ */
+public class OVXFlowTableTest extends TestCase {
+
+    private static final int TENANT = 1;
+    private static final int FLOWS = 64;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+    private OVXSwitch vsw;
+    private OVXFlowTable table;
+
+    @Override
+    protected void setUp() throws Exception {
+        // the flow table sizes its indices from the controller settings
+        new OpenVirteXController(new CmdLineSettings());
+        OVXMap.reset();
+        this.vsw = new OVXSingleSwitch(0x100L, TENANT);
+        // an open but unconnected channel swallows the statistics requests
+        // a wildcard delete sends to the physical switch
+        final PhysicalSwitch psw = new PhysicalSwitch(0x1L, OFVersion.OF_10);
+        psw.setChannel(new DefaultLocalClientChannelFactory()
+                .newChannel(Channels.pipeline()));
+        OVXMap.getInstance().addSwitches(Collections.singletonList(psw),
+                this.vsw);
+        this.table = (OVXFlowTable) this.vsw.getFlowTable();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OVXMap.reset();
+    }
+
+    private Match match(final int src) {
+        return this.factory.buildMatch()
+                .setExact(MatchField.ETH_SRC, MacAddress.of(src))
+                .setExact(MatchField.ETH_DST, MacAddress.of(0xFFFF))
+                .build();
+    }
+
+    private OVXFlowMod add(final int src, final int priority) {
+        return new OVXFlowMod(this.factory.buildFlowAdd()
+                .setMatch(this.match(src)).setPriority(priority).build());
+    }
+
+    private OVXFlowMod modify(final int src, final int priority) {
+        return new OVXFlowMod(this.factory.buildFlowModifyStrict()
+                .setMatch(this.match(src)).setPriority(priority).build());
+    }
+
+    private OVXFlowMod delete(final int src, final boolean strict) {
+        if (strict) {
+            return new OVXFlowMod(this.factory.buildFlowDeleteStrict()
+                    .setMatch(this.match(src)).setPriority(100).build());
+        }
+        return new OVXFlowMod(this.factory.buildFlowDelete()
+                .setMatch(this.match(src)).build());
+    }
+
+    private void addAll() {
+        for (int src = 1; src <= FLOWS; src++) {
+            this.table.handleFlowMods(this.add(src, 100));
+        }
+        assertEquals(FLOWS, this.table.getFlowTable().size());
+        assertEquals(FLOWS, this.table.getCookieCount());
+    }
+
+    public void testAddModifyDeleteStrict() {
+        for (int cycle = 0; cycle < 10; cycle++) {
+            this.addAll();
+            for (int src = 1; src <= FLOWS; src++) {
+                // replacing an entry keeps its cookie
+                this.table.handleFlowMods(this.add(src, 100));
+                this.table.handleFlowMods(this.modify(src, 100));
+            }
+            assertEquals(FLOWS, this.table.getCookieCount());
+            for (int src = 1; src <= FLOWS; src++) {
+                this.table.handleFlowMods(this.delete(src, true));
+            }
+            assertTrue(this.table.isEmpty());
+            assertEquals(0, this.table.getCookieCount());
+        }
+    }
+
+    public void testDeleteLoose() {
+        for (int cycle = 0; cycle < 10; cycle++) {
+            this.addAll();
+            for (int src = 1; src <= FLOWS; src++) {
+                this.table.handleFlowMods(this.delete(src, false));
+            }
+            assertTrue(this.table.isEmpty());
+            assertEquals(0, this.table.getCookieCount());
+        }
+    }
+
+    public void testDeleteAll() {
+        for (int cycle = 0; cycle < 10; cycle++) {
+            this.addAll();
+            this.table.handleFlowMods(new OVXFlowMod(this.factory
+                    .buildFlowDelete().build()));
+            assertTrue(this.table.isEmpty());
+            assertEquals(0, this.table.getCookieCount());
+        }
+    }
+
+    public void testCookieOfUnknownFlowMod() {
+        // cookies of flow mods the table does not hold reserve nothing
+        for (int src = 1; src <= FLOWS; src++) {
+            final long cookie = this.table.getCookie(this.delete(src, true),
+                    false);
+            assertEquals(OVXFlowTable.NO_COOKIE, cookie);
+        }
+        assertEquals(0, this.table.getCookieCount());
+    }
+
+    public void testRenewCookie() {
+        final Set<Long> old = new HashSet<Long>();
+        for (int src = 1; src <= FLOWS; src++) {
+            old.add(this.table.addFlowMod(this.add(src, 100),
+                    this.table.getCookie()));
+        }
+        for (final long cookie : old) {
+            final long renewed = this.table.renewCookie(cookie);
+            assertTrue(renewed != 0 && renewed != cookie);
+            assertTrue(this.table.hasFlowMod(renewed));
+            assertFalse(this.table.hasFlowMod(cookie));
+        }
+        // the old hops of these flows without timeouts still carry the old
+        // cookies, which stay reserved until released
+        assertEquals(2 * FLOWS, this.table.getCookieCount());
+        this.table.handleFlowMods(new OVXFlowMod(this.factory
+                .buildFlowDelete().build()));
+        assertEquals(FLOWS, this.table.getCookieCount());
+        for (int i = 0; i < FLOWS; i++) {
+            assertFalse(old.contains(this.table.getCookie()));
+        }
+    }
+
+    public void testDeleteFlowModRetiresCookie() {
+        final Set<Long> old = new HashSet<Long>();
+        for (int src = 1; src <= FLOWS; src++) {
+            old.add(this.table.addFlowMod(this.add(src, 100),
+                    this.table.getCookie()));
+        }
+        for (final long cookie : old) {
+            assertNotNull(this.table.deleteFlowMod(cookie));
+            assertFalse(this.table.hasFlowMod(cookie));
+        }
+        assertTrue(this.table.isEmpty());
+        // other hops of the deleted flows may still carry their cookies
+        assertEquals(FLOWS, this.table.getCookieCount());
+        for (final long cookie : old) {
+            assertNull(this.table.deleteFlowMod(cookie));
+        }
+        assertEquals(FLOWS, this.table.getCookieCount());
+        for (int i = 0; i < FLOWS; i++) {
+            assertFalse(old.contains(this.table.getCookie()));
+        }
+    }
+
+    public void testRetireDelay() {
+        assertEquals(OVXFlowTable.RETIRE_PERMANENT, OVXFlowTable.retireDelay(
+                this.factory.buildFlowAdd().build()));
+        assertEquals(10 + OVXFlowTable.RETIRE_GRACE, OVXFlowTable.retireDelay(
+                this.factory.buildFlowAdd().setIdleTimeout(10).build()));
+        assertEquals(30 + OVXFlowTable.RETIRE_GRACE, OVXFlowTable.retireDelay(
+                this.factory.buildFlowAdd().setHardTimeout(30).build()));
+        assertEquals(10 + OVXFlowTable.RETIRE_GRACE, OVXFlowTable.retireDelay(
+                this.factory.buildFlowAdd().setIdleTimeout(30)
+                        .setHardTimeout(10).build()));
+    }
+
+    public void testReplaceWithNewCookie() {
+        this.addAll();
+        for (int src = 1; src <= FLOWS; src++) {
+            final OVXFlowMod fm = this.add(src, 100);
+            final long cookie = this.table.getCookie(fm, true);
+            assertTrue(this.table.hasFlowMod(cookie));
+        }
+        // the previous cookies were returned to the allocator
+        assertEquals(FLOWS, this.table.getCookieCount());
+        for (int src = 1; src <= FLOWS; src++) {
+            this.table.handleFlowMods(this.delete(src, true));
+        }
+        assertEquals(0, this.table.getCookieCount());
+    }
+
+    public void testFlowModsCountedByFlowManager() throws Exception {
+        final OVXNetwork vnet = new OVXNetwork(TENANT, new ArrayList<String>(),
+                new OVXIPAddress("10.0.0.0", TENANT), (short) 24);
+        OVXMap.getInstance().addNetwork(vnet);
+        final OVXFlowManager manager = vnet.getFlowManager();
+
+        this.addAll();
+        for (int src = 1; src <= FLOWS; src++) {
+            // replacing an entry does not count it twice
+            this.table.handleFlowMods(this.add(src, 100));
+            assertEquals(1, manager.getMatchCount(src, 0xFFFF));
+        }
+        for (int src = 1; src <= FLOWS; src++) {
+            this.table.handleFlowMods(this.delete(src, true));
+            assertEquals(0, manager.getMatchCount(src, 0xFFFF));
+        }
+
+        final long cookie = this.table.addFlowMod(this.add(1, 100),
+                this.table.getCookie());
+        final long renewed = this.table.renewCookie(cookie);
+        assertEquals(1, manager.getMatchCount(1, 0xFFFF));
+        this.table.deleteFlowMod(renewed);
+        assertEquals(0, manager.getMatchCount(1, 0xFFFF));
+    }
+}
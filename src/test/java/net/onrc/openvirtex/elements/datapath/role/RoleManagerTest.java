@@ -0,0 +1,181 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath.role;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.io.OVXOutboundQueue;
+import net.onrc.openvirtex.elements.datapath.role.RoleManager.Role;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Checks that {@link RoleManager} sends a message for all controllers to
+ * the ones whose role allows it, serializing it only once.
+ */
+public class RoleManagerTest extends TestCase {
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+    private final Map<Channel, List<ChannelBuffer>> written =
+            new HashMap<Channel, List<ChannelBuffer>>();
+    private RoleManager roles;
+    private Channel master;
+    private Channel equal;
+    private Channel slave;
+
+    @Override
+    protected void setUp() throws Exception {
+        OVXOutboundQueue.setFlushThresholds(
+                OVXOutboundQueue.DEFAULT_FLUSH_SIZE,
+                OVXOutboundQueue.DEFAULT_FLUSH_DELAY);
+        this.roles = new RoleManager();
+        this.master = this.controller();
+        this.equal = this.controller();
+        this.slave = this.controller();
+        this.roles.setRole(this.master, Role.MASTER);
+        this.roles.setRole(this.slave, Role.SLAVE);
+    }
+
+    /**
+     * Adds a controller whose channel records the buffers written to it
+     * instead of sending them.
+     */
+    private Channel controller() {
+        final List<ChannelBuffer> buffers = new ArrayList<ChannelBuffer>();
+        final Channel channel = new DefaultLocalClientChannelFactory()
+                .newChannel(Channels.pipeline(
+                        new SimpleChannelDownstreamHandler() {
+                            @Override
+                            public void writeRequested(
+                                    final ChannelHandlerContext ctx,
+                                    final MessageEvent e) {
+                                buffers.add((ChannelBuffer) e.getMessage());
+                                e.getFuture().setSuccess();
+                            }
+                        }));
+        this.written.put(channel, buffers);
+        this.roles.addController(channel);
+        return channel;
+    }
+
+    private OFMessage packetIn() {
+        return this.factory.buildPacketIn()
+                .setXid(1)
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setTotalLen(4)
+                .setInPort(OFPort.of(1))
+                .setReason(OFPacketInReason.NO_MATCH)
+                .setData(new byte[] {1, 2, 3, 4})
+                .build();
+    }
+
+    private static ChannelBuffer bytes(final OFMessage... msgs) {
+        final ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        for (final OFMessage msg : msgs) {
+            msg.writeTo(buf);
+        }
+        return buf;
+    }
+
+    public void testRoles() throws Exception {
+        assertEquals(Role.MASTER, this.roles.getRole(this.master));
+        assertEquals(Role.EQUAL, this.roles.getRole(this.equal));
+        assertEquals(Role.SLAVE, this.roles.getRole(this.slave));
+
+        this.roles.setRole(this.equal, Role.MASTER);
+        assertEquals(Role.SLAVE, this.roles.getRole(this.master));
+        assertEquals(Role.MASTER, this.roles.getRole(this.equal));
+    }
+
+    public void testSendToActiveControllers() {
+        final OFMessage msg = this.packetIn();
+        this.roles.sendMsg(msg, null);
+
+        final List<ChannelBuffer> toMaster = this.written.get(this.master);
+        final List<ChannelBuffer> toEqual = this.written.get(this.equal);
+        assertEquals(1, toMaster.size());
+        assertEquals(1, toEqual.size());
+        assertTrue(this.written.get(this.slave).isEmpty());
+        assertEquals(bytes(msg), toMaster.get(0));
+        assertEquals(bytes(msg), toEqual.get(0));
+        // both controllers were given views of the same bytes
+        assertSame(toMaster.get(0).array(), toEqual.get(0).array());
+    }
+
+    public void testSendToSlaves() {
+        final OFMessage msg = this.factory.buildDescStatsReply()
+                .setXid(2).setHwDesc("test").build();
+        this.roles.sendMsg(msg, null);
+        for (final List<ChannelBuffer> buffers : this.written.values()) {
+            assertEquals(1, buffers.size());
+            assertEquals(bytes(msg), buffers.get(0));
+        }
+    }
+
+    public void testSendToOneController() {
+        this.roles.sendMsg(this.packetIn(), this.slave);
+        assertTrue(this.written.get(this.slave).isEmpty());
+        this.roles.sendMsg(this.packetIn(), this.equal);
+        assertEquals(1, this.written.get(this.equal).size());
+        assertTrue(this.written.get(this.master).isEmpty());
+    }
+
+    public void testKeepsOrderWithQueuedMessages() {
+        final OFMessage first = this.factory.buildEchoRequest().setXid(3)
+                .build();
+        final OFMessage msg = this.packetIn();
+        OVXOutboundQueue.beginBatch();
+        try {
+            OVXOutboundQueue.write(this.master, first);
+            this.roles.sendMsg(msg, null);
+            assertTrue(this.written.get(this.master).isEmpty());
+        } finally {
+            OVXOutboundQueue.endBatch();
+        }
+        assertEquals(1, this.written.get(this.master).size());
+        assertEquals(bytes(first, msg), this.written.get(this.master).get(0));
+        assertEquals(bytes(msg), this.written.get(this.equal).get(0));
+    }
+
+    public void testSkipsClosedChannels() {
+        this.equal.close();
+        this.roles.sendMsg(this.packetIn(), null);
+        assertEquals(1, this.written.get(this.master).size());
+        assertTrue(this.written.get(this.equal).isEmpty());
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+
+import org.projectfloodlight.openflow.protocol.OFAggregateStatsReply;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsReply;
+import org.projectfloodlight.openflow.protocol.OFPortStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFPortStatsReply;
+import org.projectfloodlight.openflow.protocol.OFStatsReplyFlags;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Checks that the {@link StatisticsManager} reassembles multipart replies
+ * before publishing them, and files flow entries per virtual network.
+ */
+public class StatisticsManagerTest extends TestCase {
+
+    private static final Set<OFStatsReplyFlags> MORE = EnumSet
+            .of(OFStatsReplyFlags.REPLY_MORE);
+    private static final Set<OFStatsReplyFlags> LAST = EnumSet
+            .noneOf(OFStatsReplyFlags.class);
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+    private PhysicalSwitch sw;
+    private StatisticsManager manager;
+
+    @Override
+    protected void setUp() throws Exception {
+        // the manager reads the refresh interval from the settings
+        new OpenVirteXController(new CmdLineSettings());
+        OVXMap.reset();
+        this.sw = new PhysicalSwitch(0x1L, OFVersion.OF_10);
+        this.manager = this.sw.getStatisticsManager();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OVXMap.reset();
+    }
+
+    private static long cookie(final int tenant, final int slot) {
+        return (long) tenant << 32 | slot;
+    }
+
+    private OFFlowStatsEntry flow(final long cookie, final long packets) {
+        return this.factory.buildFlowStatsEntry()
+                .setCookie(U64.of(cookie))
+                .setMatch(this.factory.matchWildcardAll())
+                .setPacketCount(U64.of(packets))
+                .setByteCount(U64.of(packets * 100))
+                .build();
+    }
+
+    private OFFlowStatsReply flows(final Set<OFStatsReplyFlags> flags,
+            final OFFlowStatsEntry... entries) {
+        final List<OFFlowStatsEntry> list = new ArrayList<OFFlowStatsEntry>();
+        Collections.addAll(list, entries);
+        return this.factory.buildFlowStatsReply().setFlags(flags)
+                .setEntries(list).build();
+    }
+
+    private OFPortStatsReply ports(final Set<OFStatsReplyFlags> flags,
+            final int... numbers) {
+        final List<OFPortStatsEntry> list = new ArrayList<OFPortStatsEntry>();
+        for (final int number : numbers) {
+            list.add(this.factory.buildPortStatsEntry()
+                    .setPortNo(OFPort.of(number))
+                    .setRxPackets(U64.of(number))
+                    .build());
+        }
+        return this.factory.buildPortStatsReply().setFlags(flags)
+                .setEntries(list).build();
+    }
+
+    public void testFlowStatisticsReassembled() {
+        this.manager.addFlowStatistics(this.flows(MORE,
+                this.flow(cookie(1, 5), 1), this.flow(cookie(1, 2), 2),
+                this.flow(cookie(2, 1), 3)));
+        // nothing is published before the last part
+        assertNull(this.sw.getFlowStatistics(1));
+        assertNull(this.sw.getFlowStatistics(2));
+
+        this.manager.addFlowStatistics(this.flows(LAST,
+                this.flow(cookie(1, 9), 4), this.flow(cookie(1, 2), 5)));
+        final FlowStatistics t1 = this.sw.getFlowStatistics(1);
+        assertEquals(4, t1.size());
+        assertEquals(1 + 2 + 4 + 5, t1.getPacketCount());
+        assertEquals((1 + 2 + 4 + 5) * 100, t1.getByteCount());
+        assertEquals(2, t1.getEntries(cookie(1, 2)).size());
+        assertEquals(1, t1.getEntries(cookie(1, 9)).size());
+        assertTrue(t1.getEntries(cookie(1, 7)).isEmpty());
+        assertTrue(t1.contains(cookie(1, 5)));
+        assertFalse(t1.contains(cookie(2, 1)));
+        assertEquals(4, this.sw.getFlowStats(1).size());
+
+        final FlowStatistics t2 = this.sw.getFlowStatistics(2);
+        assertEquals(1, t2.size());
+        assertEquals(3, t2.getPacketCount());
+        assertNull(this.sw.getFlowStatistics(3));
+    }
+
+    public void testFlowEntriesSortedByCookie() {
+        final List<OFFlowStatsEntry> entries = new ArrayList<OFFlowStatsEntry>();
+        for (int slot = 0; slot < 100; slot++) {
+            entries.add(this.flow(cookie(1, (slot * 37) % 50), slot));
+        }
+        this.manager.addFlowStatistics(this.factory.buildFlowStatsReply()
+                .setFlags(LAST).setEntries(entries).build());
+
+        final List<OFFlowStatsEntry> sorted = this.sw.getFlowStatistics(1)
+                .getEntries();
+        assertEquals(100, sorted.size());
+        for (int i = 1; i < sorted.size(); i++) {
+            assertTrue(sorted.get(i - 1).getCookie().getValue() <= sorted
+                    .get(i).getCookie().getValue());
+        }
+        for (int slot = 0; slot < 50; slot++) {
+            assertEquals(2, this.sw.getFlowStatistics(1)
+                    .getEntries(cookie(1, slot)).size());
+        }
+    }
+
+    public void testNextRoundReplacesFlowStatistics() {
+        this.manager.addFlowStatistics(this.flows(LAST,
+                this.flow(cookie(1, 1), 1)));
+        assertNotNull(this.sw.getFlowStatistics(1));
+        this.manager.addFlowStatistics(this.flows(LAST,
+                this.flow(cookie(2, 1), 1)));
+        // the flows of tenant 1 are gone from the switch
+        assertNull(this.sw.getFlowStatistics(1));
+        assertNotNull(this.sw.getFlowStatistics(2));
+    }
+
+    public void testPortStatisticsReassembled() {
+        this.manager.addPortStatistics(this.ports(MORE, 1, 2));
+        assertNull(this.sw.getPortStatistics());
+        this.manager.addPortStatistics(this.ports(LAST, 3));
+        assertEquals(3, this.sw.getPortStatistics().size());
+        for (short port = 1; port <= 3; port++) {
+            assertEquals(port, this.sw.getPortStat(port).getRxPackets()
+                    .getValue());
+        }
+    }
+
+    public void testAggregateStatistics() {
+        final OFAggregateStatsReply reply = this.factory
+                .buildAggregateStatsReply().setFlowCount(3)
+                .setPacketCount(U64.of(10)).build();
+        this.manager.addAggregateStatistics(reply);
+        assertSame(reply, this.sw.getAggregateStats());
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
+import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFStatsReplyFlags;
+import org.projectfloodlight.openflow.protocol.OFTableStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Checks that {@link VirtualStatistics} reuses its replies until the
+ * physical switch publishes a new polling round or the reply gets too old,
+ * and that the replies only describe the flows of the virtual switch.
+ */
+public class VirtualStatisticsTest extends TestCase {
+
+    private static final int TENANT = 1;
+    private static final int FLOWS = 4;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+    private PhysicalSwitch psw;
+    private VirtualStatistics stats;
+    private final List<Long> cookies = new ArrayList<Long>();
+
+    @Override
+    protected void setUp() throws Exception {
+        // the flow table sizes its indices from the controller settings
+        new OpenVirteXController(new CmdLineSettings());
+        OVXMap.reset();
+        VirtualStatistics.setDefaultMaxStaleness(60000);
+        final OVXSwitch vsw = new OVXSingleSwitch(0x100L, TENANT);
+        this.psw = new PhysicalSwitch(0x1L, OFVersion.OF_10);
+        this.psw.setChannel(new DefaultLocalClientChannelFactory()
+                .newChannel(Channels.pipeline()));
+        OVXMap.getInstance().addSwitches(
+                Collections.singletonList(this.psw), vsw);
+        final OVXFlowTable table = (OVXFlowTable) vsw.getFlowTable();
+        for (int src = 1; src <= FLOWS; src++) {
+            this.cookies.add(table.addFlowMod(new OVXFlowMod(this.factory
+                    .buildFlowAdd()
+                    .setMatch(this.factory.buildMatch()
+                            .setExact(MatchField.ETH_SRC, MacAddress.of(src))
+                            .build())
+                    .setCookie(U64.of(src))
+                    .setPriority(100).build()), table.getCookie()));
+        }
+        this.stats = vsw.getVirtualStatistics();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        VirtualStatistics.setDefaultMaxStaleness(
+                VirtualStatistics.DEFAULT_MAX_STALENESS);
+        OVXMap.reset();
+    }
+
+    /**
+     * Publishes a polling round in which every physical flow has matched
+     * the given number of packets.
+     */
+    private void publish(final long packets, final long... physical) {
+        final List<OFFlowStatsEntry> entries = new ArrayList<OFFlowStatsEntry>();
+        for (final long cookie : physical) {
+            entries.add(this.factory.buildFlowStatsEntry()
+                    .setCookie(U64.of(cookie))
+                    .setMatch(this.factory.matchWildcardAll())
+                    .setPacketCount(U64.of(packets))
+                    .setByteCount(U64.of(packets * 100))
+                    .build());
+        }
+        this.psw.getStatisticsManager().addFlowStatistics(this.factory
+                .buildFlowStatsReply()
+                .setFlags(EnumSet.noneOf(OFStatsReplyFlags.class))
+                .setEntries(entries).build());
+    }
+
+    private long[] allCookies() {
+        final long[] physical = new long[this.cookies.size()];
+        for (int i = 0; i < physical.length; i++) {
+            physical[i] = this.cookies.get(i);
+        }
+        return physical;
+    }
+
+    public void testFlowStatsVirtualized() {
+        // the first flow has two physical entries; foreign cookies are
+        // skipped
+        final long[] physical = new long[FLOWS + 2];
+        System.arraycopy(this.allCookies(), 0, physical, 0, FLOWS);
+        physical[FLOWS] = this.cookies.get(0);
+        physical[FLOWS + 1] = (long) TENANT << 32 | 0xFFFF;
+        this.publish(7, physical);
+
+        final List<OFFlowStatsEntry> entries = this.stats
+                .getFlowStats(OFVersion.OF_10);
+        assertEquals(FLOWS, entries.size());
+        final List<Long> virtual = new ArrayList<Long>();
+        for (final OFFlowStatsEntry entry : entries) {
+            virtual.add(entry.getCookie().getValue());
+            assertEquals(7, entry.getPacketCount().getValue());
+        }
+        Collections.sort(virtual);
+        for (int src = 1; src <= FLOWS; src++) {
+            assertEquals(Long.valueOf(src), virtual.get(src - 1));
+        }
+    }
+
+    public void testCachedUntilNewRound() {
+        this.publish(1, this.allCookies());
+        final List<OFFlowStatsEntry> first = this.stats
+                .getFlowStats(OFVersion.OF_10);
+        final long[] aggregate = this.stats.getAggregateStats();
+        assertSame(first, this.stats.getFlowStats(OFVersion.OF_10));
+        assertEquals(FLOWS, aggregate[0]);
+        assertEquals(FLOWS * 100, aggregate[1]);
+        assertEquals(FLOWS, aggregate[2]);
+
+        this.publish(2, this.allCookies());
+        final List<OFFlowStatsEntry> second = this.stats
+                .getFlowStats(OFVersion.OF_10);
+        assertNotSame(first, second);
+        assertEquals(2, second.get(0).getPacketCount().getValue());
+        assertEquals(2 * FLOWS, this.stats.getAggregateStats()[0]);
+    }
+
+    public void testExpiresAfterMaxStaleness() throws Exception {
+        final List<OFTableStatsEntry> tables = this.stats
+                .getTableStats(OFVersion.OF_10);
+        assertEquals(FLOWS, tables.get(0).getActiveCount());
+        assertSame(tables, this.stats.getTableStats(OFVersion.OF_10));
+
+        VirtualStatistics.setDefaultMaxStaleness(0);
+        Thread.sleep(5);
+        assertNotSame(tables, this.stats.getTableStats(OFVersion.OF_10));
+    }
+
+    public void testNoStatistics() {
+        assertTrue(this.stats.getFlowStats(OFVersion.OF_10).isEmpty());
+        final long[] aggregate = this.stats.getAggregateStats();
+        assertEquals(0, aggregate[0]);
+        assertEquals(0, aggregate[1]);
+        assertEquals(FLOWS, aggregate[2]);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.link;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.util.OVXUtil;
+
+/**
+ * Checks that the link codec rejects identifiers that do not fit in the
+ * link field.
+ */
+public class OVXLinkCodecTest extends TestCase {
+
+    @Override
+    protected void tearDown() throws Exception {
+        OVXLinkCodec.configure(
+                OVXUtil.numBitsneeded(CmdLineSettings.DEFAULT_NUMBER_VIRT_NETS),
+                CmdLineSettings.DEFAULT_LINK_FIELD);
+    }
+
+    public void testTenantBitsMustLeaveLinkBits() {
+        OVXLinkCodec.check(11, OVXLinkField.VLAN);
+        OVXLinkCodec.check(19, OVXLinkField.MPLS);
+        OVXLinkCodec.check(46, OVXLinkField.MAC_ADDRESS);
+        for (final OVXLinkField field : new OVXLinkField[] {OVXLinkField.VLAN,
+                OVXLinkField.MPLS, OVXLinkField.MAC_ADDRESS}) {
+            try {
+                OVXLinkCodec.configure(48, field);
+                fail("accepted 48 tenant bits in " + field);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            OVXLinkCodec.configure(12, OVXLinkField.VLAN);
+            fail("accepted 12 tenant bits in the VLAN ID");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testVlanRoundTrip() {
+        OVXLinkCodec.configure(8, OVXLinkField.VLAN);
+        final OVXLinkCodec codec = OVXLinkCodec.getInstance();
+        final int vid = codec.encodeVlan(200, 15);
+        assertEquals(200, codec.vlanTenantId(vid));
+        assertEquals(15, codec.vlanLinkId(vid));
+        try {
+            codec.encodeVlan(200, 16);
+            fail("link id overflowed into the tenant id");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testMplsRoundTrip() {
+        OVXLinkCodec.configure(8, OVXLinkField.MPLS);
+        final OVXLinkCodec codec = OVXLinkCodec.getInstance();
+        final int label = codec.encodeMpls(3, 4095);
+        assertEquals(3, codec.mplsTenantId(label));
+        assertEquals(4095, codec.mplsLinkId(label));
+        try {
+            codec.encodeMpls(3, 4096);
+            fail("link id overflowed into the tenant id");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.link;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.exceptions.DroppedMessageException;
+import net.onrc.openvirtex.packet.PacketContext;
+import net.onrc.openvirtex.util.OVXUtil;
+
+import org.projectfloodlight.openflow.protocol.OFActionType;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.action.OFActionPopMpls;
+import org.projectfloodlight.openflow.protocol.action.OFActionSetField;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U8;
+
+/**
+ * Checks that MPLS link tags are only used for flows whose Ethernet type can
+ * be restored when the label is popped, and that the other flows, such as
+ * L2 flows carrying ARP, cross the links in their MAC addresses.
+ */
+public class OVXLinkUtilsTest extends TestCase {
+
+    private static final int TENANT = 1;
+    private static final int LINK = 5;
+    private static final long SRC = 0x020000000001L;
+    private static final long DST = 0x020000000002L;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private OVXNetwork vnet;
+
+    @Override
+    protected void setUp() throws Exception {
+        new OpenVirteXController(new CmdLineSettings());
+        OVXMap.reset();
+        OVXLinkCodec.configure(8, OVXLinkField.MPLS);
+        this.vnet = new OVXNetwork(TENANT, new ArrayList<String>(),
+                new OVXIPAddress("10.0.0.0", TENANT), (short) 24);
+        OVXMap.getInstance().addNetwork(this.vnet);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OVXLinkCodec.configure(
+                OVXUtil.numBitsneeded(CmdLineSettings.DEFAULT_NUMBER_VIRT_NETS),
+                CmdLineSettings.DEFAULT_LINK_FIELD);
+        OVXMap.reset();
+    }
+
+    private Match.Builder l2Match() {
+        return this.factory.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(1))
+                .setExact(MatchField.ETH_SRC, MacAddress.of(SRC))
+                .setExact(MatchField.ETH_DST, MacAddress.of(DST));
+    }
+
+    /**
+     * Builds an ARP request from the source to the destination host.
+     */
+    private static byte[] arp() {
+        final byte[] data = new byte[42];
+        putMac(data, 0, DST);
+        putMac(data, 6, SRC);
+        data[12] = 0x08;
+        data[13] = 0x06;
+        final byte[] header = {0, 1, 0x08, 0, 6, 4, 0, 1};
+        System.arraycopy(header, 0, data, 14, header.length);
+        putMac(data, 22, SRC);
+        data[28] = 10;
+        data[31] = 1;
+        data[38] = 10;
+        data[41] = 2;
+        return data;
+    }
+
+    private static void putMac(final byte[] data, final int offset,
+            final long mac) {
+        for (int i = 0; i < 6; i++) {
+            data[offset + i] = (byte) (mac >>> (40 - 8 * i));
+        }
+    }
+
+    private static boolean has(final List<OFAction> actions,
+            final OFActionType type) {
+        for (final OFAction action : actions) {
+            if (action.getType() == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void testArpThroughEthTypeWildcardedFlow() throws Exception {
+        final Match match = this.l2Match().build();
+        assertEquals(OVXLinkField.MAC_ADDRESS,
+                OVXLinkUtils.getLinkField(match));
+        final int flowId = OVXLinkUtils.storeFlowId(this.vnet, match);
+        assertTrue(flowId != 0);
+
+        // ingress of the link: the MAC addresses carry the identifiers
+        final OVXLinkUtils ingress = new OVXLinkUtils(TENANT, LINK, flowId,
+                match);
+        assertEquals(OVXLinkField.MAC_ADDRESS, ingress.getLinkField());
+        final List<OFAction> set = ingress.setLinkFields(OFVersion.OF_13);
+        assertFalse(has(set, OFActionType.PUSH_MPLS));
+        assertEquals(2, set.size());
+        final Match physical = ingress.rewriteMatch(match);
+        assertFalse(physical.isExact(MatchField.MPLS_LABEL));
+        assertEquals(ingress.getSrcMac(), physical.get(MatchField.ETH_SRC));
+
+        final PacketContext pkt = new PacketContext(arp());
+        pkt.setEthSrc(ingress.getSrcMac().getLong());
+        pkt.setEthDst(ingress.getDstMac().getLong());
+
+        // PACKET_IN at the far end of the link
+        assertNull(OVXLinkUtils.fromTag(pkt));
+        final OVXLinkUtils egress = new OVXLinkUtils(pkt.getEthSrc(),
+                pkt.getEthDst());
+        assertTrue(egress.isValid());
+        assertEquals(TENANT, (int) egress.getTenantId());
+        assertEquals(LINK, (int) egress.getLinkId());
+        assertEquals(MacAddress.of(SRC),
+                egress.getOriginalMacAddresses().get(0));
+        assertEquals(MacAddress.of(DST),
+                egress.getOriginalMacAddresses().get(1));
+        // the Ethernet type was never touched
+        assertTrue(pkt.isARP());
+
+        final List<OFAction> unset = ingress.unsetLinkFields(false, false,
+                OFVersion.OF_13);
+        assertFalse(has(unset, OFActionType.POP_MPLS));
+        assertEquals(MacAddress.of(SRC), ((OFActionSetField) unset.get(0))
+                .getField().getValue());
+    }
+
+    public void testFlowWithoutMacsIsDropped() throws Exception {
+        final Match match = this.factory.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(1)).build();
+        try {
+            OVXLinkUtils.storeFlowId(this.vnet, match);
+            fail("stored a flow id for a flow without MAC addresses");
+        } catch (DroppedMessageException e) {
+            // expected
+        }
+    }
+
+    public void testEthTypesGetTheirOwnTrafficClass() throws Exception {
+        final Match ip = this.l2Match()
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4).build();
+        final Match arp = this.l2Match()
+                .setExact(MatchField.ETH_TYPE, EthType.ARP).build();
+        assertEquals(OVXLinkField.MPLS, OVXLinkUtils.getLinkField(ip));
+        assertEquals(0, (int) OVXLinkUtils.storeFlowId(this.vnet, arp));
+
+        final OVXLinkUtils ipLink = new OVXLinkUtils(TENANT, LINK, 0, ip);
+        final OVXLinkUtils arpLink = new OVXLinkUtils(TENANT, LINK, 0, arp);
+        assertTrue(has(ipLink.setLinkFields(OFVersion.OF_13),
+                OFActionType.PUSH_MPLS));
+        final Match ipPhysical = ipLink.rewriteMatch(ip);
+        final Match arpPhysical = arpLink.rewriteMatch(arp);
+        assertEquals(ipPhysical.get(MatchField.MPLS_LABEL),
+                arpPhysical.get(MatchField.MPLS_LABEL));
+        assertEquals(U8.of((short) 0), ipPhysical.get(MatchField.MPLS_TC));
+        assertEquals(U8.of((short) 1), arpPhysical.get(MatchField.MPLS_TC));
+        assertFalse(ipPhysical.equals(arpPhysical));
+
+        assertEquals(EthType.IPv4, ((OFActionPopMpls) ipLink
+                .unsetLinkFields(false, false, OFVersion.OF_13).get(0))
+                .getEthertype());
+        assertEquals(EthType.ARP, ((OFActionPopMpls) arpLink
+                .unsetLinkFields(false, false, OFVersion.OF_13).get(0))
+                .getEthertype());
+    }
+
+    public void testOtherEthTypesUseMacAddresses() {
+        final Match lldp = this.l2Match()
+                .setExact(MatchField.ETH_TYPE, EthType.LLDP).build();
+        assertEquals(OVXLinkField.MAC_ADDRESS,
+                OVXLinkUtils.getLinkField(lldp));
+    }
+
+    public void testPopRestoresTrafficClassEthType() {
+        final OVXLinkCodec codec = OVXLinkCodec.getInstance();
+        final int label = codec.encodeMpls(TENANT, LINK);
+        // an ARP request under a bottom of stack label of traffic class 1
+        final byte[] frame = arp();
+        final byte[] data = new byte[frame.length + 4];
+        System.arraycopy(frame, 0, data, 0, 12);
+        data[12] = (byte) 0x88;
+        data[13] = 0x47;
+        final int entry = label << 12 | 1 << 9 | 1 << 8 | 64;
+        data[14] = (byte) (entry >>> 24);
+        data[15] = (byte) (entry >>> 16);
+        data[16] = (byte) (entry >>> 8);
+        data[17] = (byte) entry;
+        System.arraycopy(frame, 14, data, 18, frame.length - 14);
+
+        final PacketContext pkt = new PacketContext(data);
+        assertEquals(1, pkt.getMplsTrafficClass());
+        final OVXLinkUtils lUtils = OVXLinkUtils.fromTag(pkt);
+        assertNotNull(lUtils);
+        assertEquals(TENANT, (int) lUtils.getTenantId());
+        assertEquals(LINK, (int) lUtils.getLinkId());
+        assertTrue(pkt.isARP());
+        assertEquals(SRC, pkt.getEthSrc());
+    }
+}
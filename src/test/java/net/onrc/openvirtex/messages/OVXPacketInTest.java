@@ -0,0 +1,114 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.messages;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.address.IPTranslationCache;
+import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.packet.FlowKey;
+
+/**
+ * Checks that the PACKET_INs of hosts teach the virtual network their
+ * addresses, whether the hosts send IPv4 or ARP.
+ */
+public class OVXPacketInTest extends TestCase {
+
+    private static final int TENANT = 1;
+    private static final int SPA = 0x0a000001;
+    private static final int TPA = 0x0a000002;
+
+    private IPTranslationCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        new OpenVirteXController(new CmdLineSettings());
+        OVXMap.reset();
+        OVXMap.getInstance().addNetwork(new OVXNetwork(TENANT,
+                new ArrayList<String>(), new OVXIPAddress("10.0.0.0", TENANT),
+                (short) 24));
+        this.cache = OVXMap.getInstance().getIPTranslationCache();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OVXMap.reset();
+    }
+
+    /**
+     * Builds an ARP request from 10.0.0.1 for 10.0.0.2.
+     */
+    private static byte[] arp() {
+        final byte[] data = new byte[42];
+        for (int i = 0; i < 6; i++) {
+            data[i] = (byte) 0xff;
+        }
+        data[11] = 1;
+        data[12] = 0x08;
+        data[13] = 0x06;
+        final byte[] header = {0, 1, 0x08, 0, 6, 4, 0, 1};
+        System.arraycopy(header, 0, data, 14, header.length);
+        data[27] = 1;
+        putInt(data, 28, SPA);
+        putInt(data, 38, TPA);
+        return data;
+    }
+
+    private static void putInt(final byte[] data, final int offset,
+            final int value) {
+        for (int i = 0; i < 4; i++) {
+            data[offset + i] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+
+    public void testArpTeachesAddresses() {
+        final FlowKey key = FlowKey.fromPacket(arp(), (short) 1);
+        assertTrue(key.isARP());
+        assertTrue(key.hasIPv4Addresses());
+        assertEquals(SPA, key.getNwSrc());
+        assertEquals(TPA, key.getNwDst());
+
+        assertNull(this.cache.getPhysicalIp(TENANT, SPA));
+        OVXPacketIn.learnAddresses(TENANT, key);
+        assertNotNull(this.cache.getPhysicalIp(TENANT, SPA));
+        assertNotNull(this.cache.getPhysicalIp(TENANT, TPA));
+    }
+
+    public void testIPv4TeachesAddresses() {
+        final FlowKey key = new FlowKey().setEthType(0x0800).setNwSrc(SPA)
+                .setNwDst(TPA);
+        OVXPacketIn.learnAddresses(TENANT, key);
+        assertNotNull(this.cache.getPhysicalIp(TENANT, SPA));
+        assertNotNull(this.cache.getPhysicalIp(TENANT, TPA));
+    }
+
+    public void testOtherPacketsTeachNothing() {
+        final FlowKey key = new FlowKey().setEthType(0x86dd).setNwSrc(SPA)
+                .setNwDst(TPA);
+        assertFalse(key.hasIPv4Addresses());
+        OVXPacketIn.learnAddresses(TENANT, key);
+        assertNull(this.cache.getPhysicalIp(TENANT, SPA));
+    }
+}
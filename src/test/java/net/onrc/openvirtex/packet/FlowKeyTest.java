@@ -0,0 +1,64 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.packet;
+
+import junit.framework.TestCase;
+
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.TransportPort;
+
+/**
+ * Checks the OpenFlow matches built by {@link FlowKey}.
+ */
+public class FlowKeyTest extends TestCase {
+
+    private static FlowKey key(final IpProtocol proto) {
+        return new FlowKey().setInPort((short) 1).setEthType(0x0800)
+                .setNwSrc(0x0a000001).setNwDst(0x0a000002)
+                .setNwProto(proto.getIpProtocolNumber())
+                .setTpSrc(53).setTpDst(1024);
+    }
+
+    public void testUdpMatch13() {
+        final Match match = key(IpProtocol.UDP).toMatch(OFVersion.OF_13);
+        assertEquals(IpProtocol.UDP, match.get(MatchField.IP_PROTO));
+        assertEquals(TransportPort.of(53), match.get(MatchField.UDP_SRC));
+        assertEquals(TransportPort.of(1024), match.get(MatchField.UDP_DST));
+        assertNull(match.get(MatchField.TCP_SRC));
+        assertNull(match.get(MatchField.TCP_DST));
+        assertFalse(match.isPartiallyMasked(MatchField.UDP_SRC));
+    }
+
+    public void testTcpMatch13() {
+        final Match match = key(IpProtocol.TCP).toMatch(OFVersion.OF_13);
+        assertEquals(TransportPort.of(53), match.get(MatchField.TCP_SRC));
+        assertEquals(TransportPort.of(1024), match.get(MatchField.TCP_DST));
+        assertNull(match.get(MatchField.UDP_SRC));
+    }
+
+    public void testUdpMatch10() {
+        final Match match = key(IpProtocol.UDP).toMatch(OFVersion.OF_10);
+        assertEquals(TransportPort.of(53), match.get(MatchField.UDP_SRC));
+        assertEquals(TransportPort.of(1024), match.get(MatchField.UDP_DST));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.routing.TopologySnapshot.PathTree;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFPortFeatures;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Checks the paths of the {@link ShortestPathCache} and that link changes
+ * only evict the trees they affect. The topology is a square of four
+ * switches with a diagonal; 10G links have metric 10 and 1G links metric
+ * 100.
+ *
+ * <pre>
+ *   s1 --10-- s2
+ *   |        / |
+ *  100    10   10
+ *   |    /     |
+ *   s3 --100- s4
+ * </pre>
+ */
+public class ShortestPathCacheTest extends TestCase {
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+    private final PhysicalSwitch[] sw = new PhysicalSwitch[5];
+    private short nextPort = 1;
+    private ShortestPathCache cache;
+    private PhysicalLink l12;
+    private PhysicalLink l24;
+    private PhysicalLink l23;
+    private PhysicalLink l32;
+    private PhysicalLink l34;
+    private PhysicalLink l13;
+
+    @Override
+    protected void setUp() throws Exception {
+        // physical switches read the statistics refresh from the settings
+        new OpenVirteXController(new CmdLineSettings());
+        OVXMap.reset();
+        for (int i = 1; i < this.sw.length; i++) {
+            this.sw[i] = new PhysicalSwitch(i, OFVersion.OF_10);
+        }
+        this.cache = new ShortestPathCache();
+        this.l12 = this.link(1, 2, OFPortFeatures.PF_10GB_FD)[0];
+        this.l24 = this.link(2, 4, OFPortFeatures.PF_10GB_FD)[0];
+        final PhysicalLink[] l23 = this.link(2, 3, OFPortFeatures.PF_10GB_FD);
+        this.l23 = l23[0];
+        this.l32 = l23[1];
+        this.l13 = this.link(1, 3, OFPortFeatures.PF_1GB_FD)[0];
+        this.l34 = this.link(3, 4, OFPortFeatures.PF_1GB_FD)[0];
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OVXMap.reset();
+    }
+
+    private PhysicalPort port(final int s, final OFPortFeatures speed) {
+        final short p = this.nextPort++;
+        return new PhysicalPort(this.factory.buildPortDesc()
+                .setPortNo(OFPort.of(p))
+                .setHwAddr(MacAddress.of((long) s << 16 | p))
+                .setName("s" + s + "-eth" + p)
+                .setCurr(EnumSet.of(speed))
+                .build(), this.sw[s], false);
+    }
+
+    /**
+     * Adds the links in both directions between two switches.
+     *
+     * @return the link from a to b, then the link from b to a
+     */
+    private PhysicalLink[] link(final int a, final int b,
+            final OFPortFeatures speed) {
+        final PhysicalPort pa = this.port(a, speed);
+        final PhysicalPort pb = this.port(b, speed);
+        final PhysicalLink[] links = {new PhysicalLink(pa, pb),
+                new PhysicalLink(pb, pa)};
+        this.cache.linkAdded(links[0]);
+        this.cache.linkAdded(links[1]);
+        return links;
+    }
+
+    public void testShortestPaths() {
+        final PathTree tree = this.cache.getTree(this.sw[1]);
+        assertEquals(0, tree.getDistance(this.sw[1]));
+        assertEquals(10, tree.getDistance(this.sw[2]));
+        assertEquals(20, tree.getDistance(this.sw[3]));
+        assertEquals(20, tree.getDistance(this.sw[4]));
+        assertEquals(Arrays.asList(this.l12, this.l24),
+                tree.getPath(this.sw[4]));
+        assertEquals(Arrays.asList(this.l12, this.l23),
+                tree.getPath(this.sw[3]));
+        assertTrue(tree.getPath(this.sw[1]).isEmpty());
+        assertTrue(tree.uses(this.l23));
+        assertFalse(tree.uses(this.l13));
+        assertSame(tree, this.cache.getTree(this.sw[1]));
+    }
+
+    public void testLinkRemovedEvictsTreesUsingIt() {
+        final PathTree t1 = this.cache.getTree(this.sw[1]);
+        final PathTree t4 = this.cache.getTree(this.sw[4]);
+        this.cache.linkRemoved(this.l24);
+
+        // s4 never routes over the link towards itself
+        assertSame(t4, this.cache.getTree(this.sw[4]));
+        final PathTree tree = this.cache.getTree(this.sw[1]);
+        assertNotSame(t1, tree);
+        assertEquals(120, tree.getDistance(this.sw[4]));
+        assertEquals(Arrays.asList(this.l12, this.l23, this.l34),
+                tree.getPath(this.sw[4]));
+        // the evicted tree still describes the topology it was built on
+        assertEquals(20, t1.getDistance(this.sw[4]));
+    }
+
+    public void testLinkAddedEvictsTreesItShortens() {
+        this.cache.linkRemoved(this.l23);
+        this.cache.linkRemoved(this.l32);
+        final PathTree t1 = this.cache.getTree(this.sw[1]);
+        final PathTree t3 = this.cache.getTree(this.sw[3]);
+        assertEquals(100, t1.getDistance(this.sw[3]));
+
+        this.cache.linkAdded(this.l23);
+        // nothing is shorter than the source itself
+        assertSame(t3, this.cache.getTree(this.sw[3]));
+        final PathTree tree = this.cache.getTree(this.sw[1]);
+        assertNotSame(t1, tree);
+        assertEquals(20, tree.getDistance(this.sw[3]));
+    }
+
+    public void testSwitchRemoved() {
+        final PathTree t1 = this.cache.getTree(this.sw[1]);
+        this.cache.getTree(this.sw[2]);
+        this.cache.switchRemoved(this.sw[2]);
+
+        assertEquals(4, this.cache.getSnapshot().getLinkCount());
+        final PathTree tree = this.cache.getTree(this.sw[1]);
+        assertNotSame(t1, tree);
+        assertEquals(TopologySnapshot.UNREACHABLE,
+                tree.getDistance(this.sw[2]));
+        assertNull(tree.getPath(this.sw[2]));
+        assertEquals(Arrays.asList(this.l13, this.l34),
+                tree.getPath(this.sw[4]));
+    }
+
+    public void testSnapshotRebuiltOnChange() {
+        final TopologySnapshot snapshot = this.cache.getSnapshot();
+        assertEquals(10, snapshot.getLinkCount());
+        assertSame(snapshot, this.cache.getSnapshot());
+        this.cache.linkRemoved(this.l24);
+        assertNotSame(snapshot, this.cache.getSnapshot());
+        assertEquals(9, this.cache.getSnapshot().getLinkCount());
+    }
+}
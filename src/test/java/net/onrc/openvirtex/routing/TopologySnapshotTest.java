@@ -0,0 +1,169 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFPortFeatures;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Checks the link-disjoint paths of a {@link TopologySnapshot}. The
+ * topology is the usual trap for pruning the shortest path: once the links
+ * of s1-s2-s3-s4 are removed, s4 cannot be reached, although two disjoint
+ * paths exist. 10G links have metric 10 and 1G links metric 100.
+ *
+ * <pre>
+ *   s1 --10-- s2
+ *   |        / |
+ *  100    10  100
+ *   |    /     |
+ *   s3 --10-- s4
+ * </pre>
+ */
+public class TopologySnapshotTest extends TestCase {
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+    private final PhysicalSwitch[] sw = new PhysicalSwitch[6];
+    private final List<PhysicalLink> links = new ArrayList<PhysicalLink>();
+    private short nextPort = 1;
+    private TopologySnapshot snapshot;
+    private PhysicalLink l12;
+    private PhysicalLink l23;
+    private PhysicalLink l34;
+    private PhysicalLink l13;
+    private PhysicalLink l24;
+
+    @Override
+    protected void setUp() throws Exception {
+        // physical switches read the statistics refresh from the settings
+        new OpenVirteXController(new CmdLineSettings());
+        OVXMap.reset();
+        for (int i = 1; i < this.sw.length; i++) {
+            this.sw[i] = new PhysicalSwitch(i, OFVersion.OF_10);
+        }
+        this.l12 = this.link(1, 2, OFPortFeatures.PF_10GB_FD);
+        this.l23 = this.link(2, 3, OFPortFeatures.PF_10GB_FD);
+        this.l34 = this.link(3, 4, OFPortFeatures.PF_10GB_FD);
+        this.l13 = this.link(1, 3, OFPortFeatures.PF_1GB_FD);
+        this.l24 = this.link(2, 4, OFPortFeatures.PF_1GB_FD);
+        this.snapshot = new TopologySnapshot(this.links, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OVXMap.reset();
+    }
+
+    private PhysicalPort port(final int s, final OFPortFeatures speed) {
+        final short p = this.nextPort++;
+        return new PhysicalPort(this.factory.buildPortDesc()
+                .setPortNo(OFPort.of(p))
+                .setHwAddr(MacAddress.of((long) s << 16 | p))
+                .setName("s" + s + "-eth" + p)
+                .setCurr(EnumSet.of(speed))
+                .build(), this.sw[s], false);
+    }
+
+    /**
+     * Adds the links in both directions between two switches.
+     *
+     * @return the link from a to b
+     */
+    private PhysicalLink link(final int a, final int b,
+            final OFPortFeatures speed) {
+        final PhysicalPort pa = this.port(a, speed);
+        final PhysicalPort pb = this.port(b, speed);
+        final PhysicalLink link = new PhysicalLink(pa, pb);
+        this.links.add(link);
+        this.links.add(new PhysicalLink(pb, pa));
+        return link;
+    }
+
+    private List<LinkedList<PhysicalLink>> paths(final int count,
+            final Set<PhysicalLink> excluded, final Set<PhysicalSwitch> allowed) {
+        return this.snapshot.disjointPaths(this.sw[1], this.sw[4], count,
+                excluded, allowed);
+    }
+
+    public void testShortestPathFirst() {
+        final List<LinkedList<PhysicalLink>> paths = this.paths(1, null, null);
+        assertEquals(1, paths.size());
+        assertEquals(Arrays.asList(this.l12, this.l23, this.l34),
+                paths.get(0));
+    }
+
+    public void testDisjointPaths() {
+        final List<LinkedList<PhysicalLink>> paths = this.paths(3, null, null);
+        // the shortest path is given up for two paths of 110 each
+        assertEquals(2, paths.size());
+        final Set<List<PhysicalLink>> expected = new HashSet<List<PhysicalLink>>();
+        expected.add(Arrays.asList(this.l12, this.l24));
+        expected.add(Arrays.asList(this.l13, this.l34));
+        assertEquals(expected, new HashSet<List<PhysicalLink>>(paths));
+    }
+
+    public void testExcludedLinks() {
+        final List<LinkedList<PhysicalLink>> paths = this.paths(2,
+                Collections.singleton(this.l24), null);
+        assertEquals(1, paths.size());
+        assertEquals(Arrays.asList(this.l12, this.l23, this.l34),
+                paths.get(0));
+    }
+
+    public void testAllowedSwitches() {
+        final Set<PhysicalSwitch> allowed = new HashSet<PhysicalSwitch>(
+                Arrays.asList(this.sw[1], this.sw[2], this.sw[4]));
+        final List<LinkedList<PhysicalLink>> paths = this.paths(2, null,
+                allowed);
+        assertEquals(1, paths.size());
+        assertEquals(Arrays.asList(this.l12, this.l24), paths.get(0));
+    }
+
+    public void testSameSwitchAndUnreachable() {
+        final List<LinkedList<PhysicalLink>> same = this.snapshot
+                .disjointPaths(this.sw[1], this.sw[1], 2, null, null);
+        assertEquals(1, same.size());
+        assertTrue(same.get(0).isEmpty());
+        // s5 has no link
+        assertTrue(this.snapshot.disjointPaths(this.sw[1], this.sw[5], 2,
+                null, null).isEmpty());
+        assertTrue(this.paths(0, null, null).isEmpty());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.LinkedList;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
+
+import org.projectfloodlight.openflow.types.MacAddress;
+
+/**
+ * Checks the flow ID mappings of {@link OVXFlowManager}.
+ */
+public class OVXFlowManagerTest extends TestCase {
+
+    private OVXFlowManager manager;
+
+    @Override
+    protected void setUp() throws Exception {
+        // the flow ID index is sized from the controller settings
+        new OpenVirteXController(new CmdLineSettings());
+        this.manager = new OVXFlowManager(1);
+    }
+
+    public void testStoreAndLookup() throws Exception {
+        final int flowId = this.manager.storeFlowValues(1L, 2L);
+        assertEquals(flowId, (int) this.manager.storeFlowValues(1L, 2L));
+        final LinkedList<MacAddress> macs = this.manager.getFlowValues(flowId);
+        assertEquals(MacAddress.of(1L), macs.get(0));
+        assertEquals(MacAddress.of(2L), macs.get(1));
+    }
+
+    public void testReleasedFlowId() throws Exception {
+        final int flowId = this.manager.storeFlowValues(1L, 2L);
+        this.manager.releaseHost(2L);
+        try {
+            this.manager.getFlowValues(flowId);
+            fail("released flow ID still mapped");
+        } catch (NetworkMappingException e) {
+            // expected
+        }
+        final int renewed = this.manager.storeFlowValues(1L, 2L);
+        assertEquals(MacAddress.of(1L),
+                this.manager.getFlowValues(renewed).get(0));
+    }
+
+    public void testUnknownFlowId() {
+        try {
+            this.manager.getFlowValues(12345);
+            fail("unknown flow ID mapped");
+        } catch (NetworkMappingException e) {
+            // expected
+        }
+    }
+
+    public void testMatchedPairNotReclaimed() throws Exception {
+        final int matched = this.manager.storeFlowValues(1L, 2L);
+        final int idle = this.manager.storeFlowValues(3L, 4L);
+        this.manager.retainMatch(1L, 2L);
+        this.manager.retainMatch(1L, 2L);
+        this.manager.releaseMatch(1L, 2L);
+        assertEquals(1, this.manager.getMatchCount(1L, 2L));
+
+        // everything allocated so far counts as idle
+        assertEquals(1, this.manager.reclaimIdle(Long.MAX_VALUE));
+        assertEquals(MacAddress.of(1L),
+                this.manager.getFlowValues(matched).get(0));
+        try {
+            this.manager.getFlowValues(idle);
+            fail("idle flow ID still mapped");
+        } catch (NetworkMappingException e) {
+            // expected
+        }
+
+        this.manager.releaseMatch(1L, 2L);
+        assertEquals(0, this.manager.getMatchCount(1L, 2L));
+        assertEquals(1, this.manager.reclaimIdle(Long.MAX_VALUE));
+    }
+
+    public void testManyPairs() throws Exception {
+        final int[] flowIds = new int[4096];
+        for (int i = 0; i < flowIds.length; i++) {
+            flowIds[i] = this.manager.storeFlowValues(2 * i, 2 * i + 1);
+        }
+        for (int i = 0; i < flowIds.length; i += 2) {
+            this.manager.releaseHost(2 * i + 1);
+        }
+        for (int i = 1; i < flowIds.length; i += 2) {
+            assertEquals(flowIds[i],
+                    (int) this.manager.storeFlowValues(2 * i, 2 * i + 1));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.elements.datapath.XidTranslator;
+
+import org.projectfloodlight.openflow.protocol.OFType;
+
+/**
+ * Checks the switch counters and XID translation lookups reported by
+ * {@link OVXMetrics}.
+ */
+public class OVXMetricsTest extends TestCase {
+
+    private static final long DPID = 0x42;
+    private static final String SWITCH = "00:00:00:00:00:00:00:42";
+
+    private final OVXMetrics metrics = OVXMetrics.getInstance();
+
+    @Override
+    protected void setUp() throws Exception {
+        final XidTranslator<String> translator = new XidTranslator<String>(4);
+        final int first = translator.translate(1, "ovx");
+        for (int i = 0; i < 4; i++) {
+            translator.untranslate(translator.translate(i, "ovx"));
+        }
+        // overwritten by the translations above
+        translator.untranslate(first);
+        // never translated
+        translator.untranslate(7);
+        this.metrics.addXidTranslator(DPID, translator);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.metrics.removeSwitch(DPID);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testMap() {
+        final Map<String, Object> switches = (Map<String, Object>) this.metrics
+                .toMap().get("switches");
+        final Map<String, Object> xid = (Map<String, Object>)
+                ((Map<String, Object>) switches.get(SWITCH)).get("xid");
+        assertEquals(4, xid.get("capacity"));
+        assertEquals(4L, xid.get("hits"));
+        assertEquals(1L, xid.get("misses"));
+        assertEquals(1L, xid.get("expired"));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testSwitchCounters() {
+        this.metrics.recordVirtualize(DPID, OFType.ECHO_REQUEST,
+                this.metrics.start());
+        this.metrics.recordVirtualize(DPID, OFType.ECHO_REQUEST,
+                this.metrics.start());
+        this.metrics.countSwitchSent(DPID);
+        // another switch whose datapath ID only differs in the high bits
+        this.metrics.countSwitchSent(DPID | 1L << 48);
+        final Map<String, Object> switches = (Map<String, Object>) this.metrics
+                .toMap().get("switches");
+        final Map<String, Object> sw = (Map<String, Object>) switches
+                .get(SWITCH);
+        assertEquals(2L, sw.get("received"));
+        assertEquals(1L, sw.get("sent"));
+        assertNotNull(sw.get("xid"));
+        this.metrics.removeSwitch(DPID | 1L << 48);
+    }
+
+    public void testText() {
+        final StringWriter text = new StringWriter();
+        this.metrics.writeText(new PrintWriter(text));
+        final String dpid = "dpid=\"" + SWITCH + "\"";
+        assertTrue(text.toString().contains(
+                "ovx_switch_xid_capacity{" + dpid + "} 4\n"));
+        assertTrue(text.toString().contains(
+                "ovx_switch_xid_lookups_total{" + dpid
+                        + ",result=\"hit\"} 4\n"));
+        assertTrue(text.toString().contains(
+                "ovx_switch_xid_lookups_total{" + dpid
+                        + ",result=\"expired\"} 1\n"));
+    }
+
+    public void testRemoveSwitch() {
+        this.metrics.removeSwitch(DPID);
+        final StringWriter text = new StringWriter();
+        this.metrics.writeText(new PrintWriter(text));
+        assertFalse(text.toString().contains(SWITCH));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares random updates of a {@link PersistentMap} with a HashMap, and
+ * checks that earlier versions are left unchanged.
+ */
+public class PersistentMapTest extends TestCase {
+
+    // key whose hash keeps only a few bits, to force deep and full collisions
+    private static final class Key {
+        private final int id;
+        private final int hash;
+
+        Key(final int id, final int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && ((Key) o).id == this.id;
+        }
+    }
+
+    private static void check(final Map<Key, Integer> expected,
+            final PersistentMap<Key, Integer> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map.asMap());
+        assertEquals(expected.keySet(), map.keySet());
+        for (final Map.Entry<Key, Integer> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+    }
+
+    private void runRandom(final int hashMask) {
+        final Random random = new Random(hashMask);
+        final Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            final int id = random.nextInt(2000);
+            final Key key = new Key(id, (id * 0x9E3779B9) & hashMask);
+            final PersistentMap<Key, Integer> before = map;
+            final Map<Key, Integer> snapshot = i % 1000 == 0
+                    ? new HashMap<Key, Integer>(expected) : null;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+                assertFalse(map.containsKey(key));
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+                assertEquals(Integer.valueOf(i), map.get(key));
+            }
+            if (snapshot != null) {
+                check(snapshot, before);
+                check(expected, map);
+            }
+        }
+        check(expected, map);
+        for (final Key key : new HashMap<Key, Integer>(expected).keySet()) {
+            expected.remove(key);
+            map = map.minus(key);
+        }
+        assertTrue(map.isEmpty());
+        assertFalse(map.keySet().iterator().hasNext());
+    }
+
+    public void testRandomUpdates() {
+        this.runRandom(-1);
+    }
+
+    public void testCollidingHashes() {
+        this.runRandom(0xC0000003);
+        this.runRandom(0x3);
+    }
+
+    public void testUnchangedUpdates() {
+        final Key key = new Key(1, 1);
+        final Integer value = 7;
+        final PersistentMap<Key, Integer> map = PersistentMap.<Key, Integer>
+                empty().plus(key, value);
+        assertSame(map, map.plus(key, value));
+        assertSame(map, map.minus(new Key(2, 2)));
+    }
+}
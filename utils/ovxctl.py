@@ -141,7 +141,7 @@ def pa_setInternalRouting(args, cmd):
 def do_setInternalRouting(gopts, opts, args):
     if len(args) != 4:
         print ("setInternalRouting : Must specify virtual tenant_id, virtual switch_id, " +
-        "algorithm (spf, manual) and number of backup routes")
+        "algorithm (spf, disjoint, manual) and number of backup routes")
         sys.exit()
     req = { "tenantId" : int(args[0]), "vdpid" : int(args[1].replace(":", ""), 16), 
            "algorithm" : args[2], "backup_num" : int(args[3]) } 
@@ -179,7 +179,7 @@ def pa_connectLink(args, cmd):
 def do_connectLink(gopts, opts, args):
     if len(args) != 7:
         print ("connectLink : Must specify tenant_id, src_virtual_dpid, src_virtual_port, dst_virtual_dpid, dst_virtual_port, " 
-        + "algorithm (spf, manual), number of backup routes")
+        + "algorithm (spf, disjoint, manual), number of backup routes")
         sys.exit()
     req = { "tenantId" : int(args[0]), "srcDpid" : int(args[1].replace(":", ""), 16), 
            "srcPort" : int(args[2]), "dstDpid" : int(args[3].replace(":", ""), 16), 
@@ -464,6 +464,20 @@ def do_listVirtualNetworks(gopts, opts, args):
     result = connect(gopts, "status", "listVirtualNetworks", data=req, passwd=getPasswd(gopts))
     print json.dumps(result)
 
+def pa_getMetrics(args, cmd):
+    usage = "%s" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_getMetrics(gopts, opts, args):
+    if len(args) > 0:
+        print "getMetrics : No arguments"
+        sys.exit()
+    req = {}
+    result = connect(gopts, "status", "getMetrics", data=req, passwd=getPasswd(gopts))
+    print json.dumps(result)
+
 def pa_getVirtualAddressMapping(args, cmd):
     usage = "%s <tenant_id> <virtual_dpid>" % USAGE.format(cmd)
     (sdesc, ldesc) = DESCS[cmd]
@@ -661,6 +675,7 @@ CMDS = {
     'getPhysicalHosts': (pa_getPhysicalHosts, do_getPhysicalHosts),
     'getPhysicalTopology': (pa_getPhysicalTopology, do_getPhysicalTopology),
     'listVirtualNetworks': (pa_listVirtualNetworks, do_listVirtualNetworks),
+    'getMetrics': (pa_getMetrics, do_getMetrics),
 
     'getVirtualAddressMapping': (pa_getVirtualAddressMapping, do_getVirtualAddressMapping),
     'getVirtualFlowtable': (pa_getVirtualFlowtable, do_getVirtualFlowtable),
@@ -686,7 +701,7 @@ DESCS = {
                       ("Create a virtual port. Must specify a tenant_id, a physical_dpid and a physical_port."
                         "\nExample: createPort 1 00:00:00:00:00:00:00:01 1")),         
     'setInternalRouting' : ("Set big-switch internal routing mechanism", 
-                      ("Set big-switch internal routing mechanism. Must specify a tenant_id, a virtual switch_id, the routing type (spf, manual) " 
+                      ("Set big-switch internal routing mechanism. Must specify a tenant_id, a virtual switch_id, the routing type (spf, disjoint, manual) " 
                        "and the number (0-255) of the backup paths that have to be computed."
                         "\nExample: setInternalRouting 1 00:00:00:00:00:00:00:01 spf 128")),  
     'connectHost' : ("Connect host to a virtual port", 
@@ -694,7 +709,7 @@ DESCS = {
                         "\nExample: connectHost 1 00:a4:23:05:00:00:00:01 1 00:00:00:00:00:01")),         
     'connectLink' : ("Connect two virtual ports through a virtual link", 
                       ("Connect two virtual ports through a virtual link. Must specify a tenant_id, a virtual src_switch_id, a virtual src_port_id, " 
-                       "a virtual dst_switch_id, a virtual dst_port_id, the routing type (spf, manual) and the number (0-255) of the backup paths that have to be computed."
+                       "a virtual dst_switch_id, a virtual dst_port_id, the routing type (spf, disjoint, manual) and the number (0-255) of the backup paths that have to be computed."
                         "\nExample: connectLink 1 00:a4:23:05:00:00:00:01 1 00:a4:23:05:00:00:00:02 1 spf 1")), 
     'setLinkPath' : ("Set the physical path of a virtual link", 
                       ("Set the physical path of a virtual link. Must specify a tenant_id, a virtual link_id, a physical path and a priority (0-255)."
@@ -757,6 +772,9 @@ DESCS = {
     'listVirtualNetworks': ("Get a list of all virtual network tenant ID's",
                             ("Get a list of all virtual network tenant ID's."
                             "\nExample: listVirtualNetworks")),
+    'getMetrics': ("Get the message processing metrics",
+                   ("Get latency percentiles per processing stage and message type, and message counts per virtual network and physical switch. Latencies are in microseconds."
+                   "\nExample: getMetrics")),
 
     # Monitoring API - tenant restricted
     'getVirtualAddressMapping' : ("Get the virtual to physical address mapping for a specified virtual network",